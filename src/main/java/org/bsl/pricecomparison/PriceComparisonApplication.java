@@ -4,10 +4,12 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableCaching // 🔥 BẬT CACHING
 @EnableMongoRepositories // 🔥 MONGODB REPOSITORIES
+@EnableScheduling // 🔥 DỌN IMPORT JOB ĐỊNH KỲ
 public class PriceComparisonApplication {
 
     public static void main(String[] args) {
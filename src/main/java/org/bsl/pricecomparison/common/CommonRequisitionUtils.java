@@ -6,15 +6,16 @@ import org.bsl.pricecomparison.model.RequisitionMonthly;
 import org.bsl.pricecomparison.model.SupplierProduct;
 import org.bsl.pricecomparison.repository.RequisitionMonthlyRepository;
 import org.bsl.pricecomparison.repository.SupplierProductRepository;
+import org.bsl.pricecomparison.service.DescriptionSearchIndex;
+import org.bsl.pricecomparison.service.UploadStorageService;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.text.Normalizer;
 import java.time.*;
 import java.util.*;
@@ -23,15 +24,22 @@ import java.util.stream.Collectors;
 @Component
 public class CommonRequisitionUtils {
 
-    private static final String UPLOAD_DIR = "./uploads/";
-
     private final RequisitionMonthlyRepository requisitionMonthlyRepository;
 
     private final SupplierProductRepository supplierProductRepository;
 
-    public CommonRequisitionUtils(RequisitionMonthlyRepository requisitionMonthlyRepository, SupplierProductRepository supplierProductRepository) {
+    private final UploadStorageService uploadStorageService;
+
+    private final DescriptionSearchIndex descriptionSearchIndex;
+
+    public CommonRequisitionUtils(RequisitionMonthlyRepository requisitionMonthlyRepository,
+                                  SupplierProductRepository supplierProductRepository,
+                                  UploadStorageService uploadStorageService,
+                                  DescriptionSearchIndex descriptionSearchIndex) {
         this.requisitionMonthlyRepository = requisitionMonthlyRepository;
         this.supplierProductRepository = supplierProductRepository;
+        this.uploadStorageService = uploadStorageService;
+        this.descriptionSearchIndex = descriptionSearchIndex;
     }
 
     public static String normText(String s) {
@@ -71,7 +79,7 @@ public class CommonRequisitionUtils {
      *
      * - unit: required (null/blank => null)
      * - SAP/HANA: ignore "NEW" (case-insensitive) and blank
-     * - VN/EN: use trimmed lower-case
+     * - VN/EN: use descriptionKey (folded: no diacritics, NFC/NFD-safe, whitespace collapsed)
      *
      * return null if cannot build (unit missing or all keys empty/NEW)
      */
@@ -99,12 +107,12 @@ public class CommonRequisitionUtils {
 
         String vn = normText(descVN);
         if (vn != null) {
-            return "UNIT|" + u.toLowerCase() + "|VN|" + vn.toLowerCase();
+            return "UNIT|" + u.toLowerCase() + "|VN|" + descriptionKey(vn);
         }
 
         String en = normText(descEN);
         if (en != null) {
-            return "UNIT|" + u.toLowerCase() + "|EN|" + en.toLowerCase();
+            return "UNIT|" + u.toLowerCase() + "|EN|" + descriptionKey(en);
         }
 
         return null;
@@ -190,11 +198,12 @@ public class CommonRequisitionUtils {
             found = requisitionMonthlyRepository
                     .findFirstByGroupIdAndUnitIgnoreCaseAndHanaSAPCodeIgnoreCase(g, u, hanaCode.trim());
         } else if (isUsableKey(descVN)) {
+            // ⚡ key đã fold: "Gang tay" trùng "Găng tay", NFC / NFD như nhau
             found = requisitionMonthlyRepository
-                    .findFirstByGroupIdAndUnitIgnoreCaseAndItemDescriptionVNIgnoreCase(g, u, descVN.trim());
+                    .findFirstByGroupIdAndUnitIgnoreCaseAndItemDescriptionVNKey(g, u, descriptionKey(descVN));
         } else if (isUsableKey(descEN)) {
             found = requisitionMonthlyRepository
-                    .findFirstByGroupIdAndUnitIgnoreCaseAndItemDescriptionENIgnoreCase(g, u, descEN.trim());
+                    .findFirstByGroupIdAndUnitIgnoreCaseAndItemDescriptionENKey(g, u, descriptionKey(descEN));
         } else {
             return Optional.empty();
         }
@@ -217,19 +226,31 @@ public class CommonRequisitionUtils {
         };
     }
 
+    /**
+     * fileName chỉ giữ cho tương thích: file được lưu theo nội dung (UploadStorageService).
+     */
     public String saveImage(byte[] imageBytes, String fileName, String mimeType) throws IOException {
         if (imageBytes == null || imageBytes.length == 0) return null;
+        return uploadStorageService.store(new ByteArrayInputStream(imageBytes), mimeType);
+    }
 
-        if (!isAllowedImageMime(mimeType)) {
-            System.err.println("Skipped unsupported format: " + mimeType);
-            return null;
-        }
-
-        Path path = Paths.get(UPLOAD_DIR).resolve(fileName);
-        Files.createDirectories(path.getParent());
-        Files.write(path, imageBytes);
+    /**
+     * ⚡ Stream ảnh thẳng xuống disk (không giữ byte[]), lưu theo SHA-256 nội dung
+     * -> ảnh giống nhau chỉ lưu 1 file (đếm tham chiếu trong upload_refs).
+     */
+    public String storeImageByContentHash(InputStream in, String mimeType) throws IOException {
+        return uploadStorageService.store(in, mimeType);
+    }
 
-        return "/uploads/" + fileName;
+    /**
+     * Append ảnh vào requisition (giữ thứ tự, giống nhánh merge của upsertMergedRequisition).
+     */
+    public static void appendImageUrls(RequisitionMonthly req, List<String> imageUrls) {
+        if (req == null || imageUrls == null || imageUrls.isEmpty()) return;
+        List<String> existing = req.getImageUrls();
+        if (existing == null) existing = new ArrayList<>();
+        existing.addAll(imageUrls);
+        req.setImageUrls(existing);
     }
 
     private String saveImage(MultipartFile file) throws IOException {
@@ -242,20 +263,7 @@ public class CommonRequisitionUtils {
             throw new IOException("Only JPEG, PNG, and GIF files are allowed");
         }
 
-        String fileName = System.currentTimeMillis() + "_" + file.getOriginalFilename();
-        Path path = Paths.get(UPLOAD_DIR + fileName);
-
-        Files.createDirectories(path.getParent());
-
-        file.transferTo(path);
-
-        return "/uploads/" + fileName;
-    }
-
-    private boolean isAllowedImageMime(String mimeType) {
-        if (mimeType == null) return false;
-        Set<String> allowed = Set.of("image/jpeg", "image/jpg", "image/png", "image/gif", "image/bmp", "image/webp");
-        return allowed.contains(mimeType);
+        return uploadStorageService.store(file);
     }
 
     /* =========================
@@ -438,11 +446,20 @@ public class CommonRequisitionUtils {
             found = supplierProductRepository
                     .findByHanaSapCodeIgnoreCaseAndUnitIgnoreCaseAndCurrencyIgnoreCase(hana, reqUnit, cur);
         } else if (vn != null) {
-            found = supplierProductRepository
-                    .findByItemDescriptionVNContainingIgnoreCaseAndUnitIgnoreCaseAndCurrencyIgnoreCase(vn, reqUnit, cur);
+            // ⚡ DescriptionSearchIndex (không dấu); index chưa sẵn sàng / quá rộng -> contains trên itemDescriptionVNKey
+            List<String> ids = descriptionSearchIndex.search(
+                    DescriptionSearchIndex.Source.SUPPLIER_PRODUCTS, DescriptionSearchIndex.Field.VN, vn);
+            found = ids != null
+                    ? findByIdsAndUnitAndCurrency(ids, reqUnit, cur)
+                    : supplierProductRepository.findByItemDescriptionVNKeyRegexAndUnitIgnoreCaseAndCurrencyIgnoreCase(
+                    java.util.regex.Pattern.quote(descriptionKey(vn)), reqUnit, cur);
         } else if (en != null) {
-            found = supplierProductRepository
-                    .findByItemDescriptionENContainingIgnoreCaseAndUnitIgnoreCaseAndCurrencyIgnoreCase(en, reqUnit, cur);
+            List<String> ids = descriptionSearchIndex.search(
+                    DescriptionSearchIndex.Source.SUPPLIER_PRODUCTS, DescriptionSearchIndex.Field.EN, en);
+            found = ids != null
+                    ? findByIdsAndUnitAndCurrency(ids, reqUnit, cur)
+                    : supplierProductRepository.findByItemDescriptionENKeyRegexAndUnitIgnoreCaseAndCurrencyIgnoreCase(
+                    java.util.regex.Pattern.quote(descriptionKey(en)), reqUnit, cur);
         }
 
     /*
@@ -454,6 +471,11 @@ public class CommonRequisitionUtils {
         return dedupeLatestByCompanyPreferSelected(found, selectedSupplierId);
     }
 
+    private List<SupplierProduct> findByIdsAndUnitAndCurrency(List<String> ids, String unit, String currency) {
+        if (ids.isEmpty()) return Collections.emptyList();
+        return supplierProductRepository.findByIdInAndUnitIgnoreCaseAndCurrencyIgnoreCase(ids, unit, currency);
+    }
+
     public List<SupplierProduct> dedupeLatestByCompanyPreferSelected(
             List<SupplierProduct> suppliers,
             String selectedSupplierId
@@ -467,8 +489,7 @@ public class CommonRequisitionUtils {
         for (SupplierProduct sp : suppliers) {
             if (sp == null) continue;
 
-            String key = normalizeCompanyNameStrong(sp.getSupplierName());
-            if (key == null) key = "";
+            String key = companyKeyOf(sp);
             byCompany.computeIfAbsent(key, k -> new ArrayList<>()).add(sp);
         }
 
@@ -580,7 +601,7 @@ public class CommonRequisitionUtils {
         Map<String, SupplierProduct> latestByCompany = new LinkedHashMap<>();
 
         for (SupplierProduct sp : valid) {
-            String key = normalizeCompanyNameStrong(sp.getSupplierName());
+            String key = companyKeyOf(sp);
 
             SupplierProduct existing = latestByCompany.get(key);
             if (existing == null) {
@@ -651,6 +672,68 @@ public class CommonRequisitionUtils {
      * - lowercase
      */
     public String normalizeCompanyNameStrong(String supplierName) {
+        return companyKey(supplierName);
+    }
+
+    /**
+     * ⚡ Company key của SupplierProduct: dùng key đã lưu (companyKey), chỉ tính lại với record chưa backfill.
+     */
+    public static String companyKeyOf(SupplierProduct sp) {
+        if (sp == null) return "";
+        String key = sp.getCompanyKey();
+        return key != null ? key : companyKey(sp.getSupplierName());
+    }
+
+    /**
+     * Key cho filter mã / currency / unit: trim + lowercase, rỗng => null.
+     */
+    public static String codeKey(String value) {
+        String t = normText(value);
+        return t == null ? null : t.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * ⚡ Text dùng cho tìm kiếm mô tả không dấu: "Găng  tay" / "GANG TAY" -> "gang tay".
+     * NFD + bỏ dấu (combining mark), đ -> d, NBSP -> space, gộp whitespace, trim, lowercase. Rỗng => null.
+     */
+    public static String foldText(String value) {
+        if (value == null) return null;
+        String s = Normalizer.normalize(value, Normalizer.Form.NFD);
+
+        StringBuilder sb = new StringBuilder(s.length());
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+            if (c == 'đ' || c == 'Đ') c = 'd';
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                space = sb.length() > 0;
+                continue;
+            }
+            if (space) {
+                sb.append(' ');
+                space = false;
+            }
+            sb.append(Character.toLowerCase(c));
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    /**
+     * Key so khớp mô tả VN/EN (buildRowKeyWithUnitByPriority, check trùng, supplier matching):
+     * giống itemDescription*Key đã lưu. Text chỉ có dấu (fold ra rỗng) -> lowercase.
+     */
+    public static String descriptionKey(String description) {
+        String t = normText(description);
+        if (t == null) return null;
+        String key = foldText(t);
+        return key != null ? key : t.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Cùng rule với normalizeCompanyNameStrong (static để model listener / backfill dùng).
+     */
+    public static String companyKey(String supplierName) {
         if (supplierName == null) return "";
         String s = supplierName;
 
@@ -848,7 +931,7 @@ public class CommonRequisitionUtils {
             rm.setSupplierComparisonList(comparisonList);
         }
 
-        // ✅ save 1 lần
+        // ✅ save 1 lần (PurchaseHistoryListener cập nhật read model purchase history)
         return requisitionMonthlyRepository.saveAll(requisitions);
     }
 
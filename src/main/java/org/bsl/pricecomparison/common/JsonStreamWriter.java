@@ -0,0 +1,121 @@
+package org.bsl.pricecomparison.common;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * ⚡ Ghi JSON array từng phần tử từ Mongo cursor (Stream của repository) thay vì findAll() -> List -> Jackson.
+ *
+ * - bộ nhớ chỉ giữ 1 chunk (mặc định 500 phần tử), flush sau mỗi chunk
+ * - dùng ObjectMapper bean của Boot (cũng là mapper của message converter MVC) => JSON giống hệt response thường
+ * - thời gian ghi tối đa theo spring.mvc.async.request-timeout (application.properties)
+ * - stream được mở trong thread ghi response và luôn được đóng (cursor không bị treo)
+ * - lỗi giữa chừng không đổi được status (header đã gửi) -> log + cắt response
+ */
+@Component
+public class JsonStreamWriter {
+
+    private static final int DEFAULT_CHUNK = 500;
+
+    private final ObjectMapper objectMapper;
+
+    public JsonStreamWriter(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /** [ e1, e2, ... ] */
+    public <T> ResponseEntity<StreamingResponseBody> array(Supplier<Stream<T>> source) {
+        return chunkedArray(source, DEFAULT_CHUNK, chunk -> chunk);
+    }
+
+    /**
+     * [ ... ] với convert theo chunk (vd. tra cứu batch cho cả chunk thay vì từng phần tử).
+     */
+    public <T, R> ResponseEntity<StreamingResponseBody> chunkedArray(Supplier<Stream<T>> source,
+                                                                     int chunkSize,
+                                                                     Function<List<T>, List<R>> converter) {
+        return json(out -> {
+            try (JsonGenerator gen = generator(out)) {
+                gen.writeStartArray();
+                writeElements(gen, source, chunkSize, converter);
+                gen.writeEndArray();
+            }
+        });
+    }
+
+    /**
+     * { ...head, "arrayField": [ ... ] } (vd. {"message": "...", "data": [...]})
+     */
+    public <T> ResponseEntity<StreamingResponseBody> object(Map<String, ?> head,
+                                                            String arrayField,
+                                                            Supplier<Stream<T>> source) {
+        return json(out -> {
+            try (JsonGenerator gen = generator(out)) {
+                gen.writeStartObject();
+                for (Map.Entry<String, ?> entry : head.entrySet()) {
+                    gen.writeObjectField(entry.getKey(), entry.getValue());
+                }
+                gen.writeArrayFieldStart(arrayField);
+                writeElements(gen, source, DEFAULT_CHUNK, chunk -> chunk);
+                gen.writeEndArray();
+                gen.writeEndObject();
+            }
+        });
+    }
+
+    private <T, R> void writeElements(JsonGenerator gen,
+                                      Supplier<Stream<T>> source,
+                                      int chunkSize,
+                                      Function<List<T>, List<R>> converter) throws IOException {
+        int size = Math.max(1, chunkSize);
+        try (Stream<T> stream = source.get()) {
+            Iterator<T> it = stream.iterator();
+            List<T> chunk = new ArrayList<>(size);
+            while (it.hasNext()) {
+                chunk.add(it.next());
+                if (chunk.size() >= size) {
+                    writeChunk(gen, converter.apply(chunk));
+                    chunk = new ArrayList<>(size);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                writeChunk(gen, converter.apply(chunk));
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("JSON stream aborted: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    private static <R> void writeChunk(JsonGenerator gen, List<R> items) throws IOException {
+        for (R item : items) {
+            gen.writeObject(item);
+        }
+        gen.flush();
+    }
+
+    private ResponseEntity<StreamingResponseBody> json(StreamingResponseBody body) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
+    private JsonGenerator generator(OutputStream out) throws IOException {
+        return objectMapper.createGenerator(out, JsonEncoding.UTF8);
+    }
+}
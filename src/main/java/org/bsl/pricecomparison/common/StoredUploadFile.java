@@ -0,0 +1,94 @@
+package org.bsl.pricecomparison.common;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * MultipartFile trỏ vào bản copy trên disk: file upload của request bị Spring xoá khi
+ * request kết thúc, job import chạy nền đọc bản copy này rồi delete() khi xong.
+ */
+public class StoredUploadFile implements MultipartFile {
+
+    private final Path path;
+    private final String name;
+    private final String originalFilename;
+    private final String contentType;
+    private final long size;
+
+    private StoredUploadFile(Path path, String name, String originalFilename, String contentType, long size) {
+        this.path = path;
+        this.name = name;
+        this.originalFilename = originalFilename;
+        this.contentType = contentType;
+        this.size = size;
+    }
+
+    public static StoredUploadFile copyOf(MultipartFile file) throws IOException {
+        Path temp = Files.createTempFile("import-job-", ".upload");
+        try (InputStream in = file.getInputStream()) {
+            long size = Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            return new StoredUploadFile(temp, file.getName(), file.getOriginalFilename(), file.getContentType(), size);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public void delete() {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Cannot delete stored upload " + path + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public byte[] getBytes() throws IOException {
+        return Files.readAllBytes(path);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return Files.newInputStream(path);
+    }
+
+    @Override
+    public void transferTo(File dest) throws IOException {
+        Files.copy(path, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
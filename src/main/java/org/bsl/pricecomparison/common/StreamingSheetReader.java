@@ -0,0 +1,669 @@
+package org.bsl.pricecomparison.common;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFPicture;
+import org.apache.poi.xssf.usermodel.XSSFShape;
+import org.springframework.web.multipart.MultipartFile;
+import org.xml.sax.SAXException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * ⚡ Đọc sheet đầu tiên của file .xlsx theo kiểu streaming (XSSFReader + SharedStrings),
+ * không dựng POI DOM (XSSFWorkbook) trong heap.
+ *
+ * - File upload được copy ra temp file, OPCPackage mở READ (zip random access)
+ * - Mỗi lần gọi rows(fromRow) là 1 lượt đọc sheet XML bằng pull parser -> vòng for
+ *   bên controller vẫn dùng được return / continue / break như cũ
+ * - Giá trị hiển thị giống DataFormatter (number format theo style),
+ *   công thức lấy giá trị cached trong file
+ * - Merged cell: open(file, true) đọc trước &lt;mergeCell&gt; (nằm sau sheetData),
+ *   SheetRow.getMergedCell(col) trả về ô góc trên-trái giống getMergedCellValue cũ
+ * - openWithXlsFallback: endpoint trước đây dùng WorkbookFactory vẫn nhận .xls cũ (HSSF, tối đa 65536 dòng)
+ *   -> đọc bằng WorkbookFactory rồi chuyển sang cùng SheetRow / SheetCell, không có picture / merged cell
+ */
+public class StreamingSheetReader implements Closeable {
+
+    private final OPCPackage pkg;
+    private final Path tempFile;
+    private final XSSFReader.SheetIterator sheets;
+    private final PackagePart sheetPart;
+    private final SharedStrings sharedStrings;
+    private final StylesTable styles;
+    private final DataFormatter formatter = new DataFormatter();
+    private final XMLInputFactory xmlInputFactory = XMLHelper.newXMLInputFactory();
+    private final boolean resolveMergedCells;
+    private final List<Closeable> openPasses = new ArrayList<>();
+    private final List<SheetRow> legacyRows; // != null: file .xls đã đọc sẵn
+
+    private List<CellRangeAddress> mergedRegions;
+    private List<XSSFPicture> pictures;
+
+    private StreamingSheetReader(OPCPackage pkg, Path tempFile, boolean resolveMergedCells) throws IOException {
+        this.pkg = pkg;
+        this.tempFile = tempFile;
+        this.resolveMergedCells = resolveMergedCells;
+        this.legacyRows = null;
+        try {
+            XSSFReader reader = new XSSFReader(pkg);
+            this.sharedStrings = new ReadOnlySharedStringsTable(pkg);
+            this.styles = reader.getStylesTable();
+
+            this.sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            if (!sheets.hasNext()) {
+                throw new IOException("Sheet not found.");
+            }
+            sheets.next().close();
+            this.sheetPart = sheets.getSheetPart();
+        } catch (OpenXML4JException | SAXException e) {
+            throw new IOException("Invalid .xlsx file: " + e.getMessage(), e);
+        }
+
+        if (resolveMergedCells) {
+            getMergedRegions();
+        }
+    }
+
+    private StreamingSheetReader(List<SheetRow> legacyRows) {
+        this.pkg = null;
+        this.tempFile = null;
+        this.sheets = null;
+        this.sheetPart = null;
+        this.sharedStrings = null;
+        this.styles = null;
+        this.resolveMergedCells = false;
+        this.legacyRows = legacyRows;
+        this.mergedRegions = Collections.emptyList();
+        this.pictures = Collections.emptyList();
+    }
+
+    public static StreamingSheetReader open(MultipartFile file) throws IOException {
+        return open(file, false);
+    }
+
+    /**
+     * Copy upload ra temp file (xoá khi close) rồi mở streaming.
+     */
+    public static StreamingSheetReader open(MultipartFile file, boolean resolveMergedCells) throws IOException {
+        // job import đã copy sẵn ra disk -> đọc thẳng, không copy lần 2
+        if (file instanceof StoredUploadFile stored) {
+            return open(stored.getPath(), resolveMergedCells);
+        }
+
+        Path temp = Files.createTempFile("upload-", ".xlsx");
+        try (InputStream in = file.getInputStream()) {
+            Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            return open(temp, true, resolveMergedCells);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Như open(file), nhưng file .xls (OLE2) thì đọc bằng WorkbookFactory như trước khi chuyển sang streaming.
+     */
+    public static StreamingSheetReader openWithXlsFallback(MultipartFile file) throws IOException {
+        FileMagic magic;
+        try (InputStream in = FileMagic.prepareToCheckMagic(file.getInputStream())) {
+            magic = FileMagic.valueOf(in);
+        }
+        if (magic != FileMagic.OLE2) {
+            return open(file);
+        }
+
+        try (InputStream in = file.getInputStream();
+             Workbook wb = WorkbookFactory.create(in)) {
+            if (wb.getNumberOfSheets() == 0) {
+                throw new IOException("Sheet not found.");
+            }
+            DataFormatter formatter = new DataFormatter();
+            List<SheetRow> rows = new ArrayList<>();
+            for (Row row : wb.getSheetAt(0)) {
+                SheetRow sheetRow = new SheetRow(row.getRowNum());
+                for (Cell cell : row) {
+                    sheetRow.cells.put(cell.getColumnIndex(), toCell(cell, formatter));
+                }
+                rows.add(sheetRow);
+            }
+            return new StreamingSheetReader(rows);
+        }
+    }
+
+    /**
+     * Mở file có sẵn trên disk, không xoá khi close.
+     */
+    public static StreamingSheetReader open(Path xlsx, boolean resolveMergedCells) throws IOException {
+        return open(xlsx, false, resolveMergedCells);
+    }
+
+    private static StreamingSheetReader open(Path xlsx, boolean deleteOnClose, boolean resolveMergedCells) throws IOException {
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(xlsx.toFile(), PackageAccess.READ);
+        } catch (OpenXML4JException e) {
+            throw new IOException("Invalid .xlsx file: " + e.getMessage(), e);
+        }
+        try {
+            return new StreamingSheetReader(pkg, deleteOnClose ? xlsx : null, resolveMergedCells);
+        } catch (IOException | RuntimeException e) {
+            pkg.revert();
+            throw e;
+        }
+    }
+
+    public OPCPackage getPackage() {
+        return pkg;
+    }
+
+    // =========================================================
+    // ROWS
+    // =========================================================
+
+    /**
+     * Duyệt các row có trong file, bắt đầu từ fromRow (0-based), theo thứ tự tăng dần.
+     * Row không có trong XML thì không trả về (giống sheet.getRow(i) == null -> continue).
+     */
+    public Iterable<SheetRow> rows(int fromRow) {
+        if (legacyRows != null) {
+            return () -> legacyRows.stream().filter(r -> r.getRowNum() >= fromRow).iterator();
+        }
+        return () -> new RowIterator(fromRow, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Đọc các row trong [fromRow, toRowExclusive) rồi dừng (dùng cho header).
+     */
+    public Map<Integer, SheetRow> readRows(int fromRow, int toRowExclusive) {
+        Map<Integer, SheetRow> out = new TreeMap<>();
+        if (legacyRows != null) {
+            for (SheetRow row : legacyRows) {
+                if (row.getRowNum() >= fromRow && row.getRowNum() < toRowExclusive) out.put(row.getRowNum(), row);
+            }
+            return out;
+        }
+        RowIterator it = new RowIterator(fromRow, toRowExclusive);
+        try {
+            while (it.hasNext()) {
+                SheetRow row = it.next();
+                out.put(row.getRowNum(), row);
+            }
+        } finally {
+            it.closeQuietly();
+        }
+        return out;
+    }
+
+    // =========================================================
+    // MERGED REGIONS (<mergeCells> nằm sau <sheetData> -> 1 lượt đọc riêng)
+    // =========================================================
+
+    public List<CellRangeAddress> getMergedRegions() throws IOException {
+        if (mergedRegions != null) return mergedRegions;
+
+        List<CellRangeAddress> regions = new ArrayList<>();
+        try (InputStream in = sheetPart.getInputStream()) {
+            XMLStreamReader xml = xmlInputFactory.createXMLStreamReader(in);
+            try {
+                while (xml.hasNext()) {
+                    if (xml.next() == XMLStreamConstants.START_ELEMENT && "mergeCell".equals(xml.getLocalName())) {
+                        String ref = xml.getAttributeValue(null, "ref");
+                        if (ref != null && !ref.isBlank()) {
+                            regions.add(CellRangeAddress.valueOf(ref));
+                        }
+                    }
+                }
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot read merged cells: " + e.getMessage(), e);
+        }
+
+        regions.sort(Comparator.comparingInt(CellRangeAddress::getFirstRow));
+        mergedRegions = Collections.unmodifiableList(regions);
+        return mergedRegions;
+    }
+
+    // =========================================================
+    // PICTURES (chỉ parse drawing XML, không đụng sheet DOM)
+    // =========================================================
+
+    public List<XSSFPicture> getPictures() {
+        if (pictures != null) return pictures;
+
+        List<XSSFPicture> out = new ArrayList<>();
+        List<XSSFShape> shapes = sheets.getShapes();
+        if (shapes != null) {
+            for (XSSFShape shape : shapes) {
+                if (shape instanceof XSSFPicture pic) out.add(pic);
+            }
+        }
+        pictures = out;
+        return pictures;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Closeable pass : openPasses) {
+            try {
+                pass.close();
+            } catch (IOException ignore) {
+                // pass đã đóng
+            }
+        }
+        openPasses.clear();
+        if (pkg != null) pkg.revert();
+        if (tempFile != null) {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    // =========================================================
+    // PULL PARSER: 1 instance / lượt đọc
+    // =========================================================
+
+    private class RowIterator implements Iterator<SheetRow>, Closeable {
+
+        private final int fromRow;
+        private final int toRowExclusive;
+        private final InputStream in;
+        private final XMLStreamReader xml;
+
+        private SheetRow next;
+        private boolean done;
+        private int lastRowNum = -1;
+
+        // merged: region theo firstRow, con trỏ + các region đang phủ row hiện tại
+        private int regionCursor;
+        private final List<ActiveRegion> active = new ArrayList<>();
+
+        RowIterator(int fromRow, int toRowExclusive) {
+            this.fromRow = fromRow;
+            this.toRowExclusive = toRowExclusive;
+            try {
+                this.in = sheetPart.getInputStream();
+                this.xml = xmlInputFactory.createXMLStreamReader(in);
+            } catch (IOException | XMLStreamException e) {
+                throw new IllegalStateException("Cannot open sheet: " + e.getMessage(), e);
+            }
+            openPasses.add(this);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                try {
+                    next = readNextRow();
+                } catch (XMLStreamException e) {
+                    closeQuietly();
+                    throw new IllegalStateException("Cannot read sheet row: " + e.getMessage(), e);
+                }
+                if (next == null) closeQuietly();
+            }
+            return next != null;
+        }
+
+        @Override
+        public SheetRow next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            SheetRow row = next;
+            next = null;
+            return row;
+        }
+
+        private SheetRow readNextRow() throws XMLStreamException {
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.END_ELEMENT && "sheetData".equals(xml.getLocalName())) {
+                    return null;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT || !"row".equals(xml.getLocalName())) {
+                    continue;
+                }
+
+                SheetRow row = readRow();
+                if (row.getRowNum() >= toRowExclusive) return null;
+
+                if (resolveMergedCells) trackMerged(row);
+                if (row.getRowNum() < fromRow) continue;
+                return row;
+            }
+            return null;
+        }
+
+        private SheetRow readRow() throws XMLStreamException {
+            String r = xml.getAttributeValue(null, "r");
+            int rowNum = (r != null && !r.isBlank()) ? Integer.parseInt(r.trim()) - 1 : lastRowNum + 1;
+            lastRowNum = rowNum;
+
+            SheetRow row = new SheetRow(rowNum);
+            int lastCol = -1;
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT && "c".equals(xml.getLocalName())) {
+                    SheetCell cell = readCell(lastCol + 1);
+                    lastCol = cell.getColumnIndex();
+                    row.cells.put(lastCol, cell);
+                } else if (event == XMLStreamConstants.END_ELEMENT && "row".equals(xml.getLocalName())) {
+                    break;
+                }
+            }
+            return row;
+        }
+
+        private SheetCell readCell(int implicitCol) throws XMLStreamException {
+            String ref = xml.getAttributeValue(null, "r");
+            String type = xml.getAttributeValue(null, "t");
+            String style = xml.getAttributeValue(null, "s");
+            int col = (ref != null && !ref.isBlank()) ? new CellReference(ref).getCol() : implicitCol;
+
+            boolean formula = false;
+            String value = null;
+            StringBuilder inline = null;
+
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = xml.getLocalName();
+                    if ("v".equals(name)) {
+                        value = xml.getElementText();
+                    } else if ("f".equals(name)) {
+                        formula = true;
+                        xml.getElementText();
+                    } else if ("t".equals(name)) {
+                        if (inline == null) inline = new StringBuilder();
+                        inline.append(xml.getElementText());
+                    } else if ("rPh".equals(name)) {
+                        skipElement();
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && "c".equals(xml.getLocalName())) {
+                    break;
+                }
+            }
+
+            return toCell(col, type, style, formula, "inlineStr".equals(type) && inline != null ? inline.toString() : value);
+        }
+
+        private void skipElement() throws XMLStreamException {
+            int depth = 1;
+            while (depth > 0 && xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) depth++;
+                else if (event == XMLStreamConstants.END_ELEMENT) depth--;
+            }
+        }
+
+        private void trackMerged(SheetRow row) {
+            int rowNum = row.getRowNum();
+
+            // region kết thúc trước row này -> bỏ cache ô góc
+            active.removeIf(a -> a.region.getLastRow() < rowNum);
+
+            // region bắt đầu từ row này (hoặc từ row trống trước đó) -> vào active
+            while (regionCursor < mergedRegions.size()
+                    && mergedRegions.get(regionCursor).getFirstRow() <= rowNum) {
+                CellRangeAddress region = mergedRegions.get(regionCursor++);
+                if (region.getLastRow() < rowNum) continue;
+                SheetCell topLeft = region.getFirstRow() == rowNum ? row.getCell(region.getFirstColumn()) : null;
+                active.add(new ActiveRegion(region, topLeft));
+            }
+
+            if (!active.isEmpty()) {
+                row.merged = new ArrayList<>(active);
+            }
+        }
+
+        void closeQuietly() {
+            done = true;
+            try {
+                close();
+            } catch (IOException ignore) {
+                // đã đóng
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            done = true;
+            try {
+                xml.close();
+            } catch (XMLStreamException ignore) {
+                // stream bên dưới vẫn đóng
+            }
+            in.close();
+        }
+    }
+
+    private SheetCell toCell(int col, String type, String style, boolean formula, String value) {
+        SheetCell cell = new SheetCell(col, formula);
+
+        if ("s".equals(type)) {
+            cell.type = CellType.STRING;
+            cell.text = value == null || value.isBlank()
+                    ? ""
+                    : sharedStrings.getItemAt(Integer.parseInt(value.trim())).getString();
+            cell.formatted = cell.text;
+        } else if ("inlineStr".equals(type) || "str".equals(type) || "d".equals(type)) {
+            cell.type = CellType.STRING;
+            cell.text = value == null ? "" : value;
+            cell.formatted = cell.text;
+        } else if ("b".equals(type)) {
+            cell.type = CellType.BOOLEAN;
+            cell.bool = "1".equals(value) || "true".equalsIgnoreCase(value);
+            cell.formatted = cell.bool ? "TRUE" : "FALSE";
+        } else if ("e".equals(type)) {
+            cell.type = CellType.ERROR;
+            cell.text = value;
+            cell.formatted = value == null ? "" : value;
+        } else if (value == null || value.isBlank()) {
+            cell.type = CellType.BLANK;
+            cell.formatted = "";
+        } else {
+            cell.type = CellType.NUMERIC;
+            cell.number = Double.parseDouble(value.trim());
+
+            int formatIndex = 0;
+            String formatString = null;
+            if (style != null && !style.isBlank() && styles != null) {
+                XSSFCellStyle cs = styles.getStyleAt(Integer.parseInt(style.trim()));
+                if (cs != null) {
+                    formatIndex = cs.getDataFormat();
+                    formatString = cs.getDataFormatString();
+                }
+            }
+            if (formatString == null) formatString = BuiltinFormats.getBuiltinFormat(formatIndex);
+
+            cell.date = DateUtil.isADateFormat(formatIndex, formatString) && DateUtil.isValidExcelDate(cell.number);
+            cell.formatted = formatter.formatRawCellContents(cell.number, formatIndex, formatString);
+        }
+        return cell;
+    }
+
+    // .xls: cùng quy tắc với toCell (giá trị cached của công thức, format theo style)
+    private static SheetCell toCell(Cell source, DataFormatter formatter) {
+        boolean formula = source.getCellType() == CellType.FORMULA;
+        CellType type = formula ? source.getCachedFormulaResultType() : source.getCellType();
+        SheetCell cell = new SheetCell(source.getColumnIndex(), formula);
+
+        switch (type) {
+            case STRING -> {
+                cell.type = CellType.STRING;
+                cell.text = source.getStringCellValue();
+                cell.formatted = cell.text;
+            }
+            case BOOLEAN -> {
+                cell.type = CellType.BOOLEAN;
+                cell.bool = source.getBooleanCellValue();
+                cell.formatted = cell.bool ? "TRUE" : "FALSE";
+            }
+            case ERROR -> {
+                cell.type = CellType.ERROR;
+                cell.text = FormulaError.forInt(source.getErrorCellValue()).getString();
+                cell.formatted = cell.text;
+            }
+            case NUMERIC -> {
+                cell.type = CellType.NUMERIC;
+                cell.number = source.getNumericCellValue();
+                CellStyle style = source.getCellStyle();
+                cell.date = DateUtil.isCellDateFormatted(source);
+                cell.formatted = formatter.formatRawCellContents(cell.number,
+                        style.getDataFormat(), style.getDataFormatString());
+            }
+            default -> {
+                cell.type = CellType.BLANK;
+                cell.formatted = "";
+            }
+        }
+        return cell;
+    }
+
+    private static class ActiveRegion {
+        final CellRangeAddress region;
+        final SheetCell topLeft;
+
+        ActiveRegion(CellRangeAddress region, SheetCell topLeft) {
+            this.region = region;
+            this.topLeft = topLeft;
+        }
+    }
+
+    // =========================================================
+    // ROW / CELL MODEL
+    // =========================================================
+
+    public static class SheetRow {
+        private final int rowNum;
+        private final TreeMap<Integer, SheetCell> cells = new TreeMap<>();
+        private List<ActiveRegion> merged;
+
+        SheetRow(int rowNum) {
+            this.rowNum = rowNum;
+        }
+
+        /** 0-based như Row.getRowNum() */
+        public int getRowNum() {
+            return rowNum;
+        }
+
+        /** null nếu ô không có trong file */
+        public SheetCell getCell(int col) {
+            return cells.get(col);
+        }
+
+        /**
+         * Ô nằm trong merged region -> ô góc trên-trái của region, ngược lại chính ô đó.
+         * Chỉ có tác dụng khi reader mở với resolveMergedCells = true.
+         */
+        public SheetCell getMergedCell(int col) {
+            if (merged != null) {
+                for (ActiveRegion a : merged) {
+                    if (a.region.isInRange(rowNum, col)) return a.topLeft;
+                }
+            }
+            return cells.get(col);
+        }
+
+        /** Giống DataFormatter.formatCellValue: ô không có -> "" */
+        public String getFormatted(int col) {
+            SheetCell cell = cells.get(col);
+            return cell == null ? "" : cell.getFormattedValue();
+        }
+
+        public Collection<SheetCell> getCells() {
+            return cells.values();
+        }
+
+        /** Giống Row.getLastCellNum(): index ô cuối + 1, -1 nếu row rỗng */
+        public int getLastCellNum() {
+            return cells.isEmpty() ? -1 : cells.lastKey() + 1;
+        }
+    }
+
+    public static class SheetCell {
+        private final int columnIndex;
+        private final boolean formula;
+        private CellType type;
+        private String text;
+        private double number;
+        private boolean bool;
+        private boolean date;
+        private String formatted;
+
+        SheetCell(int columnIndex, boolean formula) {
+            this.columnIndex = columnIndex;
+            this.formula = formula;
+        }
+
+        public int getColumnIndex() {
+            return columnIndex;
+        }
+
+        /** Kiểu của giá trị (với công thức là kiểu của giá trị cached) */
+        public CellType getCellType() {
+            return type;
+        }
+
+        public boolean isFormula() {
+            return formula;
+        }
+
+        public String getStringValue() {
+            return text;
+        }
+
+        public double getNumericValue() {
+            return number;
+        }
+
+        public boolean getBooleanValue() {
+            return bool;
+        }
+
+        public boolean isDateFormatted() {
+            return date;
+        }
+
+        public Date getDateValue() {
+            return type == CellType.NUMERIC ? DateUtil.getJavaDate(number) : null;
+        }
+
+        /** Text hiển thị như Excel (DataFormatter) */
+        public String getFormattedValue() {
+            return formatted;
+        }
+    }
+}
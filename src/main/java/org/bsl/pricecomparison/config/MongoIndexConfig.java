@@ -1,15 +1,17 @@
-// src/main/java/org/bsl/pricecomparison/config/MongoIndexConfig.java
 package org.bsl.pricecomparison.config;
 
 import com.mongodb.client.MongoCollection;
-import com.mongodb.client.model.IndexOptions;
-import com.mongodb.client.model.Indexes;
 import org.bson.Document;
+import org.bsl.pricecomparison.config.MongoIndexRegistry.IndexSpec;
+import org.bsl.pricecomparison.config.MongoIndexRegistry.QueryShape;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.mongodb.core.MongoTemplate;
 
 import jakarta.annotation.PostConstruct;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Configuration
 public class MongoIndexConfig {
 
@@ -21,7 +23,7 @@ public class MongoIndexConfig {
 
     @PostConstruct
     public void createIndexes() {
-        MongoCollection<Document> collection = mongoTemplate.getCollection("requisition_monthly");
+        MongoCollection<Document> collection = mongoTemplate.getCollection(MongoIndexRegistry.REQUISITION_MONTHLY);
 
         // Drop old index if exists
         try {
@@ -31,23 +33,87 @@ public class MongoIndexConfig {
             // Ignore if index doesn't exist
         }
 
-        // Create essential single-field indexes
-        collection.createIndex(Indexes.ascending("groupId"));
-        collection.createIndex(Indexes.ascending("type"));
-        collection.createIndex(Indexes.descending("updatedDate"));
-        collection.createIndex(Indexes.descending("createdDate"));
-        collection.createIndex(Indexes.ascending("oldSAPCode"));
-        collection.createIndex(Indexes.ascending("productType1Name"));
-        collection.createIndex(Indexes.ascending("productType2Name"));
-
-        // Create partial index on nested field with explicit name
-        collection.createIndex(
-                Indexes.ascending("departmentRequisitions.name"),
-                new IndexOptions()
-                        .name("idx_department_name")
-                        .partialFilterExpression(new Document("departmentRequisitions.name", new Document("$exists", true)))
-        );
-
-        System.out.println("All indexes created successfully using Indexes class 100% operational!");
+        // matchKey (1 key / dòng) đã thay bằng mảng matchKeys
+        try {
+            mongoTemplate.getCollection(MongoIndexRegistry.PURCHASE_HISTORY_ITEMS).dropIndex("idx_match_purchased");
+            System.out.println("Dropped legacy index: idx_match_purchased");
+        } catch (Exception e) {
+            // Ignore if index doesn't exist
+        }
+
+        // Create all registered indexes (compound / partial / case-insensitive collation)
+        int created = 0;
+        for (IndexSpec spec : MongoIndexRegistry.INDEXES) {
+            try {
+                mongoTemplate.getCollection(spec.getCollection()).createIndex(spec.getKeys(), spec.getOptions());
+                created++;
+            } catch (Exception e) {
+                System.err.println("Failed to create index " + spec.getCollection() + "." + spec.getName()
+                        + ": " + e.getMessage());
+            }
+        }
+        System.out.println("Mongo indexes ensured: " + created + "/" + MongoIndexRegistry.INDEXES.size());
+
+        auditQueryShapes();
+    }
+
+    // =========================================================
+    // QUERY SHAPE AUDIT: explain() từng query nóng, log nếu COLLSCAN
+    // =========================================================
+
+    private void auditQueryShapes() {
+        List<String> collScans = new ArrayList<>();
+
+        for (QueryShape shape : MongoIndexRegistry.QUERY_SHAPES) {
+            try {
+                Document find = new Document("find", shape.getCollection())
+                        .append("filter", shape.getFilter())
+                        .append("limit", 1);
+                if (shape.getSort() != null) {
+                    find.append("sort", shape.getSort());
+                }
+                if (shape.getCollation() != null) {
+                    find.append("collation", shape.getCollation().asDocument());
+                }
+
+                Document explain = mongoTemplate.getDb().runCommand(
+                        new Document("explain", find).append("verbosity", "queryPlanner"));
+
+                Object winningPlan = explain.get("queryPlanner", Document.class) != null
+                        ? explain.get("queryPlanner", Document.class).get("winningPlan")
+                        : null;
+
+                if (hasStage(winningPlan, "COLLSCAN")) {
+                    collScans.add(shape.getCollection() + "." + shape.getName());
+                }
+            } catch (Exception e) {
+                System.err.println("Explain failed for " + shape.getCollection() + "." + shape.getName()
+                        + ": " + e.getMessage());
+            }
+        }
+
+        if (collScans.isEmpty()) {
+            System.out.println("Mongo query audit: all " + MongoIndexRegistry.QUERY_SHAPES.size()
+                    + " registered query shapes use an index");
+        } else {
+            for (String name : collScans) {
+                System.err.println("⚠️ Mongo query audit: COLLSCAN for " + name);
+            }
+        }
+    }
+
+    // duyệt cả plan classic (inputStage/inputStages) và SBE (queryPlan)
+    private static boolean hasStage(Object plan, String stage) {
+        if (plan instanceof Document doc) {
+            if (stage.equals(doc.get("stage"))) return true;
+            for (Object value : doc.values()) {
+                if (hasStage(value, stage)) return true;
+            }
+        } else if (plan instanceof List<?> list) {
+            for (Object item : list) {
+                if (hasStage(item, stage)) return true;
+            }
+        }
+        return false;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,288 @@
+package org.bsl.pricecomparison.config;
+
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.CollationStrength;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ✅ Danh sách index + query shape dùng chung cho MongoIndexConfig.
+ *
+ * - INDEXES: mỗi index gắn với repository method / query mà nó phục vụ
+ * - QUERY_SHAPES: các query nóng (giống filter/sort thật), lúc startup chạy explain() và log nếu COLLSCAN
+ *
+ * Thêm query mới vào repository => thêm index + shape tương ứng ở đây.
+ */
+public final class MongoIndexRegistry {
+
+    public static final String REQUISITION_MONTHLY = "requisition_monthly";
+    public static final String SUPPLIER_PRODUCTS = "supplier_products";
+    public static final String PURCHASE_HISTORY_ITEMS = "purchase_history_items";
+    public static final String COMPARISON_SNAPSHOTS = "comparison_snapshots";
+
+    /** So sánh không phân biệt hoa thường (strength 2), dùng cho các query IgnoreCase */
+    public static final Collation CASE_INSENSITIVE = Collation.builder()
+            .locale("en")
+            .collationStrength(CollationStrength.SECONDARY)
+            .build();
+
+    private static final String SAMPLE = "__index_audit__";
+
+    private MongoIndexRegistry() {}
+
+    // =========================================================
+    // INDEXES
+    // =========================================================
+
+    public static final List<IndexSpec> INDEXES = Arrays.asList(
+
+            // ===== requisition_monthly =====
+            // findByGroupId / findAllByGroupId / filterRequisitions, sort theo updatedDate
+            new IndexSpec(REQUISITION_MONTHLY, "idx_group_updated",
+                    Indexes.compoundIndex(Indexes.ascending("groupId"), Indexes.descending("updatedDate"))),
+            new IndexSpec(REQUISITION_MONTHLY, "type_1", Indexes.ascending("type")),
+            new IndexSpec(REQUISITION_MONTHLY, "updatedDate_-1", Indexes.descending("updatedDate")),
+            new IndexSpec(REQUISITION_MONTHLY, "createdDate_-1", Indexes.descending("createdDate")),
+            new IndexSpec(REQUISITION_MONTHLY, "productType1Name_1", Indexes.ascending("productType1Name")),
+            new IndexSpec(REQUISITION_MONTHLY, "productType2Name_1", Indexes.ascending("productType2Name")),
+            new IndexSpec(REQUISITION_MONTHLY, "idx_department_name",
+                    Indexes.ascending("departmentRequisitions.name"),
+                    new IndexOptions().partialFilterExpression(
+                            new Document("departmentRequisitions.name", new Document("$exists", true)))),
+            // existsByDepartmentRequisitionsId
+            new IndexSpec(REQUISITION_MONTHLY, "idx_department_id", Indexes.ascending("departmentRequisitions.id")),
+
+            // findByGroupIdAndOldSAPCode + last purchase theo oldSAPCode (+ currency [+ unit]), sort completedDate desc
+            new IndexSpec(REQUISITION_MONTHLY, "idx_completed_old_sap",
+                    Indexes.compoundIndex(Indexes.ascending("oldSAPCode"), Indexes.ascending("currency"),
+                            Indexes.descending("completedDate")),
+                    new IndexOptions().partialFilterExpression(new Document("isCompleted", true))),
+            new IndexSpec(REQUISITION_MONTHLY, "oldSAPCode_1", Indexes.ascending("oldSAPCode")),
+            new IndexSpec(REQUISITION_MONTHLY, "idx_completed_hana_sap",
+                    Indexes.compoundIndex(Indexes.ascending("hanaSAPCode"), Indexes.ascending("currency"),
+                            Indexes.descending("completedDate")),
+                    new IndexOptions().partialFilterExpression(new Document("isCompleted", true))),
+            new IndexSpec(REQUISITION_MONTHLY, "idx_completed_des_vn",
+                    Indexes.compoundIndex(Indexes.ascending("itemDescriptionVN"), Indexes.ascending("currency"),
+                            Indexes.descending("completedDate")),
+                    new IndexOptions().partialFilterExpression(new Document("isCompleted", true))),
+            new IndexSpec(REQUISITION_MONTHLY, "idx_completed_des_en",
+                    Indexes.compoundIndex(Indexes.ascending("itemDescriptionEN"), Indexes.ascending("currency"),
+                            Indexes.descending("completedDate")),
+                    new IndexOptions().partialFilterExpression(new Document("isCompleted", true))),
+            // checkExistsInGroupWithUnitByPriority VN / EN: findFirstByGroupIdAndUnitIgnoreCaseAndItemDescription*Key
+            new IndexSpec(REQUISITION_MONTHLY, "idx_group_desc_vn_key",
+                    Indexes.compoundIndex(Indexes.ascending("groupId"), Indexes.ascending("itemDescriptionVNKey"))),
+            new IndexSpec(REQUISITION_MONTHLY, "idx_group_desc_en_key",
+                    Indexes.compoundIndex(Indexes.ascending("groupId"), Indexes.ascending("itemDescriptionENKey"))),
+            // existsBySupplierId + findBySupplierIdAnd...IsCompletedTrue (sort completedDate desc)
+            new IndexSpec(REQUISITION_MONTHLY, "idx_supplier_completed",
+                    Indexes.compoundIndex(Indexes.ascending("supplierId"), Indexes.descending("completedDate"))),
+
+            // ===== supplier_products =====
+            // findBySapCodeIgnoreCaseAndUnitIgnoreCaseAndCurrencyIgnoreCase / findBySapCodeAndCurrencyIgnoreCase
+            // (query chạy với collation = SupplierProductRepository.CASE_INSENSITIVE)
+            new IndexSpec(SUPPLIER_PRODUCTS, "idx_sap_unit_currency_ci",
+                    Indexes.compoundIndex(Indexes.ascending("sapCode"), Indexes.ascending("unit"),
+                            Indexes.ascending("currency")),
+                    new IndexOptions().collation(CASE_INSENSITIVE)),
+            // findByHanaSapCodeIgnoreCaseAndUnitIgnoreCaseAndCurrencyIgnoreCase
+            new IndexSpec(SUPPLIER_PRODUCTS, "idx_hana_unit_currency_ci",
+                    Indexes.compoundIndex(Indexes.ascending("hanaSapCode"), Indexes.ascending("unit"),
+                            Indexes.ascending("currency")),
+                    new IndexOptions().collation(CASE_INSENSITIVE)),
+            // existsBySupplierCodeAndSapCodeAndCurrencyAndPrice / existsBySupplierCodeAndSapCodeAndPrice[AndIdNot] / findBySapCodeAndSupplierCode
+            new IndexSpec(SUPPLIER_PRODUCTS, "idx_supplier_sap_currency_price",
+                    Indexes.compoundIndex(Indexes.ascending("supplierCode"), Indexes.ascending("sapCode"),
+                            Indexes.ascending("currency"), Indexes.ascending("price"))),
+            // existsBySupplierCodeAndHanaSapCodeAndCurrencyAndPrice
+            new IndexSpec(SUPPLIER_PRODUCTS, "idx_supplier_hana_currency_price",
+                    Indexes.compoundIndex(Indexes.ascending("supplierCode"), Indexes.ascending("hanaSapCode"),
+                            Indexes.ascending("currency"), Indexes.ascending("price"))),
+            // existsFallbackBySupplierNameAndCurrencyAndPriceWhenCodesEmptyOrNew
+            new IndexSpec(SUPPLIER_PRODUCTS, "idx_supplier_name_currency_price",
+                    Indexes.compoundIndex(Indexes.ascending("supplierName"), Indexes.ascending("currency"),
+                            Indexes.ascending("price"))),
+            // @Indexed trên model (auto-index-creation đang tắt nên tạo ở đây)
+            new IndexSpec(SUPPLIER_PRODUCTS, "productType1Id", Indexes.ascending("productType1Id")),
+            new IndexSpec(SUPPLIER_PRODUCTS, "productType2Id", Indexes.ascending("productType2Id")),
+            // filter-by-sapcode / filter: sapCode / hanaSapCode exact | prefix (+ currency / unit) trên field *Key
+            new IndexSpec(SUPPLIER_PRODUCTS, "idx_sap_code_key",
+                    Indexes.compoundIndex(Indexes.ascending("sapCodeKey"), Indexes.ascending("currencyKey"),
+                            Indexes.ascending("unitKey"))),
+            new IndexSpec(SUPPLIER_PRODUCTS, "idx_hana_code_key",
+                    Indexes.compoundIndex(Indexes.ascending("hanaSapCodeKey"), Indexes.ascending("currencyKey"),
+                            Indexes.ascending("unitKey"))),
+            // findByItemDescription*KeyRegexAndUnitIgnoreCaseAndCurrencyIgnoreCase / supplier matching VN / EN
+            // (unit + currency equality theo collation, regex contains lọc trên key đã fold)
+            new IndexSpec(SUPPLIER_PRODUCTS, "idx_unit_currency_desc_vn_key_ci",
+                    Indexes.compoundIndex(Indexes.ascending("unit"), Indexes.ascending("currency"),
+                            Indexes.ascending("itemDescriptionVNKey")),
+                    new IndexOptions().collation(CASE_INSENSITIVE)),
+            new IndexSpec(SUPPLIER_PRODUCTS, "idx_unit_currency_desc_en_key_ci",
+                    Indexes.compoundIndex(Indexes.ascending("unit"), Indexes.ascending("currency"),
+                            Indexes.ascending("itemDescriptionENKey")),
+                    new IndexOptions().collation(CASE_INSENSITIVE)),
+            // dedupe theo công ty (findLatestPerCompanyWithPagination $group, backfill companyKey)
+            new IndexSpec(SUPPLIER_PRODUCTS, "idx_company_key_created",
+                    Indexes.compoundIndex(Indexes.ascending("companyKey"), Indexes.descending("createdAt"))),
+
+            // ===== purchase_history_items =====
+            new IndexSpec(PURCHASE_HISTORY_ITEMS, "uk_group_requisition",
+                    Indexes.compoundIndex(Indexes.ascending("groupId"), Indexes.ascending("requisitionMonthlyId")),
+                    new IndexOptions().unique(true)),
+            // MonthlyLastPurchaseResolver: top 2 / key + qty trong tháng (matchKeys là mảng -> multikey)
+            new IndexSpec(PURCHASE_HISTORY_ITEMS, "idx_match_keys_purchased",
+                    Indexes.compoundIndex(Indexes.ascending("matchKeys"), Indexes.descending("purchasedAt"))),
+            // removeForRequisitions
+            new IndexSpec(PURCHASE_HISTORY_ITEMS, "idx_requisition_monthly_id", Indexes.ascending("requisitionMonthlyId")),
+
+            // ===== comparison_snapshots =====
+            // ComparisonSnapshotService.flushPending: đánh dấu stale theo group / theo dòng đang chứa
+            new IndexSpec(COMPARISON_SNAPSHOTS, "groupId_1", Indexes.ascending("groupId")),
+            new IndexSpec(COMPARISON_SNAPSHOTS, "idx_row_requisition", Indexes.ascending("rows.requisitionId")),
+            // snapshot của group không ai mở nữa (hoặc group đã xoá) tự dọn
+            new IndexSpec(COMPARISON_SNAPSHOTS, "ttl_refreshed", Indexes.ascending("refreshedAt"),
+                    new IndexOptions().expireAfter(7L, TimeUnit.DAYS))
+    );
+
+    // =========================================================
+    // QUERY SHAPES (explain lúc startup)
+    // =========================================================
+
+    public static final List<QueryShape> QUERY_SHAPES = Arrays.asList(
+
+            // ===== requisition_monthly =====
+            new QueryShape(REQUISITION_MONTHLY, "findByGroupId",
+                    new Document("groupId", SAMPLE), null),
+            new QueryShape(REQUISITION_MONTHLY, "findByGroupIdAndOldSAPCode",
+                    new Document("groupId", SAMPLE).append("oldSAPCode", SAMPLE), null),
+            new QueryShape(REQUISITION_MONTHLY, "existsBySupplierId",
+                    new Document("supplierId", SAMPLE), null),
+            new QueryShape(REQUISITION_MONTHLY, "existsByDepartmentRequisitionsId",
+                    new Document("departmentRequisitions.id", SAMPLE), null),
+            new QueryShape(REQUISITION_MONTHLY, "findFirstByGroupIdAndUnitIgnoreCaseAndItemDescriptionVNKey",
+                    new Document("groupId", SAMPLE).append("itemDescriptionVNKey", SAMPLE), null),
+            new QueryShape(REQUISITION_MONTHLY, "findLatestPurchaseByOldSapCodeAndCurrency",
+                    completedPurchase("oldSAPCode").append("_id", new Document("$ne", SAMPLE)),
+                    new Document("completedDate", -1)),
+            new QueryShape(REQUISITION_MONTHLY, "findLatestPurchaseByHanaSapCodeAndCurrency",
+                    completedPurchase("hanaSAPCode").append("_id", new Document("$ne", SAMPLE)),
+                    new Document("completedDate", -1)),
+            new QueryShape(REQUISITION_MONTHLY, "findLatestPurchaseByItemDescriptionVNAndCurrency",
+                    completedPurchase("itemDescriptionVN").append("_id", new Document("$ne", SAMPLE)),
+                    new Document("completedDate", -1)),
+            new QueryShape(REQUISITION_MONTHLY, "findBySupplierIdAndOldSAPCodeAndUnitAndCurrencyAndIsCompletedTrue",
+                    new Document("supplierId", SAMPLE).append("oldSAPCode", SAMPLE).append("unit", SAMPLE)
+                            .append("currency", SAMPLE).append("isCompleted", true),
+                    new Document("completedDate", -1)),
+
+            // ===== supplier_products =====
+            new QueryShape(SUPPLIER_PRODUCTS, "findBySapCodeIgnoreCaseAndUnitIgnoreCaseAndCurrencyIgnoreCase",
+                    new Document("sapCode", SAMPLE).append("unit", SAMPLE).append("currency", SAMPLE),
+                    null, CASE_INSENSITIVE),
+            new QueryShape(SUPPLIER_PRODUCTS, "findByHanaSapCodeIgnoreCaseAndUnitIgnoreCaseAndCurrencyIgnoreCase",
+                    new Document("hanaSapCode", SAMPLE).append("unit", SAMPLE).append("currency", SAMPLE),
+                    null, CASE_INSENSITIVE),
+            new QueryShape(SUPPLIER_PRODUCTS, "findBySapCodeAndCurrencyIgnoreCase",
+                    new Document("sapCode", SAMPLE).append("currency", SAMPLE),
+                    null, CASE_INSENSITIVE),
+            new QueryShape(SUPPLIER_PRODUCTS, "existsBySupplierCodeAndSapCodeAndCurrencyAndPrice",
+                    new Document("supplierCode", SAMPLE).append("sapCode", SAMPLE)
+                            .append("currency", SAMPLE).append("price", "0"), null),
+            new QueryShape(SUPPLIER_PRODUCTS, "existsBySupplierCodeAndHanaSapCodeAndCurrencyAndPrice",
+                    new Document("supplierCode", SAMPLE).append("hanaSapCode", SAMPLE)
+                            .append("currency", SAMPLE).append("price", "0"), null),
+            new QueryShape(SUPPLIER_PRODUCTS, "existsBySupplierCodeAndSapCodeAndPrice",
+                    new Document("supplierCode", SAMPLE).append("sapCode", SAMPLE).append("price", "0"), null),
+            new QueryShape(SUPPLIER_PRODUCTS, "existsFallbackBySupplierNameAndCurrencyAndPriceWhenCodesEmptyOrNew",
+                    new Document("supplierName", SAMPLE).append("currency", SAMPLE).append("price", "0"), null),
+            new QueryShape(SUPPLIER_PRODUCTS, "findByItemDescriptionVNKeyRegexAndUnitIgnoreCaseAndCurrencyIgnoreCase",
+                    new Document("unit", SAMPLE).append("currency", SAMPLE)
+                            .append("itemDescriptionVNKey", new Document("$regex", SAMPLE)),
+                    null, CASE_INSENSITIVE),
+            // filter / filter-by-sapcode matchMode=exact|prefix (find + aggregation đều chạy không collation)
+            new QueryShape(SUPPLIER_PRODUCTS, "findByFiltersWithPagination(prefix sapCode)",
+                    new Document("sapCodeKey", new Document("$regex", "^" + SAMPLE)), null),
+            new QueryShape(SUPPLIER_PRODUCTS, "findLatestPerCompanyWithPagination(exact hanaSapCode)",
+                    new Document("hanaSapCodeKey", SAMPLE), new Document("createdAt", -1)),
+
+            // ===== purchase_history_items =====
+            // last purchase của comparison-monthly (thay cho findLatestPurchaseAllTime* trên requisition_monthly):
+            // $match đầu pipeline (sort nằm trong $topN) + query qty theo tháng
+            new QueryShape(PURCHASE_HISTORY_ITEMS, "MonthlyLastPurchaseResolver.resolveKeys(latest)",
+                    new Document("matchKeys", new Document("$in", List.of(SAMPLE))), null),
+            new QueryShape(PURCHASE_HISTORY_ITEMS, "findQtyByMatchKeysInAndPurchasedAtBetween",
+                    new Document("matchKeys", new Document("$in", List.of(SAMPLE)))
+                            .append("purchasedAt", new Document("$gte", SAMPLE).append("$lt", SAMPLE)), null),
+            new QueryShape(PURCHASE_HISTORY_ITEMS, "deleteByRequisitionMonthlyIdIn",
+                    new Document("requisitionMonthlyId", new Document("$in", List.of(SAMPLE))), null)
+    );
+
+    private static Document completedPurchase(String keyField) {
+        return new Document("isCompleted", true)
+                .append(keyField, SAMPLE)
+                .append("currency", SAMPLE)
+                .append("supplierId", new Document("$nin", Arrays.asList(null, "")))
+                .append("completedDate", new Document("$ne", null));
+    }
+
+    // =========================================================
+    // TYPES
+    // =========================================================
+
+    public static final class IndexSpec {
+        private final String collection;
+        private final String name;
+        private final Bson keys;
+        private final IndexOptions options;
+
+        IndexSpec(String collection, String name, Bson keys) {
+            this(collection, name, keys, new IndexOptions());
+        }
+
+        IndexSpec(String collection, String name, Bson keys, IndexOptions options) {
+            this.collection = collection;
+            this.name = name;
+            this.keys = keys;
+            this.options = options.name(name);
+        }
+
+        public String getCollection() { return collection; }
+        public String getName() { return name; }
+        public Bson getKeys() { return keys; }
+        public IndexOptions getOptions() { return options; }
+    }
+
+    public static final class QueryShape {
+        private final String collection;
+        private final String name;
+        private final Document filter;
+        private final Document sort;
+        private final Collation collation;
+
+        QueryShape(String collection, String name, Document filter, Document sort) {
+            this(collection, name, filter, sort, null);
+        }
+
+        QueryShape(String collection, String name, Document filter, Document sort, Collation collation) {
+            this.collection = collection;
+            this.name = name;
+            this.filter = filter;
+            this.sort = sort;
+            this.collation = collation;
+        }
+
+        public String getCollection() { return collection; }
+        public String getName() { return name; }
+        public Document getFilter() { return filter; }
+        public Document getSort() { return sort; }
+        public Collation getCollation() { return collation; }
+    }
+}
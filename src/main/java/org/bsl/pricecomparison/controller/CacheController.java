@@ -0,0 +1,29 @@
+package org.bsl.pricecomparison.controller;
+
+import org.bsl.pricecomparison.service.DictionaryCacheService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/cache")
+public class CacheController {
+
+    @Autowired
+    private DictionaryCacheService dictionaryCacheService;
+
+    // hit/miss/eviction theo từng dictionary (ProductType1, ProductType2, Department)
+    @GetMapping("/dictionary/stats")
+    public ResponseEntity<Map<String, Object>> getDictionaryStats() {
+        return ResponseEntity.ok(dictionaryCacheService.stats());
+    }
+
+    // xoá cache thủ công (vd: sau khi sửa dữ liệu trực tiếp trong Mongo)
+    @DeleteMapping("/dictionary")
+    public ResponseEntity<Map<String, String>> invalidateDictionary() {
+        dictionaryCacheService.invalidateAll();
+        return ResponseEntity.ok(Map.of("message", "Dictionary cache invalidated"));
+    }
+}
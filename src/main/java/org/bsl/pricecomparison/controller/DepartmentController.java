@@ -1,9 +1,11 @@
 package org.bsl.pricecomparison.controller;
 
+import org.bsl.pricecomparison.common.JsonStreamWriter;
 import org.bsl.pricecomparison.model.Department;
 import org.bsl.pricecomparison.repository.DepartmentRepository;
 import org.bsl.pricecomparison.repository.RequisitionMonthlyRepository;
 import org.bsl.pricecomparison.repository.SummaryRequisitionRepository;
+import org.bsl.pricecomparison.service.DictionaryCacheService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -31,8 +33,18 @@ public class DepartmentController {
     @Autowired
     private RequisitionMonthlyRepository requisitionMonthlyRepository;
 
+    @Autowired
+    private DictionaryCacheService dictionaryCacheService;
+
+    @Autowired
+    private JsonStreamWriter jsonStreamWriter;
+
     @GetMapping
-    public ResponseEntity<?> getAllDepartments() {
+    public ResponseEntity<?> getAllDepartments(@RequestParam(defaultValue = "false") boolean stream) {
+        // ⚡ stream=true: ghi JSON array từ cursor
+        if (stream) {
+            return jsonStreamWriter.array(departmentRepository::streamAll);
+        }
         try {
             List<Department> departments = departmentRepository.findAll();
             return ResponseEntity.ok(departments);
@@ -77,6 +89,7 @@ public class DepartmentController {
                         .body(Map.of("message", "Department with this name and division already exists"));
             }
             departmentRepository.save(department);
+            dictionaryCacheService.invalidate(DictionaryCacheService.Dictionary.DEPARTMENT);
             return ResponseEntity.status(HttpStatus.CREATED)
                     .body(Map.of("message", "Department created successfully"));
         } catch (Exception e) {
@@ -130,6 +143,7 @@ public class DepartmentController {
             department.setDivision(updated.getDivision());
             department.setDepartmentName(updated.getDepartmentName());
             Department saved = departmentRepository.save(department);
+            dictionaryCacheService.invalidate(DictionaryCacheService.Dictionary.DEPARTMENT);
             return ResponseEntity.ok(Map.of("message", "Department updated successfully", "data", saved));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -169,6 +183,7 @@ public class DepartmentController {
             }
 
             departmentRepository.deleteById(id);
+            dictionaryCacheService.invalidate(DictionaryCacheService.Dictionary.DEPARTMENT);
             return ResponseEntity.status(HttpStatus.OK)
                     .body(Map.of("message", "Department deleted successfully"));
         } catch (Exception e) {
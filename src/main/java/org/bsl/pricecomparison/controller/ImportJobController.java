@@ -0,0 +1,47 @@
+package org.bsl.pricecomparison.controller;
+
+import org.bsl.pricecomparison.service.ImportJobService;
+import org.bsl.pricecomparison.service.ImportJobService.ImportJob;
+import org.bsl.pricecomparison.service.ImportJobService.ImportJobDetail;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/import-jobs")
+public class ImportJobController {
+
+    @Autowired
+    private ImportJobService importJobService;
+
+    // trạng thái + tiến độ (rowsRead / rowsMerged / rowsWritten), result khi đã xong (giữ 10 phút)
+    @GetMapping("/{jobId}")
+    public ResponseEntity<?> getJob(@PathVariable String jobId) {
+        ImportJobDetail job = importJobService.fetchJob(jobId);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("message", "Import job not found: " + jobId));
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    // client đã lưu result -> giải phóng sớm, status + summary vẫn còn
+    @DeleteMapping("/{jobId}/result")
+    public ResponseEntity<?> releaseResult(@PathVariable String jobId) {
+        if (!importJobService.releaseResult(jobId)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("message", "Finished import job not found: " + jobId));
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    // các job còn giữ trong bộ nhớ (mới nhất trước), lọc theo groupId nếu có; không kèm result
+    @GetMapping
+    public ResponseEntity<List<ImportJob>> getJobs(@RequestParam(required = false) String groupId) {
+        return ResponseEntity.ok(importJobService.getJobs(groupId));
+    }
+}
@@ -8,6 +8,9 @@ import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellRangeAddress;
 import org.apache.poi.xssf.usermodel.*;
 import org.bsl.pricecomparison.common.CommonRequisitionUtils;
+import org.bsl.pricecomparison.common.StreamingSheetReader;
+import org.bsl.pricecomparison.common.StreamingSheetReader.SheetCell;
+import org.bsl.pricecomparison.common.StreamingSheetReader.SheetRow;
 import org.bsl.pricecomparison.dto.*;
 import org.bsl.pricecomparison.enums.RequisitionType;
 import org.bsl.pricecomparison.model.*;
@@ -15,9 +18,20 @@ import org.bsl.pricecomparison.repository.*;
 import org.bsl.pricecomparison.request.CreateRequisitionMonthlyRequest;
 import org.bsl.pricecomparison.request.UpdateRequisitionMonthlyRequest;
 import org.bsl.pricecomparison.response.RequisitionMonthlyPagedResponse;
+import org.bsl.pricecomparison.service.AutoSupplierBatchService;
+import org.bsl.pricecomparison.service.ComparisonSnapshotService;
+import org.bsl.pricecomparison.service.DictionaryCacheService;
+import org.bsl.pricecomparison.service.ExcelPictureExtractor;
+import org.bsl.pricecomparison.service.ExcelPictureExtractor.PictureBatch;
 import org.bsl.pricecomparison.service.GroupSummaryRequisitionService;
+import org.bsl.pricecomparison.service.ImportJobService;
+import org.bsl.pricecomparison.service.MonthlyLastPurchaseResolver;
 import org.bsl.pricecomparison.service.ProductType1Service;
 import org.bsl.pricecomparison.service.ProductType2Service;
+import org.bsl.pricecomparison.service.ProductTypeNameResolver;
+import org.bsl.pricecomparison.service.PurchaseHistoryService;
+import org.bsl.pricecomparison.service.SupplierCandidateResolver;
+import org.bsl.pricecomparison.service.UploadStorageService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
@@ -34,9 +48,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.text.Normalizer;
 import java.time.*;
 import java.util.*;
@@ -80,7 +91,39 @@ public class RequisitionMonthlyController {
     @Autowired
     private GroupSummaryRequisitionRepository groupSummaryRequisitionRepository;
 
-    private static final String UPLOAD_DIR = "./uploads/";
+    @Autowired
+    private RequisitionMonthlyCustomRepository requisitionMonthlyCustomRepository;
+
+    @Autowired
+    private ProductTypeNameResolver productTypeNameResolver;
+
+    @Autowired
+    private DictionaryCacheService dictionaryCacheService;
+
+    @Autowired
+    private MonthlyLastPurchaseResolver monthlyLastPurchaseResolver;
+
+    @Autowired
+    private ComparisonSnapshotService comparisonSnapshotService;
+
+    @Autowired
+    private SupplierCandidateResolver supplierCandidateResolver;
+
+    @Autowired
+    private PurchaseHistoryService purchaseHistoryService;
+
+    @Autowired
+    private AutoSupplierBatchService autoSupplierBatchService;
+
+    @Autowired
+    private ExcelPictureExtractor excelPictureExtractor;
+
+    @Autowired
+    private ImportJobService importJobService;
+
+    @Autowired
+    private UploadStorageService uploadStorageService;
+
 
 
 
@@ -270,14 +313,7 @@ public class RequisitionMonthlyController {
             throw new IOException("Only JPEG, PNG, and GIF files are allowed");
         }
 
-        String fileName = System.currentTimeMillis() + "_" + file.getOriginalFilename();
-        Path path = Paths.get(UPLOAD_DIR + fileName);
-
-        Files.createDirectories(path.getParent());
-
-        file.transferTo(path);
-
-        return "/uploads/" + fileName;
+        return uploadStorageService.store(file);
     }
 
     @DeleteMapping("/requisition-monthly/{id}")
@@ -293,22 +329,14 @@ public class RequisitionMonthlyController {
             List<String> imageUrls = requisition.getImageUrls();
             if (imageUrls != null && !imageUrls.isEmpty()) {
                 for (String imageUrl : imageUrls) {
-                    if (imageUrl != null && !imageUrl.isBlank()) {
-                        try {
-                            String filePath = imageUrl.startsWith("/uploads/") ? "." + imageUrl : imageUrl;
-                            Path path = Paths.get(filePath);
-                            if (Files.exists(path)) {
-                                Files.delete(path);
-                                System.out.println("Deleted image: " + filePath);
-                            }
-                        } catch (IOException e) {
-                            System.err.println("Error deleting image: " + imageUrl + ", error: " + e.getMessage());
-                        }
+                    if (imageUrl != null && !imageUrl.isBlank() && uploadStorageService.release(imageUrl)) {
+                        System.out.println("Deleted image: " + imageUrl);
                     }
                 }
             }
 
             requisitionMonthlyRepository.deleteById(id);
+            purchaseHistoryService.removeForRequisitions(List.of(id));
             return ResponseEntity.ok("Successfully deleted ID: " + id);
 
         } catch (IllegalArgumentException e) {
@@ -337,6 +365,7 @@ public class RequisitionMonthlyController {
             @RequestParam(defaultValue = "false") boolean hasFilter,
             @RequestParam(defaultValue = "false") boolean disablePagination,
             @RequestParam(defaultValue = "false") boolean includeMonthlyLastPurchase,
+            @RequestParam(defaultValue = "true") boolean includeTotals,
             Pageable pageable) {
 
         GroupSummaryRequisition group = groupSummaryRequisitionService.getGroupSummaryRequisitionById(groupId)
@@ -354,127 +383,57 @@ public class RequisitionMonthlyController {
             monthEndExclusive = currentMonthStart.atStartOfDay();
         }
 
-        List<RequisitionMonthly> requisitions;
-
+        // ✅ Filter + sort + paging chạy trong Mongo ($match/$sort/$skip/$limit), không load cả group vào JVM
+        RequisitionMonthlyFilter filter = new RequisitionMonthlyFilter(groupId);
         if (hasFilter) {
-            requisitions = requisitionMonthlyRepository.findByGroupId(groupId).stream()
-                    .filter(req -> {
-                        boolean matches = true;
-
-                        String resolvedProductType1Name = null;
-                        if (req.getProductType1Id() != null && !req.getProductType1Id().isEmpty()) {
-                            ProductType1 productType1 = productType1Service.getById(req.getProductType1Id());
-                            resolvedProductType1Name = productType1 != null ? productType1.getName() : "";
-                        }
-
-                        String resolvedProductType2Name = null;
-                        if (req.getProductType2Id() != null && !req.getProductType2Id().isEmpty()) {
-                            ProductType2 productType2 = productType2Service.getById(req.getProductType2Id());
-                            resolvedProductType2Name = productType2 != null ? productType2.getName() : "";
-                        }
-
-                        if (productType1Name != null && !productType1Name.isEmpty()) {
-                            matches = matches && resolvedProductType1Name != null &&
-                                    resolvedProductType1Name.toLowerCase().contains(productType1Name.toLowerCase());
-                        }
-                        if (productType2Name != null && !productType2Name.isEmpty()) {
-                            matches = matches && resolvedProductType2Name != null &&
-                                    resolvedProductType2Name.toLowerCase().contains(productType2Name.toLowerCase());
-                        }
-                        if (englishName != null && !englishName.isEmpty()) {
-                            matches = matches && req.getItemDescriptionEN() != null &&
-                                    req.getItemDescriptionEN().toLowerCase().contains(englishName.toLowerCase());
-                        }
-                        if (vietnameseName != null && !vietnameseName.isEmpty()) {
-                            matches = matches && req.getItemDescriptionVN() != null &&
-                                    req.getItemDescriptionVN().toLowerCase().contains(vietnameseName.toLowerCase());
-                        }
-                        if (oldSapCode != null && !oldSapCode.isEmpty()) {
-                            matches = matches && req.getOldSAPCode() != null &&
-                                    req.getOldSAPCode().toLowerCase().contains(oldSapCode.toLowerCase());
-                        }
-                        if (hanaSapCode != null && !hanaSapCode.isEmpty()) {
-                            matches = matches && req.getHanaSAPCode() != null &&
-                                    req.getHanaSAPCode().toLowerCase().contains(hanaSapCode.toLowerCase());
-                        }
-                        if (supplierName != null && !supplierName.isEmpty()) {
-                            matches = matches && req.getSupplierName() != null &&
-                                    req.getSupplierName().toLowerCase().contains(supplierName.toLowerCase());
-                        }
-                        if (departmentName != null && !departmentName.isEmpty()) {
-                            List<String> deptNames = req.getDepartmentRequisitions() != null ?
-                                    req.getDepartmentRequisitions().stream()
-                                            .filter(Objects::nonNull)
-                                            .map(DepartmentRequisitionMonthly::getName)
-                                            .filter(Objects::nonNull)
-                                            .collect(Collectors.toList()) : Collections.emptyList();
-
-                            matches = matches && deptNames.stream()
-                                    .anyMatch(dept -> dept.toLowerCase().contains(departmentName.toLowerCase()));
-                        }
-
-                        return matches;
-                    })
-                    .sorted((req1, req2) -> {
-                        LocalDateTime date1 = req1.getUpdatedDate() != null ? req1.getUpdatedDate() :
-                                req1.getCreatedDate() != null ? req1.getCreatedDate() : LocalDateTime.MIN;
-                        LocalDateTime date2 = req2.getUpdatedDate() != null ? req2.getUpdatedDate() :
-                                req2.getCreatedDate() != null ? req2.getCreatedDate() : LocalDateTime.MIN;
-                        return date2.compareTo(date1);
-                    })
-                    .collect(Collectors.toList());
+            if (productType1Name != null && !productType1Name.isEmpty()) {
+                filter.setProductType1Ids(productType1Service.findIdsByNameContaining(productType1Name));
+            }
+            if (productType2Name != null && !productType2Name.isEmpty()) {
+                filter.setProductType2Ids(productType2Service.findIdsByNameContaining(productType2Name));
+            }
+            filter.setEnglishName(englishName);
+            filter.setVietnameseName(vietnameseName);
+            filter.setOldSapCode(oldSapCode);
+            filter.setHanaSapCode(hanaSapCode);
+            filter.setSupplierName(supplierName);
+            filter.setDepartmentName(departmentName);
+        }
+
+        Page<RequisitionMonthly> requisitionPage = requisitionMonthlyCustomRepository.filterRequisitions(
+                filter, disablePagination ? Pageable.unpaged() : pageable);
+        List<RequisitionMonthly> requisitions = requisitionPage.getContent();
+
+        // ✅ totals trên toàn bộ kết quả đã lọc (không chỉ trang hiện tại)
+        // - disablePagination: rows đã có sẵn -> cộng 1 lượt trong JVM
+        // - có paging: 1 $group trong Mongo
+        // - includeTotals=false: bỏ qua, trả 0
+        RequisitionMonthlyTotals totals;
+        if (!includeTotals) {
+            totals = new RequisitionMonthlyTotals();
+        } else if (disablePagination) {
+            totals = RequisitionMonthlyTotals.of(requisitions);
         } else {
-            requisitions = requisitionMonthlyRepository.findByGroupId(groupId).stream()
-                    .sorted((req1, req2) -> {
-                        LocalDateTime date1 = req1.getUpdatedDate() != null ? req1.getUpdatedDate() :
-                                req1.getCreatedDate() != null ? req1.getCreatedDate() : LocalDateTime.MIN;
-                        LocalDateTime date2 = req2.getUpdatedDate() != null ? req2.getUpdatedDate() :
-                                req2.getCreatedDate() != null ? req2.getCreatedDate() : LocalDateTime.MIN;
-                        return date2.compareTo(date1);
-                    })
-                    .collect(Collectors.toList());
+            totals = requisitionMonthlyCustomRepository.sumTotals(filter);
         }
 
-        BigDecimal totalSumDailyMedInventory = requisitions.stream()
-                .map(req -> req.getDailyMedInventory() != null ? req.getDailyMedInventory() : BigDecimal.ZERO)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-        BigDecimal totalSumSafeStock = requisitions.stream()
-                .map(req -> req.getSafeStock() != null ? req.getSafeStock() : BigDecimal.ZERO)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-        BigDecimal totalSumRequestQty = requisitions.stream()
-                .map(req -> req.getTotalRequestQty() != null ? req.getTotalRequestQty() : BigDecimal.ZERO)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-        BigDecimal totalSumUseStockQty = requisitions.stream()
-                .map(req -> req.getUseStockQty() != null ? req.getUseStockQty() : BigDecimal.ZERO)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-        BigDecimal totalSumOrderQty = requisitions.stream()
-                .map(req -> req.getOrderQty() != null ? req.getOrderQty() : BigDecimal.ZERO)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-        BigDecimal totalSumAmount = requisitions.stream()
-                .map(req -> req.getAmount() != null ? req.getAmount() : BigDecimal.ZERO)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-        BigDecimal totalSumPrice = requisitions.stream()
-                .map(req -> req.getPrice() != null ? req.getPrice() : BigDecimal.ZERO)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-
-        final LocalDateTime finalMonthStart = monthStart;
-        final LocalDateTime finalMonthEndExclusive = monthEndExclusive;
+        // ⚡ last purchase cho cả trang trong 1 aggregation (thay vì 2 query / dòng)
+        final MonthlyLastPurchaseResolver.Result lastPurchases = includeMonthlyLastPurchase
+                ? monthlyLastPurchaseResolver.resolve(requisitions, monthStart, monthEndExclusive)
+                : null;
+
+        // ⚡ 1 query $in cho mỗi loại type thay vì getById từng dòng
+        ProductTypeNameResolver.Names typeNames = productTypeNameResolver.resolve(
+                requisitions, RequisitionMonthly::getProductType1Id, RequisitionMonthly::getProductType2Id);
 
         List<RequisitionMonthlyDTO> requisitionDTOs = requisitions.stream()
                 .map(req -> {
                     RequisitionMonthlyDTO dto = new RequisitionMonthlyDTO();
 
-                    String resolvedProductType1Name = req.getProductType1Name();
-                    if (req.getProductType1Id() != null && !req.getProductType1Id().isEmpty()) {
-                        ProductType1 pt1 = productType1Service.getById(req.getProductType1Id());
-                        if (pt1 != null && pt1.getName() != null) resolvedProductType1Name = pt1.getName();
-                    }
-
-                    String resolvedProductType2Name = req.getProductType2Name();
-                    if (req.getProductType2Id() != null && !req.getProductType2Id().isEmpty()) {
-                        ProductType2 pt2 = productType2Service.getById(req.getProductType2Id());
-                        if (pt2 != null && pt2.getName() != null) resolvedProductType2Name = pt2.getName();
-                    }
+                    String resolvedProductType1Name = Optional.ofNullable(typeNames.type1Name(req.getProductType1Id()))
+                            .orElse(req.getProductType1Name());
+                    String resolvedProductType2Name = Optional.ofNullable(typeNames.type2Name(req.getProductType2Id()))
+                            .orElse(req.getProductType2Name());
 
                     dto.setId(req.getId());
                     dto.setGroupId(req.getGroupId());
@@ -518,8 +477,8 @@ public class RequisitionMonthlyController {
                     dto.setStatusBestPrice(req.getStatusBestPrice());
 
                     // ✅ ONLY CHANGE: lấy info rồi set 4 field
-                    if (includeMonthlyLastPurchase && finalMonthStart != null && finalMonthEndExclusive != null) {
-                        LastPurchaseInfo info = getMonthlyLastPurchaseInfo(req, finalMonthStart, finalMonthEndExclusive);
+                    if (lastPurchases != null) {
+                        LastPurchaseInfo info = lastPurchases.get(req);
                         if (info != null) {
                             dto.setLastPurchaseOrderQty(info.getOrderQty());
                             dto.setLastPurchasePrice(info.getPrice());
@@ -532,145 +491,30 @@ public class RequisitionMonthlyController {
                 })
                 .collect(Collectors.toList());
 
-        List<RequisitionMonthlyDTO> resultRequisitionDTOs;
         Page<RequisitionMonthlyDTO> pagedResult;
 
         if (disablePagination) {
-            resultRequisitionDTOs = requisitionDTOs;
-            pagedResult = new PageImpl<>(resultRequisitionDTOs,
+            pagedResult = new PageImpl<>(requisitionDTOs,
                     PageRequest.of(0, Integer.MAX_VALUE),
                     requisitionDTOs.size());
         } else {
-            int start = (int) pageable.getOffset();
-            int end = Math.min((start + pageable.getPageSize()), requisitionDTOs.size());
-            resultRequisitionDTOs = requisitionDTOs.subList(start, end);
-            pagedResult = new PageImpl<>(resultRequisitionDTOs, pageable, requisitionDTOs.size());
+            pagedResult = new PageImpl<>(requisitionDTOs, pageable, requisitionPage.getTotalElements());
         }
 
         RequisitionMonthlyPagedResponse response = new RequisitionMonthlyPagedResponse(
                 pagedResult,
-                totalSumDailyMedInventory,
-                totalSumSafeStock,
-                totalSumRequestQty,
-                totalSumUseStockQty,
-                totalSumOrderQty,
-                totalSumAmount,
-                totalSumPrice
+                totals.getDailyMedInventory(),
+                totals.getSafeStock(),
+                totals.getTotalRequestQty(),
+                totals.getUseStockQty(),
+                totals.getOrderQty(),
+                totals.getAmount(),
+                totals.getPrice()
         );
 
         return ResponseEntity.ok(response);
     }
 
-    // ✅ UPDATED: return về 4 giá trị thay vì set vào DTO
-// ✅ UPDATED: mặc định totalQty = 0 (không return null vì thiếu qty)
-    private LastPurchaseInfo getMonthlyLastPurchaseInfo(
-            RequisitionMonthly req,
-            LocalDateTime monthStart,
-            LocalDateTime monthEndExclusive
-    ) {
-        String currency = req.getCurrency();
-        if (currency == null || currency.trim().isEmpty()) {
-            // vẫn trả object để khỏi null pointer ở client
-            return new LastPurchaseInfo(BigDecimal.ZERO, null, null, null);
-        }
-        currency = currency.trim();
-
-        // ✅ NEW: lấy unit để search purchasing
-        String unit = req.getUnit();
-        if (unit == null || unit.trim().isEmpty()) {
-            return new LastPurchaseInfo(BigDecimal.ZERO, null, null, null);
-        }
-        unit = unit.trim();
-
-        BigDecimal lastMonthTotalQty = BigDecimal.ZERO;
-
-        // ===== (A) SUM QTY theo tháng trước (✅ add unit) =====
-        List<RequisitionMonthly> matchesMonth = null;
-
-        if (isValidKey(req.getOldSAPCode())) {
-            matchesMonth = requisitionMonthlyRepository.findLastPurchaseByOldSapCodeAndCurrencyAndUnit(
-                    req.getOldSAPCode().trim(), currency, unit, monthStart, monthEndExclusive
-            );
-        } else if (isValidKey(req.getHanaSAPCode())) {
-            matchesMonth = requisitionMonthlyRepository.findLastPurchaseByHanaSapCodeAndCurrencyAndUnit(
-                    req.getHanaSAPCode().trim(), currency, unit, monthStart, monthEndExclusive
-            );
-        } else if (isValidKey(req.getItemDescriptionVN())) {
-            matchesMonth = requisitionMonthlyRepository.findLastPurchaseByItemDescriptionVNAndCurrencyAndUnit(
-                    req.getItemDescriptionVN().trim(), currency, unit, monthStart, monthEndExclusive
-            );
-        } else if (isValidKey(req.getItemDescriptionEN())) {
-            matchesMonth = requisitionMonthlyRepository.findLastPurchaseByItemDescriptionENAndCurrencyAndUnit(
-                    req.getItemDescriptionEN().trim(), currency, unit, monthStart, monthEndExclusive
-            );
-        }
-
-        if (matchesMonth != null && !matchesMonth.isEmpty()) {
-            lastMonthTotalQty = matchesMonth.stream()
-                    .map(RequisitionMonthly::getOrderQty)
-                    .filter(Objects::nonNull)
-                    .reduce(BigDecimal.ZERO, BigDecimal::add);
-        }
-
-        // ===== (B) latest completed ALL TIME (✅ add unit + skip current id) =====
-        Pageable top2 = PageRequest.of(0, 2); // lấy 2 record mới nhất
-        RequisitionMonthly latestAllTime = null;
-
-        List<RequisitionMonthly> list = null;
-
-        if (isValidKey(req.getOldSAPCode())) {
-            list = requisitionMonthlyRepository.findLatestPurchaseAllTimeByOldSapCodeAndCurrencyAndUnit(
-                    req.getOldSAPCode().trim(), currency, unit, top2
-            );
-
-        } else if (isValidKey(req.getHanaSAPCode())) {
-            list = requisitionMonthlyRepository.findLatestPurchaseAllTimeByHanaSapCodeAndCurrencyAndUnit(
-                    req.getHanaSAPCode().trim(), currency, unit, top2
-            );
-
-        } else if (isValidKey(req.getItemDescriptionVN())) {
-            list = requisitionMonthlyRepository.findLatestPurchaseAllTimeByItemDescriptionVNAndCurrencyAndUnit(
-                    req.getItemDescriptionVN().trim(), currency, unit, top2
-            );
-
-        } else if (isValidKey(req.getItemDescriptionEN())) {
-            list = requisitionMonthlyRepository.findLatestPurchaseAllTimeByItemDescriptionENAndCurrencyAndUnit(
-                    req.getItemDescriptionEN().trim(), currency, unit, top2
-            );
-        }
-
-        if (list != null && !list.isEmpty()) {
-            // nếu record mới nhất trùng req hiện tại -> lấy record kế
-            if (req.getId() != null
-                    && list.get(0).getId() != null
-                    && list.get(0).getId().equals(req.getId())) {
-                latestAllTime = (list.size() > 1) ? list.get(1) : null;
-            } else {
-                latestAllTime = list.get(0);
-            }
-        }
-
-        BigDecimal price = null;
-        LocalDateTime date = null;
-        String supplierName = null;
-
-        if (latestAllTime != null) {
-            price = latestAllTime.getPrice();
-            date = latestAllTime.getCompletedDate() != null ? latestAllTime.getCompletedDate()
-                    : (latestAllTime.getUpdatedDate() != null ? latestAllTime.getUpdatedDate()
-                    : latestAllTime.getCreatedDate());
-            supplierName = latestAllTime.getSupplierName();
-        }
-
-        return new LastPurchaseInfo(lastMonthTotalQty, price, date, supplierName);
-    }
-
-    private boolean isValidKey(String key) {
-        return key != null && !key.trim().isEmpty() && !"NEW".equalsIgnoreCase(key.trim());
-    }
-
-
-
     @PutMapping(value = "/requisition-monthly/{id}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<?> updateRequisitionMonthly(
             @PathVariable String id,
@@ -878,14 +722,8 @@ public class RequisitionMonthlyController {
 
                     for (String imageUrl : imagesToDelete) {
                         if (imageUrl != null && !imageUrl.isBlank() && currentImageUrls.contains(imageUrl)) {
-                            try {
-                                String filePath = imageUrl.startsWith("/uploads/") ? "." + imageUrl : imageUrl;
-                                Path path = Paths.get(filePath);
-                                if (Files.exists(path)) Files.delete(path);
-                                currentImageUrls.remove(imageUrl);
-                            } catch (IOException e) {
-                                System.err.println("Error deleting image: " + imageUrl + ", error: " + e.getMessage());
-                            }
+                            uploadStorageService.release(imageUrl);
+                            currentImageUrls.remove(imageUrl);
                         }
                     }
                 } catch (IOException e) {
@@ -1114,7 +952,9 @@ public class RequisitionMonthlyController {
             @RequestParam(required = false) String departmentName,
             @RequestParam(defaultValue = "false") Boolean filter,
             @RequestParam(defaultValue = "false") Boolean removeDuplicateSuppliers,
-            @RequestParam(defaultValue = "false") boolean includeMonthlyLastPurchase
+            @RequestParam(defaultValue = "false") boolean includeMonthlyLastPurchase,
+            @RequestParam(required = false) Integer page,   // ✅ page 0-based, không truyền size = trả hết như cũ
+            @RequestParam(required = false) Integer size
     ) {
         // ✅ get group to obtain currency + createdDate (for previous month window)
         GroupSummaryRequisition group = groupSummaryRequisitionService
@@ -1136,33 +976,46 @@ public class RequisitionMonthlyController {
             monthEndExclusive = currentMonthStart.atStartOfDay();
         }
 
-        // ===== cache to reduce repeated queries =====
-        final Map<String, List<SupplierProduct>> supplierListCache = new HashMap<>();
+        // ⚡ snapshot theo group: chỉ dòng mới / stale mới chạy convertToComparisonDTO (supplier search + compare)
+        //    last purchase + tên type gắn lúc đọc
+        final ProductTypeNameResolver.Names noTypeNames = ProductTypeNameResolver.Names.empty();
+
+        List<ComparisonSnapshot.Row> rows = comparisonSnapshotService.getRows(
+                groupId,
+                groupCurrency,
+                Boolean.TRUE.equals(removeDuplicateSuppliers),
+                reqs -> {
+                    // ⚡ supplier candidate của các dòng cần tính: gom key, prefetch theo lô
+                    SupplierCandidateResolver.Candidates candidates = supplierCandidateResolver.prefetch(reqs,
+                            req -> isFinalizedStatus(req.getStatusBestPrice()) ? null
+                                    : SupplierCandidateResolver.Key.of(req.getOldSAPCode(), req.getHanaSAPCode(),
+                                    req.getItemDescriptionVN(), req.getItemDescriptionEN(), req.getUnit(), groupCurrency));
+                    List<MonthlyComparisonRequisitionDTO> out = new ArrayList<>(reqs.size());
+                    for (RequisitionMonthly req : reqs) {
+                        out.add(convertToComparisonDTO(req, groupCurrency, removeDuplicateSuppliers, candidates, null, noTypeNames));
+                    }
+                    return out;
+                }
+        );
 
-        List<RequisitionMonthly> requisitions = requisitionMonthlyRepository.findByGroupId(groupId);
+        // ⚡ resolve tên type 1 lần cho cả group (dùng chung cho filter + DTO)
+        final ProductTypeNameResolver.Names typeNames = productTypeNameResolver.resolve(
+                rows, r -> r.getDto().getType1(), r -> r.getDto().getType2());
 
-        List<RequisitionMonthly> filteredRequisitions = requisitions;
+        List<ComparisonSnapshot.Row> filteredRows = rows;
         if (Boolean.TRUE.equals(filter)) {
-            filteredRequisitions = requisitions.stream()
-                    .filter(req -> {
+            filteredRows = rows.stream()
+                    .filter(row -> {
                         boolean matches = true;
+                        MonthlyComparisonRequisitionDTO d = row.getDto();
 
-                        String reqProductType1Name = "";
-                        if (req.getProductType1Id() != null && !req.getProductType1Id().isEmpty()) {
-                            ProductType1 productType1 = productType1Service.getById(req.getProductType1Id());
-                            reqProductType1Name = productType1 != null ? productType1.getName() : "";
-                        }
-
-                        String reqProductType2Name = "";
-                        if (req.getProductType2Id() != null && !req.getProductType2Id().isEmpty()) {
-                            ProductType2 productType2 = productType2Service.getById(req.getProductType2Id());
-                            reqProductType2Name = productType2 != null ? productType2.getName() : "";
-                        }
+                        String reqProductType1Name = Optional.ofNullable(typeNames.type1Name(d.getType1())).orElse("");
+                        String reqProductType2Name = Optional.ofNullable(typeNames.type2Name(d.getType2())).orElse("");
 
-                        List<String> deptNames = req.getDepartmentRequisitions() != null
-                                ? req.getDepartmentRequisitions().stream()
-                                .filter(dept -> dept != null && dept.getName() != null)
-                                .map(DepartmentRequisitionMonthly::getName)
+                        List<String> deptNames = d.getDepartmentRequests() != null
+                                ? d.getDepartmentRequests().stream()
+                                .filter(dept -> dept != null && dept.getDepartmentName() != null)
+                                .map(MonthlyComparisonRequisitionDTO.DepartmentRequestDTO::getDepartmentName)
                                 .collect(Collectors.toList())
                                 : Collections.emptyList();
 
@@ -1173,23 +1026,23 @@ public class RequisitionMonthlyController {
                             matches = matches && reqProductType2Name.toLowerCase().contains(productType2Name.toLowerCase());
                         }
                         if (englishName != null && !englishName.isEmpty()) {
-                            matches = matches && req.getItemDescriptionEN() != null
-                                    && req.getItemDescriptionEN().toLowerCase().contains(englishName.toLowerCase());
+                            matches = matches && d.getEnglishName() != null
+                                    && d.getEnglishName().toLowerCase().contains(englishName.toLowerCase());
                         }
                         if (vietnameseName != null && !vietnameseName.isEmpty()) {
-                            matches = matches && req.getItemDescriptionVN() != null
-                                    && req.getItemDescriptionVN().toLowerCase().contains(vietnameseName.toLowerCase());
+                            matches = matches && d.getVietnameseName() != null
+                                    && d.getVietnameseName().toLowerCase().contains(vietnameseName.toLowerCase());
                         }
                         if (oldSapCode != null && !oldSapCode.isEmpty()) {
-                            matches = matches && req.getOldSAPCode() != null
-                                    && req.getOldSAPCode().toLowerCase().contains(oldSapCode.toLowerCase());
+                            matches = matches && d.getOldSapCode() != null
+                                    && d.getOldSapCode().toLowerCase().contains(oldSapCode.toLowerCase());
                         }
                         if (hanaSapCode != null && !hanaSapCode.isEmpty()) {
-                            matches = matches && req.getHanaSAPCode() != null
-                                    && req.getHanaSAPCode().toLowerCase().contains(hanaSapCode.toLowerCase());
+                            matches = matches && d.getHanaSapCode() != null
+                                    && d.getHanaSapCode().toLowerCase().contains(hanaSapCode.toLowerCase());
                         }
                         if (unit != null && !unit.isEmpty()) {
-                            String reqUnit = req.getUnit() != null ? req.getUnit() : "";
+                            String reqUnit = row.getReqUnit() != null ? row.getReqUnit() : "";
                             matches = matches && reqUnit.toLowerCase().contains(unit.toLowerCase());
                         }
                         if (departmentName != null && !departmentName.isEmpty()) {
@@ -1202,56 +1055,101 @@ public class RequisitionMonthlyController {
                     .collect(Collectors.toList());
         }
 
-        filteredRequisitions.sort((req1, req2) -> {
-            LocalDateTime date1 = req1.getUpdatedDate() != null ? req1.getUpdatedDate()
-                    : (req1.getCreatedDate() != null ? req1.getCreatedDate() : LocalDateTime.MIN);
-            LocalDateTime date2 = req2.getUpdatedDate() != null ? req2.getUpdatedDate()
-                    : (req2.getCreatedDate() != null ? req2.getCreatedDate() : LocalDateTime.MIN);
-            return date2.compareTo(date1);
-        });
-
-        List<MonthlyComparisonRequisitionDTO> dtoList = new ArrayList<>();
+        // ✅ tổng của cả group (sau filter), tính riêng khỏi trang
         BigDecimal totalAmount = BigDecimal.ZERO;
         BigDecimal totalAmtDifference = BigDecimal.ZERO;
         BigDecimal totalDifferencePercentage = BigDecimal.ZERO;
-
-        // pass to converter
-        final LocalDateTime finalMonthStart = monthStart;
-        final LocalDateTime finalMonthEndExclusive = monthEndExclusive;
-
-        for (RequisitionMonthly req : filteredRequisitions) {
-            MonthlyComparisonRequisitionDTO dto = convertToComparisonDTO(
-                    req,
-                    groupCurrency,
-                    removeDuplicateSuppliers,
-                    supplierListCache,
-                    includeMonthlyLastPurchase,
-                    finalMonthStart,
-                    finalMonthEndExclusive
-            );
-            dtoList.add(dto);
-
+        for (ComparisonSnapshot.Row row : filteredRows) {
+            MonthlyComparisonRequisitionDTO dto = row.getDto();
             if (dto.getAmount() != null) totalAmount = totalAmount.add(dto.getAmount());
             if (dto.getAmtDifference() != null) totalAmtDifference = totalAmtDifference.add(dto.getAmtDifference());
             if (dto.getPercentage() != null) totalDifferencePercentage = totalDifferencePercentage.add(dto.getPercentage());
         }
 
-        return ResponseEntity.ok(new MonthlyComparisonRequisitionResponseDTO(
+        // ✅ rows đã sort updatedDate/createdDate DESC, id (ổn định giữa các trang) trong snapshot
+        PageSlice slice = PageSlice.of(page, size, filteredRows.size());
+        List<ComparisonSnapshot.Row> pageRows = slice != null
+                ? filteredRows.subList(slice.from, slice.to)
+                : filteredRows;
+
+        // ⚡ last purchase cho các dòng của trang trong 1 aggregation (match key lưu sẵn trong snapshot)
+        final MonthlyLastPurchaseResolver.Result lastPurchases = includeMonthlyLastPurchase
+                ? monthlyLastPurchaseResolver.resolveKeys(
+                        pageRows.stream().map(ComparisonSnapshot.Row::getLastPurchaseKey).collect(Collectors.toList()),
+                        monthStart, monthEndExclusive)
+                : null;
+
+        List<MonthlyComparisonRequisitionDTO> dtoList = new ArrayList<>(pageRows.size());
+        for (ComparisonSnapshot.Row row : pageRows) {
+            MonthlyComparisonRequisitionDTO dto = row.getDto();
+            dto.setType1Name(Optional.ofNullable(typeNames.type1Name(dto.getType1())).orElse(""));
+            dto.setType2Name(Optional.ofNullable(typeNames.type2Name(dto.getType2())).orElse(""));
+
+            if (lastPurchases != null) {
+                LastPurchaseInfo info = lastPurchases.get(row.getLastPurchaseKey(), row.getRequisitionId());
+                dto.setLastPurchaseOrderQty(info.getOrderQty());
+                dto.setLastPurchasePrice(info.getPrice());
+                dto.setLastPurchaseDate(info.getDate());
+                dto.setLastPurchaseSupplierName(info.getSupplierName());
+            }
+            dtoList.add(dto);
+        }
+
+        MonthlyComparisonRequisitionResponseDTO response = new MonthlyComparisonRequisitionResponseDTO(
                 dtoList,
                 totalAmount,
                 totalAmtDifference,
                 totalDifferencePercentage
-        ));
+        );
+        if (slice != null) {
+            response.setPage(slice.page);
+            response.setSize(slice.size);
+            response.setTotalElements((long) filteredRows.size());
+            response.setTotalPages(slice.totalPages);
+        }
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * ✅ Trang [from, to) trên list đã sort. null = không phân trang (size không truyền).
+     */
+    static final class PageSlice {
+        private static final int MAX_PAGE_SIZE = 1000;
+
+        final int page;
+        final int size;
+        final int from;
+        final int to;
+        final int totalPages;
+
+        private PageSlice(int page, int size, int total) {
+            this.page = page;
+            this.size = size;
+            this.totalPages = (total + size - 1) / size;
+            long start = (long) page * size;
+            this.from = (int) Math.min(start, total);
+            this.to = (int) Math.min(start + size, total);
+        }
+
+        static PageSlice of(Integer page, Integer size, int total) {
+            if (size == null) return null;
+            int s = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+            int p = page != null ? Math.max(0, page) : 0;
+            return new PageSlice(p, s, total);
+        }
+
+        boolean contains(int index) {
+            return index >= from && index < to;
+        }
     }
 
     private MonthlyComparisonRequisitionDTO convertToComparisonDTO(
             RequisitionMonthly req,
             String groupCurrency,
             Boolean removeDuplicateSuppliers,
-            Map<String, List<SupplierProduct>> supplierListCache, // ✅ keep param để khỏi phá signature, nhưng KHÔNG DÙNG
-            boolean includeMonthlyLastPurchase,
-            LocalDateTime monthStart,
-            LocalDateTime monthEndExclusive
+            SupplierCandidateResolver.Candidates candidates, // ⚡ supplier candidate dùng chung trong request
+            MonthlyLastPurchaseResolver.Result lastPurchases, // null = không lấy last purchase
+            ProductTypeNameResolver.Names typeNames
     ) {
         List<MonthlyComparisonRequisitionDTO.SupplierDTO> supplierDTOs = new ArrayList<>();
 
@@ -1265,8 +1163,7 @@ public class RequisitionMonthlyController {
 
         // ✅ NEW: nếu statusBestPrice = Yes/No => đã finalize => chỉ GET dữ liệu đã lưu, không chạy search/compare nữa
         String statusBestPrice = normText(req.getStatusBestPrice());
-        boolean isFinalized = statusBestPrice != null
-                && ("Yes".equalsIgnoreCase(statusBestPrice) || "No".equalsIgnoreCase(statusBestPrice));
+        boolean isFinalized = isFinalizedStatus(statusBestPrice);
 
         if (isFinalized) {
             // =========================================================
@@ -1338,8 +1235,8 @@ public class RequisitionMonthlyController {
                 String reqUnit = normText(unit);
                 if (reqUnit != null) {
 
-                    // ✅ dùng function chung (priority + unit + currency + prefer selected)
-                    List<SupplierProduct> suppliers = commonRequisitionUtils.searchSupplierProductsByPriority(
+                    // ✅ priority + unit + currency + prefer selected (giống searchSupplierProductsByPriority)
+                    List<SupplierProduct> suppliers = candidates.search(
                             req.getOldSAPCode(),
                             req.getHanaSAPCode(),
                             req.getItemDescriptionVN(),
@@ -1472,12 +1369,8 @@ public class RequisitionMonthlyController {
                         .collect(Collectors.toList())
                         : Collections.emptyList();
 
-        String type1Name = (req.getProductType1Id() != null && !req.getProductType1Id().isEmpty())
-                ? productType1Service.getById(req.getProductType1Id()).getName()
-                : "";
-        String type2Name = (req.getProductType2Id() != null && !req.getProductType2Id().isEmpty())
-                ? productType2Service.getById(req.getProductType2Id()).getName()
-                : "";
+        String type1Name = Optional.ofNullable(typeNames.type1Name(req.getProductType1Id())).orElse("");
+        String type2Name = Optional.ofNullable(typeNames.type2Name(req.getProductType2Id())).orElse("");
 
         BigDecimal dailyMedInventory = req.getDailyMedInventory();
         BigDecimal totalRequestQty = req.getTotalRequestQty();
@@ -1514,8 +1407,8 @@ public class RequisitionMonthlyController {
         );
 
         // ✅ last purchase giữ nguyên
-        if (includeMonthlyLastPurchase && monthStart != null && monthEndExclusive != null) {
-            LastPurchaseInfo info = getMonthlyLastPurchaseInfo(req, monthStart, monthEndExclusive);
+        if (lastPurchases != null) {
+            LastPurchaseInfo info = lastPurchases.get(req);
             if (info != null) {
                 dto.setLastPurchaseOrderQty(info.getOrderQty());
                 dto.setLastPurchasePrice(info.getPrice());
@@ -1534,6 +1427,12 @@ public class RequisitionMonthlyController {
         return t.isEmpty() ? null : t;
     }
 
+    // ✅ statusBestPrice = Yes/No => đã finalize, không search supplier
+    private static boolean isFinalizedStatus(String statusBestPrice) {
+        String s = normText(statusBestPrice);
+        return s != null && ("Yes".equalsIgnoreCase(s) || "No".equalsIgnoreCase(s));
+    }
+
     // ✅ NEW / empty -> null
     private static String normCode(String s) {
         String t = normText(s);
@@ -1541,7 +1440,9 @@ public class RequisitionMonthlyController {
         return "new".equalsIgnoreCase(t) ? null : t;
     }
 
-    private MonthlyComparisonRequisitionDTO convertToComparisonDTO(RequisitionMonthly req, String currency, Boolean removeDuplicateSuppliers) {
+    private MonthlyComparisonRequisitionDTO convertToComparisonDTO(RequisitionMonthly req, String currency, Boolean removeDuplicateSuppliers,
+                                                                   SupplierCandidateResolver.Candidates candidates,
+                                                                   ProductTypeNameResolver.Names typeNames) {
         List<MonthlyComparisonRequisitionDTO.SupplierDTO> supplierDTOs = new ArrayList<>();
 
         String sapCode = req.getOldSAPCode() != null && !req.getOldSAPCode().isEmpty() ? req.getOldSAPCode() : null;
@@ -1553,7 +1454,7 @@ public class RequisitionMonthlyController {
 
         // === CHỈ KHI CÓ supplierId MỚI ĐI TÌM SUPPLIER PRODUCT ===
         if (selectedSupplierId != null && !selectedSupplierId.isEmpty() && sapCode != null && !sapCode.isEmpty()) {
-            List<SupplierProduct> suppliers = supplierProductRepository.findBySapCodeAndCurrencyIgnoreCase(sapCode, currency);
+            List<SupplierProduct> suppliers = candidates.findBySapCode(sapCode, currency);
 
             // Xử lý loại bỏ duplicate nếu cần
             Map<String, List<SupplierProduct>> supplierGroups = suppliers.stream()
@@ -1673,11 +1574,9 @@ public class RequisitionMonthlyController {
                         ))
                         .collect(Collectors.toList()) : Collections.emptyList();
 
-        // Product type names (giữ nguyên)
-        String type1Name = req.getProductType1Id() != null && !req.getProductType1Id().isEmpty() ?
-                productType1Service.getById(req.getProductType1Id()).getName() : "";
-        String type2Name = req.getProductType2Id() != null && !req.getProductType2Id().isEmpty() ?
-                productType2Service.getById(req.getProductType2Id()).getName() : "";
+        // Product type names (resolve theo lô từ caller)
+        String type1Name = Optional.ofNullable(typeNames.type1Name(req.getProductType1Id())).orElse("");
+        String type2Name = Optional.ofNullable(typeNames.type2Name(req.getProductType2Id())).orElse("");
 
         // Các field khác
         BigDecimal dailyMedInventory = req.getDailyMedInventory();
@@ -1744,47 +1643,34 @@ public class RequisitionMonthlyController {
     }
 
     // Helper method to get cell value (giữ logic cũ, nhưng trim an toàn)
-    private String getCellValue(Cell cell) {
+    // merged cell: dùng SheetRow.getMergedCell(col) của StreamingSheetReader
+    private String getCellValue(SheetCell cell) {
         if (cell == null) return null;
+        if (cell.isFormula()) {
+            // giữ logic cũ: kết quả text -> trim, kết quả số -> long, còn lại -> null
+            if (cell.getCellType() == CellType.STRING) {
+                String s = cell.getStringValue();
+                return s != null ? s.trim() : null;
+            }
+            return cell.getCellType() == CellType.NUMERIC
+                    ? String.valueOf((long) cell.getNumericValue())
+                    : null;
+        }
         switch (cell.getCellType()) {
             case STRING:
-                return cell.getStringCellValue() != null ? cell.getStringCellValue().trim() : null;
+                return cell.getStringValue() != null ? cell.getStringValue().trim() : null;
             case NUMERIC:
-                if (DateUtil.isCellDateFormatted(cell)) {
-                    return cell.getDateCellValue().toString();
+                if (cell.isDateFormatted()) {
+                    return cell.getDateValue().toString();
                 }
-                return String.valueOf((long) cell.getNumericCellValue());
+                return String.valueOf((long) cell.getNumericValue());
             case BOOLEAN:
-                return String.valueOf(cell.getBooleanCellValue());
-            case FORMULA:
-                try {
-                    String s = cell.getStringCellValue();
-                    return s != null ? s.trim() : null;
-                } catch (Exception e) {
-                    try {
-                        return String.valueOf((long) cell.getNumericCellValue());
-                    } catch (Exception ex) {
-                        return null;
-                    }
-                }
+                return String.valueOf(cell.getBooleanValue());
             default:
                 return null;
         }
     }
 
-    // Helper: merged cell
-    private Cell getMergedCellValue(Sheet sheet, int rowIndex, int colIndex, List<CellRangeAddress> mergedRegions) {
-        for (CellRangeAddress range : mergedRegions) {
-            if (range.isInRange(rowIndex, colIndex)) {
-                Row firstRow = sheet.getRow(range.getFirstRow());
-                return firstRow == null ? null : firstRow.getCell(range.getFirstColumn(), Row.MissingCellPolicy.RETURN_NULL_AND_BLANK);
-            }
-        }
-        Row row = sheet.getRow(rowIndex);
-        if (row == null) return null;
-        return row.getCell(colIndex, Row.MissingCellPolicy.RETURN_NULL_AND_BLANK);
-    }
-
     @Transactional
     public void clearSupplierComparisonAndBestPrice(String groupId) {
 
@@ -1974,30 +1860,54 @@ public class RequisitionMonthlyController {
     @GetMapping("/comparison-monthly-grouped")
     public ResponseEntity<GroupedByTypeComparisonResponseDTO> getComparisonMonthlyGrouped(
             @RequestParam String groupId,
-            @RequestParam(defaultValue = "false") boolean removeDuplicateSuppliers) {
+            @RequestParam(defaultValue = "false") boolean removeDuplicateSuppliers,
+            @RequestParam(required = false) Integer page,   // ✅ page 0-based theo requisition, không truyền size = trả hết
+            @RequestParam(required = false) Integer size) {
 
         // Lấy currency
         String currency = groupSummaryRequisitionService.getGroupSummaryRequisitionById(groupId)
                 .map(GroupSummaryRequisition::getCurrency)
                 .orElse("VND");
 
-        // Lấy tất cả requisition
-        List<RequisitionMonthly> requisitions = requisitionMonthlyRepository.findByGroupId(groupId);
+        // Lấy tất cả requisition (sort updatedDate/createdDate DESC, id => thứ tự nhóm + trang ổn định)
+        List<RequisitionMonthly> requisitions = new ArrayList<>(requisitionMonthlyRepository.findByGroupId(groupId));
+        requisitions.sort(Comparator
+                .comparing((RequisitionMonthly r) -> r.getUpdatedDate() != null ? r.getUpdatedDate() : r.getCreatedDate(),
+                        Comparator.nullsLast(Comparator.reverseOrder()))
+                .thenComparing(RequisitionMonthly::getId, Comparator.nullsLast(Comparator.naturalOrder())));
+
+        // ⚡ resolve tên type 1 lần cho cả group
+        ProductTypeNameResolver.Names typeNames = productTypeNameResolver.resolve(
+                requisitions, RequisitionMonthly::getProductType1Id, RequisitionMonthly::getProductType2Id);
+
+        // ⚡ supplier theo sapCode + currency: gom các dòng có supplierId, prefetch theo lô
+        SupplierCandidateResolver.Candidates candidates = supplierCandidateResolver.prefetchBySapCode(
+                requisitions.stream()
+                        .filter(req -> req.getSupplierId() != null && !req.getSupplierId().isEmpty())
+                        .toList(),
+                RequisitionMonthly::getOldSAPCode, currency);
 
         // Convert sang DTO cũ (tái sử dụng 100%)
         List<MonthlyComparisonRequisitionDTO> allDtos = requisitions.stream()
-                .map(req -> convertToComparisonDTO(req, currency, removeDuplicateSuppliers))
+                .map(req -> convertToComparisonDTO(req, currency, removeDuplicateSuppliers, candidates, typeNames))
                 .toList();
 
         // === GROUP THEO TYPE1 TRƯỚC, SAU ĐÓ THEO TYPE2 TRONG TYPE1 ===
         Map<String, Map<String, List<MonthlyComparisonRequisitionDTO>>> groupedByType1ThenType2 = allDtos.stream()
                 .collect(Collectors.groupingBy(
                         dto -> dto.getType1() != null ? dto.getType1() : "___NULL_TYPE1___",
+                        LinkedHashMap::new,
                         Collectors.groupingBy(
-                                dto -> dto.getType2() != null ? dto.getType2() : "___NULL_TYPE2___"
+                                dto -> dto.getType2() != null ? dto.getType2() : "___NULL_TYPE2___",
+                                LinkedHashMap::new,
+                                Collectors.toList()
                         )
                 ));
 
+        // ✅ trang tính trên thứ tự hiển thị (Type1 -> Type2 -> requisition); total vẫn trên cả group
+        PageSlice slice = PageSlice.of(page, size, allDtos.size());
+        int position = 0;
+
         List<GroupedByTypeComparisonResponseDTO.Type1Group> type1Groups = new ArrayList<>();
         BigDecimal grandAmount = BigDecimal.ZERO;
         BigDecimal grandDiff = BigDecimal.ZERO;
@@ -2005,7 +1915,7 @@ public class RequisitionMonthlyController {
         for (var type1Entry : groupedByType1ThenType2.entrySet()) {
             String type1Key = type1Entry.getKey();
             String type1 = "___NULL_TYPE1___".equals(type1Key) ? null : type1Key;
-            String type1Name = type1 != null ? getType1Name(type1) : "";
+            String type1Name = Optional.ofNullable(typeNames.type1Name(type1)).orElse("");
 
             List<GroupedByTypeComparisonResponseDTO.Type2Subgroup> subgroups = new ArrayList<>();
 
@@ -2016,15 +1926,19 @@ public class RequisitionMonthlyController {
             for (var type2Entry : type1Entry.getValue().entrySet()) {
                 String type2Key = type2Entry.getKey();
                 String type2 = "___NULL_TYPE2___".equals(type2Key) ? null : type2Key;
-                String type2Name = type2 != null ? getType2Name(type2) : "";
+                String type2Name = Optional.ofNullable(typeNames.type2Name(type2)).orElse("");
 
                 List<MonthlyComparisonRequisitionDTO> items = type2Entry.getValue();
+                List<MonthlyComparisonRequisitionDTO> pageItems = slice != null ? new ArrayList<>() : items;
 
                 BigDecimal type2BuyQty = BigDecimal.ZERO;
                 BigDecimal type2Amount = BigDecimal.ZERO;
                 BigDecimal type2Diff = BigDecimal.ZERO;
 
                 for (var dto : items) {
+                    if (slice != null && slice.contains(position)) pageItems.add(dto);
+                    position++;
+
                     // Tính buy qty từ tất cả department
                     BigDecimal buyQty = dto.getDepartmentRequests().stream()
                             .map(d -> d.getBuy() != null ? d.getBuy() : BigDecimal.ZERO)
@@ -2042,8 +1956,10 @@ public class RequisitionMonthlyController {
                 var type2Total = new GroupedByTypeComparisonResponseDTO.GroupTotal(
                         type2BuyQty, type2Amount, type2Diff, type2Percent);
 
-                subgroups.add(new GroupedByTypeComparisonResponseDTO.Type2Subgroup(
-                        type2, type2Name, type2Total, items));
+                if (!pageItems.isEmpty() || slice == null) {
+                    subgroups.add(new GroupedByTypeComparisonResponseDTO.Type2Subgroup(
+                            type2, type2Name, type2Total, pageItems));
+                }
 
                 // Cộng dồn vào Type1
                 type1BuyQty = type1BuyQty.add(type2BuyQty);
@@ -2058,8 +1974,10 @@ public class RequisitionMonthlyController {
             var type1Total = new GroupedByTypeComparisonResponseDTO.GroupTotal(
                     type1BuyQty, type1Amount, type1Diff, type1Percent);
 
-            type1Groups.add(new GroupedByTypeComparisonResponseDTO.Type1Group(
-                    type1, type1Name, type1Total, subgroups));
+            if (!subgroups.isEmpty() || slice == null) {
+                type1Groups.add(new GroupedByTypeComparisonResponseDTO.Type1Group(
+                        type1, type1Name, type1Total, subgroups));
+            }
 
             // Cộng vào Grand Total
             grandAmount = grandAmount.add(type1Amount);
@@ -2073,32 +1991,26 @@ public class RequisitionMonthlyController {
         var grandTotal = new GroupedByTypeComparisonResponseDTO.GrandTotal(
                 grandAmount, grandDiff, grandPercent);
 
-        return ResponseEntity.ok(new GroupedByTypeComparisonResponseDTO(type1Groups, grandTotal));
-    }
-
-    // Helper lấy tên type (an toàn)
-    private String getType1Name(String id) {
-        try {
-            return productType1Service.getById(id).getName();
-        } catch (Exception e) {
-            return "";
-        }
-    }
+        var pageInfo = slice != null
+                ? new GroupedByTypeComparisonResponseDTO.PageInfo(slice.page, slice.size, allDtos.size(), slice.totalPages)
+                : null;
 
-    private String getType2Name(String id) {
-        try {
-            return productType2Service.getById(id).getName();
-        } catch (Exception e) {
-            return "";
-        }
+        return ResponseEntity.ok(new GroupedByTypeComparisonResponseDTO(type1Groups, grandTotal, pageInfo));
     }
 
     @PostMapping(value = "/requisition-monthly/import", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<?> importMonthlyExcel(
             @RequestParam("email") String email,
             @RequestParam("groupId") String groupId,
-            @RequestPart("file") MultipartFile file
+            @RequestPart("file") MultipartFile file,
+            @RequestParam(value = "async", defaultValue = "false") boolean async
     ) {
+        // ⚡ chạy qua ImportJobService: xếp hàng theo groupId, async=true -> trả jobId ngay
+        return importJobService.run("REQUISITION_MONTHLY_IMPORT", groupId, file, async,
+                f -> doImportMonthlyExcel(email, groupId, f));
+    }
+
+    private ResponseEntity<?> doImportMonthlyExcel(String email, String groupId, MultipartFile file) {
         try {
             // ===== Validate =====
             if (email == null || email.isBlank()) {
@@ -2120,6 +2032,8 @@ public class RequisitionMonthlyController {
             ReadExcelResult readResult = readRowsFromExcel(file, result, master);
             List<ImportRow> rawRows = readResult.rows;
             Map<String, DeptMeta> deptMetaById = readResult.deptMetaById;
+            ImportJobService.rowsRead(rawRows.size());
+            ImportJobService.phase("MERGE");
 
             // Merge duplicates inside the file
             Map<String, ImportRow> mergedRows = new LinkedHashMap<>();
@@ -2163,12 +2077,16 @@ public class RequisitionMonthlyController {
                 }
             }
 
+            ImportJobService.rowsMerged(mergedRows.size());
+
             // Load DB items
             List<RequisitionMonthly> dbItems = requisitionMonthlyRepository.findAllByGroupId(groupId);
             ExistingIndex index = new ExistingIndex(dbItems);
 
-            // Upsert logic
+            // Upsert logic: build in memory, write with bulk operations
             Set<String> matchedDbIds = new HashSet<>();
+            List<RequisitionMonthly> toInsert = new ArrayList<>();
+            List<RequisitionMonthly> toReplace = new ArrayList<>();
 
             for (ImportRow row : mergedRows.values()) {
                 RequisitionMonthly target = findExisting(index, row);
@@ -2177,24 +2095,33 @@ public class RequisitionMonthlyController {
                     // Create new record
                     RequisitionMonthly created = new RequisitionMonthly();
                     applyImportToEntity(created, row, deptMetaById, groupId, email, true);
-                    requisitionMonthlyRepository.save(created);
+                    toInsert.add(created);
                     result.created++;
                 } else {
-                    // Update existing record
+                    // Update existing record (same DB row matched twice -> replace once)
                     applyImportToEntity(target, row, deptMetaById, groupId, email, false);
-                    requisitionMonthlyRepository.save(target);
-                    matchedDbIds.add(target.getId());
+                    if (matchedDbIds.add(target.getId())) {
+                        toReplace.add(target);
+                    }
                     result.updated++;
                 }
             }
 
-            // Delete DB items not present in the file
+            // ⚡ unordered + chunked bulk write thay cho save() từng dòng
+            ImportJobService.phase("WRITE");
+            requisitionMonthlyCustomRepository.bulkSave(toInsert, toReplace);
+            ImportJobService.rowsWritten(toInsert.size() + toReplace.size());
+
+            // Delete DB items not present in the file (1 deleteMany / chunk)
+            List<String> deletedIds = new ArrayList<>();
             for (RequisitionMonthly db : dbItems) {
                 if (!matchedDbIds.contains(db.getId())) {
-                    requisitionMonthlyRepository.delete(db);
-                    result.deleted++;
+                    deletedIds.add(db.getId());
                 }
             }
+            requisitionMonthlyCustomRepository.deleteAllByIds(deletedIds);
+            result.deleted += deletedIds.size();
+            purchaseHistoryService.removeForRequisitions(deletedIds);
 
             result.rowsRead = rawRows.size();
             result.rowsUsedAfterMerge = mergedRows.size();
@@ -2351,7 +2278,7 @@ public class RequisitionMonthlyController {
 // - warn duplicates only, deterministic pick when used.
 // =========================================================
     private DepartmentMaster loadDepartmentMaster(ImportMonthlyResult result) {
-        List<Department> list = departmentRepository.findAllIdAndNames();
+        List<Department> list = dictionaryCacheService.getAllDepartments();
 
         Map<String, List<DeptMeta>> byNorm = new HashMap<>();
 
@@ -2467,13 +2394,14 @@ public class RequisitionMonthlyController {
             DepartmentMaster master
     ) throws Exception {
 
-        try (InputStream is = file.getInputStream();
-             Workbook wb = WorkbookFactory.create(is)) {
+        // endpoint này trước đây đọc bằng WorkbookFactory -> vẫn nhận .xls
+        try (StreamingSheetReader reader = StreamingSheetReader.openWithXlsFallback(file)) {
 
-            Sheet sheet = wb.getSheetAt(0);
+            // header + dòng data đầu (detect swap) -> 1 lượt đọc ngắn, dừng ở row 4
+            Map<Integer, SheetRow> headRows = reader.readRows(1, 4);
 
-            Row headerRow2 = sheet.getRow(1); // Excel row 2
-            Row headerRow3 = sheet.getRow(2); // Excel row 3
+            SheetRow headerRow2 = headRows.get(1); // Excel row 2
+            SheetRow headerRow3 = headRows.get(2); // Excel row 3
 
             int totalReqCol = findCol(headerRow2, "Total Request");
             int confirmedMedCol = findCol(headerRow2, "Confirmed MED");
@@ -2494,7 +2422,7 @@ public class RequisitionMonthlyController {
             if (medQtyCol < 0) medQtyCol = confirmedMedCol;
 
             int deptStartCol = findCol(headerRow2, "Departments");
-            if (deptStartCol < 0) deptStartCol = findMergedHeaderStartCol(sheet, "Departments");
+            if (deptStartCol < 0) deptStartCol = findMergedHeaderStartCol(reader, headerRow2, "Departments");
 
             if (deptStartCol < 0 || totalReqCol < 0) {
                 throw new IllegalArgumentException("Excel format invalid: cannot find 'Departments' or 'Total Request'.");
@@ -2507,10 +2435,10 @@ public class RequisitionMonthlyController {
             int firstDataRowIndex = 3; // r starts at 3 (Excel row 4)
 
             if (descENCol >= 0 && descVNCol >= 0) {
-                Row firstDataRow = sheet.getRow(firstDataRowIndex);
+                SheetRow firstDataRow = headRows.get(firstDataRowIndex);
                 if (firstDataRow != null) {
-                    String enSample = getString(firstDataRow.getCell(descENCol), wb);
-                    String vnSample = getString(firstDataRow.getCell(descVNCol), wb);
+                    String enSample = getString(firstDataRow.getCell(descENCol));
+                    String vnSample = getString(firstDataRow.getCell(descVNCol));
 
                     // EN column contains Vietnamese diacritics but VN column doesn't => swapped content
                     if (hasVietnameseDiacritics(enSample) && !hasVietnameseDiacritics(vnSample)) {
@@ -2528,7 +2456,7 @@ public class RequisitionMonthlyController {
             Map<String, DeptMeta> deptMetaById = new HashMap<>();
 
             for (int c = deptStartCol; c < totalReqCol; c++) {
-                String deptName = getString(headerRow3.getCell(c), wb);
+                String deptName = getString(headerRow3.getCell(c));
                 if (deptName == null || deptName.isBlank()) continue;
 
                 String normalized = normDept(deptName);
@@ -2558,33 +2486,33 @@ public class RequisitionMonthlyController {
             // =========================================================
             List<ImportRow> rows = new ArrayList<>();
 
-            for (int r = 3; r <= sheet.getLastRowNum(); r++) { // data starts row 4
-                Row row = sheet.getRow(r);
-                if (row == null) continue;
+            for (SheetRow row : reader.rows(3)) { // data starts row 4
+                int r = row.getRowNum();
 
                 // ✅ STOP condition: if this row contains "Request by" anywhere -> stop import
-                if (rowContainsText(row, wb, "request by")) {
+                if (rowContainsText(row, "request by")) {
                     break;
                 }
+                ImportJobService.rowRead();
 
                 // ✅ SKIP subtotal/total rows like: "SUB TOTAL 1.1", "TOTAL 1", "TOTAL"
-                if (isSubtotalOrTotalRow(row, wb)) {
+                if (isSubtotalOrTotalRow(row)) {
                     continue;
                 }
 
                 // --- read codes first ---
-                String oldSap = oldSapCol >= 0 ? getString(row.getCell(oldSapCol), wb) : null;
-                String hana = hanaCol >= 0 ? getString(row.getCell(hanaCol), wb) : null;
+                String oldSap = oldSapCol >= 0 ? getString(row.getCell(oldSapCol)) : null;
+                String hana = hanaCol >= 0 ? getString(row.getCell(hanaCol)) : null;
 
                 // --- read EN/VN (apply swap if needed) ---
                 String en;
                 String vn;
                 if (swapDescColumns) {
-                    en = descVNCol >= 0 ? getString(row.getCell(descVNCol), wb) : null;
-                    vn = descENCol >= 0 ? getString(row.getCell(descENCol), wb) : null;
+                    en = descVNCol >= 0 ? getString(row.getCell(descVNCol)) : null;
+                    vn = descENCol >= 0 ? getString(row.getCell(descENCol)) : null;
                 } else {
-                    en = descENCol >= 0 ? getString(row.getCell(descENCol), wb) : null;
-                    vn = descVNCol >= 0 ? getString(row.getCell(descVNCol), wb) : null;
+                    en = descENCol >= 0 ? getString(row.getCell(descENCol)) : null;
+                    vn = descVNCol >= 0 ? getString(row.getCell(descVNCol)) : null;
                 }
 
                 // ✅ IMPORTANT FIX:
@@ -2597,8 +2525,8 @@ public class RequisitionMonthlyController {
                 ImportRow ir = new ImportRow();
                 ir.debugRowNo = r + 1;
 
-                ir.productType1 = productType1Col >= 0 ? getString(row.getCell(productType1Col), wb) : null;
-                ir.productType2 = productType2Col >= 0 ? getString(row.getCell(productType2Col), wb) : null;
+                ir.productType1 = productType1Col >= 0 ? getString(row.getCell(productType1Col)) : null;
+                ir.productType2 = productType2Col >= 0 ? getString(row.getCell(productType2Col)) : null;
 
                 ir.descriptionEN = en;
                 ir.descriptionVN = vn;
@@ -2606,22 +2534,22 @@ public class RequisitionMonthlyController {
                 ir.oldSapCode = oldSap;
                 ir.hanaSapCode = hana;
 
-                ir.unit = unitCol >= 0 ? getString(row.getCell(unitCol), wb) : null;
+                ir.unit = unitCol >= 0 ? getString(row.getCell(unitCol)) : null;
 
                 ir.totalRequestQtyFromExcel = totalReqCol >= 0
-                        ? getDecimal(row.getCell(totalReqCol), wb)
+                        ? getDecimal(row.getCell(totalReqCol))
                         : BigDecimal.ZERO;
 
                 ir.dailyMedInventoryQty = medQtyCol >= 0
-                        ? getDecimal(row.getCell(medQtyCol), wb)
+                        ? getDecimal(row.getCell(medQtyCol))
                         : BigDecimal.ZERO;
 
-                ir.supplierName = supplierCol >= 0 ? getString(row.getCell(supplierCol), wb) : null;
-                ir.remark = remarkCol >= 0 ? getString(row.getCell(remarkCol), wb) : null;
+                ir.supplierName = supplierCol >= 0 ? getString(row.getCell(supplierCol)) : null;
+                ir.remark = remarkCol >= 0 ? getString(row.getCell(remarkCol)) : null;
 
                 int orderIndex = 0;
                 for (DeptCol dc : deptCols) {
-                    BigDecimal qty = getDecimalNullable(row.getCell(dc.colIndex), wb);
+                    BigDecimal qty = getDecimalNullable(row.getCell(dc.colIndex));
                     if (qty == null) {
                         orderIndex++;
                         continue;
@@ -2644,13 +2572,13 @@ public class RequisitionMonthlyController {
     /**
      * Row contains a target text in ANY cell (first ~30 columns is enough)
      */
-    private boolean rowContainsText(Row row, Workbook wb, String targetLower) {
+    private boolean rowContainsText(SheetRow row, String targetLower) {
         if (row == null || targetLower == null) return false;
         String target = targetLower.trim().toLowerCase();
 
         int last = Math.min(row.getLastCellNum(), 30); // limit scan
         for (int c = 0; c < last; c++) {
-            String v = getString(row.getCell(c), wb);
+            String v = getString(row.getCell(c));
             if (v != null && v.trim().toLowerCase().contains(target)) {
                 return true;
             }
@@ -2662,8 +2590,8 @@ public class RequisitionMonthlyController {
      * Skip rows like: "SUB TOTAL ...", "TOTAL ..."
      * (in file bạn gửi, nó nằm ở cột A)
      */
-    private boolean isSubtotalOrTotalRow(Row row, Workbook wb) {
-        String first = getString(row.getCell(0), wb);
+    private boolean isSubtotalOrTotalRow(SheetRow row) {
+        String first = getString(row.getCell(0));
         if (first == null) return false;
         String x = first.replace('\u00A0', ' ')
                 .trim()
@@ -2703,22 +2631,18 @@ public class RequisitionMonthlyController {
                 .toLowerCase();
     }
 
-    private int findMergedHeaderStartCol(Sheet sheet, String headerText) {
-        if (sheet == null || headerText == null) return -1;
+    // merged header chỉ xét ở row 2 (index 1) -> truyền sẵn headerRow2
+    private int findMergedHeaderStartCol(StreamingSheetReader reader, SheetRow headerRow2, String headerText) throws IOException {
+        if (reader == null || headerRow2 == null || headerText == null) return -1;
 
         String target = headerText.trim().toLowerCase();
-        for (int i = 0; i < sheet.getNumMergedRegions(); i++) {
-            CellRangeAddress region = sheet.getMergedRegion(i);
+        for (CellRangeAddress region : reader.getMergedRegions()) {
             if (region == null) continue;
 
-            if (region.getFirstRow() != 1) continue;
-
-            Row row = sheet.getRow(region.getFirstRow());
-            if (row == null) continue;
+            if (region.getFirstRow() != headerRow2.getRowNum()) continue;
 
             for (int c = region.getFirstColumn(); c <= region.getLastColumn(); c++) {
-                Cell cc = row.getCell(c);
-                String vv = getString(cc, sheet.getWorkbook());
+                String vv = getString(headerRow2.getCell(c));
                 if (vv != null && vv.trim().toLowerCase().equals(target)) {
                     return region.getFirstColumn();
                 }
@@ -2734,10 +2658,10 @@ public class RequisitionMonthlyController {
         return true;
     }
 
-    private int findCol(Row row, String text) {
+    private int findCol(SheetRow row, String text) {
         if (row == null) return -1;
-        for (Cell cell : row) {
-            String v = getString(cell, row.getSheet().getWorkbook());
+        for (SheetCell cell : row.getCells()) {
+            String v = getString(cell);
             if (v != null && v.trim().equalsIgnoreCase(text.trim())) {
                 return cell.getColumnIndex();
             }
@@ -2746,29 +2670,18 @@ public class RequisitionMonthlyController {
     }
 
     // =========================================================
-// ✅ IMPORTANT: DataFormatter để tránh double => 500.0
+// ✅ IMPORTANT: text đã format như DataFormatter để tránh double => 500.0
+// (công thức: streaming reader trả giá trị cached trong file)
 // =========================================================
-    private String getString(Cell cell, Workbook wb) {
+    private String getString(SheetCell cell) {
         if (cell == null) return null;
-        try {
-            DataFormatter formatter = new DataFormatter();
-            if (cell.getCellType() == CellType.FORMULA) {
-                FormulaEvaluator evaluator = wb.getCreationHelper().createFormulaEvaluator();
-                return formatter.formatCellValue(cell, evaluator).trim();
-            }
-            return formatter.formatCellValue(cell).trim();
-        } catch (Exception e) {
-            try {
-                return cell.toString().trim();
-            } catch (Exception ignore) {
-                return null;
-            }
-        }
+        String s = cell.getFormattedValue();
+        return s != null ? s.trim() : null;
     }
 
     // blank => 0 (NO .0)
-    private BigDecimal getDecimal(Cell cell, Workbook wb) {
-        String s = getString(cell, wb);
+    private BigDecimal getDecimal(SheetCell cell) {
+        String s = getString(cell);
         if (s == null || s.isBlank()) return BigDecimal.ZERO;
         try {
             s = s.replace(",", "").trim();
@@ -2780,8 +2693,8 @@ public class RequisitionMonthlyController {
     }
 
     // blank => null (NO .0), "0" => 0
-    private BigDecimal getDecimalNullable(Cell cell, Workbook wb) {
-        String s = getString(cell, wb);
+    private BigDecimal getDecimalNullable(SheetCell cell) {
+        String s = getString(cell);
         if (s == null || s.isBlank()) return null;
         try {
             s = s.replace(",", "").trim();
@@ -3030,10 +2943,17 @@ public class RequisitionMonthlyController {
                     "I=Request, J=Unit, K=Dept request, M=DailyMedInventory, N=Picture, O=Reason. " +
                     "Note: Buy/OrderQty = DailyMedInventory (column M)."
     )
-    public ResponseEntity<List<RequisitionMonthly>> uploadRequisitionFile(
+    public ResponseEntity<?> uploadRequisitionFile(
             @RequestPart("file") MultipartFile file,
-            @RequestParam("groupId") String groupId
+            @RequestParam("groupId") String groupId,
+            @RequestParam(value = "async", defaultValue = "false") boolean async
     ) {
+        // ⚡ chạy qua ImportJobService: xếp hàng theo groupId, async=true -> trả jobId ngay
+        return importJobService.run("REQUISITION_WEEKLY_UPLOAD", groupId, file, async,
+                f -> doUploadRequisitionFile(f, groupId));
+    }
+
+    private ResponseEntity<List<RequisitionMonthly>> doUploadRequisitionFile(MultipartFile file, String groupId) {
 
         // ================= VALIDATE INPUT =================
         if (groupId == null || groupId.isBlank()) {
@@ -3124,16 +3044,10 @@ public class RequisitionMonthlyController {
         // ✅ check duplicate theo rowKey có dept (trong file)
         Set<String> fileDeptKeys = new HashSet<>();
 
-        try (InputStream is = file.getInputStream()) {
-
-            XSSFWorkbook workbook = new XSSFWorkbook(is);
-            Sheet sheet = workbook.getSheetAt(0);
-            if (sheet == null) {
-                return badRequest("Sheet not found.");
-            }
-
-            XSSFDrawing drawing = (XSSFDrawing) sheet.createDrawingPatriarch();
-            List<CellRangeAddress> mergedRegions = sheet.getMergedRegions();
+        // ✅ ảnh cột N: index anchor 1 lần + ghi trên pool, không chặn vòng parse
+        //    (batch đóng trước reader -> mọi return đều đợi/huỷ phần ghi ảnh)
+        try (StreamingSheetReader reader = StreamingSheetReader.open(file, true);
+             PictureBatch pictureBatch = excelPictureExtractor.extract(reader.getPictures(), 13 /* N */)) {
 
             // ================= START FROM ROW 9 (index = 8) =================
             final int START_ROW = 8;
@@ -3149,22 +3063,23 @@ public class RequisitionMonthlyController {
             final int COL_DEPT      = 10;  // K
 
             final int COL_DAILY_MED = 12;  // M
-            final int COL_PICTURE   = 13;  // N
             final int COL_REASON    = 14;  // O
 
-            for (int i = START_ROW; i <= sheet.getLastRowNum(); i++) {
-                Row row = sheet.getRow(i);
-                if (row == null) continue;
+            Map<Integer, RequisitionMonthly> reqByPictureRow = new LinkedHashMap<>();
+
+            for (SheetRow row : reader.rows(START_ROW)) {
+                int i = row.getRowNum();
+                ImportJobService.rowRead();
 
                 // -------- READ CELLS --------
-                String itemVN = getCellValue(getMergedCellValue(sheet, i, COL_ITEM_VN, mergedRegions));
-                String itemEN = getCellValue(getMergedCellValue(sheet, i, COL_ITEM_EN, mergedRegions));
+                String itemVN = getCellValue(row.getMergedCell(COL_ITEM_VN));
+                String itemEN = getCellValue(row.getMergedCell(COL_ITEM_EN));
 
                 String oldSap = normalizeNew(
-                        getCellValue(getMergedCellValue(sheet, i, COL_OLD_SAP, mergedRegions))
+                        getCellValue(row.getMergedCell(COL_OLD_SAP))
                 );
                 String hanaCode = normalizeNew(
-                        getCellValue(getMergedCellValue(sheet, i, COL_HANA, mergedRegions))
+                        getCellValue(row.getMergedCell(COL_HANA))
                 );
 
                 // Skip row nếu không có identifier nào
@@ -3175,13 +3090,13 @@ public class RequisitionMonthlyController {
                 if (!hasAnyId) continue;
 
                 // I = Request
-                BigDecimal requestQty = parseBigDecimal(getMergedCellValue(sheet, i, COL_REQUEST, mergedRegions));
+                BigDecimal requestQty = parseBigDecimal(row.getMergedCell(COL_REQUEST));
                 if (requestQty == null || requestQty.compareTo(BigDecimal.ZERO) < 0) {
                     requestQty = BigDecimal.ZERO;
                 }
 
                 // M = DailyMedInventory
-                BigDecimal dailyMedInventory = parseBigDecimal(getMergedCellValue(sheet, i, COL_DAILY_MED, mergedRegions));
+                BigDecimal dailyMedInventory = parseBigDecimal(row.getMergedCell(COL_DAILY_MED));
                 if (dailyMedInventory == null || dailyMedInventory.compareTo(BigDecimal.ZERO) < 0) {
                     dailyMedInventory = BigDecimal.ZERO;
                 }
@@ -3190,13 +3105,13 @@ public class RequisitionMonthlyController {
                 BigDecimal buy = dailyMedInventory;
 
                 // J = Unit
-                String unit = getCellValue(getMergedCellValue(sheet, i, COL_UNIT, mergedRegions));
+                String unit = getCellValue(row.getMergedCell(COL_UNIT));
 
                 // K = Dept request
-                String deptName = getCellValue(getMergedCellValue(sheet, i, COL_DEPT, mergedRegions));
+                String deptName = getCellValue(row.getMergedCell(COL_DEPT));
 
                 // O = Reason
-                String reason = getCellValue(getMergedCellValue(sheet, i, COL_REASON, mergedRegions));
+                String reason = getCellValue(row.getMergedCell(COL_REASON));
 
                 // ================= FAIL FAST: UNIT =================
                 if (unit == null || unit.trim().isEmpty()) {
@@ -3208,7 +3123,7 @@ public class RequisitionMonthlyController {
                 String deptNameFromDb = null;
 
                 if (deptName != null && !deptName.trim().isEmpty()) {
-                    Department dept = departmentRepository.findByDepartmentName(deptName.trim());
+                    Department dept = dictionaryCacheService.findDepartmentByName(deptName.trim());
                     if (dept == null) {
                         return badRequest(
                                 "Row " + (i + 1) +
@@ -3270,29 +3185,6 @@ public class RequisitionMonthlyController {
                     );
                 }
 
-                // ================= IMAGE (N = Picture) =================
-                List<String> imageUrls = new ArrayList<>();
-                for (XSSFShape shape : drawing.getShapes()) {
-                    if (shape instanceof XSSFPicture pic) {
-                        XSSFClientAnchor a = pic.getClientAnchor();
-                        if (a.getRow1() <= i && i <= a.getRow2()
-                                && a.getCol1() <= COL_PICTURE && a.getCol2() >= COL_PICTURE) {
-
-                            String ext = commonRequisitionUtils
-                                    .getImageExtension(pic.getPictureData().getMimeType());
-                            String name = "req_weekly_" + groupId + "_" + (i + 1) +
-                                    "_" + System.currentTimeMillis() + ext;
-
-                            String url = commonRequisitionUtils.saveImage(
-                                    pic.getPictureData().getData(),
-                                    name,
-                                    pic.getPictureData().getMimeType()
-                            );
-                            if (url != null) imageUrls.add(url);
-                        }
-                    }
-                }
-
                 // ================= NEW CASE (giống API cũ): DB đã có itemKey => merge thêm phòng vào item đó =================
                 // (chỉ xảy ra khi rowKey chưa tồn tại vì đã fail-fast phía trên)
                 RequisitionMonthly existingItemInDb = dbByItemKey.get(itemKey);
@@ -3301,7 +3193,8 @@ public class RequisitionMonthlyController {
                 }
 
                 // ================= CREATE OR MERGE ENTITY (USING SHARED FUNCTION) =================
-                commonRequisitionUtils.upsertMergedRequisition(
+                // ảnh (N = Picture) gắn sau khi pool ghi xong
+                RequisitionMonthly merged = commonRequisitionUtils.upsertMergedRequisition(
                         mergedByItemKey,
                         itemKey,
                         groupId,
@@ -3316,19 +3209,34 @@ public class RequisitionMonthlyController {
                         deptId,
                         deptNameFromDb,
                         reason,
-                        imageUrls,
+                        null,
                         groupCurrency        // ✅ currency from group summary
                 );
+                if (pictureBatch.hasPictures(i)) {
+                    reqByPictureRow.put(i, merged);
+                }
             }
 
             if (mergedByItemKey.isEmpty()) {
                 return badRequest("No valid data found starting from row 9.");
             }
 
+            // ================= IMAGE: chờ pool, gắn url theo thứ tự row =================
+            Map<Integer, List<String>> urlsByRow = pictureBatch.awaitUrlsByRow(reqByPictureRow.keySet());
+            for (Map.Entry<Integer, RequisitionMonthly> e : reqByPictureRow.entrySet()) {
+                CommonRequisitionUtils.appendImageUrls(e.getValue(), urlsByRow.get(e.getKey()));
+            }
+
             List<RequisitionMonthly> requisitions = new ArrayList<>(mergedByItemKey.values());
+            ImportJobService.rowsMerged(requisitions.size());
 
-            return ResponseEntity.status(HttpStatus.CREATED)
-                    .body(requisitionMonthlyRepository.saveAll(requisitions));
+            ImportJobService.phase("WRITE");
+            List<RequisitionMonthly> saved = requisitionMonthlyRepository.saveAll(requisitions);
+            ImportJobService.rowsWritten(saved.size());
+            // ✅ đã lưu -> giữ ref ảnh của các row đã gắn, phần còn lại trả lại khi batch đóng
+            pictureBatch.commit();
+
+            return ResponseEntity.status(HttpStatus.CREATED).body(saved);
 
         } catch (Exception e) {
             return badRequest("Error processing file: " + e.getMessage());
@@ -3346,19 +3254,19 @@ public class RequisitionMonthlyController {
         return t.equalsIgnoreCase("NEW") ? "NEW" : t;
     }
 
-    private BigDecimal parseBigDecimal(Cell cell) {
+    private BigDecimal parseBigDecimal(SheetCell cell) {
         if (cell == null) return null;
         try {
-            if (cell.getCellType() == CellType.NUMERIC) {
-                return BigDecimal.valueOf(cell.getNumericCellValue());
+            if (cell.isFormula()) {
+                return cell.getCellType() == CellType.NUMERIC ? BigDecimal.valueOf(cell.getNumericValue()) : null;
+            } else if (cell.getCellType() == CellType.NUMERIC) {
+                return BigDecimal.valueOf(cell.getNumericValue());
             } else if (cell.getCellType() == CellType.STRING) {
-                String s = cell.getStringCellValue();
+                String s = cell.getStringValue();
                 if (s == null) return null;
                 s = s.trim();
                 if (s.isEmpty()) return null;
                 return new BigDecimal(s);
-            } else if (cell.getCellType() == CellType.FORMULA) {
-                return BigDecimal.valueOf(cell.getNumericCellValue());
             }
         } catch (Exception ignored) {
             return null;
@@ -3597,7 +3505,6 @@ public class RequisitionMonthlyController {
 //        }
 //    }
     @PatchMapping("/requisition-monthly/auto-supplier/by-group")
-    @Transactional
     public ResponseEntity<?> autoUpdateSupplierByGroup(
             @RequestParam("groupId") String groupId,
             @RequestParam("email") String email
@@ -3611,189 +3518,30 @@ public class RequisitionMonthlyController {
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                         .body(Map.of("message", "email is required"));
             }
-            List<RequisitionMonthly> reqList = requisitionMonthlyRepository.findByGroupId(groupId);
-            if (reqList == null || reqList.isEmpty()) {
+
+            // ⚡ batch: gom query theo (searchMode, unit, currency) + 1 bulkWrite
+            AutoSupplierBatchService.Result result = autoSupplierBatchService.autoAssignByGroup(groupId, email);
+            if (result.total == 0) {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of(
                         "message", "No requisitions found for groupId: " + groupId,
                         "groupId", groupId
                 ));
             }
-            int total = reqList.size();
-            int updated = 0;
-            int skippedAlreadyHasSupplier = 0;
-            int skippedNoKey = 0;
-            int skippedNoUnit = 0;
-            int skippedNoSupplier = 0;
-            int skippedAllNullPrice = 0;
-            List<Map<String, Object>> details = new ArrayList<>();
-            for (RequisitionMonthly req : reqList) {
-                try {
-                    // ===== currency: used for filter (default VND) =====
-                    String currency = safeTrim(req.getCurrency());
-                    if (currency == null || currency.isBlank()) {
-                        currency = "VND";
-                    }
-
-                    // ===== SKIP: already selected supplier =====
-                    String existingSupplierId = safeTrim(req.getSupplierId());
-                    if (existingSupplierId != null && !existingSupplierId.isBlank()) {
-                        skippedAlreadyHasSupplier++;
-                        details.add(makeDetail(
-                                req.getId(),
-                                "SKIP_ALREADY_HAS_SUPPLIER",
-                                existingSupplierId,
-                                0,
-                                currency,
-                                safeTrim(req.getUnit())
-                        ));
-                        continue;
-                    }
-
-                    // ===== unit: REQUIRED =====
-                    String unit = safeTrim(req.getUnit());
-                    if (unit == null || unit.isBlank()) {
-                        skippedNoUnit++;
-                        details.add(makeDetail(req.getId(), "SKIP_NO_UNIT", null, 0, currency, null));
-                        continue;
-                    }
-                    // ===== get fields for cascade keyword rule =====
-                    String sapCode  = normalizeNew(safeTrim(req.getOldSAPCode()));
-                    String hanaCode = normalizeNew(safeTrim(req.getHanaSAPCode()));
-                    String desVn    = safeTrim(req.getItemDescriptionVN());
-                    String desEn    = safeTrim(req.getItemDescriptionEN());
-                    // ===== CASCADE PICK keyword: SAP -> HANA -> VN -> EN =====
-                    String keyword = null;
-                    int searchMode = 0;
-                    if (isUsableKey(sapCode)) {
-                        keyword = sapCode;
-                        searchMode = 1;
-                    } else if (isUsableKey(hanaCode)) {
-                        keyword = hanaCode;
-                        searchMode = 2;
-                    } else if (desVn != null && !desVn.isBlank()) {
-                        keyword = desVn;
-                        searchMode = 3;
-                    } else if (desEn != null && !desEn.isBlank()) {
-                        keyword = desEn;
-                        searchMode = 4;
-                    }
-                    if (keyword == null || keyword.isBlank()) {
-                        skippedNoKey++;
-                        details.add(makeDetail(req.getId(), "SKIP_NO_KEY", null, 0, currency, unit));
-                        continue;
-                    }
-                    // ===== SEARCH: keyword + unit + currency =====
-                    List<SupplierProduct> suppliers;
-                    if (searchMode == 1) {
-                        suppliers = supplierProductRepository
-                                .findBySapCodeIgnoreCaseAndUnitIgnoreCaseAndCurrencyIgnoreCase(keyword, unit, currency);
-                    } else if (searchMode == 2) {
-                        suppliers = supplierProductRepository
-                                .findByHanaSapCodeIgnoreCaseAndUnitIgnoreCaseAndCurrencyIgnoreCase(keyword, unit, currency);
-                    } else if (searchMode == 3) {
-                        suppliers = supplierProductRepository
-                                .findByItemDescriptionVNContainingIgnoreCaseAndUnitIgnoreCaseAndCurrencyIgnoreCase(keyword, unit, currency);
-                    } else {
-                        suppliers = supplierProductRepository
-                                .findByItemDescriptionENContainingIgnoreCaseAndUnitIgnoreCaseAndCurrencyIgnoreCase(keyword, unit, currency);
-                    }
-                    if (suppliers.isEmpty()) {
-                        skippedNoSupplier++;
-                        details.add(makeDetail(req.getId(), "SKIP_NO_SUPPLIER", keyword, searchMode, currency, unit));
-                        continue;
-                    }
-                    // ===== pick best =====
-                    SupplierProduct best = commonRequisitionUtils.pickBestSupplierProductByLatestPerCompanyThenMinPrice(suppliers);
-
-                    if (best == null) {
-                        skippedAllNullPrice++;
-                        details.add(makeDetail(req.getId(), "SKIP_ALL_NULL_PRICE", keyword, searchMode, currency, unit));
-                        continue;
-                    }
-                    // ===== update supplier fields =====
-                    req.setSupplierId(best.getId());
-                    req.setSupplierName(best.getSupplierName());
-                    req.setPrice(best.getPrice() != null ? best.getPrice() : BigDecimal.ZERO);
-                    req.setGoodType(best.getGoodType() != null ? best.getGoodType() : "");
-                    req.setCurrency(best.getCurrency() != null && !best.getCurrency().isBlank()
-                                    ? best.getCurrency()
-                                    : currency);
-                    req.setProductType1Id(best.getProductType1Id());
-                    req.setProductType2Id(best.getProductType2Id());
-                    // ===== SYNC BACK item info (KHÔNG override field đang search) =====
-                    String spSap  = normalizeNew(safeTrim(best.getSapCode()));
-                    String spHana = normalizeNew(safeTrim(best.getHanaSapCode()));
-                    String spVn   = safeTrim(best.getItemDescriptionVN());
-                    String spEn   = safeTrim(best.getItemDescriptionEN());
-                    if (searchMode == 1) {
-                        req.setHanaSAPCode(spHana);
-                        req.setItemDescriptionVN(spVn);
-                        req.setItemDescriptionEN(spEn);
-                    } else if (searchMode == 2) {
-                        req.setOldSAPCode(spSap);
-                        req.setItemDescriptionVN(spVn);
-                        req.setItemDescriptionEN(spEn);
-                    } else if (searchMode == 3) {
-                        req.setOldSAPCode(spSap);
-                        req.setHanaSAPCode(spHana);
-                        req.setItemDescriptionEN(spEn);
-                    } else if (searchMode == 4) {
-                        req.setOldSAPCode(spSap);
-                        req.setHanaSAPCode(spHana);
-                        req.setItemDescriptionVN(spVn);
-                    }
 
-                    // ===== amount =====
-                    BigDecimal orderQty = req.getOrderQty() != null
-                            ? req.getOrderQty()
-                            : (req.getDailyMedInventory() != null
-                            ? req.getDailyMedInventory()
-                            : BigDecimal.ZERO);
-
-                    BigDecimal price = req.getPrice() != null ? req.getPrice() : BigDecimal.ZERO;
-                    req.setAmount(price.multiply(orderQty));
-
-                    req.setUpdatedByEmail(email);
-                    req.setUpdatedDate(LocalDateTime.now());
-
-                    requisitionMonthlyRepository.save(req);
-                    updated++;
-                    Map<String, Object> d = new LinkedHashMap<>();
-                    d.put("requisitionId", req.getId());
-                    d.put("status", "UPDATED");
-                    d.put("searchMode", searchMode);
-                    d.put("keyword", keyword);
-                    d.put("unit", unit);
-                    d.put("currency", currency);
-                    d.put("pickedSupplierId", best.getId());
-                    d.put("pickedSupplierName", best.getSupplierName());
-                    d.put("pickedPrice", best.getPrice());
-                    d.put("pickedCreatedAt", best.getCreatedAt());
-                    d.put("syncedOldSap", req.getOldSAPCode());
-                    d.put("syncedHana", req.getHanaSAPCode());
-                    d.put("syncedDesVn", req.getItemDescriptionVN());
-                    d.put("syncedDesEn", req.getItemDescriptionEN());
-                    details.add(d);
-                } catch (Exception perItemEx) {
-                    Map<String, Object> d = new LinkedHashMap<>();
-                    d.put("requisitionId", req.getId());
-                    d.put("status", "ERROR");
-                    d.put("error", perItemEx.getMessage());
-                    details.add(d);
-                }
-            }
-            return ResponseEntity.ok(Map.of(
-                    "message", "Batch auto supplier completed",
-                    "groupId", groupId,
-                    "total", total,
-                    "updated", updated,
-                    "skippedAlreadyHasSupplier", skippedAlreadyHasSupplier,
-                    "skippedNoUnit", skippedNoUnit,
-                    "skippedNoKey", skippedNoKey,
-                    "skippedNoSupplier", skippedNoSupplier,
-                    "skippedAllNullPrice", skippedAllNullPrice,
-                    "details", details
-            ));
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("message", "Batch auto supplier completed");
+            body.put("groupId", groupId);
+            body.put("total", result.total);
+            body.put("updated", result.updated);
+            body.put("skippedAlreadyHasSupplier", result.skippedAlreadyHasSupplier);
+            body.put("skippedNoUnit", result.skippedNoUnit);
+            body.put("skippedNoKey", result.skippedNoKey);
+            body.put("skippedNoSupplier", result.skippedNoSupplier);
+            body.put("skippedAllNullPrice", result.skippedAllNullPrice);
+            body.put("supplierQueries", result.queries);
+            body.put("timings", result.timings);
+            body.put("details", result.details);
+            return ResponseEntity.ok(body);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -3801,18 +3549,4 @@ public class RequisitionMonthlyController {
                     .body(Map.of("message", "Unexpected error: " + e.getMessage()));
         }
     }
-
-    private static Map<String, Object> makeDetail(
-            String reqId, String status, String keyword, int searchMode,
-            String currency, String unit
-    ) {
-        Map<String, Object> d = new LinkedHashMap<>();
-        d.put("requisitionId", reqId);
-        d.put("status", status);
-        if (keyword != null) d.put("keyword", keyword);
-        if (searchMode != 0) d.put("searchMode", searchMode);
-        if (currency != null) d.put("currency", currency);
-        if (unit != null) d.put("unit", unit);
-        return d;
-    }
-}
\ No newline at end of file
+}
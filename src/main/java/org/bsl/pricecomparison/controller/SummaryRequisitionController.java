@@ -9,17 +9,28 @@ import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellRangeAddress;
 import org.apache.poi.xssf.usermodel.*;
 import org.bsl.pricecomparison.common.CommonRequisitionUtils;
+import org.bsl.pricecomparison.common.JsonStreamWriter;
+import org.bsl.pricecomparison.common.StreamingSheetReader;
+import org.bsl.pricecomparison.common.StreamingSheetReader.SheetCell;
+import org.bsl.pricecomparison.common.StreamingSheetReader.SheetRow;
 import org.bsl.pricecomparison.dto.*;
 import org.bsl.pricecomparison.enums.RequisitionType;
 import org.bsl.pricecomparison.model.*;
 import org.bsl.pricecomparison.repository.*;
 import org.bsl.pricecomparison.request.*;
+import org.bsl.pricecomparison.service.DictionaryCacheService;
+import org.bsl.pricecomparison.service.ExcelPictureExtractor;
+import org.bsl.pricecomparison.service.ExcelPictureExtractor.PictureBatch;
 import org.bsl.pricecomparison.service.GroupSummaryRequisitionService;
+import org.bsl.pricecomparison.service.ImportJobService;
 import org.bsl.pricecomparison.service.ProductType1Service;
 import org.bsl.pricecomparison.service.ProductType2Service;
+import org.bsl.pricecomparison.service.ProductTypeNameResolver;
+import org.bsl.pricecomparison.service.PurchaseHistoryService;
+import org.bsl.pricecomparison.service.SupplierCandidateResolver;
+import org.bsl.pricecomparison.service.UploadStorageService;
 import org.bsl.pricecomparison.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.apache.poi.xssf.usermodel.XSSFDrawing;
 import org.springframework.data.domain.*;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -32,9 +43,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -42,7 +50,6 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.web.bind.annotation.RequestPart;
 
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 @RestController
 @RequestMapping("/api/summary-requisitions")
@@ -51,7 +58,6 @@ public class SummaryRequisitionController {
     private final SummaryRequisitionRepository requisitionRepository;
     private final SupplierProductRepository supplierProductRepository;
 
-    private static final String UPLOAD_DIR = "uploads/";
 
     @Autowired
     private RequisitionMonthlyRepository requisitionMonthlyRepository;
@@ -99,9 +105,37 @@ public class SummaryRequisitionController {
     @Autowired
     private CommonRequisitionUtils commonRequisitionUtils;
 
+    @Autowired
+    private ProductTypeNameResolver productTypeNameResolver;
+
+    @Autowired
+    private SupplierCandidateResolver supplierCandidateResolver;
+
+    @Autowired
+    private JsonStreamWriter jsonStreamWriter;
+
+    @Autowired
+    private DictionaryCacheService dictionaryCacheService;
+
+    @Autowired
+    private PurchaseHistoryService purchaseHistoryService;
+
+    @Autowired
+    private ExcelPictureExtractor excelPictureExtractor;
+
+    @Autowired
+    private ImportJobService importJobService;
+
+    @Autowired
+    private UploadStorageService uploadStorageService;
+
     @GetMapping
-    public List<SummaryRequisition> getAll() {
-        return requisitionRepository.findAll();
+    public ResponseEntity<?> getAll(@RequestParam(defaultValue = "false") boolean stream) {
+        // ⚡ stream=true: ghi JSON array từ cursor, không giữ cả collection trong bộ nhớ
+        if (stream) {
+            return jsonStreamWriter.array(requisitionRepository::streamAll);
+        }
+        return ResponseEntity.ok(requisitionRepository.findAll());
     }
 
     @GetMapping("/{id}")
@@ -389,14 +423,7 @@ public class SummaryRequisitionController {
             throw new IOException("Only JPEG, PNG, and GIF files are allowed");
         }
 
-        String fileName = System.currentTimeMillis() + "_" + file.getOriginalFilename();
-        Path path = Paths.get(UPLOAD_DIR + fileName);
-
-        Files.createDirectories(path.getParent());
-
-        file.transferTo(path);
-
-        return "/uploads/" + fileName;
+        return uploadStorageService.store(file);
     }
 
     @PutMapping(value = "/{id}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
@@ -711,15 +738,8 @@ public class SummaryRequisitionController {
 
 
     private void deleteImage(String imageUrl) {
-        try {
-            String fileName = imageUrl.replace("/uploads/", "");
-            Path filePath = Paths.get(UPLOAD_DIR, fileName);
-            if (Files.exists(filePath)) {
-                Files.delete(filePath);
-            }
-        } catch (IOException e) {
-            System.err.println("Failed to delete image: " + imageUrl + ", error: " + e.getMessage());
-        }
+        // ✅ chỉ xóa file khi không còn record nào dùng (UploadStorageService đếm tham chiếu)
+        uploadStorageService.release(imageUrl);
     }
 
     @DeleteMapping("/{id}")
@@ -737,22 +757,14 @@ public class SummaryRequisitionController {
             List<String> imageUrls = requisition.getImageUrls();
             if (imageUrls != null && !imageUrls.isEmpty()) {
                 for (String imageUrl : imageUrls) {
-                    if (imageUrl != null && !imageUrl.isBlank()) {
-                        try {
-                            String filePath = imageUrl.startsWith("/uploads/") ? "." + imageUrl : imageUrl;
-                            Path path = Paths.get(filePath);
-                            if (Files.exists(path)) {
-                                Files.delete(path);
-                                System.out.println("Deleted image: " + filePath);
-                            }
-                        } catch (IOException e) {
-                            System.err.println("Error deleting image: " + imageUrl + ", error: " + e.getMessage());
-                        }
+                    if (imageUrl != null && !imageUrl.isBlank() && uploadStorageService.release(imageUrl)) {
+                        System.out.println("Deleted image: " + imageUrl);
                     }
                 }
             }
 
             requisitionMonthlyRepository.deleteById(id);
+            purchaseHistoryService.removeForRequisitions(List.of(id));
             return ResponseEntity.ok(Collections.singletonMap("message", "Name '" + name + "' has been deleted"));
 
         } catch (IllegalArgumentException e) {
@@ -765,18 +777,36 @@ public class SummaryRequisitionController {
     }
 
     @GetMapping("/with-suppliers")
-    public List<SummaryRequisitionWithSupplierDTO> getAllWithSupplierInfo() {
-        List<SummaryRequisition> requisitions = requisitionRepository.findAll();
+    public ResponseEntity<?> getAllWithSupplierInfo(@RequestParam(defaultValue = "false") boolean stream) {
+        if (stream) {
+            return jsonStreamWriter.chunkedArray(requisitionRepository::streamAll, WITH_SUPPLIERS_CHUNK,
+                    this::toWithSupplierDTOs);
+        }
+        return ResponseEntity.ok(toWithSupplierDTOs(requisitionRepository.findAll()));
+    }
+
+    private static final int WITH_SUPPLIERS_CHUNK = 500;
+
+    // ⚡ SupplierProduct tra theo lô (1 findAllById / chunk) thay vì findById từng dòng
+    private List<SummaryRequisitionWithSupplierDTO> toWithSupplierDTOs(List<SummaryRequisition> requisitions) {
+        Set<String> supplierIds = requisitions.stream()
+                .map(SummaryRequisition::getSupplierId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+
+        Map<String, SupplierProduct> suppliersById = new HashMap<>();
+        if (!supplierIds.isEmpty()) {
+            for (SupplierProduct sp : supplierProductRepository.findAllById(supplierIds)) {
+                suppliersById.put(sp.getId(), sp);
+            }
+        }
 
         return requisitions.stream()
                 .map(req -> {
                     // Tra cứu SupplierProduct
-                    SupplierProduct supplierProduct = null;
-                    if (req.getSupplierId() != null) {
-                        supplierProduct = supplierProductRepository
-                                .findById(req.getSupplierId())
-                                .orElse(null);
-                    }
+                    SupplierProduct supplierProduct = req.getSupplierId() != null
+                            ? suppliersById.get(req.getSupplierId())
+                            : null;
 
                     // Chuyển đổi departmentRequestQty thành List<DepartmentQtyDTO>
                     List<DepartmentQtyDTO> departmentQtyDTOs = req.getDepartmentRequestQty().entrySet().stream()
@@ -784,8 +814,7 @@ public class SummaryRequisitionController {
                                 String departmentId = entry.getKey();
                                 DepartmentQty deptQty = entry.getValue();
                                 // Tra cứu departmentName từ DepartmentRepository
-                                String departmentName = departmentRepository.findById(departmentId)
-                                        .map(Department::getDepartmentName)
+                                String departmentName = Optional.ofNullable(dictionaryCacheService.getDepartmentName(departmentId))
                                         .orElse("Unknown Department");
                                 return new DepartmentQtyDTO(departmentId, departmentName, deptQty.getQty(), deptQty.getBuy());
                             })
@@ -818,6 +847,10 @@ public class SummaryRequisitionController {
 
         List<RequisitionMonthly> allMonthly = requisitionMonthlyRepository.findByGroupId(groupId);
 
+        // ⚡ resolve tên type 1 lần cho cả group (filter + convert DTO)
+        ProductTypeNameResolver.Names typeNames = productTypeNameResolver.resolve(
+                allMonthly, RequisitionMonthly::getProductType1Id, RequisitionMonthly::getProductType2Id);
+
         List<RequisitionMonthly> filtered = allMonthly.stream()
                 .filter(req -> {
                     if (!hasFilter) return true;
@@ -825,18 +858,8 @@ public class SummaryRequisitionController {
                     boolean matches = true;
 
                     // Product Type Names
-                    String p1Name = Optional.ofNullable(req.getProductType1Id())
-                            .filter(id -> !id.isEmpty())
-                            .map(id -> Optional.ofNullable(productType1Service.getById(id))
-                                    .map(ProductType1::getName)
-                                    .orElse(null))
-                            .orElse(null);
-                    String p2Name = Optional.ofNullable(req.getProductType2Id())
-                            .filter(id -> !id.isEmpty())
-                            .map(id -> Optional.ofNullable(productType2Service.getById(id))
-                                    .map(ProductType2::getName)
-                                    .orElse(null))
-                            .orElse(null);
+                    String p1Name = typeNames.type1Name(req.getProductType1Id());
+                    String p2Name = typeNames.type2Name(req.getProductType2Id());
 
                     // Department Names
                     List<String> deptNames = req.getDepartmentRequisitions().stream()
@@ -880,7 +903,7 @@ public class SummaryRequisitionController {
 
         // === CONVERT TỪ RequisitionMonthly → SummaryRequisitionDTO ===
         List<SummaryRequisitionDTO> dtoList = filtered.stream()
-                .map(this::convertMonthlyToSummaryDTO)
+                .map(monthly -> convertMonthlyToSummaryDTO(monthly, typeNames))
                 .collect(Collectors.toList());
 
         // === PAGINATION ===
@@ -897,7 +920,7 @@ public class SummaryRequisitionController {
         return ResponseEntity.ok(resultPage);
     }
 
-    private SummaryRequisitionDTO convertMonthlyToSummaryDTO(RequisitionMonthly monthly) {
+    private SummaryRequisitionDTO convertMonthlyToSummaryDTO(RequisitionMonthly monthly, ProductTypeNameResolver.Names typeNames) {
         // 1. Tạo SummaryRequisition giả từ Monthly
         SummaryRequisition fakeSummary = new SummaryRequisition();
         fakeSummary.setId(monthly.getId());
@@ -954,8 +977,8 @@ public class SummaryRequisitionController {
         // 7. Tạo departmentRequests DTO (có id, name, qty, buy)
         List<SummaryRequisitionDTO.DepartmentRequestDTO> deptDTOs = monthly.getDepartmentRequisitions().stream()
                 .map(d -> {
-                    Department dept = departmentRepository.findById(d.getId()).orElse(null);
-                    String deptName = dept != null ? dept.getDepartmentName() : d.getName();
+                    String cachedName = dictionaryCacheService.getDepartmentName(d.getId());
+                    String deptName = cachedName != null ? cachedName : d.getName();
                     return new SummaryRequisitionDTO.DepartmentRequestDTO(
                             d.getId(),
                             deptName,
@@ -965,19 +988,9 @@ public class SummaryRequisitionController {
                 })
                 .collect(Collectors.toList());
 
-        // 8. Lấy tên ProductType
-        String p1Name = Optional.ofNullable(monthly.getProductType1Id())
-                .filter(id -> !id.isEmpty())
-                .map(id -> Optional.ofNullable(productType1Service.getById(id))
-                        .map(ProductType1::getName)
-                        .orElse(null))
-                .orElse(null);
-        String p2Name = Optional.ofNullable(monthly.getProductType2Id())
-                .filter(id -> !id.isEmpty())
-                .map(id -> Optional.ofNullable(productType2Service.getById(id))
-                        .map(ProductType2::getName)
-                        .orElse(null))
-                .orElse(null);
+        // 8. Lấy tên ProductType (đã resolve theo lô)
+        String p1Name = typeNames.type1Name(monthly.getProductType1Id());
+        String p2Name = typeNames.type2Name(monthly.getProductType2Id());
 
         // 9. Tạo DTO
         return new SummaryRequisitionDTO(
@@ -1015,10 +1028,17 @@ public class SummaryRequisitionController {
                     "Columns: B=Item VN, C=Item EN, D=Old SAP, E=Hana Code (if any), " +
                     "H=Request, I=Inhand, J=Buy, K=Unit, N=Dept request, O=Reason, P=Picture"
     )
-    public ResponseEntity<List<RequisitionMonthly>> uploadRequisitionFile(
+    public ResponseEntity<?> uploadRequisitionFile(
             @RequestPart("file") MultipartFile file,
-            @RequestParam("groupId") String groupId
+            @RequestParam("groupId") String groupId,
+            @RequestParam(value = "async", defaultValue = "false") boolean async
     ) {
+        // ⚡ chạy qua ImportJobService: xếp hàng theo groupId, async=true -> trả jobId ngay
+        return importJobService.run("SUMMARY_WEEKLY_UPLOAD", groupId, file, async,
+                f -> doUploadRequisitionFile(f, groupId));
+    }
+
+    private ResponseEntity<List<RequisitionMonthly>> doUploadRequisitionFile(MultipartFile file, String groupId) {
 
         // ================= VALIDATE INPUT =================
         if (groupId == null || groupId.isBlank()) {
@@ -1108,31 +1128,27 @@ public class SummaryRequisitionController {
         // ✅ check duplicate theo rowKey có dept (trong file)
         Set<String> fileDeptKeys = new HashSet<>();
 
-        try (InputStream is = file.getInputStream()) {
+        // ✅ ảnh cột P: index anchor 1 lần + ghi trên pool, không chặn vòng parse
+        //    (batch đóng trước reader -> mọi return đều đợi/huỷ phần ghi ảnh)
+        try (StreamingSheetReader reader = StreamingSheetReader.open(file, true);
+             PictureBatch pictureBatch = excelPictureExtractor.extract(reader.getPictures(), 15 /* P */)) {
 
-            XSSFWorkbook workbook = new XSSFWorkbook(is);
-            Sheet sheet = workbook.getSheetAt(0);
-            if (sheet == null) {
-                return badRequest("Sheet not found.");
-            }
-
-            XSSFDrawing drawing = (XSSFDrawing) sheet.createDrawingPatriarch();
-            List<CellRangeAddress> mergedRegions = sheet.getMergedRegions();
+            Map<Integer, RequisitionMonthly> reqByPictureRow = new LinkedHashMap<>();
 
             // ================= START FROM ROW 6 (index = 5) =================
-            for (int i = 5; i <= sheet.getLastRowNum(); i++) {
-                Row row = sheet.getRow(i);
-                if (row == null) continue;
+            for (SheetRow row : reader.rows(5)) {
+                int i = row.getRowNum();
+                ImportJobService.rowRead();
 
                 // -------- READ CELLS --------
-                String itemVN = getCellValue(getMergedCellValue(sheet, i, 1, mergedRegions));
-                String itemEN = getCellValue(getMergedCellValue(sheet, i, 2, mergedRegions));
+                String itemVN = getCellValue(row.getMergedCell(1));
+                String itemEN = getCellValue(row.getMergedCell(2));
 
                 String oldSap = normalizeNew(
-                        getCellValue(getMergedCellValue(sheet, i, 3, mergedRegions))
+                        getCellValue(row.getMergedCell(3))
                 );
                 String hanaCode = normalizeNew(
-                        getCellValue(getMergedCellValue(sheet, i, 4, mergedRegions))
+                        getCellValue(row.getMergedCell(4))
                 );
 
                 // Skip row nếu không có identifier nào
@@ -1143,22 +1159,22 @@ public class SummaryRequisitionController {
                 if (!hasAnyId) continue;
 
                 BigDecimal requestQty = parseBigDecimal(
-                        getMergedCellValue(sheet, i, 7, mergedRegions)
+                        row.getMergedCell(7)
                 );
                 if (requestQty == null || requestQty.compareTo(BigDecimal.ZERO) < 0)
                     requestQty = BigDecimal.ZERO;
 
                 BigDecimal inhand = parseBigDecimal(
-                        getMergedCellValue(sheet, i, 8, mergedRegions)
+                        row.getMergedCell(8)
                 );
                 if (inhand == null || inhand.compareTo(BigDecimal.ZERO) < 0)
                     inhand = BigDecimal.ZERO;
 
                 BigDecimal buy = requestQty.subtract(inhand).max(BigDecimal.ZERO);
 
-                String unit = getCellValue(getMergedCellValue(sheet, i, 10, mergedRegions));
-                String deptName = getCellValue(getMergedCellValue(sheet, i, 13, mergedRegions));
-                String reason = getCellValue(getMergedCellValue(sheet, i, 14, mergedRegions));
+                String unit = getCellValue(row.getMergedCell(10));
+                String deptName = getCellValue(row.getMergedCell(13));
+                String reason = getCellValue(row.getMergedCell(14));
 
                 // ================= FAIL FAST: UNIT =================
                 if (unit == null || unit.trim().isEmpty()) {
@@ -1170,7 +1186,7 @@ public class SummaryRequisitionController {
                 String deptNameFromDb = null;
 
                 if (deptName != null && !deptName.trim().isEmpty()) {
-                    Department dept = departmentRepository.findByDepartmentName(deptName);
+                    Department dept = dictionaryCacheService.findDepartmentByName(deptName);
                     if (dept == null) {
                         return badRequest(
                                 "Row " + (i + 1) +
@@ -1232,27 +1248,6 @@ public class SummaryRequisitionController {
                     );
                 }
 
-                // ================= IMAGE (P) =================
-                List<String> imageUrls = new ArrayList<>();
-                for (XSSFShape shape : drawing.getShapes()) {
-                    if (shape instanceof XSSFPicture pic) {
-                        XSSFClientAnchor a = pic.getClientAnchor();
-                        int pictureCol = 15; // P
-                        if (a.getRow1() <= i && i <= a.getRow2()
-                                && a.getCol1() <= pictureCol && a.getCol2() >= pictureCol) {
-                            String ext = commonRequisitionUtils
-                                    .getImageExtension(pic.getPictureData().getMimeType());
-                            String name = "req_weekly_" + groupId + "_" + (i + 1) +
-                                    "_" + System.currentTimeMillis() + ext;
-                            String url = commonRequisitionUtils.saveImage(
-                                    pic.getPictureData().getData(), name,
-                                    pic.getPictureData().getMimeType()
-                            );
-                            if (url != null) imageUrls.add(url);
-                        }
-                    }
-                }
-
                 // ================= NEW CASE: DB đã có item theo itemKey => merge thêm phòng vào item đó =================
                 // (chỉ xảy ra khi deptRowKey chưa tồn tại vì đã fail-fast phía trên)
                 RequisitionMonthly existingItemInDb = dbByItemKey.get(itemKey);
@@ -1262,7 +1257,8 @@ public class SummaryRequisitionController {
                 }
 
                 // ================= CREATE OR MERGE ENTITY (USING SHARED FUNCTION) =================
-                commonRequisitionUtils.upsertMergedRequisition(
+                // ảnh (P) gắn sau khi pool ghi xong
+                RequisitionMonthly merged = commonRequisitionUtils.upsertMergedRequisition(
                         mergedByItemKey,
                         itemKey,
                         groupId,
@@ -1277,22 +1273,37 @@ public class SummaryRequisitionController {
                         deptId,
                         deptNameFromDb,
                         reason,
-                        imageUrls,
+                        null,
                         groupCurrency
                 );
+                if (pictureBatch.hasPictures(i)) {
+                    reqByPictureRow.put(i, merged);
+                }
             }
 
             if (mergedByItemKey.isEmpty()) {
                 return badRequest("No valid data found starting from row 6.");
             }
 
+            // ================= IMAGE: chờ pool, gắn url theo thứ tự row =================
+            Map<Integer, List<String>> urlsByRow = pictureBatch.awaitUrlsByRow(reqByPictureRow.keySet());
+            for (Map.Entry<Integer, RequisitionMonthly> e : reqByPictureRow.entrySet()) {
+                CommonRequisitionUtils.appendImageUrls(e.getValue(), urlsByRow.get(e.getKey()));
+            }
+
             List<RequisitionMonthly> requisitions = new ArrayList<>(mergedByItemKey.values());
+            ImportJobService.rowsMerged(requisitions.size());
 
             // vẫn saveAll như cũ:
             // - item mới => insert
             // - item đã seed từ DB => update (merge dept + totals)
-            return ResponseEntity.status(HttpStatus.CREATED)
-                    .body(requisitionMonthlyRepository.saveAll(requisitions));
+            ImportJobService.phase("WRITE");
+            List<RequisitionMonthly> saved = requisitionMonthlyRepository.saveAll(requisitions);
+            ImportJobService.rowsWritten(saved.size());
+            // ✅ đã lưu -> giữ ref ảnh của các row đã gắn, phần còn lại trả lại khi batch đóng
+            pictureBatch.commit();
+
+            return ResponseEntity.status(HttpStatus.CREATED).body(saved);
 
         } catch (Exception e) {
             return badRequest("Error processing file: " + e.getMessage());
@@ -1317,29 +1328,30 @@ public class SummaryRequisitionController {
         );
     }
 
-    private String getCellValue(Cell cell) {
-        if (cell == null) return null;
+    // công thức -> null như cũ (trước đây case FORMULA rơi vào default)
+    private String getCellValue(SheetCell cell) {
+        if (cell == null || cell.isFormula()) return null;
         switch (cell.getCellType()) {
             case STRING:
-                return cell.getStringCellValue().trim();
+                return cell.getStringValue().trim();
             case NUMERIC:
-                return String.valueOf(cell.getNumericCellValue());
+                return String.valueOf(cell.getNumericValue());
             case BOOLEAN:
-                return String.valueOf(cell.getBooleanCellValue());
+                return String.valueOf(cell.getBooleanValue());
             default:
                 return null;
         }
     }
 
-    private BigDecimal parseBigDecimal(Cell cell) {
+    private BigDecimal parseBigDecimal(SheetCell cell) {
         if (cell == null) return null;
         try {
-            if (cell.getCellType() == CellType.NUMERIC) {
-                return BigDecimal.valueOf(cell.getNumericCellValue());
+            if (cell.isFormula()) {
+                return cell.getCellType() == CellType.NUMERIC ? BigDecimal.valueOf(cell.getNumericValue()) : null;
+            } else if (cell.getCellType() == CellType.NUMERIC) {
+                return BigDecimal.valueOf(cell.getNumericValue());
             } else if (cell.getCellType() == CellType.STRING) {
-                return new BigDecimal(cell.getStringCellValue().trim());
-            } else if (cell.getCellType() == CellType.FORMULA) {
-                return BigDecimal.valueOf(cell.getNumericCellValue());
+                return new BigDecimal(cell.getStringValue().trim());
             }
         } catch (Exception e) {
             return null;
@@ -1347,18 +1359,6 @@ public class SummaryRequisitionController {
         return null;
     }
 
-    private Cell getMergedCellValue(Sheet sheet, int rowIndex, int colIndex, List<CellRangeAddress> mergedRegions) {
-        for (CellRangeAddress range : mergedRegions) {
-            if (range.isInRange(rowIndex, colIndex)) {
-                Row firstRow = sheet.getRow(range.getFirstRow());
-                return firstRow.getCell(range.getFirstColumn(), Row.MissingCellPolicy.RETURN_NULL_AND_BLANK);
-            }
-        }
-        Row row = sheet.getRow(rowIndex);
-        if (row == null) return null;
-        return row.getCell(colIndex, Row.MissingCellPolicy.RETURN_NULL_AND_BLANK);
-    }
-
     @GetMapping("/search/comparison")
     @Operation(
             summary = "Search requisitions for comparison by group ID and optional filters",
@@ -1393,6 +1393,15 @@ public class SummaryRequisitionController {
         // Fetch all by groupId
         List<RequisitionMonthly> allMonthly = requisitionMonthlyRepository.findByGroupId(groupId);
 
+        // ⚡ resolve tên type 1 lần cho cả group
+        final ProductTypeNameResolver.Names typeNames = productTypeNameResolver.resolve(
+                allMonthly, RequisitionMonthly::getProductType1Id, RequisitionMonthly::getProductType2Id);
+
+        // ⚡ supplierName filter: tên supplier của cả group trong 1 query $in (chỉ _id + supplierName)
+        final Map<String, String> supplierNameById = (hasFilter && supplierName != null && !supplierName.isBlank())
+                ? loadSupplierNames(allMonthly)
+                : Collections.emptyMap();
+
         // Map -> Summary + Filter + Sort desc
         List<SummaryRequisition> filtered = allMonthly.stream()
                 .map(this::mapToSummaryRequisition)
@@ -1401,8 +1410,8 @@ public class SummaryRequisitionController {
 
                     boolean matches = true;
 
-                    String reqType1Name = getType1Name(req.getProductType1Id());
-                    String reqType2Name = getType2Name(req.getProductType2Id());
+                    String reqType1Name = getType1Name(typeNames, req.getProductType1Id());
+                    String reqType2Name = getType2Name(typeNames, req.getProductType2Id());
 
                     List<String> deptNames = (req.getDepartmentRequestQty() != null)
                             ? req.getDepartmentRequestQty().keySet().stream()
@@ -1434,14 +1443,10 @@ public class SummaryRequisitionController {
                                 && req.getHanaSapCode().toLowerCase().contains(hanaSapCode.toLowerCase());
                     }
 
-                    // supplierName filter: lấy supplierName từ supplierId (NO CACHE)
+                    // supplierName filter: supplierName theo supplierId (đã prefetch)
                     if (supplierName != null && !supplierName.isBlank()) {
                         String sid = normText(req.getSupplierId());
-                        SupplierProduct sp = (sid != null)
-                                ? supplierProductRepository.findById(sid).orElse(null)
-                                : null;
-
-                        String reqSupplierName = (sp != null && sp.getSupplierName() != null) ? sp.getSupplierName() : "";
+                        String reqSupplierName = sid != null ? supplierNameById.getOrDefault(sid, "") : "";
                         matches = matches && reqSupplierName.toLowerCase().contains(supplierName.toLowerCase());
                     }
 
@@ -1473,8 +1478,18 @@ public class SummaryRequisitionController {
             pageItems = filtered.subList(start, end);
         }
 
+        // ⚡ supplier candidate của các dòng trong trang: gom key, prefetch theo lô (dòng trùng key không query lại)
+        final SupplierCandidateResolver.Candidates candidates = supplierCandidateResolver.prefetch(pageItems,
+                req -> {
+                    String status = normText(req.getStatusBestPrice());
+                    boolean finalized = status != null && ("Yes".equalsIgnoreCase(status) || "No".equalsIgnoreCase(status));
+                    if (finalized || normText(req.getSupplierId()) == null) return null;
+                    return SupplierCandidateResolver.Key.of(req.getOldSapCode(), req.getHanaSapCode(),
+                            req.getVietnameseName(), req.getEnglishName(), req.getUnit(), groupCurrency);
+                });
+
         List<ComparisonRequisitionDTO> dtoList = pageItems.stream()
-                .map(req -> convertToDtos_NoCache(req, groupCurrency, finalRemoveDup))
+                .map(req -> convertToDtos_NoCache(req, groupCurrency, finalRemoveDup, candidates, typeNames))
                 .collect(Collectors.toList());
 
         BigDecimal totalAmt = BigDecimal.ZERO;
@@ -1499,6 +1514,21 @@ public class SummaryRequisitionController {
         ));
     }
 
+    private Map<String, String> loadSupplierNames(List<RequisitionMonthly> requisitions) {
+        Set<String> ids = new HashSet<>();
+        for (RequisitionMonthly rm : requisitions) {
+            String sid = normText(rm.getSupplierId());
+            if (sid != null) ids.add(sid);
+        }
+        if (ids.isEmpty()) return Collections.emptyMap();
+
+        Map<String, String> names = new HashMap<>();
+        for (SupplierProduct sp : supplierProductRepository.findNamesByIds(ids)) {
+            if (sp.getSupplierName() != null) names.put(sp.getId(), sp.getSupplierName());
+        }
+        return names;
+    }
+
 // =========================================================
 // MAPPING
 // =========================================================
@@ -1546,7 +1576,9 @@ public class SummaryRequisitionController {
     private ComparisonRequisitionDTO convertToDtos_NoCache(
             SummaryRequisition req,
             String groupCurrency,
-            boolean removeDuplicateSuppliers
+            boolean removeDuplicateSuppliers,
+            SupplierCandidateResolver.Candidates candidates,
+            ProductTypeNameResolver.Names typeNames
     ) {
         List<ComparisonRequisitionDTO.SupplierDTO> suppliers = Collections.emptyList();
 
@@ -1655,7 +1687,7 @@ public class SummaryRequisitionController {
                 String reqUnit = normText(unit);
                 if (reqUnit != null) {
 
-                    List<SupplierProduct> supplierProducts = commonRequisitionUtils.searchSupplierProductsByPriority(
+                    List<SupplierProduct> supplierProducts = candidates.search(
                             req.getOldSapCode(),
                             req.getHanaSapCode(),
                             req.getVietnameseName(),
@@ -1787,8 +1819,8 @@ public class SummaryRequisitionController {
                         .collect(Collectors.toList())
                         : Collections.emptyList();
 
-        String type1Name = getType1Name(req.getProductType1Id());
-        String type2Name = getType2Name(req.getProductType2Id());
+        String type1Name = getType1Name(typeNames, req.getProductType1Id());
+        String type2Name = getType2Name(typeNames, req.getProductType2Id());
 
         ComparisonRequisitionDTO dto = new ComparisonRequisitionDTO(
                 req.getId(),
@@ -1910,23 +1942,20 @@ public class SummaryRequisitionController {
         return "new".equalsIgnoreCase(t) ? null : t;
     }
 
-    private String getType1Name(String type1Id) {
-        if (type1Id == null || type1Id.isBlank()) return "";
-        ProductType1 t1 = productType1Service.getById(type1Id.trim());
-        return (t1 != null && t1.getName() != null) ? t1.getName() : "";
+    private static String getType1Name(ProductTypeNameResolver.Names typeNames, String type1Id) {
+        String name = typeNames.type1Name(type1Id);
+        return name != null ? name : "";
     }
 
-    private String getType2Name(String type2Id) {
-        if (type2Id == null || type2Id.isBlank()) return "";
-        ProductType2 t2 = productType2Service.getById(type2Id.trim());
-        return (t2 != null && t2.getName() != null) ? t2.getName() : "";
+    private static String getType2Name(ProductTypeNameResolver.Names typeNames, String type2Id) {
+        String name = typeNames.type2Name(type2Id);
+        return name != null ? name : "";
     }
 
     private String getDeptName(String deptId) {
         if (deptId == null || deptId.isBlank()) return "Unknown";
-        return departmentRepository.findById(deptId.trim())
-                .map(Department::getDepartmentName)
-                .orElse("Unknown");
+        String name = dictionaryCacheService.getDepartmentName(deptId);
+        return name != null ? name : "Unknown";
     }
 
     @PatchMapping("/mark-completed")
@@ -2055,6 +2084,10 @@ public class SummaryRequisitionController {
 
             List<RequisitionMonthly> saved = requisitionMonthlyRepository.saveAll(requisitions);
 
+            // ✅ bỏ khỏi read model purchase history
+            purchaseHistoryService.removeForRequisitions(
+                    saved.stream().map(RequisitionMonthly::getId).toList());
+
             return ResponseEntity.ok(Map.of(
                     "message", "Successfully unmarked as completed",
                     "updatedCount", saved.size(),
@@ -8,11 +8,14 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.validation.Valid;
 import org.apache.logging.log4j.LogManager;
 import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import io.swagger.v3.oas.annotations.parameters.RequestBody;
 import org.bsl.pricecomparison.common.CommonRequisitionUtils;
+import org.bsl.pricecomparison.common.JsonStreamWriter;
+import org.bsl.pricecomparison.common.StreamingSheetReader;
+import org.bsl.pricecomparison.common.StreamingSheetReader.SheetRow;
 import org.bsl.pricecomparison.costom.SupplierProductRepositoryCustom;
 import org.bsl.pricecomparison.dto.SupplierProductDTO;
+import org.bsl.pricecomparison.enums.MatchMode;
 import org.bsl.pricecomparison.exception.DuplicateSupplierProductException;
 import org.bsl.pricecomparison.model.ProductType1;
 import org.bsl.pricecomparison.model.ProductType2;
@@ -21,6 +24,10 @@ import org.bsl.pricecomparison.model.SupplierProduct;
 import org.bsl.pricecomparison.repository.*;
 import org.bsl.pricecomparison.request.CreateProductRequest;
 import org.bsl.pricecomparison.request.UpdateProductRequest;
+import org.bsl.pricecomparison.service.DictionaryCacheService;
+import org.bsl.pricecomparison.service.ImportJobService;
+import org.bsl.pricecomparison.service.ProductTypeNameResolver;
+import org.bsl.pricecomparison.service.UploadStorageService;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.*;
@@ -34,7 +41,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.nio.file.*;
 import java.text.DecimalFormat;
 import java.time.LocalDateTime;
 import java.util.*;
@@ -69,7 +75,24 @@ public class SupplierProductController {
     @Autowired
     private CommonRequisitionUtils commonRequisitionUtils;
 
-    private static final String UPLOAD_DIR = "uploads/";
+    @Autowired
+    private JsonStreamWriter jsonStreamWriter;
+
+    @Autowired
+    private ProductTypeNameResolver productTypeNameResolver;
+
+    @Autowired
+    private DictionaryCacheService dictionaryCacheService;
+
+    @Autowired
+    private ImportJobService importJobService;
+
+    @Autowired
+    private UploadStorageService uploadStorageService;
+
+    // import bảng giá không có groupId -> xếp hàng chung 1 key
+    private static final String IMPORT_JOB_GROUP = "supplier-products";
+
     private static final Logger logger = LoggerFactory.getLogger(SupplierProductController.class);
 
     private boolean checkDuplicate(SupplierProduct product, String excludeId) {
@@ -98,6 +121,10 @@ public class SupplierProductController {
             Pageable pageable = PageRequest.of(page, limit, Sort.by(Sort.Direction.DESC, "createdAt"));
             Page<SupplierProduct> products = repository.findAll(pageable);
 
+            // ⚡ resolve tên type cho cả page: 1 query $in mỗi loại
+            ProductTypeNameResolver.Names typeNames = productTypeNameResolver.resolve(
+                    products.getContent(), SupplierProduct::getProductType1Id, SupplierProduct::getProductType2Id);
+
             Page<SupplierProductDTO> result = products.map(product -> {
                 SupplierProductDTO dto = new SupplierProductDTO();
                 BeanUtils.copyProperties(product, dto);
@@ -106,17 +133,8 @@ public class SupplierProductController {
                     dto.setImageUrls(new ArrayList<>());
                 }
 
-                if (product.getProductType1Id() != null) {
-                    productType1Repository.findById(product.getProductType1Id()).ifPresent(type1 -> {
-                        dto.setProductType1Name(type1.getName());
-                    });
-                }
-
-                if (product.getProductType2Id() != null) {
-                    productType2Repository.findById(product.getProductType2Id()).ifPresent(type2 -> {
-                        dto.setProductType2Name(type2.getName());
-                    });
-                }
+                dto.setProductType1Name(typeNames.type1Name(product.getProductType1Id()));
+                dto.setProductType2Name(typeNames.type2Name(product.getProductType2Id()));
 
                 return dto;
             });
@@ -178,14 +196,8 @@ public class SupplierProductController {
             List<String> imageUrls = supplierProduct.getImageUrls();
             if (imageUrls != null && !imageUrls.isEmpty()) {
                 for (String imageUrl : imageUrls) {
-                    if (imageUrl != null && !imageUrl.isEmpty()) {
-                        try {
-                            Path path = Paths.get(UPLOAD_DIR + imageUrl.replace("/uploads/", ""));
-                            Files.deleteIfExists(path);
-                            logger.info("Deleted image file: {}", path);
-                        } catch (IOException e) {
-                            logger.warn("Failed to delete image file {}: {}", imageUrl, e.getMessage());
-                        }
+                    if (imageUrl != null && !imageUrl.isEmpty() && uploadStorageService.release(imageUrl)) {
+                        logger.info("Deleted image file: {}", imageUrl);
                     }
                 }
             }
@@ -236,10 +248,17 @@ public class SupplierProductController {
     }
 
     @GetMapping("/search")
-    public ResponseEntity<Map<String, Object>> searchByItemNoOrSapCode(
+    public ResponseEntity<?> searchByItemNoOrSapCode(
             @RequestParam(required = false) String itemNo,
-            @RequestParam(required = false) String sapCode) {
+            @RequestParam(required = false) String sapCode,
+            @RequestParam(defaultValue = "false") boolean stream) {
         try {
+            // ⚡ không filter + stream=true: ghi "data" từ cursor, cùng shape {message, data}
+            if (stream && itemNo == null && sapCode == null) {
+                return jsonStreamWriter.object(
+                        Map.of("message", "Supplier products retrieved successfully"), "data", repository::streamAll);
+            }
+
             List<SupplierProduct> products;
             if (itemNo != null && sapCode != null) {
                 products = repository.findByItemNoContainingIgnoreCaseAndSapCodeContainingIgnoreCase(itemNo, sapCode);
@@ -274,33 +293,38 @@ public class SupplierProductController {
 
     @PostMapping(value = "/import", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     @Operation(summary = "Import from Excel", description = "Upload an Excel .xlsx file with columns in the order: supplierCode, supplierName, sapCode, itemNo, itemDescription, size, price, unit, currency, goodType")
-    public ResponseEntity<Map<String, Object>> importExcel(
+    public ResponseEntity<?> importExcel(
             @Parameter(description = "Excel .xlsx file containing product data")
-            @RequestPart("file") MultipartFile file) {
+            @RequestPart("file") MultipartFile file,
+            @Parameter(description = "true -> return jobId immediately, poll /api/import-jobs/{jobId}")
+            @RequestParam(value = "async", defaultValue = "false") boolean async) {
+        return importJobService.run("SUPPLIER_PRODUCT_IMPORT", IMPORT_JOB_GROUP, file, async, this::doImportExcel);
+    }
+
+    private ResponseEntity<Map<String, Object>> doImportExcel(MultipartFile file) {
         try {
             List<SupplierProduct> products = new ArrayList<>();
 
-            try (InputStream is = file.getInputStream(); Workbook workbook = new XSSFWorkbook(is)) {
-                Sheet sheet = workbook.getSheetAt(0);
-                DataFormatter formatter = new DataFormatter();
+            try (StreamingSheetReader reader = StreamingSheetReader.open(file)) {
                 boolean firstRow = true;
 
-                for (Row row : sheet) {
+                for (SheetRow row : reader.rows(0)) {
                     if (firstRow) {
                         firstRow = false;
                         continue;
                     }
-
-                    String supplierCode = formatter.formatCellValue(row.getCell(0));
-                    String supplierName = formatter.formatCellValue(row.getCell(1));
-                    String sapCode = formatter.formatCellValue(row.getCell(2));
-                    String itemNo = formatter.formatCellValue(row.getCell(3));
-                    String itemDescription = formatter.formatCellValue(row.getCell(4));
-                    String size = formatter.formatCellValue(row.getCell(5));
-                    String priceText = formatter.formatCellValue(row.getCell(6));
-                    String unit = formatter.formatCellValue(row.getCell(7));
-                    String currency = formatter.formatCellValue(row.getCell(8));
-                    String goodType = formatter.formatCellValue(row.getCell(9));
+                    ImportJobService.rowRead();
+
+                    String supplierCode = row.getFormatted(0);
+                    String supplierName = row.getFormatted(1);
+                    String sapCode = row.getFormatted(2);
+                    String itemNo = row.getFormatted(3);
+                    String itemDescription = row.getFormatted(4);
+                    String size = row.getFormatted(5);
+                    String priceText = row.getFormatted(6);
+                    String unit = row.getFormatted(7);
+                    String currency = row.getFormatted(8);
+                    String goodType = row.getFormatted(9);
 
                     // Validate currency
                     if (currency == null || currency.trim().isEmpty()) {
@@ -382,7 +406,10 @@ public class SupplierProductController {
                 }
             }
 
+            ImportJobService.rowsMerged(products.size());
+            ImportJobService.phase("WRITE");
             List<SupplierProduct> savedProducts = repository.saveAll(products);
+            ImportJobService.rowsWritten(savedProducts.size());
             return ResponseEntity.status(HttpStatus.CREATED)
                     .body(Map.of("message", "Supplier products imported successfully", "data", savedProducts));
         } catch (DuplicateSupplierProductException e) {
@@ -562,12 +589,8 @@ public class SupplierProductController {
                 for (String imageUrl : imagesToDelete) {
                     if (imageUrl != null && imageUrls.contains(imageUrl)) {
                         imageUrls.remove(imageUrl);
-                        try {
-                            Path path = Paths.get(UPLOAD_DIR + imageUrl.replace("/uploads/", ""));
-                            Files.deleteIfExists(path);
-                            logger.info("Deleted image file: {}", path);
-                        } catch (IOException e) {
-                            logger.warn("Failed to delete image file {}: {}", imageUrl, e.getMessage());
+                        if (uploadStorageService.release(imageUrl)) {
+                            logger.info("Deleted image file: {}", imageUrl);
                         }
                     } else {
                         logger.warn("Image URL {} not found in product or invalid", imageUrl);
@@ -619,14 +642,7 @@ public class SupplierProductController {
             throw new IOException("Only JPEG, PNG, and GIF files are allowed");
         }
 
-        String fileName = System.currentTimeMillis() + "_" + file.getOriginalFilename();
-        Path path = Paths.get(UPLOAD_DIR + fileName);
-
-        Files.createDirectories(path.getParent());
-
-        file.transferTo(path);
-
-        return "/uploads/" + fileName;
+        return uploadStorageService.store(file);
     }
 
     @GetMapping("/filter")
@@ -647,6 +663,8 @@ public class SupplierProductController {
             @RequestParam(required = false, defaultValue = "") String goodType,
             @RequestParam(required = false, defaultValue = "") String productType1Id,
             @RequestParam(required = false, defaultValue = "") String productType2Id,
+            // ✅ exact | prefix | contains (mặc định contains như cũ) cho sapCode / hanaSapCode
+            @RequestParam(required = false, defaultValue = "contains") String matchMode,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size
     ) {
@@ -668,9 +686,14 @@ public class SupplierProductController {
                     goodType,
                     productType1Id,
                     productType2Id,
+                    MatchMode.from(matchMode, MatchMode.CONTAINS),
                     pageable
             );
 
+            // ⚡ resolve tên type cho cả page: 1 query $in mỗi loại
+            ProductTypeNameResolver.Names typeNames = productTypeNameResolver.resolve(
+                    supplierProducts.getContent(), SupplierProduct::getProductType1Id, SupplierProduct::getProductType2Id);
+
             Page<SupplierProductDTO> result = supplierProducts.map(product -> {
                 SupplierProductDTO dto = new SupplierProductDTO();
                 dto.setId(Objects.toString(product.getId(), ""));
@@ -693,21 +716,8 @@ public class SupplierProductController {
                 dto.setCreatedAt(product.getCreatedAt());
                 dto.setUpdatedAt(product.getUpdatedAt());
 
-                if (product.getProductType1Id() != null && !product.getProductType1Id().isEmpty()) {
-                    productType1Repository.findById(product.getProductType1Id()).ifPresent(type1 -> {
-                        dto.setProductType1Name(Objects.toString(type1.getName(), ""));
-                    });
-                } else {
-                    dto.setProductType1Name("");
-                }
-
-                if (product.getProductType2Id() != null && !product.getProductType2Id().isEmpty()) {
-                    productType2Repository.findById(product.getProductType2Id()).ifPresent(type2 -> {
-                        dto.setProductType2Name(Objects.toString(type2.getName(), ""));
-                    });
-                } else {
-                    dto.setProductType2Name("");
-                }
+                dto.setProductType1Name(Objects.toString(typeNames.type1Name(product.getProductType1Id()), ""));
+                dto.setProductType2Name(Objects.toString(typeNames.type2Name(product.getProductType2Id()), ""));
 
                 return dto;
             });
@@ -737,6 +747,8 @@ public class SupplierProductController {
             @RequestParam(required = false, defaultValue = "") String supplierName,
             @RequestParam(required = false, defaultValue = "") String currency,
             @RequestParam(required = false, defaultValue = "") String unit,
+            // ✅ exact | prefix | contains (mặc định contains như cũ) cho sapCode / hanaSapCode / currency / unit
+            @RequestParam(required = false, defaultValue = "contains") String matchMode,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size
             // ✅ nếu muốn ưu tiên selected supplier thì mở dòng này
@@ -749,27 +761,28 @@ public class SupplierProductController {
                 currency = "EURO";
             }
 
-            Page<SupplierProduct> supplierProductsUnFilter =
-                    supplierProductRepositoryCustom.findByFiltersWithPagination(
-                            sapCode, hanaSapCode, itemDescriptionVN, itemDescriptionEN, supplierName, currency, unit, pageable
-                    );
-
             // ✅ loại bỏ giá cũ nếu tồn tại 2 giá 1 nhà cung cấp lấy giá gần nhất
             Optional<RequisitionMonthly> requisitionOptional = requisitionMonthlyRepository.findById(requisitionId);
             String selectedSupplierId = requisitionOptional
                     .map(RequisitionMonthly::getSupplierId)
                     .orElse("");
-            // ✅ DEDUPE theo company (giữ newest + prefer selected nếu có)
-            List<SupplierProduct> deduped =
-                    commonRequisitionUtils.dedupeLatestByCompanyPreferSelected(
-                            supplierProductsUnFilter.getContent(),
-                            selectedSupplierId
+
+            // ⚡ DEDUPE theo company (giữ newest + prefer selected) chạy trong aggregation
+            //    -> mỗi trang đúng `size` dòng, totalElements đúng sau dedupe
+            Page<SupplierProduct> dedupedPage =
+                    supplierProductRepositoryCustom.findLatestPerCompanyWithPagination(
+                            sapCode, hanaSapCode, itemDescriptionVN, itemDescriptionEN, supplierName, currency, unit,
+                            selectedSupplierId, MatchMode.from(matchMode, MatchMode.CONTAINS), pageable
                     );
-            // End
+            List<SupplierProduct> deduped = dedupedPage.getContent();
 
             final String currencyFilter = currency != null ? currency.trim() : "";
             final String unitFilter = unit != null ? unit.trim() : "";
 
+            // ⚡ resolve tên type cho cả list: 1 query $in mỗi loại
+            final ProductTypeNameResolver.Names typeNames = productTypeNameResolver.resolve(
+                    deduped, SupplierProduct::getProductType1Id, SupplierProduct::getProductType2Id);
+
             // ✅ map DTO từ LIST (không còn getContent())
             List<SupplierProductDTO> dtoList = deduped.stream().map(product -> {
                 SupplierProductDTO dto = new SupplierProductDTO();
@@ -791,19 +804,8 @@ public class SupplierProductController {
                 dto.setProductType2Id(Objects.toString(product.getProductType2Id(), ""));
                 dto.setCreatedAt(product.getCreatedAt());
 
-                if (product.getProductType1Id() != null && !product.getProductType1Id().isEmpty()) {
-                    productType1Repository.findById(product.getProductType1Id())
-                            .ifPresent(type1 -> dto.setProductType1Name(Objects.toString(type1.getName(), "")));
-                } else {
-                    dto.setProductType1Name("");
-                }
-
-                if (product.getProductType2Id() != null && !product.getProductType2Id().isEmpty()) {
-                    productType2Repository.findById(product.getProductType2Id())
-                            .ifPresent(type2 -> dto.setProductType2Name(Objects.toString(type2.getName(), "")));
-                } else {
-                    dto.setProductType2Name("");
-                }
+                dto.setProductType1Name(Objects.toString(typeNames.type1Name(product.getProductType1Id()), ""));
+                dto.setProductType2Name(Objects.toString(typeNames.type2Name(product.getProductType2Id()), ""));
 
                 // ✅ add last purchase (NO CACHE + 4-case search on requisitionMonthlyRepository)
                 applyLastPurchaseForSupplierProduct_NoCache(dto, product, currencyFilter, unitFilter);
@@ -827,9 +829,9 @@ public class SupplierProductController {
 
             dtoList.sort(supplierSort);
 
-            // ✅ totalElements: sau dedupe số lượng thay đổi => dùng dtoList.size()
+            // ✅ totalElements: đếm sau dedupe ($facet)
             Page<SupplierProductDTO> sortedPage =
-                    new PageImpl<>(dtoList, pageable, dtoList.size());
+                    new PageImpl<>(dtoList, pageable, dedupedPage.getTotalElements());
 
             return ResponseEntity.ok(Map.of(
                     "message", "Supplier products filtered successfully",
@@ -950,21 +952,23 @@ public class SupplierProductController {
             summary = "Import price list - Multiple suppliers horizontally (new format)",
             description = "Validates entire file first. Stops immediately on first duplicate based on rules (hana -> old -> supplier+price+currency)."
     )
-    public ResponseEntity<Map<String, Object>> importNewFormatExcel(
-            @RequestPart("file") MultipartFile file) {
+    public ResponseEntity<?> importNewFormatExcel(
+            @RequestPart("file") MultipartFile file,
+            @RequestParam(value = "async", defaultValue = "false") boolean async) {
+        return importJobService.run("SUPPLIER_PRODUCT_IMPORT_NEW_FORMAT", IMPORT_JOB_GROUP, file, async,
+                this::doImportNewFormatExcel);
+    }
+
+    private ResponseEntity<Map<String, Object>> doImportNewFormatExcel(MultipartFile file) {
 
         List<SupplierProduct> productsToSave = new ArrayList<>();
         Map<String, String> type1Cache = new HashMap<>();
         Map<String, String> type2Cache = new HashMap<>();
 
-        try (InputStream is = file.getInputStream();
-             Workbook workbook = new XSSFWorkbook(is)) {
-
-            Sheet sheet = workbook.getSheetAt(0);
-            DataFormatter formatter = new DataFormatter();
+        try (StreamingSheetReader reader = StreamingSheetReader.open(file)) {
 
             // Row 3 (index 2): supplier header row
-            Row supplierHeaderRow = sheet.getRow(2);
+            SheetRow supplierHeaderRow = reader.readRows(2, 3).get(2);
             if (supplierHeaderRow == null) {
                 throw new IllegalArgumentException("Supplier header row (row 3) not found.");
             }
@@ -978,7 +982,7 @@ public class SupplierProductController {
             // Build supplier map: colIndex -> supplierName
             Map<Integer, String> priceColToSupplierName = new HashMap<>();
             for (int col = SUPPLIER_PRICE_START_COL; col < GOODTYPE_COL; col++) {
-                String supplierName = formatter.formatCellValue(supplierHeaderRow.getCell(col)).trim();
+                String supplierName = supplierHeaderRow.getFormatted(col).trim();
                 if (!supplierName.isEmpty()) {
                     priceColToSupplierName.put(col, supplierName);
                 }
@@ -988,22 +992,22 @@ public class SupplierProductController {
             }
 
             // Iterate data rows (start row 4 => index 3)
-            for (int rowIndex = 3; rowIndex <= sheet.getLastRowNum(); rowIndex++) {
-                Row row = sheet.getRow(rowIndex);
-                if (row == null) continue;
+            for (SheetRow row : reader.rows(3)) {
+                int rowIndex = row.getRowNum();
+                ImportJobService.rowRead();
 
-                String type1Name = formatter.formatCellValue(row.getCell(0)).trim();
-                String type2Name = formatter.formatCellValue(row.getCell(1)).trim();
-                String descriptionEn = formatter.formatCellValue(row.getCell(2));
-                String descriptionVn = formatter.formatCellValue(row.getCell(3));
+                String type1Name = row.getFormatted(0).trim();
+                String type2Name = row.getFormatted(1).trim();
+                String descriptionEn = row.getFormatted(2);
+                String descriptionVn = row.getFormatted(3);
 
                 // ✅ mapping đúng yêu cầu
-                String oldSapCode = formatter.formatCellValue(row.getCell(4)).trim(); // old
-                String hanaCode = formatter.formatCellValue(row.getCell(5)).trim();   // new (hana)
+                String oldSapCode = row.getFormatted(4).trim(); // old
+                String hanaCode = row.getFormatted(5).trim();   // new (hana)
 
-                String unit = formatter.formatCellValue(row.getCell(UNIT_COL)).trim();
-                String currencyRaw = formatter.formatCellValue(row.getCell(CURRENCY_COL)).trim();
-                String goodTypeRaw = formatter.formatCellValue(row.getCell(GOODTYPE_COL)).trim();
+                String unit = row.getFormatted(UNIT_COL).trim();
+                String currencyRaw = row.getFormatted(CURRENCY_COL).trim();
+                String goodTypeRaw = row.getFormatted(GOODTYPE_COL).trim();
 
                 boolean isEndOfData =
                         type1Name.isEmpty()
@@ -1036,9 +1040,11 @@ public class SupplierProductController {
                     if (name == null || name.trim().isEmpty()) return null;
                     return productType1Repository.findByName(name.trim())
                             .map(ProductType1::getId)
-                            .orElseGet(() ->
-                                    productType1Repository.save(new ProductType1(name.trim(), LocalDateTime.now())).getId()
-                            );
+                            .orElseGet(() -> {
+                                String newId = productType1Repository.save(new ProductType1(name.trim(), LocalDateTime.now())).getId();
+                                dictionaryCacheService.invalidate(DictionaryCacheService.Dictionary.PRODUCT_TYPE1);
+                                return newId;
+                            });
                 });
 
                 // Resolve ProductType2
@@ -1053,7 +1059,9 @@ public class SupplierProductController {
                                         newType2.setName(type2Name.trim());
                                         newType2.setProductType1Id(type1Id);
                                         newType2.setCreatedDate(LocalDateTime.now());
-                                        return productType2Repository.save(newType2).getId();
+                                        String newId = productType2Repository.save(newType2).getId();
+                                        dictionaryCacheService.invalidate(DictionaryCacheService.Dictionary.PRODUCT_TYPE2);
+                                        return newId;
                                     })
                     );
                 }
@@ -1066,7 +1074,7 @@ public class SupplierProductController {
                     // ✅ model bắt buộc supplierCode; file chỉ có supplierName => tạm dùng supplierName
                     String supplierCode = supplierName;
 
-                    String priceText = formatter.formatCellValue(row.getCell(priceColIdx));
+                    String priceText = row.getFormatted(priceColIdx);
                     if (priceText == null || priceText.trim().isEmpty()) continue;
 
                     BigDecimal price = parsePrice(priceText, currency, rowIndex + 1);
@@ -1145,7 +1153,10 @@ public class SupplierProductController {
                 }
             }
 
+            ImportJobService.rowsMerged(productsToSave.size());
+            ImportJobService.phase("WRITE");
             List<SupplierProduct> saved = repository.saveAll(productsToSave);
+            ImportJobService.rowsWritten(saved.size());
 
             return ResponseEntity.ok(Map.of(
                     "message", "Import successful!",
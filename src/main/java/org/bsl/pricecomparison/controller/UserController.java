@@ -20,12 +20,12 @@ import org.bsl.pricecomparison.request.UserRequest;
 import org.bsl.pricecomparison.security.JwtUtil;
 import org.bsl.pricecomparison.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -39,6 +39,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
@@ -69,6 +70,7 @@ public class UserController {
     private static final Logger logger = LoggerFactory.getLogger(UserController.class);
     private static final String UPLOAD_DIR = "uploads/users/";
     private static final long MAX_FILE_SIZE = 5 * 1024 * 1024; // 5MB
+    private static final Duration PROFILE_IMAGE_MAX_AGE = Duration.ofMinutes(10);
 
     // Set để lưu các token đã bị blacklist (để invalidate token khi logout)
     private final Set<String> blacklistedTokens = new HashSet<>();
@@ -191,6 +193,22 @@ public class UserController {
         return "/uploads/users/" + fileName;
     }
 
+    /**
+     * "/uploads/users/{file}" -> uploads/users/{file}; null nếu rỗng hoặc trỏ ra ngoài UPLOAD_DIR.
+     */
+    private Path resolveProfileImagePath(String profileImageUrl) {
+        if (profileImageUrl == null || profileImageUrl.isBlank()) {
+            return null;
+        }
+        String fileName = profileImageUrl.substring(profileImageUrl.lastIndexOf('/') + 1);
+        if (fileName.isEmpty()) {
+            return null;
+        }
+        Path root = Paths.get(UPLOAD_DIR).toAbsolutePath().normalize();
+        Path filePath = root.resolve(fileName).normalize();
+        return filePath.startsWith(root) ? filePath : null;
+    }
+
     @GetMapping
     @Operation(
             summary = "Filter users",
@@ -740,24 +758,27 @@ public class UserController {
                         .body(Map.of("message", "Unauthorized to access this user's image"));
             }
 
-            // Tìm file ảnh dựa trên id
-            String fileNamePattern = id + "_.*\\.(jpg|png|gif)";
-            Path uploadPath = Paths.get(UPLOAD_DIR);
-            Optional<Path> imagePath = Files.list(uploadPath)
-                    .filter(path -> path.getFileName().toString().matches(fileNamePattern))
-                    .findFirst();
-
-            if (!imagePath.isPresent()) {
+            // ⚡ Đường dẫn ảnh lấy từ user.profileImageUrl (đã lưu khi upload) -> không list cả thư mục uploads/users
+            Path filePath = resolveProfileImagePath(user.getProfileImageUrl());
+            if (filePath == null || !Files.isRegularFile(filePath)) {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND)
                         .body(Map.of("message", "No profile image found for user with ID: " + id));
             }
 
-            Path filePath = imagePath.get();
-            Resource resource = new UrlResource(filePath.toUri());
+            // ✅ ETag/Last-Modified từ 1 lần stat file; If-None-Match / If-Modified-Since khớp
+            //    -> HttpEntityMethodProcessor tự trả 304 không body
+            BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+            long lastModified = attrs.lastModifiedTime().toMillis();
+            String eTag = "W/\"" + Long.toHexString(attrs.size()) + "-" + Long.toHexString(lastModified) + "\"";
+
             String contentType = Files.probeContentType(filePath);
             return ResponseEntity.ok()
                     .contentType(MediaType.parseMediaType(contentType != null ? contentType : "image/jpeg"))
-                    .body(resource);
+                    .contentLength(attrs.size())
+                    .eTag(eTag)
+                    .lastModified(lastModified)
+                    .cacheControl(CacheControl.maxAge(PROFILE_IMAGE_MAX_AGE).cachePrivate().mustRevalidate())
+                    .body(new FileSystemResource(filePath));
         } catch (JwtException e) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                     .body(Map.of("message", "Invalid JWT token: " + e.getMessage()));
@@ -1,5 +1,6 @@
 package org.bsl.pricecomparison.costom;
 
+import org.bsl.pricecomparison.enums.MatchMode;
 import org.bsl.pricecomparison.model.SupplierProduct;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -16,6 +17,7 @@ public interface SupplierProductRepositoryCustom {
             String goodType,
             String productType1Id,
             String productType2Id,
+            MatchMode codeMatch,    // sapCode / hanaSapCode
             Pageable pageable
     );
 
@@ -27,6 +29,24 @@ public interface SupplierProductRepositoryCustom {
             String supplierName,   // ✅ NEW
             String currency,
             String unit,           // ✅ NEW: Thêm trường Unit
+            MatchMode codeMatch,   // sapCode / hanaSapCode / currency / unit
+            Pageable pageable
+    );
+
+    /**
+     * Như findByFiltersWithPagination, mỗi công ty chỉ giữ record createdAt mới nhất (+ selectedSupplierId nếu khác),
+     * dedupe + phân trang + count trong 1 aggregation.
+     */
+    Page<SupplierProduct> findLatestPerCompanyWithPagination(
+            String sapCode,
+            String hanaSapCode,
+            String itemDescriptionVN,
+            String itemDescriptionEN,
+            String supplierName,
+            String currency,
+            String unit,
+            String selectedSupplierId,
+            MatchMode codeMatch,
             Pageable pageable
     );
 }
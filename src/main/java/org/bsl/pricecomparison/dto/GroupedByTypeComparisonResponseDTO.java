@@ -8,8 +8,16 @@ import java.util.List;
 @Schema(description = "Response nhóm theo Type1 → bên trong có nhiều Type2")
 public record GroupedByTypeComparisonResponseDTO(
         List<Type1Group> groups,
-        GrandTotal grandTotal
+        GrandTotal grandTotal,
+
+        // null nếu không phân trang; khi phân trang groups chỉ chứa requisition của trang,
+        // còn total của Type1/Type2 + grandTotal vẫn tính trên cả group
+        PageInfo pageInfo
 ) {
+    public GroupedByTypeComparisonResponseDTO(List<Type1Group> groups, GrandTotal grandTotal) {
+        this(groups, grandTotal, null);
+    }
+
     public record Type1Group(
             String type1,
             String type1Name,
@@ -39,6 +47,13 @@ public record GroupedByTypeComparisonResponseDTO(
             BigDecimal totalPercentage      // % chênh lệch
     ) {}
 
+    public record PageInfo(
+            int page,                       // 0-based
+            int size,
+            long totalElements,             // tổng số requisition của group
+            int totalPages
+    ) {}
+
     public record GrandTotal(
             BigDecimal totalAmount,
             BigDecimal totalAmtDifference,
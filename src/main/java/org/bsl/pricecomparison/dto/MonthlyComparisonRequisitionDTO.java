@@ -120,6 +120,9 @@ public class MonthlyComparisonRequisitionDTO {
 
     // ================= Constructors =================
 
+    // ✅ cho Mongo mapping (DTO được lưu trong comparison_snapshots)
+    public MonthlyComparisonRequisitionDTO() {}
+
     /**
      * ✅ Original constructor (keep for backward compatibility)
      */
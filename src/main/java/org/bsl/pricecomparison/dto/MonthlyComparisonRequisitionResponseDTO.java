@@ -23,6 +23,19 @@ public class MonthlyComparisonRequisitionResponseDTO {
     @Schema(description = "Total difference percentage", example = "-20.0")
     private BigDecimal totalDifferencePercentage;
 
+    // ✅ chỉ có khi request truyền size (phân trang); totals ở trên luôn là của cả group
+    @Schema(description = "Page index (0-based), null when not paginated", example = "0")
+    private Integer page;
+
+    @Schema(description = "Page size, null when not paginated", example = "50")
+    private Integer size;
+
+    @Schema(description = "Total requisitions matching the filter, null when not paginated", example = "420")
+    private Long totalElements;
+
+    @Schema(description = "Total pages, null when not paginated", example = "9")
+    private Integer totalPages;
+
     // Constructor
     public MonthlyComparisonRequisitionResponseDTO(
             List<MonthlyComparisonRequisitionDTO> requisitions,
@@ -68,4 +81,36 @@ public class MonthlyComparisonRequisitionResponseDTO {
     public void setTotalDifferencePercentage(BigDecimal totalDifferencePercentage) {
         this.totalDifferencePercentage = totalDifferencePercentage;
     }
+
+    public Integer getPage() {
+        return page;
+    }
+
+    public void setPage(Integer page) {
+        this.page = page;
+    }
+
+    public Integer getSize() {
+        return size;
+    }
+
+    public void setSize(Integer size) {
+        this.size = size;
+    }
+
+    public Long getTotalElements() {
+        return totalElements;
+    }
+
+    public void setTotalElements(Long totalElements) {
+        this.totalElements = totalElements;
+    }
+
+    public Integer getTotalPages() {
+        return totalPages;
+    }
+
+    public void setTotalPages(Integer totalPages) {
+        this.totalPages = totalPages;
+    }
 }
\ No newline at end of file
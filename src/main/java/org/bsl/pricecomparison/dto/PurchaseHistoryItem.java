@@ -2,17 +2,25 @@ package org.bsl.pricecomparison.dto;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.List;
 
 @Document(collection = "purchase_history_items")
-@CompoundIndex(
-        name = "uk_group_requisition",
-        def = "{'groupId': 1, 'requisitionMonthlyId': 1}",
-        unique = true
-)
+@CompoundIndexes({
+        @CompoundIndex(
+                name = "uk_group_requisition",
+                def = "{'groupId': 1, 'requisitionMonthlyId': 1}",
+                unique = true
+        ),
+        @CompoundIndex(
+                name = "idx_match_keys_purchased",
+                def = "{'matchKeys': 1, 'purchasedAt': -1}"
+        )
+})
 public class PurchaseHistoryItem {
 
     @Id
@@ -21,6 +29,11 @@ public class PurchaseHistoryItem {
     private String groupId;
     private String requisitionMonthlyId;
 
+    // ✅ mọi key dùng được của dòng: "MODE|key|currency|unit" (MonthlyLastPurchaseResolver.matchKeys)
+    // -> multikey index, requisition tra theo key ưu tiên của nó vẫn thấy dòng mua có đủ cả code lẫn mô tả
+    private List<String> matchKeys;
+    private Integer matchKeyVersion;            // MonthlyLastPurchaseResolver.MATCH_KEY_VERSION lúc ghi
+
     private String oldSapCode;
     private String hanaSapCode;
 
@@ -55,6 +68,12 @@ public class PurchaseHistoryItem {
     public String getRequisitionMonthlyId() { return requisitionMonthlyId; }
     public void setRequisitionMonthlyId(String requisitionMonthlyId) { this.requisitionMonthlyId = requisitionMonthlyId; }
 
+    public List<String> getMatchKeys() { return matchKeys; }
+    public void setMatchKeys(List<String> matchKeys) { this.matchKeys = matchKeys; }
+
+    public Integer getMatchKeyVersion() { return matchKeyVersion; }
+    public void setMatchKeyVersion(Integer matchKeyVersion) { this.matchKeyVersion = matchKeyVersion; }
+
     public String getOldSapCode() { return oldSapCode; }
     public void setOldSapCode(String oldSapCode) { this.oldSapCode = oldSapCode; }
 
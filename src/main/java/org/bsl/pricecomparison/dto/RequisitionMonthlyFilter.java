@@ -0,0 +1,53 @@
+package org.bsl.pricecomparison.dto;
+
+import java.util.Set;
+
+/**
+ * Bộ lọc cho /requisition-monthly/filter, được đẩy xuống MongoDB thành 1 $match.
+ * - String fields: contains, không phân biệt hoa thường (null/blank = bỏ qua)
+ * - productType1Ids/productType2Ids: null = bỏ qua, empty = không có type nào khớp tên -> 0 kết quả
+ */
+public class RequisitionMonthlyFilter {
+    private String groupId;
+    private Set<String> productType1Ids;
+    private Set<String> productType2Ids;
+    private String englishName;
+    private String vietnameseName;
+    private String oldSapCode;
+    private String hanaSapCode;
+    private String supplierName;
+    private String departmentName;
+
+    public RequisitionMonthlyFilter() {}
+
+    public RequisitionMonthlyFilter(String groupId) {
+        this.groupId = groupId;
+    }
+
+    public String getGroupId() { return groupId; }
+    public void setGroupId(String groupId) { this.groupId = groupId; }
+
+    public Set<String> getProductType1Ids() { return productType1Ids; }
+    public void setProductType1Ids(Set<String> productType1Ids) { this.productType1Ids = productType1Ids; }
+
+    public Set<String> getProductType2Ids() { return productType2Ids; }
+    public void setProductType2Ids(Set<String> productType2Ids) { this.productType2Ids = productType2Ids; }
+
+    public String getEnglishName() { return englishName; }
+    public void setEnglishName(String englishName) { this.englishName = englishName; }
+
+    public String getVietnameseName() { return vietnameseName; }
+    public void setVietnameseName(String vietnameseName) { this.vietnameseName = vietnameseName; }
+
+    public String getOldSapCode() { return oldSapCode; }
+    public void setOldSapCode(String oldSapCode) { this.oldSapCode = oldSapCode; }
+
+    public String getHanaSapCode() { return hanaSapCode; }
+    public void setHanaSapCode(String hanaSapCode) { this.hanaSapCode = hanaSapCode; }
+
+    public String getSupplierName() { return supplierName; }
+    public void setSupplierName(String supplierName) { this.supplierName = supplierName; }
+
+    public String getDepartmentName() { return departmentName; }
+    public void setDepartmentName(String departmentName) { this.departmentName = departmentName; }
+}
@@ -0,0 +1,61 @@
+package org.bsl.pricecomparison.dto;
+
+import org.bsl.pricecomparison.model.RequisitionMonthly;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * 7 tổng cho /requisition-monthly/filter.
+ * - Từ Mongo: 1 $group stage (RequisitionMonthlyCustomRepository.sumTotals)
+ * - Từ list đã load sẵn: of(...) cộng dồn 1 lượt duy nhất
+ */
+public class RequisitionMonthlyTotals {
+    private BigDecimal dailyMedInventory = BigDecimal.ZERO;
+    private BigDecimal safeStock = BigDecimal.ZERO;
+    private BigDecimal totalRequestQty = BigDecimal.ZERO;
+    private BigDecimal useStockQty = BigDecimal.ZERO;
+    private BigDecimal orderQty = BigDecimal.ZERO;
+    private BigDecimal amount = BigDecimal.ZERO;
+    private BigDecimal price = BigDecimal.ZERO;
+
+    public RequisitionMonthlyTotals() {}
+
+    public RequisitionMonthlyTotals(BigDecimal dailyMedInventory, BigDecimal safeStock, BigDecimal totalRequestQty,
+                                    BigDecimal useStockQty, BigDecimal orderQty, BigDecimal amount, BigDecimal price) {
+        this.dailyMedInventory = dailyMedInventory;
+        this.safeStock = safeStock;
+        this.totalRequestQty = totalRequestQty;
+        this.useStockQty = useStockQty;
+        this.orderQty = orderQty;
+        this.amount = amount;
+        this.price = price;
+    }
+
+    public static RequisitionMonthlyTotals of(List<RequisitionMonthly> requisitions) {
+        RequisitionMonthlyTotals totals = new RequisitionMonthlyTotals();
+        if (requisitions == null) return totals;
+        for (RequisitionMonthly req : requisitions) {
+            totals.dailyMedInventory = add(totals.dailyMedInventory, req.getDailyMedInventory());
+            totals.safeStock = add(totals.safeStock, req.getSafeStock());
+            totals.totalRequestQty = add(totals.totalRequestQty, req.getTotalRequestQty());
+            totals.useStockQty = add(totals.useStockQty, req.getUseStockQty());
+            totals.orderQty = add(totals.orderQty, req.getOrderQty());
+            totals.amount = add(totals.amount, req.getAmount());
+            totals.price = add(totals.price, req.getPrice());
+        }
+        return totals;
+    }
+
+    private static BigDecimal add(BigDecimal sum, BigDecimal value) {
+        return value != null ? sum.add(value) : sum;
+    }
+
+    public BigDecimal getDailyMedInventory() { return dailyMedInventory; }
+    public BigDecimal getSafeStock() { return safeStock; }
+    public BigDecimal getTotalRequestQty() { return totalRequestQty; }
+    public BigDecimal getUseStockQty() { return useStockQty; }
+    public BigDecimal getOrderQty() { return orderQty; }
+    public BigDecimal getAmount() { return amount; }
+    public BigDecimal getPrice() { return price; }
+}
@@ -0,0 +1,24 @@
+package org.bsl.pricecomparison.enums;
+
+/**
+ * Cách so khớp filter mã (sapCode / hanaSapCode / currency / unit).
+ *
+ * - EXACT: bằng (không phân biệt hoa thường) trên field *Key đã chuẩn hoá -> index equality
+ * - PREFIX: bắt đầu bằng -> index range scan
+ * - CONTAINS: chứa (hành vi cũ) -> quét index, không quét collection
+ */
+public enum MatchMode {
+    EXACT,
+    PREFIX,
+    CONTAINS;
+
+    /** "exact" / "prefix" / "contains" (không phân biệt hoa thường), sai / rỗng -> fallback */
+    public static MatchMode from(String value, MatchMode fallback) {
+        if (value == null || value.trim().isEmpty()) return fallback;
+        try {
+            return MatchMode.valueOf(value.trim().toUpperCase(java.util.Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+}
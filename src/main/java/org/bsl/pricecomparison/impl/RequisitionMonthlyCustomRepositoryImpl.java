@@ -1,19 +1,35 @@
 // src/main/java/org/bsl/pricecomparison/impl/RequisitionMonthlyCustomRepositoryImpl.java
 package org.bsl.pricecomparison.impl;
 
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.bson.types.Decimal128;
+import org.bsl.pricecomparison.common.CommonRequisitionUtils;
+import org.bsl.pricecomparison.dto.RequisitionMonthlyFilter;
+import org.bsl.pricecomparison.dto.RequisitionMonthlyTotals;
 import org.bsl.pricecomparison.model.RequisitionMonthly;
 import org.bsl.pricecomparison.repository.RequisitionMonthlyCustomRepository;
+import org.bsl.pricecomparison.service.DescriptionSearchIndex;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.*;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
 import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.ConvertOperators;
+import org.springframework.data.mongodb.core.aggregation.GroupOperation;
 import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 @Repository
 public class RequisitionMonthlyCustomRepositoryImpl implements RequisitionMonthlyCustomRepository {
@@ -21,8 +37,13 @@ public class RequisitionMonthlyCustomRepositoryImpl implements RequisitionMonthl
     @Autowired
     private MongoTemplate mongoTemplate;
 
+    @Autowired
+    private DescriptionSearchIndex descriptionSearchIndex;
+
     private static final String COLLECTION = "requisition_monthly";
 
+    private static final int BULK_CHUNK = 500;
+
     @Override
     public Page<RequisitionMonthly> searchRequisitions(
             String groupId, String type, LocalDateTime startDate, LocalDateTime endDate,
@@ -78,8 +99,8 @@ public class RequisitionMonthlyCustomRepositoryImpl implements RequisitionMonthl
         if (p1Id != null && !p1Id.isBlank()) criteriaList.add(Criteria.where("productType1Id").is(p1Id));
         if (p2Id != null && !p2Id.isBlank()) criteriaList.add(Criteria.where("productType2Id").is(p2Id));
 
-        if (en != null && !en.isBlank()) criteriaList.add(Criteria.where("itemDescriptionEN").regex(en, "i"));
-        if (vn != null && !vn.isBlank()) criteriaList.add(Criteria.where("itemDescriptionVN").regex(vn, "i"));
+        if (en != null && !en.isBlank()) criteriaList.add(descriptionCriteria(DescriptionSearchIndex.Field.EN, en));
+        if (vn != null && !vn.isBlank()) criteriaList.add(descriptionCriteria(DescriptionSearchIndex.Field.VN, vn));
         if (oldSap != null && !oldSap.isBlank()) criteriaList.add(Criteria.where("oldSAPCode").regex(oldSap, "i"));
         if (hanaSap != null && !hanaSap.isBlank()) criteriaList.add(Criteria.where("hanaSAPCode").regex(hanaSap, "i"));
         if (sup != null && !sup.isBlank()) criteriaList.add(Criteria.where("supplierName").regex(sup, "i"));
@@ -93,4 +114,182 @@ public class RequisitionMonthlyCustomRepositoryImpl implements RequisitionMonthl
         }
         return stages;
     }
-}
\ No newline at end of file
+
+    // =====================================================================
+    // ✅ /requisition-monthly/filter: đẩy toàn bộ filter + sort + paging xuống Mongo
+    // =====================================================================
+
+    private static final String SORT_DATE = "sortDate";
+
+    private static final String[] TOTAL_FIELDS = {
+            "dailyMedInventory", "safeStock", "totalRequestQty",
+            "useStockQty", "orderQty", "amount", "price"
+    };
+
+    @Override
+    public Page<RequisitionMonthly> filterRequisitions(RequisitionMonthlyFilter filter, Pageable pageable) {
+        Criteria criteria = buildFilterCriteria(filter);
+
+        List<AggregationOperation> stages = new ArrayList<>();
+        stages.add(Aggregation.match(criteria));
+        // sort theo updatedDate, null thì fallback createdDate (giống logic cũ trong controller)
+        stages.add(Aggregation.addFields()
+                .addFieldWithValue(SORT_DATE, ConditionalOperators.ifNull("updatedDate").thenValueOf("createdDate"))
+                .build());
+        stages.add(Aggregation.sort(Sort.by(Sort.Direction.DESC, SORT_DATE).and(Sort.by(Sort.Direction.ASC, "_id"))));
+
+        if (pageable != null && pageable.isPaged()) {
+            stages.add(Aggregation.skip(pageable.getOffset()));
+            stages.add(Aggregation.limit(pageable.getPageSize()));
+        }
+        stages.add(Aggregation.project().andExclude(SORT_DATE));
+
+        List<RequisitionMonthly> content = mongoTemplate.aggregate(
+                Aggregation.newAggregation(stages), COLLECTION, RequisitionMonthly.class)
+                .getMappedResults();
+
+        if (pageable == null || pageable.isUnpaged()) {
+            return new PageImpl<>(content);
+        }
+
+        // trang cuối / trang không đầy thì không cần count thêm
+        long total;
+        if (pageable.getOffset() == 0 && content.size() < pageable.getPageSize()) {
+            total = content.size();
+        } else {
+            total = mongoTemplate.count(Query.query(criteria), COLLECTION);
+        }
+        return new PageImpl<>(content, pageable, total);
+    }
+
+    @Override
+    public RequisitionMonthlyTotals sumTotals(RequisitionMonthlyFilter filter) {
+        // BigDecimal được lưu dạng String -> $convert sang decimal trước khi $sum (lỗi/null = 0)
+        GroupOperation group = Aggregation.group();
+        for (String field : TOTAL_FIELDS) {
+            group = group.sum(ConvertOperators.Convert.convertValueOf(field).to("decimal")
+                    .onErrorReturn(0)
+                    .onNullReturn(0)).as(field);
+        }
+
+        Document result = mongoTemplate.aggregate(
+                Aggregation.newAggregation(Aggregation.match(buildFilterCriteria(filter)), group),
+                COLLECTION, Document.class)
+                .getUniqueMappedResult();
+
+        if (result == null) return new RequisitionMonthlyTotals();
+
+        return new RequisitionMonthlyTotals(
+                toBigDecimal(result.get("dailyMedInventory")),
+                toBigDecimal(result.get("safeStock")),
+                toBigDecimal(result.get("totalRequestQty")),
+                toBigDecimal(result.get("useStockQty")),
+                toBigDecimal(result.get("orderQty")),
+                toBigDecimal(result.get("amount")),
+                toBigDecimal(result.get("price")));
+    }
+
+    @Override
+    public void bulkSave(List<RequisitionMonthly> toInsert, List<RequisitionMonthly> toReplace) {
+        List<RequisitionMonthly> inserts = toInsert != null ? toInsert : List.of();
+        List<RequisitionMonthly> replaces = toReplace != null ? toReplace : List.of();
+
+        BulkOperations bulk = null;
+        int pending = 0;
+
+        for (RequisitionMonthly entity : inserts) {
+            if (entity.getId() == null) entity.setId(new ObjectId().toHexString());
+            if (bulk == null) bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, RequisitionMonthly.class);
+            bulk.insert(entity);
+            if (++pending >= BULK_CHUNK) {
+                bulk.execute();
+                bulk = null;
+                pending = 0;
+            }
+        }
+
+        for (RequisitionMonthly entity : replaces) {
+            if (bulk == null) bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, RequisitionMonthly.class);
+            // giống save(): thay toàn bộ document theo _id
+            bulk.replaceOne(Query.query(Criteria.where("_id").is(entity.getId())), entity);
+            if (++pending >= BULK_CHUNK) {
+                bulk.execute();
+                bulk = null;
+                pending = 0;
+            }
+        }
+
+        if (bulk != null && pending > 0) {
+            bulk.execute();
+        }
+    }
+
+    @Override
+    public long deleteAllByIds(Collection<String> ids) {
+        if (ids == null || ids.isEmpty()) return 0;
+
+        List<String> all = new ArrayList<>(ids);
+        long deleted = 0;
+        for (int i = 0; i < all.size(); i += BULK_CHUNK) {
+            List<String> chunk = all.subList(i, Math.min(i + BULK_CHUNK, all.size()));
+            deleted += mongoTemplate.remove(Query.query(Criteria.where("_id").in(chunk)), RequisitionMonthly.class)
+                    .getDeletedCount();
+        }
+        return deleted;
+    }
+
+    private static BigDecimal toBigDecimal(Object value) {
+        if (value instanceof Decimal128 d) return d.bigDecimalValue();
+        if (value instanceof BigDecimal bd) return bd;
+        if (value instanceof Number n) return new BigDecimal(n.toString());
+        return BigDecimal.ZERO;
+    }
+
+    private Criteria buildFilterCriteria(RequisitionMonthlyFilter f) {
+        List<Criteria> criteriaList = new ArrayList<>();
+
+        criteriaList.add(Criteria.where("groupId").is(f.getGroupId()));
+
+        addIdsIn(criteriaList, "productType1Id", f.getProductType1Ids());
+        addIdsIn(criteriaList, "productType2Id", f.getProductType2Ids());
+
+        addDescription(criteriaList, DescriptionSearchIndex.Field.EN, f.getEnglishName());
+        addDescription(criteriaList, DescriptionSearchIndex.Field.VN, f.getVietnameseName());
+        addContains(criteriaList, "oldSAPCode", f.getOldSapCode());
+        addContains(criteriaList, "hanaSAPCode", f.getHanaSapCode());
+        addContains(criteriaList, "supplierName", f.getSupplierName());
+        addContains(criteriaList, "departmentRequisitions.name", f.getDepartmentName());
+
+        if (criteriaList.size() == 1) return criteriaList.get(0);
+        return new Criteria().andOperator(criteriaList.toArray(new Criteria[0]));
+    }
+
+    private static void addIdsIn(List<Criteria> criteriaList, String field, Set<String> ids) {
+        if (ids == null) return;
+        criteriaList.add(Criteria.where(field).in(ids));
+    }
+
+    private void addDescription(List<Criteria> criteriaList, DescriptionSearchIndex.Field field, String value) {
+        if (value == null || value.isEmpty()) return;
+        criteriaList.add(descriptionCriteria(field, value));
+    }
+
+    /**
+     * ⚡ Mô tả chứa value, không dấu: _id $in từ DescriptionSearchIndex (ObjectId vì aggregation không typed);
+     * index chưa sẵn sàng / quá nhiều kết quả -> contains trên itemDescription*Key.
+     */
+    private Criteria descriptionCriteria(DescriptionSearchIndex.Field field, String value) {
+        String key = CommonRequisitionUtils.descriptionKey(value);
+        if (key == null) return new Criteria();
+
+        List<String> ids = descriptionSearchIndex.search(DescriptionSearchIndex.Source.REQUISITION_MONTHLY, field, value);
+        if (ids == null) return Criteria.where(field.getKeyPath()).regex(Pattern.quote(key));
+        return Criteria.where("_id").in(DescriptionSearchIndex.toMongoIds(ids));
+    }
+
+    // contains + ignore case; quote để ký tự đặc biệt trong input không thành regex
+    private static void addContains(List<Criteria> criteriaList, String field, String value) {
+        if (value == null || value.isEmpty()) return;
+        criteriaList.add(Criteria.where(field).regex(Pattern.compile(Pattern.quote(value), Pattern.CASE_INSENSITIVE)));
+    }
+}
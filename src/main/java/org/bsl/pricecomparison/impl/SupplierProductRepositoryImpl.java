@@ -1,14 +1,23 @@
 package org.bsl.pricecomparison.impl;
 
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.bsl.pricecomparison.common.CommonRequisitionUtils;
 import org.bsl.pricecomparison.costom.SupplierProductRepositoryCustom;
+import org.bsl.pricecomparison.enums.MatchMode;
 import org.bsl.pricecomparison.model.SupplierProduct;
+import org.bsl.pricecomparison.service.DescriptionSearchIndex;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.*;
 import org.springframework.data.mongodb.core.*;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
 import org.springframework.data.mongodb.core.query.*;
 import org.springframework.stereotype.Repository;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -18,6 +27,11 @@ public class SupplierProductRepositoryImpl implements SupplierProductRepositoryC
     @Autowired
     private MongoTemplate mongoTemplate;
 
+    @Autowired
+    private DescriptionSearchIndex descriptionSearchIndex;
+
+    private static final String COLLECTION = "supplier_products";
+
     @Override
     public Page<SupplierProduct> filterSupplierProducts(
             String supplierCode,
@@ -30,6 +44,7 @@ public class SupplierProductRepositoryImpl implements SupplierProductRepositoryC
             String goodType,
             String productType1Id,
             String productType2Id,
+            MatchMode codeMatch,
             Pageable pageable) {
 
         Criteria criteria = new Criteria();
@@ -41,19 +56,19 @@ public class SupplierProductRepositoryImpl implements SupplierProductRepositoryC
         if (supplierName != null && !supplierName.isEmpty()) {
             criteriaList.add(Criteria.where("supplierName").regex(supplierName, "i"));
         }
-        if (sapCode != null && !sapCode.isEmpty()) {
-            criteriaList.add(Criteria.where("sapCode").regex(sapCode, "i"));
+        if (sapCode != null && !sapCode.trim().isEmpty()) {
+            criteriaList.add(codeCriteria("sapCodeKey", sapCode, codeMatch));
         }
 
         // ĐÃ ĐỔI TÊN TRƯỜNG TRONG DB
-        if (hanaSapCode != null && !hanaSapCode.isEmpty()) {
-            criteriaList.add(Criteria.where("hanaSapCode").regex(hanaSapCode, "i"));
+        if (hanaSapCode != null && !hanaSapCode.trim().isEmpty()) {
+            criteriaList.add(codeCriteria("hanaSapCodeKey", hanaSapCode, codeMatch));
         }
         if (itemDescriptionEN != null && !itemDescriptionEN.isEmpty()) {
-            criteriaList.add(Criteria.where("itemDescriptionEN").regex(itemDescriptionEN, "i"));
+            criteriaList.add(descriptionCriteria(DescriptionSearchIndex.Field.EN, itemDescriptionEN));
         }
         if (itemDescriptionVN != null && !itemDescriptionVN.isEmpty()) {
-            criteriaList.add(Criteria.where("itemDescriptionVN").regex(itemDescriptionVN, "i"));
+            criteriaList.add(descriptionCriteria(DescriptionSearchIndex.Field.VN, itemDescriptionVN));
         }
 
         if (currency != null && !currency.isEmpty()) {
@@ -124,7 +139,116 @@ public class SupplierProductRepositoryImpl implements SupplierProductRepositoryC
             String supplierName,   // ✅ NEW
             String currency,
             String unit,          // ✅ NEW: unit filter
+            MatchMode codeMatch,
+            Pageable pageable
+    ) {
+        Query query = new Query(buildFilterCriteria(
+                sapCode, hanaSapCode, itemDescriptionVN, itemDescriptionEN, supplierName, currency, unit, codeMatch));
+
+        // Get total count of results
+        long count = mongoTemplate.count(query, SupplierProduct.class);
+
+        // Apply pagination and execute query
+        query.with(pageable);
+        List<SupplierProduct> list = mongoTemplate.find(query, SupplierProduct.class);
+
+        // Return paginated result
+        return new PageImpl<>(list, pageable, count);
+    }
+
+    /**
+     * ⚡ Giống findByFiltersWithPagination + dedupeLatestByCompanyPreferSelected, nhưng chạy trong Mongo:
+     * $match -> $sort createdAt DESC -> $group theo company key (newest + selected) -> $sort pageable -> $facet (page + count)
+     *
+     * - mỗi trang đúng `size` dòng, totalElements = số dòng sau dedupe, 1 round trip
+     * - company key = field companyKey đã lưu (đã lowercase, fallback tính tại chỗ) -> không cần collation,
+     *   predicate sapCodeKey / hanaSapCodeKey exact | prefix dùng được idx_sap_code_key / idx_hana_code_key
+     */
+    @Override
+    public Page<SupplierProduct> findLatestPerCompanyWithPagination(
+            String sapCode,
+            String hanaSapCode,
+            String itemDescriptionVN,
+            String itemDescriptionEN,
+            String supplierName,
+            String currency,
+            String unit,
+            String selectedSupplierId,
+            MatchMode codeMatch,
             Pageable pageable
+    ) {
+        Criteria criteria = buildFilterCriteria(
+                sapCode, hanaSapCode, itemDescriptionVN, itemDescriptionEN, supplierName, currency, unit, codeMatch);
+
+        String selected = selectedSupplierId != null ? selectedSupplierId.trim() : "";
+        Object selectedId = selected.isEmpty() ? null : (ObjectId.isValid(selected) ? new ObjectId(selected) : selected);
+
+        List<AggregationOperation> stages = new ArrayList<>();
+        stages.add(Aggregation.match(criteria));
+        stages.add(Aggregation.sort(Sort.by(Sort.Direction.DESC, "createdAt").and(Sort.by(Sort.Direction.DESC, "_id"))));
+        stages.add(context -> new Document("$group", new Document("_id", companyKeyExpression())
+                .append("newest", new Document("$first", "$$ROOT"))
+                .append("selected", new Document("$max", new Document("$cond", Arrays.asList(
+                        new Document("$eq", Arrays.asList("$_id", selectedId)), "$$ROOT", null))))));
+        stages.add(context -> new Document("$project", new Document("_id", 0)
+                .append("items", new Document("$cond", List.of(
+                        new Document("$and", List.of(
+                                new Document("$ne", Arrays.asList("$selected", null)),
+                                new Document("$ne", List.of("$selected._id", "$newest._id")))),
+                        List.of("$newest", "$selected"),
+                        List.of("$newest"))))));
+        stages.add(context -> new Document("$unwind", "$items"));
+        stages.add(context -> new Document("$replaceRoot", new Document("newRoot", "$items")));
+
+        // stage sau $group viết Document thô (field của SupplierProduct, không qua mapping context)
+        Sort sort = pageable.getSort().isSorted() ? pageable.getSort() : Sort.by(Sort.Direction.DESC, "createdAt");
+        Document sortDoc = new Document();
+        for (Sort.Order order : sort) {
+            sortDoc.append(order.getProperty(), order.isAscending() ? 1 : -1);
+        }
+        sortDoc.putIfAbsent("_id", 1);
+        stages.add(context -> new Document("$sort", sortDoc));
+
+        stages.add(context -> new Document("$facet", new Document()
+                .append("data", List.of(
+                        new Document("$skip", pageable.getOffset()),
+                        new Document("$limit", pageable.getPageSize())))
+                .append("total", List.of(new Document("$count", "n")))));
+
+        Aggregation aggregation = Aggregation.newAggregation(stages)
+                .withOptions(AggregationOptions.builder()
+                        .allowDiskUse(true)
+                        .build());
+
+        Document result = mongoTemplate.aggregate(aggregation, COLLECTION, Document.class).getUniqueMappedResult();
+
+        List<SupplierProduct> list = new ArrayList<>();
+        long count = 0;
+        if (result != null) {
+            for (Document doc : result.getList("data", Document.class, List.of())) {
+                list.add(mongoTemplate.getConverter().read(SupplierProduct.class, doc));
+            }
+            List<Document> total = result.getList("total", Document.class, List.of());
+            if (!total.isEmpty()) {
+                count = ((Number) total.get(0).get("n")).longValue();
+            }
+        }
+        return new PageImpl<>(list, pageable, count);
+    }
+
+    // =========================================================
+    // HELPERS
+    // =========================================================
+
+    private Criteria buildFilterCriteria(
+            String sapCode,
+            String hanaSapCode,
+            String itemDescriptionVN,
+            String itemDescriptionEN,
+            String supplierName,
+            String currency,
+            String unit,
+            MatchMode codeMatch
     ) {
         Criteria criteria = new Criteria();
         List<Criteria> criteriaList = new ArrayList<>();
@@ -134,22 +258,22 @@ public class SupplierProductRepositoryImpl implements SupplierProductRepositoryC
 
         // Filter based on sapCode
         if (sapCode != null && !sapCode.trim().isEmpty()) {
-            criteriaList.add(Criteria.where("sapCode").regex(containsIgnoreCase.apply(sapCode)));
+            criteriaList.add(codeCriteria("sapCodeKey", sapCode, codeMatch));
         }
 
         // Filter based on hanaSapCode
         if (hanaSapCode != null && !hanaSapCode.trim().isEmpty()) {
-            criteriaList.add(Criteria.where("hanaSapCode").regex(containsIgnoreCase.apply(hanaSapCode)));
+            criteriaList.add(codeCriteria("hanaSapCodeKey", hanaSapCode, codeMatch));
         }
 
         // Filter based on itemDescriptionVN
         if (itemDescriptionVN != null && !itemDescriptionVN.trim().isEmpty()) {
-            criteriaList.add(Criteria.where("itemDescriptionVN").regex(containsIgnoreCase.apply(itemDescriptionVN)));
+            criteriaList.add(descriptionCriteria(DescriptionSearchIndex.Field.VN, itemDescriptionVN));
         }
 
         // Filter based on itemDescriptionEN
         if (itemDescriptionEN != null && !itemDescriptionEN.trim().isEmpty()) {
-            criteriaList.add(Criteria.where("itemDescriptionEN").regex(containsIgnoreCase.apply(itemDescriptionEN)));
+            criteriaList.add(descriptionCriteria(DescriptionSearchIndex.Field.EN, itemDescriptionEN));
         }
 
         // ✅ NEW: Filter based on supplierName
@@ -159,30 +283,83 @@ public class SupplierProductRepositoryImpl implements SupplierProductRepositoryC
 
         // Filter based on currency
         if (currency != null && !currency.trim().isEmpty()) {
-            criteriaList.add(Criteria.where("currency").regex(containsIgnoreCase.apply(currency)));
+            criteriaList.add(codeCriteria("currencyKey", currency, codeMatch));
         }
 
         // ✅ NEW: Filter based on unit
         if (unit != null && !unit.trim().isEmpty()) {
-            criteriaList.add(Criteria.where("unit").regex(containsIgnoreCase.apply(unit)));
+            criteriaList.add(codeCriteria("unitKey", unit, codeMatch));
         }
 
         // Apply all criteria to the query
         if (!criteriaList.isEmpty()) {
             criteria.andOperator(criteriaList.toArray(new Criteria[0]));
         }
+        return criteria;
+    }
 
-        Query query = new Query(criteria);
+    /**
+     * ⚡ Mô tả chứa value, không dấu (DescriptionSearchIndex) -> _id $in (ObjectId vì aggregation không typed).
+     * Index chưa build xong / quá nhiều kết quả -> contains trên itemDescription*Key (cũng không dấu).
+     */
+    private Criteria descriptionCriteria(DescriptionSearchIndex.Field field, String value) {
+        String key = CommonRequisitionUtils.descriptionKey(value);
+        if (key == null) return new Criteria();
 
-        // Get total count of results
-        long count = mongoTemplate.count(query, SupplierProduct.class);
+        List<String> ids = descriptionSearchIndex.search(DescriptionSearchIndex.Source.SUPPLIER_PRODUCTS, field, value);
+        if (ids == null) return Criteria.where(field.getKeyPath()).regex(Pattern.quote(key));
+        return Criteria.where("_id").in(DescriptionSearchIndex.toMongoIds(ids));
+    }
 
-        // Apply pagination and execute query
-        query.with(pageable);
-        List<SupplierProduct> list = mongoTemplate.find(query, SupplierProduct.class);
+    /**
+     * ⚡ Filter mã trên field *Key (trim + lowercase, SupplierProductSearchKeyListener):
+     * EXACT -> equality, PREFIX -> regex "^..." không flag i (index range scan), CONTAINS -> regex chứa (quét index)
+     */
+    private static Criteria codeCriteria(String keyField, String value, MatchMode mode) {
+        String key = CommonRequisitionUtils.codeKey(value);
+        MatchMode m = mode != null ? mode : MatchMode.CONTAINS;
+        return switch (m) {
+            case EXACT -> Criteria.where(keyField).is(key);
+            case PREFIX -> Criteria.where(keyField).regex("^" + escapeRegex(key));
+            case CONTAINS -> Criteria.where(keyField).regex(escapeRegex(key));
+        };
+    }
 
-        // Return paginated result
-        return new PageImpl<>(list, pageable, count);
+    // escape từng ký tự (không dùng \Q..\E để Mongo nhận ra prefix đơn giản -> dùng bounds của index)
+    private static String escapeRegex(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 8);
+        for (char c : s.toCharArray()) {
+            if ("\\^$.|?*+()[]{}".indexOf(c) >= 0) sb.append('\\');
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * companyKey đã lưu (SupplierProductSearchKeyListener / backfill); record chưa backfill thì tính như
+     * normalizeCompanyNameStrong: NBSP/tab/xuống dòng -> space, gộp space, trim, lowercase.
+     * (NFKC không có trong Mongo; backfill chạy trước khi nhận request nên nhánh này gần như không dùng)
+     */
+    private static Document companyKeyExpression() {
+        return new Document("$ifNull", List.of("$companyKey", computedCompanyKeyExpression()));
+    }
+
+    private static Document computedCompanyKeyExpression() {
+        Object name = new Document("$ifNull", List.of("$supplierName", ""));
+        for (String ws : List.of("\u00A0", "\t", "\r", "\n")) {
+            name = new Document("$replaceAll", new Document("input", name).append("find", ws).append("replacement", " "));
+        }
+        Document joined = new Document("$reduce", new Document()
+                .append("input", new Document("$split", List.of(name, " ")))
+                .append("initialValue", "")
+                .append("in", new Document("$cond", List.of(
+                        new Document("$eq", List.of("$$this", "")),
+                        "$$value",
+                        new Document("$cond", List.of(
+                                new Document("$eq", List.of("$$value", "")),
+                                "$$this",
+                                new Document("$concat", List.of("$$value", " ", "$$this"))))))));
+        return new Document("$toLower", joined);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+package org.bsl.pricecomparison.model;
+
+import org.bsl.pricecomparison.dto.MonthlyComparisonRequisitionDTO;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * ⚡ Kết quả /search/comparison-monthly đã tính sẵn cho 1 group (1 document / group / removeDuplicateSuppliers).
+ *
+ * - rows: DTO so sánh (supplier list, highest/min price, amtDifference...) + field phụ để filter / invalidate
+ * - staleRequisitionIds: các dòng cần tính lại ở lần đọc kế tiếp (RequisitionMonthly / SupplierProduct đổi)
+ * - dirty: cần build lại cả group
+ * - version: optimistic lock, mỗi lần đánh dấu stale đều tăng => lần refresh đọc bản cũ sẽ không ghi đè
+ */
+@Document(collection = "comparison_snapshots")
+public class ComparisonSnapshot {
+
+    @Id
+    private String id;
+
+    private String groupId;
+    private String currency;
+    private boolean removeDuplicateSuppliers;
+    private int formatVersion;
+
+    private List<Row> rows = new ArrayList<>();
+    private Set<String> staleRequisitionIds = new LinkedHashSet<>();
+    private boolean dirty;
+
+    private LocalDateTime builtAt;
+    private LocalDateTime refreshedAt;
+
+    @Version
+    private Long version;
+
+    public ComparisonSnapshot() {}
+
+    // ===== getters/setters =====
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getGroupId() { return groupId; }
+    public void setGroupId(String groupId) { this.groupId = groupId; }
+
+    public String getCurrency() { return currency; }
+    public void setCurrency(String currency) { this.currency = currency; }
+
+    public boolean isRemoveDuplicateSuppliers() { return removeDuplicateSuppliers; }
+    public void setRemoveDuplicateSuppliers(boolean removeDuplicateSuppliers) { this.removeDuplicateSuppliers = removeDuplicateSuppliers; }
+
+    public int getFormatVersion() { return formatVersion; }
+    public void setFormatVersion(int formatVersion) { this.formatVersion = formatVersion; }
+
+    public List<Row> getRows() { return rows; }
+    public void setRows(List<Row> rows) { this.rows = rows; }
+
+    public Set<String> getStaleRequisitionIds() { return staleRequisitionIds; }
+    public void setStaleRequisitionIds(Set<String> staleRequisitionIds) { this.staleRequisitionIds = staleRequisitionIds; }
+
+    public boolean isDirty() { return dirty; }
+    public void setDirty(boolean dirty) { this.dirty = dirty; }
+
+    public LocalDateTime getBuiltAt() { return builtAt; }
+    public void setBuiltAt(LocalDateTime builtAt) { this.builtAt = builtAt; }
+
+    public LocalDateTime getRefreshedAt() { return refreshedAt; }
+    public void setRefreshedAt(LocalDateTime refreshedAt) { this.refreshedAt = refreshedAt; }
+
+    public Long getVersion() { return version; }
+    public void setVersion(Long version) { this.version = version; }
+
+    // =========================================================
+    // ROW
+    // =========================================================
+
+    public static class Row {
+
+        private String requisitionId;
+
+        // ✅ updatedDate, fallback createdDate (thứ tự hiển thị)
+        private LocalDateTime sortDate;
+
+        // ✅ unit/currency gốc của requisition (filter unit + last purchase match key)
+        private String reqUnit;
+        private String lastPurchaseKey;
+
+        // ✅ key mà searchSupplierProductsByPriority đã dùng (lowercase) -> biết SupplierProduct nào ảnh hưởng dòng này
+        private boolean finalized;
+        private String supplierMatchMode;   // SAP | HANA | VN | EN, null = không search
+        private String supplierMatchValue;
+        private String supplierUnit;
+
+        private MonthlyComparisonRequisitionDTO dto;
+
+        public Row() {}
+
+        public String getRequisitionId() { return requisitionId; }
+        public void setRequisitionId(String requisitionId) { this.requisitionId = requisitionId; }
+
+        public LocalDateTime getSortDate() { return sortDate; }
+        public void setSortDate(LocalDateTime sortDate) { this.sortDate = sortDate; }
+
+        public String getReqUnit() { return reqUnit; }
+        public void setReqUnit(String reqUnit) { this.reqUnit = reqUnit; }
+
+        public String getLastPurchaseKey() { return lastPurchaseKey; }
+        public void setLastPurchaseKey(String lastPurchaseKey) { this.lastPurchaseKey = lastPurchaseKey; }
+
+        public boolean isFinalized() { return finalized; }
+        public void setFinalized(boolean finalized) { this.finalized = finalized; }
+
+        public String getSupplierMatchMode() { return supplierMatchMode; }
+        public void setSupplierMatchMode(String supplierMatchMode) { this.supplierMatchMode = supplierMatchMode; }
+
+        public String getSupplierMatchValue() { return supplierMatchValue; }
+        public void setSupplierMatchValue(String supplierMatchValue) { this.supplierMatchValue = supplierMatchValue; }
+
+        public String getSupplierUnit() { return supplierUnit; }
+        public void setSupplierUnit(String supplierUnit) { this.supplierUnit = supplierUnit; }
+
+        public MonthlyComparisonRequisitionDTO getDto() { return dto; }
+        public void setDto(MonthlyComparisonRequisitionDTO dto) { this.dto = dto; }
+    }
+}
@@ -31,6 +31,11 @@ public class RequisitionMonthly {
     private String hanaSAPCode;
     private String unit;
 
+    // ⚡ key so khớp mô tả, ghi lúc save (RequisitionMonthlySearchKeyListener): foldText (không dấu, gộp space)
+    private String itemDescriptionVNKey;
+    private String itemDescriptionENKey;
+    private Integer searchKeyVersion;
+
     private List<DepartmentRequisitionMonthly> departmentRequisitions;
 
     @NotNull @DecimalMin("0.0")
@@ -215,6 +220,15 @@ public class RequisitionMonthly {
     public String getItemDescriptionVN() { return itemDescriptionVN; }
     public void setItemDescriptionVN(String itemDescriptionVN) { this.itemDescriptionVN = itemDescriptionVN; }
 
+    public String getItemDescriptionVNKey() { return itemDescriptionVNKey; }
+    public void setItemDescriptionVNKey(String itemDescriptionVNKey) { this.itemDescriptionVNKey = itemDescriptionVNKey; }
+
+    public String getItemDescriptionENKey() { return itemDescriptionENKey; }
+    public void setItemDescriptionENKey(String itemDescriptionENKey) { this.itemDescriptionENKey = itemDescriptionENKey; }
+
+    public Integer getSearchKeyVersion() { return searchKeyVersion; }
+    public void setSearchKeyVersion(Integer searchKeyVersion) { this.searchKeyVersion = searchKeyVersion; }
+
     public String getOldSAPCode() { return oldSAPCode; }
     public void setOldSAPCode(String oldSAPCode) { this.oldSAPCode = oldSAPCode; }
 
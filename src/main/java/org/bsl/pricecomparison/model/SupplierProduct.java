@@ -24,6 +24,18 @@ public class SupplierProduct {
     @NotBlank(message = "Supplier name is required")
     private String supplierName;
 
+    // ⚡ key tìm kiếm, ghi lúc save (SupplierProductSearchKeyListener)
+    // companyKey = normalizeCompanyNameStrong(supplierName); *Key = trim + lowercase (filter exact / prefix)
+    // itemDescription*Key = foldText (không dấu, gộp space) -> match mô tả VN/EN
+    private String companyKey;
+    private String sapCodeKey;
+    private String hanaSapCodeKey;
+    private String currencyKey;
+    private String unitKey;
+    private String itemDescriptionVNKey;
+    private String itemDescriptionENKey;
+    private Integer searchKeyVersion;
+
     @NotBlank(message = "SAP code is required")
     private String sapCode;
 
@@ -252,4 +264,68 @@ public class SupplierProduct {
     public void setUpdatedAt(LocalDateTime updatedAt) {
         this.updatedAt = updatedAt;
     }
+
+    public String getCompanyKey() {
+        return companyKey;
+    }
+
+    public void setCompanyKey(String companyKey) {
+        this.companyKey = companyKey;
+    }
+
+    public String getSapCodeKey() {
+        return sapCodeKey;
+    }
+
+    public void setSapCodeKey(String sapCodeKey) {
+        this.sapCodeKey = sapCodeKey;
+    }
+
+    public String getHanaSapCodeKey() {
+        return hanaSapCodeKey;
+    }
+
+    public void setHanaSapCodeKey(String hanaSapCodeKey) {
+        this.hanaSapCodeKey = hanaSapCodeKey;
+    }
+
+    public String getCurrencyKey() {
+        return currencyKey;
+    }
+
+    public void setCurrencyKey(String currencyKey) {
+        this.currencyKey = currencyKey;
+    }
+
+    public String getUnitKey() {
+        return unitKey;
+    }
+
+    public void setUnitKey(String unitKey) {
+        this.unitKey = unitKey;
+    }
+
+    public String getItemDescriptionVNKey() {
+        return itemDescriptionVNKey;
+    }
+
+    public void setItemDescriptionVNKey(String itemDescriptionVNKey) {
+        this.itemDescriptionVNKey = itemDescriptionVNKey;
+    }
+
+    public String getItemDescriptionENKey() {
+        return itemDescriptionENKey;
+    }
+
+    public void setItemDescriptionENKey(String itemDescriptionENKey) {
+        this.itemDescriptionENKey = itemDescriptionENKey;
+    }
+
+    public Integer getSearchKeyVersion() {
+        return searchKeyVersion;
+    }
+
+    public void setSearchKeyVersion(Integer searchKeyVersion) {
+        this.searchKeyVersion = searchKeyVersion;
+    }
 }
\ No newline at end of file
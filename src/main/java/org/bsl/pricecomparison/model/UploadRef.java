@@ -0,0 +1,41 @@
+package org.bsl.pricecomparison.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * ⚡ Số document đang trỏ tới 1 file trong uploads/ (UploadStorageService).
+ *
+ * - id: đường dẫn tương đối trong uploads/ (vd. "3f/a2/3fa2...e1.png"), cũng là phần sau "/uploads/" của url
+ * - refs: về 0 => xóa file + document
+ */
+@Document(collection = "upload_refs")
+public class UploadRef {
+
+    @Id
+    private String id;
+
+    private long refs;
+    private long size;
+    private String contentType;
+    private LocalDateTime createdAt;
+
+    public UploadRef() {}
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public long getRefs() { return refs; }
+    public void setRefs(long refs) { this.refs = refs; }
+
+    public long getSize() { return size; }
+    public void setSize(long size) { this.size = size; }
+
+    public String getContentType() { return contentType; }
+    public void setContentType(String contentType) { this.contentType = contentType; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
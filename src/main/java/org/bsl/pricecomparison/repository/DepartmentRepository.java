@@ -8,9 +8,14 @@ import org.springframework.data.mongodb.repository.Query;
 
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Stream;
 
 public interface DepartmentRepository extends MongoRepository<Department, String> {
 
+    // ⚡ cursor cho stream=true (JsonStreamWriter), caller phải close stream
+    @Query("{}")
+    Stream<Department> streamAll();
+
     Department findByDepartmentName(String departmentName);
 
     List<Department> findByDepartmentNameContainingIgnoreCase(String departmentName);
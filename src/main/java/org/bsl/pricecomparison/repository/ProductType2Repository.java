@@ -22,6 +22,8 @@ public interface ProductType2Repository extends MongoRepository<ProductType2, St
 
     Page<ProductType2> findByNameContainingIgnoreCase(String name, Pageable pageable);
 
+    List<ProductType2> findByNameContainingIgnoreCase(String name);
+
     Page<ProductType2> findByProductType1IdIn(List<String> productType1Ids, Pageable pageable);
 
     Page<ProductType2> findByProductType1IdAndNameContaining(String productType1Id, String name, Pageable pageable);
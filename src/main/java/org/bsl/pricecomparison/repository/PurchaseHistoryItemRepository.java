@@ -2,7 +2,10 @@ package org.bsl.pricecomparison.repository;
 
 import org.bsl.pricecomparison.dto.PurchaseHistoryItem;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -17,4 +20,15 @@ public interface PurchaseHistoryItemRepository extends MongoRepository<PurchaseH
     Optional<PurchaseHistoryItem> findTopByGroupIdAndOldSapCodeOrderByPurchasedAtDesc(
             String groupId, String oldSapCode
     );
+
+    // ✅ các lần mua trong cửa sổ tháng, chỉ lấy field cần để SUM qty
+    @Query(value = "{ 'matchKeys': { $in: ?0 }, 'purchasedAt': { $gte: ?1, $lt: ?2 } }",
+            fields = "{ 'matchKeys': 1, 'orderQtySnapshot': 1 }")
+    List<PurchaseHistoryItem> findQtyByMatchKeysInAndPurchasedAtBetween(
+            Collection<String> matchKeys,
+            LocalDateTime start,
+            LocalDateTime endExclusive
+    );
+
+    long deleteByRequisitionMonthlyIdIn(Collection<String> requisitionMonthlyIds);
 }
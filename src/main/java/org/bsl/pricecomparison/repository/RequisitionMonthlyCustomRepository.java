@@ -1,11 +1,15 @@
 // src/main/java/org/bsl/pricecomparison/repository/RequisitionMonthlyCustomRepository.java
 package org.bsl.pricecomparison.repository;
 
+import org.bsl.pricecomparison.dto.RequisitionMonthlyFilter;
+import org.bsl.pricecomparison.dto.RequisitionMonthlyTotals;
 import org.bsl.pricecomparison.model.RequisitionMonthly;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 
 public interface RequisitionMonthlyCustomRepository {
 
@@ -23,4 +27,26 @@ public interface RequisitionMonthlyCustomRepository {
             String supplierName,
             String departmentName,
             Pageable pageable);
-}
\ No newline at end of file
+
+    /**
+     * ✅ Filter trong 1 group: $match + $sort (updatedDate ?? createdDate desc) + $skip/$limit.
+     * pageable unpaged -> trả toàn bộ kết quả đã lọc (disablePagination).
+     */
+    Page<RequisitionMonthly> filterRequisitions(RequisitionMonthlyFilter filter, Pageable pageable);
+
+    /**
+     * ✅ 7 tổng trên toàn bộ kết quả đã lọc: $match + 1 $group, không load document nào về JVM.
+     */
+    RequisitionMonthlyTotals sumTotals(RequisitionMonthlyFilter filter);
+
+    /**
+     * ✅ Ghi theo batch (BulkOperations unordered, chia chunk): insert bản ghi mới + replace bản ghi đã có theo _id.
+     * Bản ghi mới chưa có id sẽ được gán ObjectId trước khi insert.
+     */
+    void bulkSave(List<RequisitionMonthly> toInsert, List<RequisitionMonthly> toReplace);
+
+    /**
+     * ✅ deleteMany theo danh sách id (chia chunk), trả số bản ghi đã xoá.
+     */
+    long deleteAllByIds(Collection<String> ids);
+}
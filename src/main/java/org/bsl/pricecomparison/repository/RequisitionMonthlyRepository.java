@@ -7,7 +7,6 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.repository.query.Param;
 
-import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -66,51 +65,6 @@ public interface RequisitionMonthlyRepository extends MongoRepository<Requisitio
 
     // End
 
-    // 1) Latest theo hanaSAPCode + unit
-    @Query(
-            value = "{ 'isCompleted': true, 'hanaSAPCode': ?0, 'currency': ?1, 'unit': ?2, " +
-                    "  'supplierId': { $nin: [null, ''] }, " +
-                    "  'completedDate': { $ne: null } }",
-            sort  = "{ 'completedDate': -1 }"
-    )
-    List<RequisitionMonthly> findLatestPurchaseAllTimeByHanaSapCodeAndCurrencyAndUnit(
-            String hanaSapCode, String currency, String unit, Pageable pageable
-    );
-
-    // 2) Latest theo oldSAPCode + unit
-    @Query(
-            value = "{ 'isCompleted': true, 'oldSAPCode': ?0, 'currency': ?1, 'unit': ?2, " +
-                    "  'supplierId': { $nin: [null, ''] }, " +
-                    "  'completedDate': { $ne: null } }",
-            sort  = "{ 'completedDate': -1 }"
-    )
-    List<RequisitionMonthly> findLatestPurchaseAllTimeByOldSapCodeAndCurrencyAndUnit(
-            String oldSapCode, String currency, String unit, Pageable pageable
-    );
-
-    // 3) Latest theo itemDescriptionVN + unit
-    @Query(
-            value = "{ 'isCompleted': true, 'itemDescriptionVN': ?0, 'currency': ?1, 'unit': ?2, " +
-                    "  'supplierId': { $nin: [null, ''] }, " +
-                    "  'completedDate': { $ne: null } }",
-            sort  = "{ 'completedDate': -1 }"
-    )
-    List<RequisitionMonthly> findLatestPurchaseAllTimeByItemDescriptionVNAndCurrencyAndUnit(
-            String itemDescriptionVN, String currency, String unit, Pageable pageable
-    );
-
-    // 4) Latest theo itemDescriptionEN + unit
-    @Query(
-            value = "{ 'isCompleted': true, 'itemDescriptionEN': ?0, 'currency': ?1, 'unit': ?2, " +
-                    "  'supplierId': { $nin: [null, ''] }, " +
-                    "  'completedDate': { $ne: null } }",
-            sort  = "{ 'completedDate': -1 }"
-    )
-    List<RequisitionMonthly> findLatestPurchaseAllTimeByItemDescriptionENAndCurrencyAndUnit(
-            String itemDescriptionEN, String currency, String unit, Pageable pageable
-    );
-
-
     // SUMMARY
     @Query(value = "{ 'isCompleted': true, 'oldSAPCode': ?0, 'currency': ?1, " +
             "'supplierId': { $nin: [null, ''] }, " +
@@ -152,67 +106,15 @@ public interface RequisitionMonthlyRepository extends MongoRepository<Requisitio
             String groupId, String unit, String hanaSAPCode
     );
 
+    // ⚡ mô tả so theo key đã fold (CommonRequisitionUtils.foldText), index idx_group_desc_vn_key / idx_group_desc_en_key
     Optional<RequisitionMonthly>
-    findFirstByGroupIdAndUnitIgnoreCaseAndItemDescriptionVNIgnoreCase(
-            String groupId, String unit, String itemDescriptionVN
+    findFirstByGroupIdAndUnitIgnoreCaseAndItemDescriptionVNKey(
+            String groupId, String unit, String itemDescriptionVNKey
     );
 
     Optional<RequisitionMonthly>
-    findFirstByGroupIdAndUnitIgnoreCaseAndItemDescriptionENIgnoreCase(
-            String groupId, String unit, String itemDescriptionEN
-    );
-
-    // =============================
-// PREVIOUS MONTH: SUM QTY WINDOW
-// Add: unit
-// =============================
-
-    // 1) Theo oldSAPCode + currency + unit + completedDate window
-    @Query("{ 'isCompleted': true, 'oldSAPCode': ?0, 'currency': ?1, 'unit': ?2, " +
-            "'supplierId': { $nin: [null, ''] }, " +
-            "'completedDate': { $ne: null, $gte: ?3, $lt: ?4 } }")
-    List<RequisitionMonthly> findLastPurchaseByOldSapCodeAndCurrencyAndUnit(
-            String oldSapCode,
-            String currency,
-            String unit,
-            LocalDateTime start,
-            LocalDateTime endExclusive
-    );
-
-    // 2) Theo hanaSAPCode + currency + unit + completedDate window
-    @Query("{ 'isCompleted': true, 'hanaSAPCode': ?0, 'currency': ?1, 'unit': ?2, " +
-            "'supplierId': { $nin: [null, ''] }, " +
-            "'completedDate': { $ne: null, $gte: ?3, $lt: ?4 } }")
-    List<RequisitionMonthly> findLastPurchaseByHanaSapCodeAndCurrencyAndUnit(
-            String hanaSapCode,
-            String currency,
-            String unit,
-            LocalDateTime start,
-            LocalDateTime endExclusive
-    );
-
-    // 3) Theo itemDescriptionVN + currency + unit + completedDate window
-    @Query("{ 'isCompleted': true, 'itemDescriptionVN': ?0, 'currency': ?1, 'unit': ?2, " +
-            "'supplierId': { $nin: [null, ''] }, " +
-            "'completedDate': { $ne: null, $gte: ?3, $lt: ?4 } }")
-    List<RequisitionMonthly> findLastPurchaseByItemDescriptionVNAndCurrencyAndUnit(
-            String itemDescriptionVN,
-            String currency,
-            String unit,
-            LocalDateTime start,
-            LocalDateTime endExclusive
-    );
-
-    // 4) Theo itemDescriptionEN + currency + unit + completedDate window
-    @Query("{ 'isCompleted': true, 'itemDescriptionEN': ?0, 'currency': ?1, 'unit': ?2, " +
-            "'supplierId': { $nin: [null, ''] }, " +
-            "'completedDate': { $ne: null, $gte: ?3, $lt: ?4 } }")
-    List<RequisitionMonthly> findLastPurchaseByItemDescriptionENAndCurrencyAndUnit(
-            String itemDescriptionEN,
-            String currency,
-            String unit,
-            LocalDateTime start,
-            LocalDateTime endExclusive
+    findFirstByGroupIdAndUnitIgnoreCaseAndItemDescriptionENKey(
+            String groupId, String unit, String itemDescriptionENKey
     );
 
 }
\ No newline at end of file
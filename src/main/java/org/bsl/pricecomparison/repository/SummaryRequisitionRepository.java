@@ -9,9 +9,14 @@ import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface SummaryRequisitionRepository extends MongoRepository<SummaryRequisition, String> {
 
+    // ⚡ cursor cho stream=true (JsonStreamWriter), caller phải close stream
+    @Query("{}")
+    Stream<SummaryRequisition> streamAll();
+
     List<SummaryRequisition> findByGroupId(String groupId);
 
     Page<SummaryRequisition> findByGroupId(String groupId, Pageable pageable);
@@ -7,12 +7,28 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Stream;
 
 public interface SupplierProductRepository extends MongoRepository<SupplierProduct, String> {
 
+    // ⚡ batch: chỉ _id + supplierName theo nhiều id (filter supplierName ở /search/comparison)
+    @Query(value = "{ '_id': { $in: ?0 } }", fields = "{ '_id': 1, 'supplierName': 1 }")
+    List<SupplierProduct> findNamesByIds(Collection<String> ids);
+
+    // ⚡ cursor cho stream=true (JsonStreamWriter), caller phải close stream
+    @Query("{}")
+    Stream<SupplierProduct> streamAll();
+
+    /**
+     * Collation so sánh không phân biệt hoa thường, phải giống collation của các index *_ci
+     * trong MongoIndexRegistry thì query mới dùng được index.
+     */
+    String CASE_INSENSITIVE = "{ 'locale': 'en', 'strength': 2 }";
+
     @Query("{ 'itemNo': { $regex: ?0, $options: 'i' } }")
     List<SupplierProduct> findByItemNoContainingIgnoreCase(String keyword);
 
@@ -32,7 +48,8 @@ public interface SupplierProductRepository extends MongoRepository<SupplierProdu
     Page<SupplierProduct> findBySapCodeContainingIgnoreCaseOrSupplierCodeContainingIgnoreCaseOrItemNoContainingIgnoreCaseOrSupplierNameContainingIgnoreCase(
             String sapCode, String supplierCode, String itemNo, String supplierName, Pageable pageable);
 
-    @Query("{ 'sapCode': { $regex: '^?0$', $options: 'i' }, 'currency': { $regex: '^?1$', $options: 'i' } }")
+    // ✅ exact match không phân biệt hoa thường qua collation strength 2 (index idx_sap_unit_currency_ci)
+    @Query(value = "{ 'sapCode': ?0, 'currency': ?1 }", collation = CASE_INSENSITIVE)
     List<SupplierProduct> findBySapCodeAndCurrencyIgnoreCase(String sapCode, String currency);
 
     Optional<SupplierProduct> findById(String id);
@@ -65,24 +82,34 @@ public interface SupplierProductRepository extends MongoRepository<SupplierProdu
             String supplierName, String currency, BigDecimal price
     );
 
-    // 1) sapCode + unit + currency
+    // 1) sapCode + unit + currency (index idx_sap_unit_currency_ci)
+    @Query(value = "{ 'sapCode': ?0, 'unit': ?1, 'currency': ?2 }", collation = CASE_INSENSITIVE)
     List<SupplierProduct> findBySapCodeIgnoreCaseAndUnitIgnoreCaseAndCurrencyIgnoreCase(
             String sapCode, String unit, String currency
     );
 
-    // 2) hanaSapCode + unit + currency
+    // 2) hanaSapCode + unit + currency (index idx_hana_unit_currency_ci)
+    @Query(value = "{ 'hanaSapCode': ?0, 'unit': ?1, 'currency': ?2 }", collation = CASE_INSENSITIVE)
     List<SupplierProduct> findByHanaSapCodeIgnoreCaseAndUnitIgnoreCaseAndCurrencyIgnoreCase(
             String hanaSapCode, String unit, String currency
     );
 
-    // 3) itemDescriptionVN contains + unit + currency
-    List<SupplierProduct> findByItemDescriptionVNContainingIgnoreCaseAndUnitIgnoreCaseAndCurrencyIgnoreCase(
-            String keyword, String unit, String currency
+    // 3) itemDescriptionVNKey contains (regex đã quote, key đã fold) + unit + currency (index idx_unit_currency_desc_vn_key_ci)
+    @Query(value = "{ 'unit': ?1, 'currency': ?2, 'itemDescriptionVNKey': { $regex: ?0 } }", collation = CASE_INSENSITIVE)
+    List<SupplierProduct> findByItemDescriptionVNKeyRegexAndUnitIgnoreCaseAndCurrencyIgnoreCase(
+            String keyRegex, String unit, String currency
+    );
+
+    // 4) itemDescriptionENKey contains + unit + currency (index idx_unit_currency_desc_en_key_ci)
+    @Query(value = "{ 'unit': ?1, 'currency': ?2, 'itemDescriptionENKey': { $regex: ?0 } }", collation = CASE_INSENSITIVE)
+    List<SupplierProduct> findByItemDescriptionENKeyRegexAndUnitIgnoreCaseAndCurrencyIgnoreCase(
+            String keyRegex, String unit, String currency
     );
 
-    // 4) itemDescriptionEN contains + unit + currency
-    List<SupplierProduct> findByItemDescriptionENContainingIgnoreCaseAndUnitIgnoreCaseAndCurrencyIgnoreCase(
-            String keyword, String unit, String currency
+    // 3/4 qua DescriptionSearchIndex: id đã match mô tả (không dấu) + unit + currency
+    @Query(value = "{ '_id': { $in: ?0 }, 'unit': ?1, 'currency': ?2 }", collation = CASE_INSENSITIVE)
+    List<SupplierProduct> findByIdInAndUnitIgnoreCaseAndCurrencyIgnoreCase(
+            Collection<String> ids, String unit, String currency
     );
 
 }
\ No newline at end of file
@@ -0,0 +1,356 @@
+package org.bsl.pricecomparison.service;
+
+import org.bsl.pricecomparison.common.CommonRequisitionUtils;
+import org.bsl.pricecomparison.model.RequisitionMonthly;
+import org.bsl.pricecomparison.model.SupplierProduct;
+import org.bsl.pricecomparison.repository.RequisitionMonthlyRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * ⚡ Auto-supplier cho cả group theo batch (thay cho 1 query + 1 save / requisition):
+ *
+ * 1) load: tất cả requisition của group
+ * 2) plan: chọn keyword theo cascade SAP -> HANA -> VN -> EN (rule giữ nguyên như cũ)
+ * 3) fetch: SupplierCandidateResolver.prefetch (dùng chung với các màn so sánh) -> vài query $in theo
+ *    (searchMode, unit, currency), mô tả qua DescriptionSearchIndex / regex OR trên itemDescription*Key
+ * 4) pick: pickBestSupplierProductByLatestPerCompanyThenMinPrice trong memory
+ * 5) write: 1 bulkWrite unordered
+ */
+@Service
+public class AutoSupplierBatchService {
+
+    private static final int WRITE_CHUNK = 1000;      // số update / bulkWrite
+
+    private static final int MODE_SAP = 1;
+    private static final int MODE_HANA = 2;
+    private static final int MODE_VN = 3;
+    private static final int MODE_EN = 4;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private RequisitionMonthlyRepository requisitionMonthlyRepository;
+
+    @Autowired
+    private CommonRequisitionUtils commonRequisitionUtils;
+
+    @Autowired
+    private ComparisonSnapshotService comparisonSnapshotService;
+
+    @Autowired
+    private PurchaseHistoryService purchaseHistoryService;
+
+    @Autowired
+    private SupplierCandidateResolver supplierCandidateResolver;
+
+    @Autowired
+    private DescriptionSearchIndex descriptionSearchIndex;
+
+    public Result autoAssignByGroup(String groupId, String email) {
+        Result result = new Result();
+        long t0 = System.currentTimeMillis();
+
+        // ===== 1) LOAD =====
+        List<RequisitionMonthly> reqList = requisitionMonthlyRepository.findByGroupId(groupId);
+        long tLoad = System.currentTimeMillis();
+        result.timings.put("loadMs", tLoad - t0);
+        if (reqList == null || reqList.isEmpty()) return result;
+        result.total = reqList.size();
+
+        // ===== 2) PLAN =====
+        List<Job> jobs = new ArrayList<>();
+        for (RequisitionMonthly req : reqList) {
+            String currency = safeTrim(req.getCurrency());
+            if (currency == null) currency = "VND";
+
+            String existingSupplierId = safeTrim(req.getSupplierId());
+            if (existingSupplierId != null) {
+                result.skippedAlreadyHasSupplier++;
+                result.details.add(detail(req.getId(), "SKIP_ALREADY_HAS_SUPPLIER",
+                        existingSupplierId, 0, currency, safeTrim(req.getUnit())));
+                continue;
+            }
+
+            String unit = safeTrim(req.getUnit());
+            if (unit == null) {
+                result.skippedNoUnit++;
+                result.details.add(detail(req.getId(), "SKIP_NO_UNIT", null, 0, currency, null));
+                continue;
+            }
+
+            String sapCode = safeTrim(req.getOldSAPCode());
+            String hanaCode = safeTrim(req.getHanaSAPCode());
+            String desVn = safeTrim(req.getItemDescriptionVN());
+            String desEn = safeTrim(req.getItemDescriptionEN());
+
+            String keyword = null;
+            int searchMode = 0;
+            if (CommonRequisitionUtils.isUsableKey(sapCode)) {
+                keyword = sapCode;
+                searchMode = MODE_SAP;
+            } else if (CommonRequisitionUtils.isUsableKey(hanaCode)) {
+                keyword = hanaCode;
+                searchMode = MODE_HANA;
+            } else if (desVn != null) {
+                keyword = desVn;
+                searchMode = MODE_VN;
+            } else if (desEn != null) {
+                keyword = desEn;
+                searchMode = MODE_EN;
+            }
+            if (keyword == null) {
+                result.skippedNoKey++;
+                result.details.add(detail(req.getId(), "SKIP_NO_KEY", null, 0, currency, unit));
+                continue;
+            }
+
+            // cùng cascade SAP -> HANA -> VN -> EN với keyword / searchMode ở trên
+            SupplierCandidateResolver.Key key = SupplierCandidateResolver.Key.of(
+                    sapCode, hanaCode, desVn, desEn, unit, currency);
+            jobs.add(new Job(req, key, keyword, searchMode, unit, currency));
+        }
+        long tPlan = System.currentTimeMillis();
+        result.timings.put("planMs", tPlan - tLoad);
+
+        // ===== 3) FETCH =====
+        SupplierCandidateResolver.Candidates candidates = supplierCandidateResolver.prefetch(jobs, job -> job.key);
+        result.queries = candidates.getQueries();
+        long tFetch = System.currentTimeMillis();
+        result.timings.put("fetchMs", tFetch - tPlan);
+
+        // ===== 4) PICK =====
+        LocalDateTime now = LocalDateTime.now();
+        List<RequisitionMonthly> toWrite = new ArrayList<>();
+        for (Job job : jobs) {
+            try {
+                List<SupplierProduct> suppliers = candidates.get(job.key);
+                if (suppliers.isEmpty()) {
+                    result.skippedNoSupplier++;
+                    result.details.add(detail(job.req.getId(), "SKIP_NO_SUPPLIER",
+                            job.keyword, job.searchMode, job.currency, job.unit));
+                    continue;
+                }
+
+                SupplierProduct best = commonRequisitionUtils.pickBestSupplierProductByLatestPerCompanyThenMinPrice(suppliers);
+                if (best == null) {
+                    result.skippedAllNullPrice++;
+                    result.details.add(detail(job.req.getId(), "SKIP_ALL_NULL_PRICE",
+                            job.keyword, job.searchMode, job.currency, job.unit));
+                    continue;
+                }
+
+                applyBest(job, best, email, now);
+                toWrite.add(job.req);
+                result.details.add(updatedDetail(job, best));
+            } catch (Exception perItemEx) {
+                Map<String, Object> d = new LinkedHashMap<>();
+                d.put("requisitionId", job.req.getId());
+                d.put("status", "ERROR");
+                d.put("error", perItemEx.getMessage());
+                result.details.add(d);
+            }
+        }
+        long tPick = System.currentTimeMillis();
+        result.timings.put("pickMs", tPick - tFetch);
+
+        // details theo thứ tự requisition như trước
+        Map<String, Integer> order = new HashMap<>();
+        for (int i = 0; i < reqList.size(); i++) order.putIfAbsent(reqList.get(i).getId(), i);
+        result.details.sort(Comparator.comparingInt(d -> order.getOrDefault((String) d.get("requisitionId"), Integer.MAX_VALUE)));
+
+        // ===== 5) WRITE =====
+        result.updated = bulkWrite(toWrite);
+        // bulk updateOne không bắn mongo event -> tự đánh dấu snapshot so sánh, ghi lại history dòng đã completed,
+        // cập nhật index mô tả (itemDescriptionVN/EN có thể vừa được sync từ supplier)
+        comparisonSnapshotService.markRequisitionsStale(toWrite);
+        purchaseHistoryService.recordCompleted(toWrite);
+        for (RequisitionMonthly req : toWrite) {
+            descriptionSearchIndex.put(DescriptionSearchIndex.Source.REQUISITION_MONTHLY,
+                    req.getId(), req.getItemDescriptionVN(), req.getItemDescriptionEN());
+        }
+        long tWrite = System.currentTimeMillis();
+        result.timings.put("writeMs", tWrite - tPick);
+        result.timings.put("totalMs", tWrite - t0);
+        return result;
+    }
+
+    // =========================================================
+    // APPLY + WRITE
+    // =========================================================
+
+    private static void applyBest(Job job, SupplierProduct best, String email, LocalDateTime now) {
+        RequisitionMonthly req = job.req;
+
+        req.setSupplierId(best.getId());
+        req.setSupplierName(best.getSupplierName());
+        req.setPrice(best.getPrice() != null ? best.getPrice() : BigDecimal.ZERO);
+        req.setGoodType(best.getGoodType() != null ? best.getGoodType() : "");
+        req.setCurrency(best.getCurrency() != null && !best.getCurrency().isBlank()
+                ? best.getCurrency()
+                : job.currency);
+        req.setProductType1Id(best.getProductType1Id());
+        req.setProductType2Id(best.getProductType2Id());
+
+        // ===== SYNC BACK item info (KHÔNG override field đang search) =====
+        String spSap = normalizeNew(safeTrim(best.getSapCode()));
+        String spHana = normalizeNew(safeTrim(best.getHanaSapCode()));
+        String spVn = safeTrim(best.getItemDescriptionVN());
+        String spEn = safeTrim(best.getItemDescriptionEN());
+        if (job.searchMode == MODE_SAP) {
+            req.setHanaSAPCode(spHana);
+            req.setItemDescriptionVN(spVn);
+            req.setItemDescriptionEN(spEn);
+        } else if (job.searchMode == MODE_HANA) {
+            req.setOldSAPCode(spSap);
+            req.setItemDescriptionVN(spVn);
+            req.setItemDescriptionEN(spEn);
+        } else if (job.searchMode == MODE_VN) {
+            req.setOldSAPCode(spSap);
+            req.setHanaSAPCode(spHana);
+            req.setItemDescriptionEN(spEn);
+        } else {
+            req.setOldSAPCode(spSap);
+            req.setHanaSAPCode(spHana);
+            req.setItemDescriptionVN(spVn);
+        }
+
+        // ===== amount =====
+        BigDecimal orderQty = req.getOrderQty() != null
+                ? req.getOrderQty()
+                : (req.getDailyMedInventory() != null ? req.getDailyMedInventory() : BigDecimal.ZERO);
+        BigDecimal price = req.getPrice() != null ? req.getPrice() : BigDecimal.ZERO;
+        req.setAmount(price.multiply(orderQty));
+
+        req.setUpdatedByEmail(email);
+        req.setUpdatedDate(now);
+    }
+
+    private int bulkWrite(List<RequisitionMonthly> requisitions) {
+        int written = 0;
+        for (int i = 0; i < requisitions.size(); i += WRITE_CHUNK) {
+            List<RequisitionMonthly> chunk = requisitions.subList(i, Math.min(i + WRITE_CHUNK, requisitions.size()));
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, RequisitionMonthly.class);
+            for (RequisitionMonthly req : chunk) {
+                Update update = new Update();
+                setOrUnset(update, "supplierId", req.getSupplierId());
+                setOrUnset(update, "supplierName", req.getSupplierName());
+                setOrUnset(update, "price", req.getPrice());
+                setOrUnset(update, "goodType", req.getGoodType());
+                setOrUnset(update, "currency", req.getCurrency());
+                setOrUnset(update, "productType1Id", req.getProductType1Id());
+                setOrUnset(update, "productType2Id", req.getProductType2Id());
+                setOrUnset(update, "oldSAPCode", req.getOldSAPCode());
+                setOrUnset(update, "hanaSAPCode", req.getHanaSAPCode());
+                setOrUnset(update, "itemDescriptionVN", req.getItemDescriptionVN());
+                setOrUnset(update, "itemDescriptionEN", req.getItemDescriptionEN());
+                // bulk updateOne không qua RequisitionMonthlySearchKeyListener
+                RequisitionMonthlySearchKeyListener.applySearchKeys(req);
+                setOrUnset(update, "itemDescriptionVNKey", req.getItemDescriptionVNKey());
+                setOrUnset(update, "itemDescriptionENKey", req.getItemDescriptionENKey());
+                setOrUnset(update, "searchKeyVersion", req.getSearchKeyVersion());
+                setOrUnset(update, "amount", req.getAmount());
+                setOrUnset(update, "updatedByEmail", req.getUpdatedByEmail());
+                setOrUnset(update, "updatedDate", req.getUpdatedDate());
+                bulk.updateOne(Query.query(Criteria.where("_id").is(req.getId())), update);
+            }
+            written += bulk.execute().getMatchedCount();
+        }
+        return written;
+    }
+
+    // giống save(): field null thì không lưu
+    private static void setOrUnset(Update update, String field, Object value) {
+        if (value != null) update.set(field, value);
+        else update.unset(field);
+    }
+
+    // =========================================================
+    // HELPERS
+    // =========================================================
+
+    private static Map<String, Object> updatedDetail(Job job, SupplierProduct best) {
+        RequisitionMonthly req = job.req;
+        Map<String, Object> d = new LinkedHashMap<>();
+        d.put("requisitionId", req.getId());
+        d.put("status", "UPDATED");
+        d.put("searchMode", job.searchMode);
+        d.put("keyword", job.keyword);
+        d.put("unit", job.unit);
+        d.put("currency", job.currency);
+        d.put("pickedSupplierId", best.getId());
+        d.put("pickedSupplierName", best.getSupplierName());
+        d.put("pickedPrice", best.getPrice());
+        d.put("pickedCreatedAt", best.getCreatedAt());
+        d.put("syncedOldSap", req.getOldSAPCode());
+        d.put("syncedHana", req.getHanaSAPCode());
+        d.put("syncedDesVn", req.getItemDescriptionVN());
+        d.put("syncedDesEn", req.getItemDescriptionEN());
+        return d;
+    }
+
+    private static Map<String, Object> detail(String reqId, String status, String keyword, int searchMode,
+                                              String currency, String unit) {
+        Map<String, Object> d = new LinkedHashMap<>();
+        d.put("requisitionId", reqId);
+        d.put("status", status);
+        if (keyword != null) d.put("keyword", keyword);
+        if (searchMode != 0) d.put("searchMode", searchMode);
+        if (currency != null) d.put("currency", currency);
+        if (unit != null) d.put("unit", unit);
+        return d;
+    }
+
+    private static String safeTrim(String s) {
+        return CommonRequisitionUtils.safeTrim(s);
+    }
+
+    private static String normalizeNew(String v) {
+        return CommonRequisitionUtils.normalizeNewKeepNew(v);
+    }
+
+    private static final class Job {
+        final RequisitionMonthly req;
+        final SupplierCandidateResolver.Key key;
+        final String keyword;
+        final int searchMode;
+        final String unit;
+        final String currency;
+
+        Job(RequisitionMonthly req, SupplierCandidateResolver.Key key, String keyword, int searchMode,
+            String unit, String currency) {
+            this.req = req;
+            this.key = key;
+            this.keyword = keyword;
+            this.searchMode = searchMode;
+            this.unit = unit;
+            this.currency = currency;
+        }
+    }
+
+    /**
+     * Kết quả: counters giống response cũ + số query + thời gian từng phase.
+     */
+    public static class Result {
+        public int total;
+        public int updated;
+        public int skippedAlreadyHasSupplier;
+        public int skippedNoUnit;
+        public int skippedNoKey;
+        public int skippedNoSupplier;
+        public int skippedAllNullPrice;
+        public int queries;
+        public final List<Map<String, Object>> details = new ArrayList<>();
+        public final Map<String, Long> timings = new LinkedHashMap<>();
+    }
+}
@@ -0,0 +1,425 @@
+package org.bsl.pricecomparison.service;
+
+import org.bsl.pricecomparison.common.CommonRequisitionUtils;
+import org.bsl.pricecomparison.dto.MonthlyComparisonRequisitionDTO;
+import org.bsl.pricecomparison.model.ComparisonSnapshot;
+import org.bsl.pricecomparison.model.RequisitionMonthly;
+import org.bsl.pricecomparison.model.SupplierProduct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ⚡ Snapshot so sánh giá theo group cho /search/comparison-monthly.
+ *
+ * - Lần đọc đầu: tính toàn bộ dòng của group (converter của controller), lưu 1 document comparison_snapshots
+ * - Các lần sau: 1 findById; chỉ tính lại các dòng bị đánh dấu stale
+ * - Đánh dấu stale: mongo event (save/delete RequisitionMonthly, SupplierProduct) + các đường bulk gọi trực tiếp.
+ *   Event chỉ ghi vào bộ nhớ (rẻ, import hàng nghìn dòng không bắn hàng nghìn update),
+ *   flushPending() đẩy xuống Mongo ở đầu mỗi lần đọc snapshot
+ * - MAX_AGE: build lại định kỳ, phòng thay đổi ngoài app / instance khác không bắn event ở đây
+ *
+ * Last purchase + tên type KHÔNG nằm trong snapshot (phụ thuộc dữ liệu group khác), controller gắn lúc đọc.
+ */
+@Service
+public class ComparisonSnapshotService {
+
+    // tăng khi đổi cách tính DTO => snapshot cũ tự build lại
+    private static final int FORMAT_VERSION = 2;
+
+    private static final long MAX_AGE_MINUTES = 30;
+
+    // group quá lớn => không lưu (giới hạn 16MB / document), vẫn tính trực tiếp như cũ
+    private static final int MAX_SNAPSHOT_ROWS = 3000;
+
+    // quá nhiều SupplierProduct đổi giữa 2 lần đọc (import) => build lại tất cả thay vì so từng dòng
+    private static final int MAX_PENDING_SUPPLIER_CHANGES = 5000;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final Map<String, Set<String>> pendingIdsByGroup = new ConcurrentHashMap<>();
+    private final Set<String> pendingIdsNoGroup = ConcurrentHashMap.newKeySet();
+    private final Set<String> pendingDirtyGroups = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean pendingAllDirty = new AtomicBoolean();
+
+    private final Queue<SupplierChange> pendingSupplierChanges = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingSupplierCount = new AtomicInteger();
+
+    /**
+     * Tính DTO cho 1 lô dòng (cùng thứ tự), để caller prefetch supplier candidate 1 lần cho cả lô.
+     */
+    @FunctionalInterface
+    public interface RowConverter {
+        List<MonthlyComparisonRequisitionDTO> convert(List<RequisitionMonthly> requisitions);
+    }
+
+    // =========================================================
+    // READ
+    // =========================================================
+
+    /**
+     * Các dòng so sánh của group (sort updatedDate/createdDate DESC, id), DTO chưa có last purchase / type name.
+     *
+     * @param converter tính các dòng mới / stale (1 lần / lần đọc)
+     */
+    public List<ComparisonSnapshot.Row> getRows(String groupId,
+                                                String currency,
+                                                boolean removeDuplicateSuppliers,
+                                                RowConverter converter) {
+        flushPending();
+
+        String cur = currency != null ? currency.trim() : "";
+        String snapshotId = snapshotId(groupId, removeDuplicateSuppliers);
+        ComparisonSnapshot snapshot = mongoTemplate.findById(snapshotId, ComparisonSnapshot.class);
+        LocalDateTime now = LocalDateTime.now();
+
+        boolean rebuild = snapshot == null
+                || snapshot.isDirty()
+                || snapshot.getFormatVersion() != FORMAT_VERSION
+                || !Objects.equals(snapshot.getCurrency(), cur)
+                || snapshot.getBuiltAt() == null
+                || snapshot.getBuiltAt().isBefore(now.minusMinutes(MAX_AGE_MINUTES));
+
+        Set<String> stale = snapshot != null && snapshot.getStaleRequisitionIds() != null
+                ? snapshot.getStaleRequisitionIds()
+                : Collections.emptySet();
+
+        // ✅ không có gì đổi: 1 document read
+        if (!rebuild && stale.isEmpty()) {
+            return snapshot.getRows() != null ? snapshot.getRows() : new ArrayList<>();
+        }
+
+        List<ComparisonSnapshot.Row> rows;
+        if (rebuild) {
+            List<RequisitionMonthly> requisitions = mongoTemplate.find(
+                    Query.query(Criteria.where("groupId").is(groupId)), RequisitionMonthly.class);
+
+            rows = toRows(requisitions, cur, converter);
+        } else {
+            // ✅ chỉ tính lại dòng stale; dòng đã xoá / chuyển group thì bỏ
+            Map<String, ComparisonSnapshot.Row> byId = new LinkedHashMap<>();
+            for (ComparisonSnapshot.Row row : snapshot.getRows()) {
+                byId.put(row.getRequisitionId(), row);
+            }
+            byId.keySet().removeAll(stale);
+
+            List<RequisitionMonthly> changed = mongoTemplate.find(
+                    Query.query(Criteria.where("_id").in(stale).and("groupId").is(groupId)), RequisitionMonthly.class);
+            for (ComparisonSnapshot.Row row : toRows(changed, cur, converter)) {
+                byId.put(row.getRequisitionId(), row);
+            }
+            rows = new ArrayList<>(byId.values());
+        }
+
+        // ✅ id làm tie-break => thứ tự ổn định khi phân trang
+        rows.sort(Comparator.comparing(ComparisonSnapshot.Row::getSortDate,
+                        Comparator.nullsLast(Comparator.<LocalDateTime>reverseOrder()))
+                .thenComparing(ComparisonSnapshot.Row::getRequisitionId,
+                        Comparator.nullsLast(Comparator.<String>naturalOrder())));
+
+        if (snapshot == null) {
+            snapshot = new ComparisonSnapshot();
+            snapshot.setId(snapshotId);
+        }
+        snapshot.setGroupId(groupId);
+        snapshot.setCurrency(cur);
+        snapshot.setRemoveDuplicateSuppliers(removeDuplicateSuppliers);
+        snapshot.setFormatVersion(FORMAT_VERSION);
+        snapshot.setRows(rows);
+        snapshot.setStaleRequisitionIds(new LinkedHashSet<>());
+        snapshot.setDirty(false);
+        if (rebuild) snapshot.setBuiltAt(now);
+        snapshot.setRefreshedAt(now);
+
+        persist(snapshot);
+        return rows;
+    }
+
+    private void persist(ComparisonSnapshot snapshot) {
+        if (snapshot.getRows().size() > MAX_SNAPSHOT_ROWS) {
+            if (snapshot.getVersion() != null) {
+                mongoTemplate.remove(Query.query(Criteria.where("_id").is(snapshot.getId())), ComparisonSnapshot.class);
+            }
+            return;
+        }
+
+        try {
+            mongoTemplate.save(snapshot);
+        } catch (OptimisticLockingFailureException | DuplicateKeyException e) {
+            // ✅ có thay đổi / request khác ghi trong lúc tính => giữ bản trong DB (đã được đánh dấu stale), lần sau tính lại
+            System.out.println("Comparison snapshot " + snapshot.getId() + " changed during refresh, not saved");
+        }
+    }
+
+    private List<ComparisonSnapshot.Row> toRows(List<RequisitionMonthly> requisitions,
+                                                String currency,
+                                                RowConverter converter) {
+        List<ComparisonSnapshot.Row> rows = new ArrayList<>(requisitions.size());
+        if (requisitions.isEmpty()) return rows;
+
+        List<MonthlyComparisonRequisitionDTO> dtos = converter.convert(requisitions);
+        for (int i = 0; i < requisitions.size(); i++) {
+            rows.add(toRow(requisitions.get(i), currency, dtos.get(i)));
+        }
+        return rows;
+    }
+
+    private ComparisonSnapshot.Row toRow(RequisitionMonthly req,
+                                         String currency,
+                                         MonthlyComparisonRequisitionDTO dto) {
+        ComparisonSnapshot.Row row = new ComparisonSnapshot.Row();
+        row.setRequisitionId(req.getId());
+        row.setSortDate(req.getUpdatedDate() != null ? req.getUpdatedDate() : req.getCreatedDate());
+        row.setReqUnit(req.getUnit());
+        row.setLastPurchaseKey(MonthlyLastPurchaseResolver.matchKey(req));
+
+        // ✅ giống convertToComparisonDTO: Yes/No = đã finalize, không search supplier
+        String statusBestPrice = trimToNull(req.getStatusBestPrice());
+        boolean finalized = statusBestPrice != null
+                && ("Yes".equalsIgnoreCase(statusBestPrice) || "No".equalsIgnoreCase(statusBestPrice));
+        row.setFinalized(finalized);
+
+        // ✅ giống searchSupplierProductsByPriority: SAP -> HANA -> VN -> EN
+        String unit = trimToNull(req.getUnit());
+        if (!finalized && unit != null && !currency.isBlank()) {
+            String sap = normCode(req.getOldSAPCode());
+            String hana = normCode(req.getHanaSAPCode());
+            String vn = trimToNull(req.getItemDescriptionVN());
+            String en = trimToNull(req.getItemDescriptionEN());
+
+            if (sap != null) {
+                row.setSupplierMatchMode("SAP");
+                row.setSupplierMatchValue(sap.toLowerCase());
+            } else if (hana != null) {
+                row.setSupplierMatchMode("HANA");
+                row.setSupplierMatchValue(hana.toLowerCase());
+            } else if (vn != null) {
+                row.setSupplierMatchMode("VN");
+                row.setSupplierMatchValue(CommonRequisitionUtils.descriptionKey(vn));
+            } else if (en != null) {
+                row.setSupplierMatchMode("EN");
+                row.setSupplierMatchValue(CommonRequisitionUtils.descriptionKey(en));
+            }
+            row.setSupplierUnit(unit.toLowerCase());
+        }
+
+        row.setDto(dto);
+        return row;
+    }
+
+    private static String snapshotId(String groupId, boolean removeDuplicateSuppliers) {
+        return groupId + (removeDuplicateSuppliers ? "|dedupe" : "|all");
+    }
+
+    // =========================================================
+    // INVALIDATION (ghi vào bộ nhớ, flush khi đọc)
+    // =========================================================
+
+    public void markRequisitionStale(String requisitionId, String groupId) {
+        if (requisitionId == null) return;
+        if (groupId != null) {
+            pendingIdsByGroup.computeIfAbsent(groupId, k -> ConcurrentHashMap.newKeySet()).add(requisitionId);
+        } else {
+            pendingIdsNoGroup.add(requisitionId);
+        }
+    }
+
+    public void markRequisitionsStale(Collection<RequisitionMonthly> requisitions) {
+        if (requisitions == null) return;
+        for (RequisitionMonthly req : requisitions) {
+            if (req != null) markRequisitionStale(req.getId(), req.getGroupId());
+        }
+    }
+
+    public void markRequisitionIdsStale(Collection<String> requisitionIds) {
+        if (requisitionIds == null) return;
+        for (String id : requisitionIds) {
+            markRequisitionStale(id, null);
+        }
+    }
+
+    public void markGroupDirty(String groupId) {
+        if (groupId != null) pendingDirtyGroups.add(groupId);
+    }
+
+    public void markAllDirty() {
+        pendingAllDirty.set(true);
+    }
+
+    public void onSupplierProductChanged(SupplierProduct product) {
+        if (product == null) return;
+        if (pendingSupplierCount.incrementAndGet() > MAX_PENDING_SUPPLIER_CHANGES) {
+            pendingAllDirty.set(true);
+            return;
+        }
+        pendingSupplierChanges.add(new SupplierChange(product));
+    }
+
+    /**
+     * Đẩy các đánh dấu đang chờ xuống comparison_snapshots (tăng version => refresh đang chạy song song không ghi đè).
+     */
+    public void flushPending() {
+        if (pendingAllDirty.getAndSet(false)) {
+            pendingSupplierChanges.clear();
+            pendingSupplierCount.set(0);
+            pendingIdsByGroup.clear();
+            pendingIdsNoGroup.clear();
+            pendingDirtyGroups.clear();
+            mongoTemplate.updateMulti(new Query(), dirtyUpdate(), ComparisonSnapshot.class);
+            return;
+        }
+
+        if (!pendingDirtyGroups.isEmpty()) {
+            List<String> groups = drain(pendingDirtyGroups);
+            mongoTemplate.updateMulti(Query.query(Criteria.where("groupId").in(groups)), dirtyUpdate(),
+                    ComparisonSnapshot.class);
+        }
+
+        for (String groupId : new ArrayList<>(pendingIdsByGroup.keySet())) {
+            Set<String> ids = pendingIdsByGroup.remove(groupId);
+            if (ids == null || ids.isEmpty()) continue;
+            List<String> list = new ArrayList<>(ids);
+            // ✅ group hiện tại (dòng mới / sửa) + snapshot đang chứa dòng (dòng chuyển group)
+            mongoTemplate.updateMulti(
+                    Query.query(new Criteria().orOperator(
+                            Criteria.where("groupId").is(groupId),
+                            Criteria.where("rows.requisitionId").in(list))),
+                    staleUpdate(list), ComparisonSnapshot.class);
+        }
+
+        if (!pendingIdsNoGroup.isEmpty()) {
+            List<String> list = drain(pendingIdsNoGroup);
+            mongoTemplate.updateMulti(Query.query(Criteria.where("rows.requisitionId").in(list)),
+                    staleUpdate(list), ComparisonSnapshot.class);
+        }
+
+        flushSupplierChanges();
+    }
+
+    private void flushSupplierChanges() {
+        List<SupplierChange> changes = new ArrayList<>();
+        SupplierChange change;
+        while ((change = pendingSupplierChanges.poll()) != null) {
+            changes.add(change);
+        }
+        pendingSupplierCount.addAndGet(-changes.size());
+        if (changes.isEmpty()) return;
+
+        Set<String> currencies = new HashSet<>();
+        for (SupplierChange c : changes) {
+            if (c.currency != null) currencies.add(c.currency);
+        }
+        if (currencies.isEmpty()) return;
+
+        // ✅ chỉ đọc field match của các dòng, không đọc DTO
+        Query query = new Query(Criteria.where("dirty").ne(true));
+        query.fields().include("currency", "rows.requisitionId", "rows.finalized",
+                "rows.supplierMatchMode", "rows.supplierMatchValue", "rows.supplierUnit");
+
+        for (ComparisonSnapshot snapshot : mongoTemplate.find(query, ComparisonSnapshot.class)) {
+            String cur = snapshot.getCurrency() != null ? snapshot.getCurrency().toLowerCase() : null;
+            if (cur == null || !currencies.contains(cur) || snapshot.getRows() == null) continue;
+
+            List<String> affected = new ArrayList<>();
+            for (ComparisonSnapshot.Row row : snapshot.getRows()) {
+                for (SupplierChange c : changes) {
+                    if (cur.equals(c.currency) && c.matches(row)) {
+                        affected.add(row.getRequisitionId());
+                        break;
+                    }
+                }
+            }
+
+            if (!affected.isEmpty()) {
+                mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(snapshot.getId())),
+                        staleUpdate(affected), ComparisonSnapshot.class);
+            }
+        }
+    }
+
+    private static Update staleUpdate(List<String> ids) {
+        return new Update().addToSet("staleRequisitionIds").each(ids.toArray()).inc("version", 1);
+    }
+
+    private static Update dirtyUpdate() {
+        return new Update().set("dirty", true).inc("version", 1);
+    }
+
+    private static List<String> drain(Set<String> set) {
+        List<String> out = new ArrayList<>();
+        for (String value : new ArrayList<>(set)) {
+            if (set.remove(value)) out.add(value);
+        }
+        return out;
+    }
+
+    private static String trimToNull(String s) {
+        if (s == null) return null;
+        String t = s.trim();
+        return t.isEmpty() ? null : t;
+    }
+
+    private static String normCode(String s) {
+        String t = trimToNull(s);
+        if (t == null) return null;
+        return "new".equalsIgnoreCase(t) ? null : t;
+    }
+
+    private static String lower(String s) {
+        String t = trimToNull(s);
+        return t != null ? t.toLowerCase() : null;
+    }
+
+    /**
+     * Field của SupplierProduct mà searchSupplierProductsByPriority match (code: lowercase, mô tả: descriptionKey).
+     */
+    private static final class SupplierChange {
+        private final String sapCode;
+        private final String hanaSapCode;
+        private final String descriptionVN;
+        private final String descriptionEN;
+        private final String unit;
+        private final String currency;
+
+        SupplierChange(SupplierProduct sp) {
+            this.sapCode = lower(sp.getSapCode());
+            this.hanaSapCode = lower(sp.getHanaSapCode());
+            this.descriptionVN = CommonRequisitionUtils.descriptionKey(sp.getItemDescriptionVN());
+            this.descriptionEN = CommonRequisitionUtils.descriptionKey(sp.getItemDescriptionEN());
+            this.unit = lower(sp.getUnit());
+            this.currency = lower(sp.getCurrency());
+        }
+
+        boolean matches(ComparisonSnapshot.Row row) {
+            if (row.isFinalized() || row.getSupplierMatchMode() == null || row.getSupplierMatchValue() == null) return false;
+            if (unit == null || !unit.equals(row.getSupplierUnit())) return false;
+
+            String value = row.getSupplierMatchValue();
+            switch (row.getSupplierMatchMode()) {
+                case "SAP":
+                    return value.equals(sapCode);
+                case "HANA":
+                    return value.equals(hanaSapCode);
+                case "VN":
+                    return descriptionVN != null && descriptionVN.contains(value);
+                case "EN":
+                    return descriptionEN != null && descriptionEN.contains(value);
+                default:
+                    return false;
+            }
+        }
+    }
+}
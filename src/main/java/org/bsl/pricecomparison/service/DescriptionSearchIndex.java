@@ -0,0 +1,426 @@
+package org.bsl.pricecomparison.service;
+
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.bsl.pricecomparison.common.CommonRequisitionUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * ⚡ Index trigram trong RAM cho itemDescriptionVN / itemDescriptionEN (supplier_products, requisition_monthly).
+ *
+ * - text được fold (CommonRequisitionUtils.foldText) => "gang tay" khớp "Găng tay", NFC/NFD như nhau
+ * - query >= 3 ký tự: giao posting list của các trigram (list ngắn trước), kiểm tra lại contains trên text đã fold
+ * - query 1-2 ký tự: quét text đã fold (vẫn trong RAM)
+ * - chỉ trả tập id khớp (không xếp hạng): mọi caller tự sort (pageable / giá) rồi mới trả response
+ * - build lúc ApplicationReadyEvent, giữ mới qua listener save/delete (SupplierProductSearchIndexListener,
+ *   RequisitionMonthlySearchIndexListener); bulk updateOne không bắn event => index cũ hơn REBUILD_AFTER
+ *   thì build lại nền (1 luồng, bản cũ vẫn phục vụ trong lúc build)
+ * - chưa build xong / quá nhiều kết quả => search trả null, caller dùng contains trên itemDescription*Key
+ * Mỗi instance giữ 1 index riêng (đúng khi chạy 1 instance).
+ */
+@Service
+public class DescriptionSearchIndex {
+
+    public enum Source {
+        SUPPLIER_PRODUCTS("supplier_products"),
+        REQUISITION_MONTHLY("requisition_monthly");
+
+        private final String collection;
+
+        Source(String collection) {
+            this.collection = collection;
+        }
+    }
+
+    public enum Field {
+        VN("itemDescriptionVN", "itemDescriptionVNKey"),
+        EN("itemDescriptionEN", "itemDescriptionENKey");
+
+        private final String path;
+        private final String keyPath;
+
+        Field(String path, String keyPath) {
+            this.path = path;
+            this.keyPath = keyPath;
+        }
+
+        /** field key đã fold (CommonRequisitionUtils.descriptionKey) -> fallback contains khi index không trả lời */
+        public String getKeyPath() {
+            return keyPath;
+        }
+    }
+
+    /** quá số id này thì $in không còn lợi hơn regex -> caller fallback */
+    public static final int MAX_HITS = 5000;
+
+    private static final Duration REBUILD_AFTER = Duration.ofMinutes(30);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final Map<Source, State> states = new EnumMap<>(Source.class);
+    private final ExecutorService executor;
+
+    public DescriptionSearchIndex() {
+        for (Source source : Source.values()) {
+            states.put(source, new State());
+        }
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "description-index");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        for (Source source : Source.values()) {
+            rebuild(source);
+        }
+    }
+
+    // =========================================================
+    // SEARCH
+    // =========================================================
+
+    public boolean isReady(Source source) {
+        return states.get(source).current != null;
+    }
+
+    /**
+     * Id (String) của các document có mô tả chứa query (không dấu, không phân biệt hoa thường).
+     *
+     * @return null nếu index chưa sẵn sàng hoặc > MAX_HITS kết quả (caller dùng regex)
+     */
+    public List<String> search(Source source, Field field, String query) {
+        return search(source, field, query, MAX_HITS);
+    }
+
+    public List<String> search(Source source, Field field, String query, int maxHits) {
+        String folded = CommonRequisitionUtils.foldText(query);
+        if (folded == null) return null;
+
+        State state = states.get(source);
+        SourceIndex index = state.current;
+        if (index == null) return null;
+
+        if (System.currentTimeMillis() - index.builtAt > REBUILD_AFTER.toMillis()) {
+            rebuildAsync(source);
+        }
+        return index.search(field, folded, maxHits);
+    }
+
+    /**
+     * _id cho query không typed (aggregation / Document): id hex -> ObjectId như lúc lưu.
+     */
+    public static List<Object> toMongoIds(Collection<String> ids) {
+        List<Object> out = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            out.add(ObjectId.isValid(id) ? new ObjectId(id) : id);
+        }
+        return out;
+    }
+
+    // =========================================================
+    // MAINTENANCE (listener)
+    // =========================================================
+
+    public void put(Source source, String id, String descriptionVN, String descriptionEN) {
+        if (id == null) return;
+        apply(source, index -> index.put(id, descriptionVN, descriptionEN));
+    }
+
+    public void remove(Source source, Collection<String> ids) {
+        if (ids == null || ids.isEmpty()) return;
+        apply(source, index -> index.remove(ids));
+    }
+
+    /**
+     * Không biết document nào đổi (delete theo điều kiện, bulk update) -> build lại nền.
+     */
+    public void rebuildAsync(Source source) {
+        State state = states.get(source);
+        synchronized (state) {
+            if (state.pending != null) return;  // đang build: đổi mới sẽ được replay
+            state.pending = new ArrayList<>();
+        }
+        try {
+            executor.execute(() -> rebuild(source));
+        } catch (RuntimeException e) {
+            synchronized (state) {
+                state.pending = null;
+            }
+        }
+    }
+
+    private void apply(Source source, java.util.function.Consumer<SourceIndex> op) {
+        State state = states.get(source);
+        synchronized (state) {
+            if (state.current != null) op.accept(state.current);
+            if (state.pending != null) state.pending.add(op);
+        }
+    }
+
+    private void rebuild(Source source) {
+        State state = states.get(source);
+        synchronized (state) {
+            if (state.pending == null) state.pending = new ArrayList<>();
+        }
+
+        SourceIndex fresh = null;
+        try {
+            long start = System.currentTimeMillis();
+            fresh = load(source);
+            System.out.println("Description index " + source + ": " + fresh.size() + " docs in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            System.err.println("Description index build failed (" + source + "): " + e.getMessage());
+        } finally {
+            synchronized (state) {
+                if (fresh != null) {
+                    for (java.util.function.Consumer<SourceIndex> op : state.pending) op.accept(fresh);
+                    state.current = fresh;
+                } else if (state.current != null) {
+                    state.current.builtAt = System.currentTimeMillis();  // không retry liên tục
+                }
+                state.pending = null;
+            }
+        }
+    }
+
+    private SourceIndex load(Source source) {
+        Query query = new Query();
+        query.fields().include("_id").include(Field.VN.path).include(Field.EN.path);
+
+        SourceIndex index = new SourceIndex();
+        try (Stream<Document> stream = mongoTemplate.stream(query, Document.class, source.collection)) {
+            Iterator<Document> it = stream.iterator();
+            while (it.hasNext()) {
+                Document doc = it.next();
+                Object id = doc.get("_id");
+                if (id == null) continue;
+                index.put(id instanceof ObjectId oid ? oid.toHexString() : id.toString(),
+                        doc.getString(Field.VN.path), doc.getString(Field.EN.path));
+            }
+        }
+        return index;
+    }
+
+    private static final class State {
+        private volatile SourceIndex current;
+        private List<java.util.function.Consumer<SourceIndex>> pending;  // đổi mới trong lúc build lại
+    }
+
+    // =========================================================
+    // INDEX
+    // =========================================================
+
+    private static final class SourceIndex {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final TrigramIndex vn = new TrigramIndex();
+        private final TrigramIndex en = new TrigramIndex();
+        private volatile long builtAt = System.currentTimeMillis();
+
+        void put(String id, String descriptionVN, String descriptionEN) {
+            lock.writeLock().lock();
+            try {
+                vn.put(id, CommonRequisitionUtils.foldText(descriptionVN));
+                en.put(id, CommonRequisitionUtils.foldText(descriptionEN));
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(Collection<String> ids) {
+            lock.writeLock().lock();
+            try {
+                for (String id : ids) {
+                    vn.remove(id);
+                    en.remove(id);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        List<String> search(Field field, String folded, int maxHits) {
+            lock.readLock().lock();
+            try {
+                return (field == Field.VN ? vn : en).search(folded, maxHits);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        int size() {
+            return Math.max(vn.live, en.live);
+        }
+    }
+
+    /**
+     * 1 field: ordinal -> (id, text đã fold), trigram -> ordinal tăng dần.
+     * Update = tombstone ordinal cũ + ordinal mới; tombstone nhiều hơn doc sống thì compact.
+     */
+    static final class TrigramIndex {
+        private Map<Long, Postings> postings = new HashMap<>();
+        private Map<String, Integer> ordById = new HashMap<>();
+        private String[] ids = new String[1024];
+        private String[] texts = new String[1024];
+        private int size;
+        private int live;
+
+        void put(String id, String text) {
+            Integer old = ordById.get(id);
+            if (old != null) {
+                if (text != null && text.equals(texts[old])) return;
+                tombstone(id, old);
+            }
+            if (text == null) return;
+
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                texts = Arrays.copyOf(texts, size * 2);
+            }
+            int ord = size++;
+            ids[ord] = id;
+            texts[ord] = text;
+            ordById.put(id, ord);
+            live++;
+
+            for (long gram : trigrams(text)) {
+                postings.computeIfAbsent(gram, g -> new Postings()).add(ord);
+            }
+        }
+
+        void remove(String id) {
+            Integer old = ordById.get(id);
+            if (old != null) tombstone(id, old);
+        }
+
+        private void tombstone(String id, int ord) {
+            ordById.remove(id);
+            ids[ord] = null;
+            texts[ord] = null;
+            live--;
+            if (size - live > Math.max(10_000, live)) compact();
+        }
+
+        private void compact() {
+            String[] oldIds = ids;
+            String[] oldTexts = texts;
+            int oldSize = size;
+
+            postings = new HashMap<>();
+            ordById = new HashMap<>();
+            ids = new String[Math.max(1024, live * 2)];
+            texts = new String[ids.length];
+            size = 0;
+            live = 0;
+            for (int i = 0; i < oldSize; i++) {
+                if (oldIds[i] != null) put(oldIds[i], oldTexts[i]);
+            }
+        }
+
+        List<String> search(String q, int maxHits) {
+            List<String> out = new ArrayList<>();
+
+            if (q.length() < 3) {
+                for (int ord = 0; ord < size; ord++) {
+                    if (!collect(out, ord, q, maxHits)) return null;
+                }
+                return out;
+            }
+
+            Set<Long> grams = trigrams(q);
+            List<Postings> lists = new ArrayList<>(grams.size());
+            for (long gram : grams) {
+                Postings p = postings.get(gram);
+                if (p == null) return Collections.emptyList();
+                lists.add(p);
+            }
+            lists.sort(Comparator.comparingInt(p -> p.size));
+
+            int[] candidates = Arrays.copyOf(lists.get(0).ords, lists.get(0).size);
+            int count = candidates.length;
+            for (int i = 1; i < lists.size() && count > 0; i++) {
+                count = intersect(candidates, count, lists.get(i));
+            }
+            for (int i = 0; i < count; i++) {
+                if (!collect(out, candidates[i], q, maxHits)) return null;
+            }
+            return out;
+        }
+
+        int live() {
+            return live;
+        }
+
+        // tổng ordinal (sống + tombstone), compact thì về bằng live
+        int slots() {
+            return size;
+        }
+
+        // false = vượt maxHits
+        private boolean collect(List<String> out, int ord, String q, int maxHits) {
+            String text = texts[ord];
+            if (text == null || !text.contains(q)) return true;
+            if (out.size() >= maxHits) return false;
+            out.add(ids[ord]);
+            return true;
+        }
+
+        // giao a[0..count) (tăng dần) với p, ghi đè vào a
+        private static int intersect(int[] a, int count, Postings p) {
+            int[] b = p.ords;
+            int n = 0, i = 0, j = 0;
+            while (i < count && j < p.size) {
+                if (a[i] < b[j]) i++;
+                else if (a[i] > b[j]) j++;
+                else {
+                    a[n++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+            return n;
+        }
+
+        private static Set<Long> trigrams(String text) {
+            Set<Long> grams = new HashSet<>();
+            for (int i = 0; i + 3 <= text.length(); i++) {
+                grams.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2));
+            }
+            return grams;
+        }
+    }
+
+    private static final class Postings {
+        private int[] ords = new int[4];
+        private int size;
+
+        // ordinal luôn tăng dần -> list đã sort
+        void add(int ord) {
+            if (size == ords.length) ords = Arrays.copyOf(ords, size * 2);
+            ords[size++] = ord;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package org.bsl.pricecomparison.service;
+
+import org.bsl.pricecomparison.model.Department;
+import org.bsl.pricecomparison.model.ProductType1;
+import org.bsl.pricecomparison.model.ProductType2;
+import org.bsl.pricecomparison.repository.DepartmentRepository;
+import org.bsl.pricecomparison.repository.ProductType1Repository;
+import org.bsl.pricecomparison.repository.ProductType2Repository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ⚡ Cache dùng chung toàn process cho các bảng danh mục nhỏ, ít đổi:
+ * ProductType1, ProductType2, Department (id -> name).
+ *
+ * - Bounded: mỗi dictionary là 1 LRU tối đa MAX_ENTRIES, vượt thì evict entry cũ nhất
+ * - Versioned: mỗi lần ghi (create/update/delete) gọi invalidate() -> version++ và xoá sạch;
+ *   load nào bắt đầu trước khi invalidate sẽ không được ghi vào cache (tránh dữ liệu cũ)
+ * - Id không tồn tại cũng được cache (negative entry) để không query lại mỗi request
+ * - Metrics hit/miss/eviction qua stats()
+ */
+@Service
+public class DictionaryCacheService {
+
+    public enum Dictionary { PRODUCT_TYPE1, PRODUCT_TYPE2, DEPARTMENT }
+
+    private static final int MAX_ENTRIES = 5000;
+
+    @Autowired
+    private ProductType1Repository productType1Repository;
+
+    @Autowired
+    private ProductType2Repository productType2Repository;
+
+    @Autowired
+    private DepartmentRepository departmentRepository;
+
+    private final Map<Dictionary, Segment> segments = new EnumMap<>(Dictionary.class);
+
+    // snapshot toàn bộ departments (import cần cả danh sách để match theo tên)
+    private volatile List<Department> allDepartments;
+    // đếm riêng, không lẫn vào hit/miss tra id của DEPARTMENT
+    private final LongAdder snapshotHits = new LongAdder();
+    private final LongAdder snapshotMisses = new LongAdder();
+
+    public DictionaryCacheService() {
+        for (Dictionary d : Dictionary.values()) {
+            segments.put(d, new Segment());
+        }
+    }
+
+    // =========================================================
+    // READ
+    // =========================================================
+
+    public String getProductType1Name(String id) {
+        return getName(Dictionary.PRODUCT_TYPE1, id);
+    }
+
+    public String getProductType2Name(String id) {
+        return getName(Dictionary.PRODUCT_TYPE2, id);
+    }
+
+    public String getDepartmentName(String id) {
+        return getName(Dictionary.DEPARTMENT, id);
+    }
+
+    public Map<String, String> getProductType1Names(Collection<String> ids) {
+        return getNames(Dictionary.PRODUCT_TYPE1, ids);
+    }
+
+    public Map<String, String> getProductType2Names(Collection<String> ids) {
+        return getNames(Dictionary.PRODUCT_TYPE2, ids);
+    }
+
+    public Map<String, String> getDepartmentNames(Collection<String> ids) {
+        return getNames(Dictionary.DEPARTMENT, ids);
+    }
+
+    /**
+     * Toàn bộ departments (id + departmentName), read-only.
+     */
+    public List<Department> getAllDepartments() {
+        Segment seg = segments.get(Dictionary.DEPARTMENT);
+        List<Department> snapshot = allDepartments;
+        if (snapshot != null) {
+            snapshotHits.increment();
+            return snapshot;
+        }
+        snapshotMisses.increment();
+
+        long version = seg.version.get();
+        List<Department> loaded = Collections.unmodifiableList(new ArrayList<>(departmentRepository.findAllIdAndNames()));
+        synchronized (seg) {
+            if (seg.version.get() == version) {
+                allDepartments = loaded;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Tìm department theo tên chính xác (giống findByDepartmentName) trên snapshot đã cache.
+     */
+    public Department findDepartmentByName(String departmentName) {
+        if (departmentName == null) return null;
+        for (Department d : getAllDepartments()) {
+            if (d != null && departmentName.equals(d.getDepartmentName())) {
+                return d;
+            }
+        }
+        return null;
+    }
+
+    private String getName(Dictionary dictionary, String id) {
+        if (id == null || id.isBlank()) return null;
+        return getNames(dictionary, Collections.singleton(id)).get(id.trim());
+    }
+
+    private Map<String, String> getNames(Dictionary dictionary, Collection<String> ids) {
+        if (ids == null || ids.isEmpty()) return Collections.emptyMap();
+
+        Segment seg = segments.get(dictionary);
+        Map<String, String> result = new HashMap<>();
+        Set<String> missing = new HashSet<>();
+
+        synchronized (seg) {
+            for (String raw : ids) {
+                if (raw == null || raw.isBlank()) continue;
+                String id = raw.trim();
+                Optional<String> cached = seg.entries.get(id);
+                if (cached != null) {
+                    seg.hits.increment();
+                    cached.ifPresent(name -> result.put(id, name));
+                } else {
+                    missing.add(id);
+                }
+            }
+        }
+
+        if (missing.isEmpty()) return result;
+        seg.misses.add(missing.size());
+
+        long version = seg.version.get();
+        Map<String, String> loaded = load(dictionary, missing);
+
+        synchronized (seg) {
+            boolean stillValid = seg.version.get() == version;
+            for (String id : missing) {
+                String name = loaded.get(id);
+                if (name != null) result.put(id, name);
+                if (stillValid) seg.entries.put(id, Optional.ofNullable(name));
+            }
+        }
+        return result;
+    }
+
+    // 1 query $in cho toàn bộ id còn thiếu
+    private Map<String, String> load(Dictionary dictionary, Set<String> ids) {
+        Map<String, String> names = new HashMap<>();
+        switch (dictionary) {
+            case PRODUCT_TYPE1 -> {
+                for (ProductType1 t : productType1Repository.findNamesByIds(ids)) {
+                    if (t != null && t.getId() != null && t.getName() != null) names.put(t.getId(), t.getName());
+                }
+            }
+            case PRODUCT_TYPE2 -> {
+                for (ProductType2 t : productType2Repository.findNamesByIds(ids)) {
+                    if (t != null && t.getId() != null && t.getName() != null) names.put(t.getId(), t.getName());
+                }
+            }
+            case DEPARTMENT -> {
+                for (Department d : departmentRepository.findNamesByIds(ids)) {
+                    if (d != null && d.getId() != null && d.getDepartmentName() != null) names.put(d.getId(), d.getDepartmentName());
+                }
+            }
+        }
+        return names;
+    }
+
+    // =========================================================
+    // INVALIDATE (gọi sau mỗi lần ghi vào collection tương ứng)
+    // =========================================================
+
+    public void invalidate(Dictionary dictionary) {
+        Segment seg = segments.get(dictionary);
+        synchronized (seg) {
+            seg.version.incrementAndGet();
+            seg.entries.clear();
+            if (dictionary == Dictionary.DEPARTMENT) {
+                allDepartments = null;
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        for (Dictionary d : Dictionary.values()) {
+            invalidate(d);
+        }
+    }
+
+    // =========================================================
+    // METRICS
+    // =========================================================
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Map.Entry<Dictionary, Segment> e : segments.entrySet()) {
+            Segment seg = e.getValue();
+            long hits = seg.hits.sum();
+            long misses = seg.misses.sum();
+            int size;
+            synchronized (seg) {
+                size = seg.entries.size();
+            }
+
+            Map<String, Object> s = new LinkedHashMap<>();
+            s.put("size", size);
+            s.put("maxSize", MAX_ENTRIES);
+            s.put("version", seg.version.get());
+            s.put("hits", hits);
+            s.put("misses", misses);
+            s.put("evictions", seg.evictions.sum());
+            s.put("hitRatio", (hits + misses) == 0 ? 0.0 : (double) hits / (hits + misses));
+            stats.put(e.getKey().name(), s);
+        }
+
+        List<Department> snapshot = allDepartments;
+        long hits = snapshotHits.sum();
+        long misses = snapshotMisses.sum();
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("size", snapshot != null ? snapshot.size() : 0);
+        s.put("version", segments.get(Dictionary.DEPARTMENT).version.get());
+        s.put("hits", hits);
+        s.put("misses", misses);
+        s.put("hitRatio", (hits + misses) == 0 ? 0.0 : (double) hits / (hits + misses));
+        stats.put("DEPARTMENT_SNAPSHOT", s);
+        return stats;
+    }
+
+    private static class Segment {
+        final AtomicLong version = new AtomicLong();
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+
+        // access-order LRU, chỉ truy cập trong synchronized(this)
+        final LinkedHashMap<String, Optional<String>> entries = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Optional<String>> eldest) {
+                if (size() > MAX_ENTRIES) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+}
@@ -0,0 +1,187 @@
+package org.bsl.pricecomparison.service;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.xssf.usermodel.XSSFClientAnchor;
+import org.apache.poi.xssf.usermodel.XSSFPicture;
+import org.apache.poi.xssf.usermodel.XSSFPictureData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ⚡ Tách việc lưu ảnh nhúng trong Excel ra khỏi vòng parse row.
+ *
+ * - Đọc anchor của drawing 1 lần -> index row -> ảnh (ảnh phủ nhiều row thì gắn cho từng row như cũ)
+ * - Mỗi picture part chỉ ghi 1 lần, stream thẳng xuống disk, tên file theo SHA-256 nội dung
+ *   (UploadStorageService, refs = số row gắn ảnh; row không được lưu thì close() trả lại ref)
+ * - Ghi trên pool giới hạn (queue đầy -> thread gọi tự chạy), controller parse song song
+ */
+@Service
+public class ExcelPictureExtractor {
+
+    private static final int WORKERS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int QUEUE_CAPACITY = 64;
+
+    @Autowired
+    private UploadStorageService uploadStorageService;
+
+    private final ExecutorService executor;
+
+    public ExcelPictureExtractor() {
+        AtomicInteger seq = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                WORKERS, WORKERS,
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                r -> {
+                    Thread t = new Thread(r, "excel-picture-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Index ảnh theo row cho cột pictureCol rồi bắt đầu ghi ngay trên pool.
+     * Reader (OPCPackage) phải còn mở tới khi batch được close.
+     */
+    public PictureBatch extract(List<XSSFPicture> pictures, int pictureCol) {
+        PictureBatch batch = new PictureBatch(uploadStorageService);
+        if (pictures == null || pictures.isEmpty()) return batch;
+
+        // pass 1: row -> picture part (thứ tự anchor), part -> số row dùng part đó
+        Map<Integer, List<PackagePart>> partsByRow = new TreeMap<>();
+        Map<PackagePart, XSSFPictureData> dataByPart = new LinkedHashMap<>();
+        Map<PackagePart, Integer> usesByPart = new HashMap<>();
+
+        for (XSSFPicture pic : pictures) {
+            XSSFClientAnchor a = pic.getClientAnchor();
+            if (a == null || a.getCol1() > pictureCol || a.getCol2() < pictureCol) continue;
+
+            XSSFPictureData data = pic.getPictureData();
+            if (data == null) continue;
+
+            PackagePart part = data.getPackagePart();
+            dataByPart.putIfAbsent(part, data);
+            for (int row = a.getRow1(); row <= a.getRow2(); row++) {
+                partsByRow.computeIfAbsent(row, k -> new ArrayList<>()).add(part);
+                usesByPart.merge(part, 1, Integer::sum);
+            }
+        }
+
+        // pass 2: cùng 1 part được anchor nhiều lần -> chỉ ghi 1 lần, refs = số row dùng ảnh
+        Map<PackagePart, Future<String>> byPart = new HashMap<>();
+        for (Map.Entry<PackagePart, XSSFPictureData> e : dataByPart.entrySet()) {
+            PackagePart part = e.getKey();
+            String mimeType = e.getValue().getMimeType();
+            int refs = usesByPart.getOrDefault(part, 0);
+            byPart.put(part, executor.submit(() -> store(batch, part, mimeType, refs)));
+        }
+
+        for (Map.Entry<Integer, List<PackagePart>> e : partsByRow.entrySet()) {
+            List<Future<String>> urls = new ArrayList<>();
+            for (PackagePart part : e.getValue()) urls.add(byPart.get(part));
+            batch.byRow.put(e.getKey(), urls);
+        }
+        return batch;
+    }
+
+    private String store(PictureBatch batch, PackagePart part, String mimeType, int refs) throws IOException {
+        if (batch.cancelled.get()) return null;
+        try (InputStream in = part.getInputStream()) {
+            return uploadStorageService.store(in, mimeType, refs);
+        }
+    }
+
+    // =========================================================
+    // BATCH (1 / file upload)
+    // =========================================================
+
+    public static class PictureBatch implements AutoCloseable {
+
+        private final UploadStorageService uploadStorageService;
+        private final Map<Integer, List<Future<String>>> byRow = new TreeMap<>();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final Set<Integer> attachedRows = new HashSet<>();
+        private boolean committed;
+
+        private PictureBatch(UploadStorageService uploadStorageService) {
+            this.uploadStorageService = uploadStorageService;
+        }
+
+        public boolean hasPictures(int rowIndex) {
+            return byRow.containsKey(rowIndex);
+        }
+
+        /**
+         * Chờ ghi xong, trả về url theo row (0-based) cho các row được gắn vào record,
+         * giữ thứ tự anchor trong drawing. Ảnh định dạng không hỗ trợ bị bỏ qua như saveImage cũ.
+         */
+        public Map<Integer, List<String>> awaitUrlsByRow(Collection<Integer> rows) throws IOException {
+            Map<Integer, List<String>> out = new TreeMap<>();
+            for (Map.Entry<Integer, List<Future<String>>> e : byRow.entrySet()) {
+                if (!rows.contains(e.getKey())) continue;
+                attachedRows.add(e.getKey());
+                List<String> urls = new ArrayList<>();
+                for (Future<String> f : e.getValue()) {
+                    String url = get(f);
+                    if (url != null) urls.add(url);
+                }
+                if (!urls.isEmpty()) out.put(e.getKey(), urls);
+            }
+            return out;
+        }
+
+        /**
+         * Record chứa url đã lưu xong -> giữ ref của các row đã gắn.
+         */
+        public void commit() {
+            committed = true;
+        }
+
+        /**
+         * Huỷ phần chưa chạy, đợi phần đang ghi (trước khi đóng reader) và trả lại ref của
+         * row không được lưu (row bị skip / trùng, lỗi / badRequest trước khi commit).
+         */
+        @Override
+        public void close() {
+            cancelled.set(true);
+            for (Map.Entry<Integer, List<Future<String>>> e : byRow.entrySet()) {
+                boolean keep = committed && attachedRows.contains(e.getKey());
+                for (Future<String> f : e.getValue()) {
+                    try {
+                        String url = f.get();
+                        if (url != null && !keep) uploadStorageService.release(url);
+                    } catch (Exception ignore) {
+                        // lỗi đã/không cần báo
+                    }
+                }
+            }
+        }
+
+        private static String get(Future<String> f) throws IOException {
+            try {
+                return f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while saving pictures", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw new IOException("Failed to save picture: " + (cause != null ? cause.getMessage() : e.getMessage()), cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package org.bsl.pricecomparison.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import jakarta.annotation.PreDestroy;
+import org.bsl.pricecomparison.common.StoredUploadFile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ⚡ Job import Excel chạy trên executor riêng.
+ *
+ * - async=true: copy file ra disk, trả jobId ngay (202), client poll GET /api/import-jobs/{jobId}
+ * - async=false: vẫn chạy qua job (để xếp hàng theo group) nhưng request đợi kết quả như cũ
+ * - Cùng 1 groupId -> các job nối đuôi nhau (không chiếm thread khi đợi)
+ * - Tiến độ theo phase: rowsRead / rowsMerged / rowsWritten, code import báo qua các hàm static
+ * - Kết quả đầy đủ giữ RESULT_RETENTION_MINUTES (GET đọc bao nhiêu lần cũng được, client xoá sớm bằng
+ *   releaseResult), sau đó chỉ còn summary; job đã xong được dọn định kỳ
+ * - async=false đợi tối đa SYNC_WAIT_MINUTES, quá thì trả 202 + jobId để poll tiếp
+ */
+@Service
+public class ImportJobService {
+
+    public enum Status { QUEUED, RUNNING, SUCCEEDED, FAILED }
+
+    private static final int WORKERS = 2;
+    private static final int MAX_PENDING_JOBS = 50;
+    private static final long RETENTION_MINUTES = 60;
+    private static final long RESULT_RETENTION_MINUTES = 10; // sau đó bỏ result, giữ summary
+    private static final long SYNC_WAIT_MINUTES = 10;
+
+    private static final ThreadLocal<ImportJob> CURRENT = new ThreadLocal<>();
+
+    private final ExecutorService executor;
+    private final Map<String, ImportJob> jobs = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<ResponseEntity<?>>> tailByGroup = new ConcurrentHashMap<>();
+
+    @FunctionalInterface
+    public interface ImportTask {
+        ResponseEntity<?> run(MultipartFile file) throws Exception;
+    }
+
+    public ImportJobService() {
+        AtomicInteger seq = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(WORKERS, r -> {
+            Thread t = new Thread(r, "import-job-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Chạy 1 import qua job.
+     *
+     * @param type     tên loại import (hiển thị trong status)
+     * @param groupKey key xếp hàng (groupId, hoặc 1 key chung cho import không có group)
+     */
+    public ResponseEntity<?> run(String type, String groupKey, MultipartFile file, boolean async, ImportTask task) {
+        evictExpired();
+
+        // chỉ chặn job async (client mới); sync giữ hành vi cũ, chờ theo hàng đợi group
+        long pending = jobs.values().stream().filter(j -> j.status == Status.QUEUED).count();
+        if (async && pending >= MAX_PENDING_JOBS) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("message", "Too many pending import jobs, please retry later"));
+        }
+
+        if (!async) {
+            ImportJob job = submit(type, groupKey, file, task, null);
+            try {
+                ResponseEntity<?> response = job.future.get(SYNC_WAIT_MINUTES, TimeUnit.MINUTES);
+                job.result = null; // request đã nhận body, không giữ trong bộ nhớ
+                return ResponseEntity.status(response.getStatusCode())
+                        .headers(response.getHeaders())
+                        .header("X-Import-Job-Id", job.jobId)
+                        .body(response.getBody());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                        .body(Map.of("message", "Import interrupted"));
+            } catch (TimeoutException e) {
+                // job vẫn chạy tiếp, kết quả lấy qua status url
+                return ResponseEntity.status(HttpStatus.ACCEPTED)
+                        .header("X-Import-Job-Id", job.jobId)
+                        .body(accepted(job, "Import is still running, poll statusUrl for the result"));
+            } catch (ExecutionException e) {
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                        .body(Map.of("message", "Import failed: " + e.getCause().getMessage()));
+            }
+        }
+
+        // request kết thúc là file upload bị xoá -> copy trước khi trả về
+        StoredUploadFile stored;
+        try {
+            stored = StoredUploadFile.copyOf(file);
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("message", "Cannot store uploaded file: " + e.getMessage()));
+        }
+
+        ImportJob job = submit(type, groupKey, stored, task, stored);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(accepted(job, "Import job submitted"));
+    }
+
+    private static Map<String, Object> accepted(ImportJob job, String message) {
+        return Map.of(
+                "message", message,
+                "jobId", job.jobId,
+                "status", job.status,
+                "statusUrl", "/api/import-jobs/" + job.jobId
+        );
+    }
+
+    public ImportJob getJob(String jobId) {
+        return jobId == null ? null : jobs.get(jobId);
+    }
+
+    /**
+     * Status + result (còn trong RESULT_RETENTION_MINUTES sau khi xong), không đổi trạng thái job.
+     */
+    public ImportJobDetail fetchJob(String jobId) {
+        ImportJob job = getJob(jobId);
+        if (job == null) return null;
+        return new ImportJobDetail(job, job.finishedAt != null ? job.result : null);
+    }
+
+    /**
+     * Client đã lưu kết quả -> bỏ result sớm (summary vẫn giữ). false nếu job không tồn tại / chưa xong.
+     */
+    public boolean releaseResult(String jobId) {
+        ImportJob job = getJob(jobId);
+        if (job == null || job.finishedAt == null) return false;
+        job.result = null;
+        return true;
+    }
+
+    public List<ImportJob> getJobs(String groupKey) {
+        List<ImportJob> out = new ArrayList<>();
+        for (ImportJob job : jobs.values()) {
+            if (groupKey == null || groupKey.equals(job.groupId)) out.add(job);
+        }
+        out.sort(Comparator.comparing(ImportJob::getSubmittedAt).reversed());
+        return out;
+    }
+
+    private ImportJob submit(String type, String groupKey, MultipartFile file, ImportTask task, StoredUploadFile cleanup) {
+        String key = (groupKey == null || groupKey.isBlank()) ? "_" : groupKey.trim();
+        ImportJob job = new ImportJob(UUID.randomUUID().toString(), type, key);
+        jobs.put(job.jobId, job);
+
+        // nối sau job trước của cùng group (lỗi của job trước không chặn job sau)
+        tailByGroup.compute(key, (k, tail) -> {
+            CompletableFuture<?> previous = tail == null ? CompletableFuture.completedFuture(null) : tail;
+            job.future = previous
+                    .handle((r, e) -> null)
+                    .thenApplyAsync(x -> execute(job, file, task, cleanup), executor);
+            return job.future;
+        });
+        job.future.whenComplete((r, e) -> tailByGroup.remove(key, job.future));
+        return job;
+    }
+
+    private ResponseEntity<?> execute(ImportJob job, MultipartFile file, ImportTask task, StoredUploadFile cleanup) {
+        job.status = Status.RUNNING;
+        job.phase = "READ";
+        job.startedAt = LocalDateTime.now();
+        CURRENT.set(job);
+
+        ResponseEntity<?> response;
+        try {
+            response = task.run(file);
+        } catch (Exception e) {
+            response = ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("message", "Import failed: " + e.getMessage()));
+        } finally {
+            CURRENT.remove();
+            if (cleanup != null) cleanup.delete();
+        }
+
+        job.httpStatus = response.getStatusCode().value();
+        job.result = response.getBody();
+        job.summary = summarize(response.getBody());
+        job.status = response.getStatusCode().is2xxSuccessful() ? Status.SUCCEEDED : Status.FAILED;
+        if (job.status == Status.FAILED && response.getBody() instanceof Map<?, ?> body && body.get("message") != null) {
+            job.error = String.valueOf(body.get("message"));
+        }
+        job.phase = "DONE";
+        job.finishedAt = LocalDateTime.now();
+        return response;
+    }
+
+    @Scheduled(fixedDelay = 5, timeUnit = TimeUnit.MINUTES)
+    public void evictExpired() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime cutoff = now.minusMinutes(RETENTION_MINUTES);
+        LocalDateTime resultCutoff = now.minusMinutes(RESULT_RETENTION_MINUTES);
+
+        jobs.values().removeIf(j -> j.finishedAt != null && j.finishedAt.isBefore(cutoff));
+        for (ImportJob job : jobs.values()) {
+            if (job.result != null && job.finishedAt != null && job.finishedAt.isBefore(resultCutoff)) {
+                job.result = null;
+            }
+        }
+    }
+
+    // chỉ giữ các field scalar của body (message, số dòng...), bỏ list / map chi tiết
+    private static Map<String, Object> summarize(Object body) {
+        if (!(body instanceof Map<?, ?> map)) return null;
+        Map<String, Object> out = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> e : map.entrySet()) {
+            Object v = e.getValue();
+            if (v instanceof Collection<?> || v instanceof Map<?, ?> || (v != null && v.getClass().isArray())) continue;
+            out.put(String.valueOf(e.getKey()), v);
+        }
+        return out;
+    }
+
+    // =========================================================
+    // PROGRESS (gọi từ code import, no-op khi không chạy trong job)
+    // =========================================================
+
+    public static void phase(String phase) {
+        ImportJob job = CURRENT.get();
+        if (job != null) job.phase = phase;
+    }
+
+    public static void rowRead() {
+        ImportJob job = CURRENT.get();
+        if (job != null) job.rowsRead.incrementAndGet();
+    }
+
+    public static void rowsRead(long count) {
+        ImportJob job = CURRENT.get();
+        if (job != null) job.rowsRead.set(count);
+    }
+
+    public static void rowsMerged(long count) {
+        ImportJob job = CURRENT.get();
+        if (job != null) job.rowsMerged.set(count);
+    }
+
+    public static void rowsWritten(long count) {
+        ImportJob job = CURRENT.get();
+        if (job != null) job.rowsWritten.set(count);
+    }
+
+    // =========================================================
+    // JOB STATUS
+    // =========================================================
+
+    public static class ImportJob {
+        private final String jobId;
+        private final String type;
+        private final String groupId;
+        private final LocalDateTime submittedAt = LocalDateTime.now();
+
+        private volatile Status status = Status.QUEUED;
+        private volatile String phase = "QUEUED";
+        private final AtomicLong rowsRead = new AtomicLong();
+        private final AtomicLong rowsMerged = new AtomicLong();
+        private final AtomicLong rowsWritten = new AtomicLong();
+        private volatile LocalDateTime startedAt;
+        private volatile LocalDateTime finishedAt;
+        private volatile Integer httpStatus;
+        private volatile Object result;
+        private volatile Map<String, Object> summary;
+        private volatile String error;
+
+        private volatile CompletableFuture<ResponseEntity<?>> future;
+
+        ImportJob(String jobId, String type, String groupId) {
+            this.jobId = jobId;
+            this.type = type;
+            this.groupId = groupId;
+        }
+
+        public String getJobId() { return jobId; }
+        public String getType() { return type; }
+        public String getGroupId() { return groupId; }
+        public Status getStatus() { return status; }
+        public String getPhase() { return phase; }
+        public long getRowsRead() { return rowsRead.get(); }
+        public long getRowsMerged() { return rowsMerged.get(); }
+        public long getRowsWritten() { return rowsWritten.get(); }
+        public LocalDateTime getSubmittedAt() { return submittedAt; }
+        public LocalDateTime getStartedAt() { return startedAt; }
+        public LocalDateTime getFinishedAt() { return finishedAt; }
+        public Integer getHttpStatus() { return httpStatus; }
+        public Map<String, Object> getSummary() { return summary; }
+        public String getError() { return error; }
+
+        // result không nằm trong list / status, chỉ trả qua fetchJob
+        @JsonIgnore
+        public Object getResult() { return result; }
+        public boolean isResultAvailable() { return result != null; }
+    }
+
+    public static class ImportJobDetail {
+        private final ImportJob job;
+        private final Object result;
+
+        ImportJobDetail(ImportJob job, Object result) {
+            this.job = job;
+            this.result = result;
+        }
+
+        @JsonUnwrapped
+        public ImportJob getJob() { return job; }
+        public Object getResult() { return result; }
+    }
+}
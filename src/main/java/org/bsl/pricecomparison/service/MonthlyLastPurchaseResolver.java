@@ -0,0 +1,260 @@
+package org.bsl.pricecomparison.service;
+
+import org.bson.Document;
+import org.bsl.pricecomparison.common.CommonRequisitionUtils;
+import org.bsl.pricecomparison.dto.LastPurchaseInfo;
+import org.bsl.pricecomparison.dto.PurchaseHistoryItem;
+import org.bsl.pricecomparison.model.RequisitionMonthly;
+import org.bsl.pricecomparison.repository.PurchaseHistoryItemRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * ⚡ Last purchase cho cả 1 list requisition, đọc từ read model purchase_history_items
+ * (PurchaseHistoryService ghi khi mark-completed / xoá khi mark-uncompleted).
+ *
+ * Logic giữ nguyên như getMonthlyLastPurchaseInfo cũ:
+ * - key ưu tiên: oldSAPCode > hanaSAPCode > itemDescriptionVN > itemDescriptionEN (bỏ rỗng / "NEW")
+ * - match chính xác key + currency + unit (gộp thành matchKey), chỉ record completed có supplierId;
+ *   key mô tả VN/EN là descriptionKey (không dấu, NFC/NFD như nhau)
+ * - dòng đã mua lưu mọi key dùng được (matchKeys), dòng đang xét tra theo key ưu tiên của nó
+ * - orderQty: SUM trong [monthStart, monthEndExclusive) -> 1 query range trên index {matchKeys, purchasedAt}
+ * - price/date/supplierName: record mới nhất all-time (top 2 / key, 1 aggregation cho cả list),
+ *   nếu trùng chính dòng đang xét thì lấy record kế
+ */
+@Service
+public class MonthlyLastPurchaseResolver {
+
+    private enum Mode { OLD, HANA, VN, EN }
+
+    // tăng khi đổi cách tính matchKey => PurchaseHistoryService ghi lại purchase_history_items lúc startup
+    public static final int MATCH_KEY_VERSION = 3;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private PurchaseHistoryItemRepository purchaseHistoryItemRepository;
+
+    /**
+     * Match key của 1 dòng: "MODE|key|currency|unit", null nếu thiếu currency/unit/key.
+     */
+    public static String matchKey(RequisitionMonthly req) {
+        if (req == null) return null;
+        String currency = trimToNull(req.getCurrency());
+        String unit = trimToNull(req.getUnit());
+        if (currency == null || unit == null) return null;
+
+        Mode mode = modeOf(req);
+        if (mode == null) return null;
+        return mode.name() + "|" + keyOf(req, mode) + "|" + currency + "|" + unit;
+    }
+
+    /**
+     * Mọi key dùng được của 1 dòng đã mua (OLD / HANA / VN / EN), lưu vào purchase_history_items.matchKeys.
+     * Giống query cũ theo từng field: requisition tra theo HANA vẫn thấy dòng mua có cả oldSAPCode.
+     */
+    public static List<String> matchKeys(RequisitionMonthly req) {
+        if (req == null) return Collections.emptyList();
+        String currency = trimToNull(req.getCurrency());
+        String unit = trimToNull(req.getUnit());
+        if (currency == null || unit == null) return Collections.emptyList();
+
+        List<String> keys = new ArrayList<>(Mode.values().length);
+        for (Mode mode : Mode.values()) {
+            if (CommonRequisitionUtils.isUsableKey(rawOf(req, mode))) {
+                keys.add(mode.name() + "|" + keyOf(req, mode) + "|" + currency + "|" + unit);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @param monthStart        bắt buộc, đầu cửa sổ tháng trước (inclusive)
+     * @param monthEndExclusive bắt buộc, cuối cửa sổ (exclusive)
+     */
+    public Result resolve(Collection<RequisitionMonthly> requisitions,
+                          LocalDateTime monthStart,
+                          LocalDateTime monthEndExclusive) {
+        Set<String> keys = new HashSet<>();
+        if (requisitions != null) {
+            for (RequisitionMonthly req : requisitions) {
+                String key = matchKey(req);
+                if (key != null) keys.add(key);
+            }
+        }
+        return resolveKeys(keys, monthStart, monthEndExclusive);
+    }
+
+    /**
+     * Như resolve() nhưng nhận sẵn match key (vd. đã lưu trong comparison snapshot).
+     */
+    public Result resolveKeys(Collection<String> matchKeys,
+                              LocalDateTime monthStart,
+                              LocalDateTime monthEndExclusive) {
+        if (monthStart == null || monthEndExclusive == null) {
+            throw new IllegalArgumentException("monthStart and monthEndExclusive are required");
+        }
+
+        Set<String> keys = new HashSet<>();
+        if (matchKeys != null) {
+            for (String key : matchKeys) {
+                if (key != null) keys.add(key);
+            }
+        }
+        if (keys.isEmpty()) return new Result(Collections.emptyMap());
+
+        Map<String, Entry> entries = new HashMap<>();
+
+        // ✅ latest: 1 aggregation cho cả list -> top 2 / key (mới nhất trước)
+        // $topN chỉ giữ 2 record / group, không dồn toàn bộ lịch sử mua vào 1 mảng (giới hạn 100MB của $group)
+        Aggregation latestAgg = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("matchKeys").in(keys)),
+                Aggregation.project("matchKeys", "requisitionMonthlyId", "unitPriceSnapshot",
+                        "purchasedAt", "supplierNameSnapshot"),
+                // 1 dòng mua có thể khớp nhiều key được hỏi (code + mô tả) -> tách theo từng key
+                Aggregation.unwind("matchKeys"),
+                Aggregation.match(Criteria.where("matchKeys").in(keys)),
+                context -> new Document("$group", new Document("_id", "$matchKeys")
+                        .append("latest", new Document("$topN", new Document("n", 2)
+                                .append("sortBy", new Document("purchasedAt", -1))
+                                .append("output", "$$ROOT"))))
+        );
+
+        for (Document doc : mongoTemplate.aggregate(latestAgg, PurchaseHistoryItem.class, Document.class)) {
+            List<Document> latest = doc.getList("latest", Document.class);
+            if (latest == null || latest.isEmpty()) continue;
+
+            Entry entry = entries.computeIfAbsent(doc.getString("_id"), k -> new Entry());
+            for (Document raw : latest) {
+                PurchaseHistoryItem item = mongoTemplate.getConverter().read(PurchaseHistoryItem.class, raw);
+                entry.latest.add(new Purchase(
+                        item.getRequisitionMonthlyId(),
+                        item.getUnitPriceSnapshot(),
+                        item.getPurchasedAt(),
+                        item.getSupplierNameSnapshot()
+                ));
+            }
+        }
+
+        // ✅ qty tháng trước: 1 query cho cả list
+        if (!entries.isEmpty()) {
+            List<PurchaseHistoryItem> inMonth = purchaseHistoryItemRepository
+                    .findQtyByMatchKeysInAndPurchasedAtBetween(entries.keySet(), monthStart, monthEndExclusive);
+            for (PurchaseHistoryItem item : inMonth) {
+                if (item.getOrderQtySnapshot() == null || item.getMatchKeys() == null) continue;
+                for (String key : item.getMatchKeys()) {
+                    Entry entry = entries.get(key);
+                    if (entry != null) {
+                        entry.monthQty = entry.monthQty.add(item.getOrderQtySnapshot());
+                    }
+                }
+            }
+        }
+
+        return new Result(entries);
+    }
+
+    private static Mode modeOf(RequisitionMonthly req) {
+        if (CommonRequisitionUtils.isUsableKey(req.getOldSAPCode())) return Mode.OLD;
+        if (CommonRequisitionUtils.isUsableKey(req.getHanaSAPCode())) return Mode.HANA;
+        if (CommonRequisitionUtils.isUsableKey(req.getItemDescriptionVN())) return Mode.VN;
+        if (CommonRequisitionUtils.isUsableKey(req.getItemDescriptionEN())) return Mode.EN;
+        return null;
+    }
+
+    private static String rawOf(RequisitionMonthly req, Mode mode) {
+        return switch (mode) {
+            case OLD -> req.getOldSAPCode();
+            case HANA -> req.getHanaSAPCode();
+            case VN -> req.getItemDescriptionVN();
+            case EN -> req.getItemDescriptionEN();
+        };
+    }
+
+    private static String keyOf(RequisitionMonthly req, Mode mode) {
+        return switch (mode) {
+            case OLD -> req.getOldSAPCode().trim();
+            case HANA -> req.getHanaSAPCode().trim();
+            case VN -> CommonRequisitionUtils.descriptionKey(req.getItemDescriptionVN());
+            case EN -> CommonRequisitionUtils.descriptionKey(req.getItemDescriptionEN());
+        };
+    }
+
+    private static String trimToNull(String s) {
+        if (s == null) return null;
+        String t = s.trim();
+        return t.isEmpty() ? null : t;
+    }
+
+    // =========================================================
+    // RESULT
+    // =========================================================
+
+    private static class Purchase {
+        final String id;
+        final BigDecimal price;
+        final LocalDateTime date;
+        final String supplierName;
+
+        Purchase(String id, BigDecimal price, LocalDateTime date, String supplierName) {
+            this.id = id;
+            this.price = price;
+            this.date = date;
+            this.supplierName = supplierName;
+        }
+    }
+
+    private static class Entry {
+        BigDecimal monthQty = BigDecimal.ZERO;
+        final List<Purchase> latest = new ArrayList<>();
+    }
+
+    /**
+     * Kết quả theo match key, chỉ sống trong 1 request.
+     */
+    public static class Result {
+        private final Map<String, Entry> byMatchKey;
+
+        private Result(Map<String, Entry> byMatchKey) {
+            this.byMatchKey = byMatchKey;
+        }
+
+        /**
+         * Giống getMonthlyLastPurchaseInfo cũ: luôn trả object (qty mặc định 0), không null.
+         */
+        public LastPurchaseInfo get(RequisitionMonthly req) {
+            return get(matchKey(req), req != null ? req.getId() : null);
+        }
+
+        public LastPurchaseInfo get(String key, String requisitionId) {
+            Entry entry = key != null ? byMatchKey.get(key) : null;
+            if (entry == null) {
+                return new LastPurchaseInfo(BigDecimal.ZERO, null, null, null);
+            }
+
+            // nếu record mới nhất trùng req hiện tại -> lấy record kế
+            Purchase latest = null;
+            if (!entry.latest.isEmpty()) {
+                Purchase first = entry.latest.get(0);
+                if (requisitionId != null && requisitionId.equals(first.id)) {
+                    latest = entry.latest.size() > 1 ? entry.latest.get(1) : null;
+                } else {
+                    latest = first;
+                }
+            }
+
+            if (latest == null) {
+                return new LastPurchaseInfo(entry.monthQty, null, null, null);
+            }
+            return new LastPurchaseInfo(entry.monthQty, latest.price, latest.date, latest.supplierName);
+        }
+    }
+}
@@ -22,13 +22,18 @@ public class ProductType1Service {
     @Autowired
     private ProductType2Repository productType2Repository;
 
+    @Autowired
+    private DictionaryCacheService dictionaryCacheService;
+
     public ProductType1 create(String name) {
         if (productType1Repository.existsByName(name)) {
             throw new IllegalArgumentException("Name already exists.");
         }
 
         ProductType1 type1 = new ProductType1(name, LocalDateTime.now());
-        return productType1Repository.save(type1);
+        ProductType1 saved = productType1Repository.save(type1);
+        dictionaryCacheService.invalidate(DictionaryCacheService.Dictionary.PRODUCT_TYPE1);
+        return saved;
     }
 
     public ProductType1 update(String id, String newName) {
@@ -40,7 +45,9 @@ public class ProductType1Service {
         }
 
         existing.setName(newName);
-        return productType1Repository.save(existing);
+        ProductType1 saved = productType1Repository.save(existing);
+        dictionaryCacheService.invalidate(DictionaryCacheService.Dictionary.PRODUCT_TYPE1);
+        return saved;
     }
 
     public void delete(String id) {
@@ -53,6 +60,7 @@ public class ProductType1Service {
         }
 
         productType1Repository.deleteById(id);
+        dictionaryCacheService.invalidate(DictionaryCacheService.Dictionary.PRODUCT_TYPE1);
     }
 
     public ProductType1 getById(String id) {
@@ -104,9 +112,20 @@ public class ProductType1Service {
     }
 
     public String getNameById(String id) {
-        if (id == null || id.isBlank()) return null;
-        return productType1Repository.findById(id)
-                .map(ProductType1::getName)
-                .orElse(null);
+        return dictionaryCacheService.getProductType1Name(id);
+    }
+
+    /**
+     * ⚡ Tìm IDs theo tên (contains, ignore case) - dùng để đẩy filter theo tên type xuống Mongo ($in)
+     */
+    public Set<String> findIdsByNameContaining(String name) {
+        if (name == null || name.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return productType1Repository.findByNameContainingIgnoreCase(name)
+                .stream()
+                .map(ProductType1::getId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
     }
 }
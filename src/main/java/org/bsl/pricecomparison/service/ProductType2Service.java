@@ -23,6 +23,9 @@ public class ProductType2Service {
     @Autowired
     private ProductType1Repository productType1Repository;
 
+    @Autowired
+    private DictionaryCacheService dictionaryCacheService;
+
     public ProductType2 create(String name, String productType1Id) {
         if (!productType1Repository.existsById(productType1Id)) {
             throw new IllegalArgumentException("ProductType1 ID not found.");
@@ -33,7 +36,9 @@ public class ProductType2Service {
         }
 
         ProductType2 type2 = new ProductType2(name, LocalDateTime.now(), productType1Id);
-        return productType2Repository.save(type2);
+        ProductType2 saved = productType2Repository.save(type2);
+        dictionaryCacheService.invalidate(DictionaryCacheService.Dictionary.PRODUCT_TYPE2);
+        return saved;
     }
 
     public ProductType2 update(String id, String newName) {
@@ -47,7 +52,9 @@ public class ProductType2Service {
         }
 
         existing.setName(newName);
-        return productType2Repository.save(existing);
+        ProductType2 saved = productType2Repository.save(existing);
+        dictionaryCacheService.invalidate(DictionaryCacheService.Dictionary.PRODUCT_TYPE2);
+        return saved;
     }
 
     public void delete(String id) {
@@ -56,6 +63,7 @@ public class ProductType2Service {
         }
 
         productType2Repository.deleteById(id);
+        dictionaryCacheService.invalidate(DictionaryCacheService.Dictionary.PRODUCT_TYPE2);
     }
 
     public ProductType2 getById(String id) {
@@ -156,9 +164,20 @@ public class ProductType2Service {
     }
 
     public String getNameById(String id) {
-        if (id == null || id.isBlank()) return null;
-        return productType2Repository.findById(id)
-                .map(ProductType2::getName)
-                .orElse(null);
+        return dictionaryCacheService.getProductType2Name(id);
+    }
+
+    /**
+     * ⚡ Tìm IDs theo tên (contains, ignore case) - dùng để đẩy filter theo tên type xuống Mongo ($in)
+     */
+    public Set<String> findIdsByNameContaining(String name) {
+        if (name == null || name.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return productType2Repository.findByNameContainingIgnoreCase(name)
+                .stream()
+                .map(ProductType2::getId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
     }
 }
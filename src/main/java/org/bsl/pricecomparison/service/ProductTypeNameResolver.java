@@ -0,0 +1,72 @@
+package org.bsl.pricecomparison.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * ⚡ Resolve tên ProductType1/ProductType2 theo lô cho 1 request:
+ * gom toàn bộ ids 1 lần -> đọc từ DictionaryCacheService, id nào chưa có thì 1 query $in cho mỗi loại.
+ */
+@Service
+public class ProductTypeNameResolver {
+
+    @Autowired
+    private DictionaryCacheService dictionaryCacheService;
+
+    public <T> Names resolve(Collection<T> items,
+                             Function<T, String> type1IdGetter,
+                             Function<T, String> type2IdGetter) {
+        Set<String> type1Ids = new HashSet<>();
+        Set<String> type2Ids = new HashSet<>();
+
+        if (items != null) {
+            for (T item : items) {
+                if (item == null) continue;
+                addId(type1Ids, type1IdGetter.apply(item));
+                addId(type2Ids, type2IdGetter.apply(item));
+            }
+        }
+
+        return new Names(
+                dictionaryCacheService.getProductType1Names(type1Ids),
+                dictionaryCacheService.getProductType2Names(type2Ids)
+        );
+    }
+
+    private static void addId(Set<String> ids, String id) {
+        if (id != null && !id.isBlank()) ids.add(id.trim());
+    }
+
+    /**
+     * Snapshot id -> name chỉ sống trong 1 request (không cache giữa các request).
+     */
+    public static class Names {
+        private final Map<String, String> type1Names;
+        private final Map<String, String> type2Names;
+
+        private Names(Map<String, String> type1Names, Map<String, String> type2Names) {
+            this.type1Names = type1Names;
+            this.type2Names = type2Names;
+        }
+
+        /** không có tên nào (vd. snapshot so sánh: tên type gắn lúc đọc, không lưu vào DTO) */
+        public static Names empty() {
+            return new Names(Collections.emptyMap(), Collections.emptyMap());
+        }
+
+        /** null nếu id rỗng hoặc không tồn tại */
+        public String type1Name(String id) {
+            if (id == null || id.isBlank()) return null;
+            return type1Names.get(id.trim());
+        }
+
+        /** null nếu id rỗng hoặc không tồn tại */
+        public String type2Name(String id) {
+            if (id == null || id.isBlank()) return null;
+            return type2Names.get(id.trim());
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.bsl.pricecomparison.service;
+
+import org.bsl.pricecomparison.model.RequisitionMonthly;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * ✅ RequisitionMonthly đã completed được lưu lại (PUT update, import replace/merge, mark-completed)
+ * -> ghi lại dòng purchase_history_items với giá / qty / supplier / code mới.
+ * Bulk updateOne không bắn event -> nơi gọi tự đồng bộ.
+ */
+@Component
+public class PurchaseHistoryListener extends AbstractMongoEventListener<RequisitionMonthly> {
+
+    @Autowired
+    private PurchaseHistoryService purchaseHistoryService;
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<RequisitionMonthly> event) {
+        purchaseHistoryService.syncSaved(event.getSource());
+    }
+}
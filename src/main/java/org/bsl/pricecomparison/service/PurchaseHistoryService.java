@@ -0,0 +1,225 @@
+package org.bsl.pricecomparison.service;
+
+import org.bson.Document;
+import org.bsl.pricecomparison.dto.PurchaseHistoryItem;
+import org.bsl.pricecomparison.model.RequisitionMonthly;
+import org.bsl.pricecomparison.repository.PurchaseHistoryItemRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * ⚡ Read model purchase_history_items: 1 document / requisition đã completed.
+ *
+ * - Ghi mỗi lần lưu 1 requisition đã completed (PurchaseHistoryListener, upsert theo groupId + requisitionMonthlyId)
+ *   -> sửa giá / qty / supplier / code sau khi completed (PUT, import) không để lại history cũ
+ * - Xoá khi mark-uncompleted hoặc khi requisition bị xoá
+ * - matchKeys = MonthlyLastPurchaseResolver.matchKeys(req) -> latest price / qty tháng trước
+ *   là lookup trên index {matchKeys, purchasedAt}, không còn scan requisition_monthly
+ * - Lần chạy đầu (collection rỗng) / đổi MATCH_KEY_VERSION tự backfill từ requisition_monthly
+ */
+@Service
+public class PurchaseHistoryService {
+
+    private static final int BATCH_SIZE = 500;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private PurchaseHistoryItemRepository purchaseHistoryItemRepository;
+
+    @Autowired
+    private ComparisonSnapshotService comparisonSnapshotService;
+
+    /**
+     * Upsert history cho các requisition đã completed (bỏ qua dòng chưa completed / thiếu supplier / thiếu completedDate).
+     */
+    public int recordCompleted(Collection<RequisitionMonthly> requisitions) {
+        if (requisitions == null || requisitions.isEmpty()) return 0;
+
+        int written = 0;
+        BulkOperations bulk = null;
+        int pending = 0;
+
+        for (RequisitionMonthly req : requisitions) {
+            PurchaseHistoryItem item = toHistoryItem(req);
+            if (item == null) continue;
+
+            if (bulk == null) {
+                bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, PurchaseHistoryItem.class);
+            }
+
+            Document doc = new Document();
+            mongoTemplate.getConverter().write(item, doc);
+            doc.remove("_id");
+
+            bulk.upsert(keyQuery(item), toUpdate(doc));
+            pending++;
+
+            if (pending >= BATCH_SIZE) {
+                bulk.execute();
+                written += pending;
+                bulk = null;
+                pending = 0;
+            }
+        }
+
+        if (bulk != null && pending > 0) {
+            bulk.execute();
+            written += pending;
+        }
+        return written;
+    }
+
+    /**
+     * Đồng bộ history của 1 requisition vừa lưu: completed đủ dữ liệu -> upsert, completed nhưng
+     * thiếu supplier / completedDate -> xoá. Dòng chưa completed không đụng tới (mark-uncompleted tự xoá).
+     */
+    public void syncSaved(RequisitionMonthly req) {
+        if (req == null || req.getId() == null || !Boolean.TRUE.equals(req.getIsCompleted())) return;
+
+        PurchaseHistoryItem item = toHistoryItem(req);
+        if (item == null) {
+            removeForRequisitions(List.of(req.getId()));
+            return;
+        }
+
+        Document doc = new Document();
+        mongoTemplate.getConverter().write(item, doc);
+        doc.remove("_id");
+        mongoTemplate.upsert(keyQuery(item), toUpdate(doc), PurchaseHistoryItem.class);
+    }
+
+    private static Query keyQuery(PurchaseHistoryItem item) {
+        return Query.query(Criteria.where("groupId").is(item.getGroupId())
+                .and("requisitionMonthlyId").is(item.getRequisitionMonthlyId()));
+    }
+
+    // matchKey: field 1 key / dòng của MATCH_KEY_VERSION < 3
+    private static Update toUpdate(Document doc) {
+        return Update.fromDocument(new Document("$set", doc)
+                .append("$unset", new Document("matchKey", "")));
+    }
+
+    /**
+     * Xoá history của các requisition (uncompleted / deleted).
+     */
+    public long removeForRequisitions(Collection<String> requisitionIds) {
+        if (requisitionIds == null || requisitionIds.isEmpty()) return 0;
+        return purchaseHistoryItemRepository.deleteByRequisitionMonthlyIdIn(requisitionIds);
+    }
+
+    // =========================================================
+    // BACKFILL (collection rỗng hoặc matchKey tính theo rule cũ)
+    // =========================================================
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillIfEmpty() {
+        try {
+            boolean empty = mongoTemplate.estimatedCount(PurchaseHistoryItem.class) == 0;
+            if (!empty && !mongoTemplate.exists(outdatedQuery(), PurchaseHistoryItem.class)) return;
+
+            long start = System.currentTimeMillis();
+            int total = rebuild();
+            if (!empty) {
+                // còn version cũ sau rebuild = requisition không còn completed -> bỏ
+                mongoTemplate.remove(outdatedQuery(), PurchaseHistoryItem.class);
+                // snapshot giữ lastPurchaseKey theo rule cũ
+                comparisonSnapshotService.markAllDirty();
+            }
+            System.out.println("Purchase history backfilled: " + total + " items in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            System.err.println("Purchase history backfill failed: " + e.getMessage());
+        }
+    }
+
+    private static Query outdatedQuery() {
+        // $not $gte => cả item chưa có field
+        return Query.query(Criteria.where("matchKeyVersion").not()
+                .gte(MonthlyLastPurchaseResolver.MATCH_KEY_VERSION));
+    }
+
+    /**
+     * Đọc stream toàn bộ requisition completed và upsert theo batch.
+     */
+    public int rebuild() {
+        Query query = Query.query(new Criteria().andOperator(
+                Criteria.where("isCompleted").is(true),
+                Criteria.where("supplierId").nin(null, ""),
+                Criteria.where("completedDate").ne(null)
+        ));
+
+        int total = 0;
+        List<RequisitionMonthly> batch = new ArrayList<>(BATCH_SIZE);
+        try (Stream<RequisitionMonthly> stream = mongoTemplate.stream(query, RequisitionMonthly.class)) {
+            Iterator<RequisitionMonthly> it = stream.iterator();
+            while (it.hasNext()) {
+                batch.add(it.next());
+                if (batch.size() >= BATCH_SIZE) {
+                    total += recordCompleted(batch);
+                    batch.clear();
+                }
+            }
+        }
+        total += recordCompleted(batch);
+        return total;
+    }
+
+    // =========================================================
+    // MAPPING
+    // =========================================================
+
+    private static PurchaseHistoryItem toHistoryItem(RequisitionMonthly req) {
+        if (req == null || req.getId() == null) return null;
+        if (!Boolean.TRUE.equals(req.getIsCompleted()) || req.getCompletedDate() == null) return null;
+        if (req.getSupplierId() == null || req.getSupplierId().trim().isEmpty()) return null;
+
+        PurchaseHistoryItem item = new PurchaseHistoryItem();
+        item.setGroupId(req.getGroupId());
+        item.setRequisitionMonthlyId(req.getId());
+        item.setMatchKeys(MonthlyLastPurchaseResolver.matchKeys(req));
+        item.setMatchKeyVersion(MonthlyLastPurchaseResolver.MATCH_KEY_VERSION);
+
+        item.setOldSapCode(req.getOldSAPCode());
+        item.setHanaSapCode(req.getHanaSAPCode());
+        item.setItemDescriptionEN(req.getItemDescriptionEN());
+        item.setItemDescriptionVN(req.getItemDescriptionVN());
+
+        item.setSupplierId(req.getSupplierId().trim());
+        item.setSupplierNameSnapshot(req.getSupplierName());
+
+        item.setCurrencySnapshot(trimToNull(req.getCurrency()));
+        item.setGoodTypeSnapshot(req.getGoodType());
+        item.setUnitSnapshot(trimToNull(req.getUnit()));
+
+        BigDecimal price = req.getPrice();
+        BigDecimal qty = req.getOrderQty();
+        item.setUnitPriceSnapshot(price);
+        item.setOrderQtySnapshot(qty);
+        item.setAmountSnapshot(req.getAmount() != null
+                ? req.getAmount()
+                : (price != null && qty != null ? price.multiply(qty) : null));
+
+        item.setPurchasedAt(req.getCompletedDate());
+        item.setPurchasedBy(req.getCompletedByEmail());
+        return item;
+    }
+
+    private static String trimToNull(String s) {
+        if (s == null) return null;
+        String t = s.trim();
+        return t.isEmpty() ? null : t;
+    }
+}
@@ -0,0 +1,44 @@
+package org.bsl.pricecomparison.service;
+
+import org.bson.Document;
+import org.bsl.pricecomparison.model.RequisitionMonthly;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * ✅ RequisitionMonthly save/delete -> cập nhật DescriptionSearchIndex (itemDescriptionVN / EN).
+ * Delete theo điều kiện khác _id -> build lại index nền.
+ */
+@Component
+public class RequisitionMonthlySearchIndexListener extends AbstractMongoEventListener<RequisitionMonthly> {
+
+    @Autowired
+    private DescriptionSearchIndex descriptionSearchIndex;
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<RequisitionMonthly> event) {
+        RequisitionMonthly req = event.getSource();
+        if (req != null) {
+            descriptionSearchIndex.put(DescriptionSearchIndex.Source.REQUISITION_MONTHLY,
+                    req.getId(), req.getItemDescriptionVN(), req.getItemDescriptionEN());
+        }
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<RequisitionMonthly> event) {
+        Document filter = event.getSource();
+        Object id = filter != null ? filter.get("_id") : null;
+        List<String> ids = id != null ? RequisitionMonthlySnapshotListener.idsOf(id) : List.of();
+        if (!ids.isEmpty()) {
+            descriptionSearchIndex.remove(DescriptionSearchIndex.Source.REQUISITION_MONTHLY, ids);
+        } else {
+            // delete theo điều kiện khác -> không biết dòng nào
+            descriptionSearchIndex.rebuildAsync(DescriptionSearchIndex.Source.REQUISITION_MONTHLY);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.bsl.pricecomparison.service;
+
+import org.bsl.pricecomparison.model.RequisitionMonthly;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * ✅ Backfill key so khớp mô tả (itemDescriptionVNKey / itemDescriptionENKey) cho RequisitionMonthly cũ.
+ *
+ * Chạy lúc startup (trước khi web server nhận request) nếu còn record có searchKeyVersion cũ / chưa có;
+ * check trùng / merge import chỉ tra theo itemDescription*Key nên lỗi => dừng startup, tránh insert trùng.
+ * Record mới đã có key từ RequisitionMonthlySearchKeyListener.
+ * Chỉ đọc các field nguồn, ghi bulk $set theo chunk.
+ */
+@Service
+public class RequisitionMonthlySearchKeyBackfill {
+
+    private static final int BATCH_SIZE = 500;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @PostConstruct
+    public void backfillIfMissing() {
+        try {
+            if (!mongoTemplate.exists(outdatedQuery(), RequisitionMonthly.class)) return;
+
+            long start = System.currentTimeMillis();
+            int total = backfill();
+            System.out.println("Requisition search keys backfilled: " + total + " requisitions in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            throw new IllegalStateException("Requisition search key backfill failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Đọc stream các record cần tính lại key và ghi theo batch.
+     */
+    public int backfill() {
+        Query query = outdatedQuery();
+        query.fields()
+                .include("_id")
+                .include("itemDescriptionVN")
+                .include("itemDescriptionEN");
+
+        int total = 0;
+        int pending = 0;
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, RequisitionMonthly.class);
+
+        try (Stream<RequisitionMonthly> stream = mongoTemplate.stream(query, RequisitionMonthly.class)) {
+            Iterator<RequisitionMonthly> it = stream.iterator();
+            while (it.hasNext()) {
+                RequisitionMonthly req = it.next();
+                RequisitionMonthlySearchKeyListener.applySearchKeys(req);
+                bulk.updateOne(
+                        Query.query(Criteria.where("_id").is(req.getId())),
+                        new Update()
+                                .set("itemDescriptionVNKey", req.getItemDescriptionVNKey())
+                                .set("itemDescriptionENKey", req.getItemDescriptionENKey())
+                                .set("searchKeyVersion", req.getSearchKeyVersion()));
+                if (++pending >= BATCH_SIZE) {
+                    bulk.execute();
+                    total += pending;
+                    pending = 0;
+                    bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, RequisitionMonthly.class);
+                }
+            }
+        }
+        if (pending > 0) {
+            bulk.execute();
+            total += pending;
+        }
+        return total;
+    }
+
+    private static Query outdatedQuery() {
+        // $not $gte => cả record chưa có field
+        return Query.query(Criteria.where("searchKeyVersion").not()
+                .gte(RequisitionMonthlySearchKeyListener.SEARCH_KEY_VERSION));
+    }
+}
@@ -0,0 +1,31 @@
+package org.bsl.pricecomparison.service;
+
+import org.bsl.pricecomparison.common.CommonRequisitionUtils;
+import org.bsl.pricecomparison.model.RequisitionMonthly;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * ⚡ Key so khớp mô tả tính 1 lần lúc ghi (create / update / import đi qua save / saveAll / insert):
+ * - itemDescriptionVNKey / itemDescriptionENKey = descriptionKey (foldText) -> check trùng trong group, "Găng tay" = "Gang tay"
+ * Bulk updateOne không qua đây -> nơi gọi tự $set (AutoSupplierBatchService).
+ */
+@Component
+public class RequisitionMonthlySearchKeyListener extends AbstractMongoEventListener<RequisitionMonthly> {
+
+    // tăng khi thêm / đổi cách tính key => RequisitionMonthlySearchKeyBackfill tính lại record cũ
+    public static final int SEARCH_KEY_VERSION = 1;
+
+    @Override
+    public void onBeforeConvert(BeforeConvertEvent<RequisitionMonthly> event) {
+        applySearchKeys(event.getSource());
+    }
+
+    public static void applySearchKeys(RequisitionMonthly req) {
+        if (req == null) return;
+        req.setItemDescriptionVNKey(CommonRequisitionUtils.descriptionKey(req.getItemDescriptionVN()));
+        req.setItemDescriptionENKey(CommonRequisitionUtils.descriptionKey(req.getItemDescriptionEN()));
+        req.setSearchKeyVersion(SEARCH_KEY_VERSION);
+    }
+}
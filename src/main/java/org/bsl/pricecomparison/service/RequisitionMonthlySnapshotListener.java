@@ -0,0 +1,63 @@
+package org.bsl.pricecomparison.service;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.bsl.pricecomparison.model.RequisitionMonthly;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * ✅ RequisitionMonthly save/delete (repository, MongoTemplate, bulk insert/replace) -> đánh dấu dòng snapshot stale.
+ * Bulk updateOne không bắn event -> nơi gọi tự mark (AutoSupplierBatchService).
+ */
+@Component
+public class RequisitionMonthlySnapshotListener extends AbstractMongoEventListener<RequisitionMonthly> {
+
+    @Autowired
+    private ComparisonSnapshotService comparisonSnapshotService;
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<RequisitionMonthly> event) {
+        RequisitionMonthly req = event.getSource();
+        if (req != null) {
+            comparisonSnapshotService.markRequisitionStale(req.getId(), req.getGroupId());
+        }
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<RequisitionMonthly> event) {
+        Document filter = event.getSource();
+        Object id = filter != null ? filter.get("_id") : null;
+
+        if (id != null) {
+            comparisonSnapshotService.markRequisitionIdsStale(idsOf(id));
+        } else if (filter != null && filter.get("groupId") instanceof String groupId) {
+            comparisonSnapshotService.markGroupDirty(groupId);
+        } else {
+            // ✅ delete theo điều kiện khác -> không biết dòng nào, build lại hết
+            comparisonSnapshotService.markAllDirty();
+        }
+    }
+
+    // _id: "x" | ObjectId | { $in: [...] }
+    static List<String> idsOf(Object id) {
+        List<String> out = new ArrayList<>();
+        if (id instanceof Document doc && doc.get("$in") instanceof Collection<?> values) {
+            for (Object value : values) {
+                if (value != null) out.add(value instanceof ObjectId oid ? oid.toHexString() : value.toString());
+            }
+        } else if (id instanceof ObjectId oid) {
+            out.add(oid.toHexString());
+        } else if (!(id instanceof Document)) {
+            out.add(id.toString());
+        }
+        return out;
+    }
+}
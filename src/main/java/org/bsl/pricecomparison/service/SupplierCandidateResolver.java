@@ -0,0 +1,352 @@
+package org.bsl.pricecomparison.service;
+
+import org.bsl.pricecomparison.common.CommonRequisitionUtils;
+import org.bsl.pricecomparison.model.SupplierProduct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Collation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * ⚡ Supplier candidate cho các màn so sánh (comparison-monthly, comparison-monthly-grouped, /search/comparison)
+ * và auto-supplier theo group (AutoSupplierBatchService).
+ *
+ * Giống ProductTypeNameResolver: prefetch() trả 1 object Candidates chỉ sống trong 1 request.
+ * - key = (SAP|HANA|VN|EN, keyword, unit, currency) chọn theo đúng cascade của searchSupplierProductsByPriority
+ * - các dòng cùng key dùng chung 1 list (không query lại)
+ * - prefetch: gom key theo (mode, unit, currency) -> vài query $in (code / id từ DescriptionSearchIndex),
+ *   regex OR trên itemDescription*Key (không dấu) khi index chưa sẵn sàng
+ * - key chưa prefetch -> query lẻ 1 lần rồi nhớ lại
+ * Rule dedupe theo công ty + prefer selected vẫn chạy từng dòng (dedupeLatestByCompanyPreferSelected).
+ */
+@Service
+public class SupplierCandidateResolver {
+
+    private static final int IN_CHUNK = 500;          // số code / query $in
+    private static final int REGEX_CHUNK = 50;        // số description / regex OR
+
+    // giống collation của index *_ci (SupplierProductRepository.CASE_INSENSITIVE)
+    private static final Collation CASE_INSENSITIVE =
+            Collation.of("en").strength(Collation.ComparisonLevel.secondary());
+
+    private enum Mode { SAP, HANA, VN, EN }
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private CommonRequisitionUtils commonRequisitionUtils;
+
+    @Autowired
+    private DescriptionSearchIndex descriptionSearchIndex;
+
+    /**
+     * @param keyOf key của 1 item (Key.of(...)), null = item không cần supplier
+     */
+    public <T> Candidates prefetch(Collection<T> items, Function<T, Key> keyOf) {
+        Candidates candidates = new Candidates();
+        if (items == null || items.isEmpty()) return candidates;
+
+        Set<Key> keys = new LinkedHashSet<>();
+        for (T item : items) {
+            if (item == null) continue;
+            Key key = keyOf.apply(item);
+            if (key != null) keys.add(key);
+        }
+        candidates.load(keys);
+        return candidates;
+    }
+
+    /**
+     * Key cho findBySapCodeAndCurrencyIgnoreCase (comparison-monthly-grouped: chỉ SAP + currency, không unit).
+     */
+    public <T> Candidates prefetchBySapCode(Collection<T> items, Function<T, String> sapCodeOf, String currency) {
+        Candidates candidates = new Candidates();
+        if (items == null || items.isEmpty()) return candidates;
+
+        List<String> codes = new ArrayList<>();
+        for (T item : items) {
+            if (item == null) continue;
+            String code = sapCodeOf.apply(item);
+            if (code != null && !code.isEmpty()) codes.add(code);
+        }
+        candidates.loadSapCodes(codes, currency);
+        return candidates;
+    }
+
+    // =========================================================
+    // KEY
+    // =========================================================
+
+    public static final class Key {
+        private final Mode mode;
+        private final String keyword;
+        private final String unit;
+        private final String currency;
+
+        private final String foldedKeyword;
+        private final String foldedUnit;
+        private final String foldedCurrency;
+
+        private Key(Mode mode, String keyword, String unit, String currency) {
+            this.mode = mode;
+            this.keyword = keyword;
+            this.unit = unit;
+            this.currency = currency;
+            // mô tả: so theo key không dấu (giống itemDescription*Key), code: lowercase
+            this.foldedKeyword = mode == Mode.VN || mode == Mode.EN
+                    ? CommonRequisitionUtils.descriptionKey(keyword)
+                    : fold(keyword);
+            this.foldedUnit = fold(unit);
+            this.foldedCurrency = fold(currency);
+        }
+
+        /**
+         * Cascade giống searchSupplierProductsByPriority: SAP -> HANA -> VN -> EN (code "NEW" = rỗng).
+         * null nếu thiếu unit/currency hoặc không có keyword nào.
+         */
+        public static Key of(String sapCode, String hanaCode, String vnName, String enName, String unit, String currency) {
+            String cur = trimToNull(currency);
+            String reqUnit = trimToNull(unit);
+            if (cur == null || reqUnit == null) return null;
+
+            String sap = normCode(sapCode);
+            if (sap != null) return new Key(Mode.SAP, sap, reqUnit, cur);
+            String hana = normCode(hanaCode);
+            if (hana != null) return new Key(Mode.HANA, hana, reqUnit, cur);
+            String vn = trimToNull(vnName);
+            if (vn != null) return new Key(Mode.VN, vn, reqUnit, cur);
+            String en = trimToNull(enName);
+            if (en != null) return new Key(Mode.EN, en, reqUnit, cur);
+            return null;
+        }
+
+        private String bucket() {
+            return mode.name() + "|" + foldedUnit + "|" + foldedCurrency;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key k)) return false;
+            return mode == k.mode
+                    && foldedKeyword.equals(k.foldedKeyword)
+                    && foldedUnit.equals(k.foldedUnit)
+                    && foldedCurrency.equals(k.foldedCurrency);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mode, foldedKeyword, foldedUnit, foldedCurrency);
+        }
+    }
+
+    // =========================================================
+    // CANDIDATES (1 request)
+    // =========================================================
+
+    public class Candidates {
+        private final Map<Key, List<SupplierProduct>> byKey = new HashMap<>();
+        private final Map<String, List<SupplierProduct>> bySapCurrency = new HashMap<>();
+        private int queries;
+
+        private Candidates() {}
+
+        /**
+         * Thay cho commonRequisitionUtils.searchSupplierProductsByPriority(...), cùng kết quả.
+         */
+        public List<SupplierProduct> search(String sapCode, String hanaCode, String vnName, String enName,
+                                            String unit, String currency, String selectedSupplierId) {
+            Key key = Key.of(sapCode, hanaCode, vnName, enName, unit, currency);
+            if (key == null) return Collections.emptyList();
+
+            if (!byKey.containsKey(key)) {
+                load(Collections.singleton(key));
+            }
+            return commonRequisitionUtils.dedupeLatestByCompanyPreferSelected(byKey.get(key), selectedSupplierId);
+        }
+
+        /**
+         * List candidate thô của 1 key (chưa dedupe theo công ty) -> AutoSupplierBatchService tự pick.
+         * List dùng chung giữa các dòng -> caller không được sửa.
+         */
+        public List<SupplierProduct> get(Key key) {
+            if (key == null) return Collections.emptyList();
+            if (!byKey.containsKey(key)) {
+                load(Collections.singleton(key));
+            }
+            return byKey.get(key);
+        }
+
+        /**
+         * Thay cho supplierProductRepository.findBySapCodeAndCurrencyIgnoreCase(sapCode, currency).
+         * List trả về dùng chung giữa các dòng -> caller không được sửa.
+         */
+        public List<SupplierProduct> findBySapCode(String sapCode, String currency) {
+            if (sapCode == null || sapCode.isEmpty()) return Collections.emptyList();
+            String k = fold(sapCode) + "|" + fold(currency != null ? currency : "");
+            if (!bySapCurrency.containsKey(k)) {
+                loadSapCodes(Collections.singletonList(sapCode), currency);
+            }
+            return bySapCurrency.getOrDefault(k, Collections.emptyList());
+        }
+
+        /** số query đã chạy (log / debug) */
+        public int getQueries() {
+            return queries;
+        }
+
+        private void load(Collection<Key> keys) {
+            Map<String, List<Key>> buckets = new LinkedHashMap<>();
+            for (Key key : keys) {
+                if (byKey.containsKey(key)) continue;
+                byKey.put(key, new ArrayList<>());
+                buckets.computeIfAbsent(key.bucket(), b -> new ArrayList<>()).add(key);
+            }
+            for (List<Key> bucket : buckets.values()) {
+                fetchBucket(bucket);
+            }
+        }
+
+        private void fetchBucket(List<Key> keys) {
+            Key first = keys.get(0);
+
+            if (first.mode == Mode.SAP || first.mode == Mode.HANA) {
+                String field = first.mode == Mode.SAP ? "sapCode" : "hanaSapCode";
+
+                Map<String, Key> byKeyword = new HashMap<>();
+                for (Key key : keys) byKeyword.put(key.foldedKeyword, key);
+
+                for (int i = 0; i < keys.size(); i += IN_CHUNK) {
+                    List<String> chunk = new ArrayList<>();
+                    for (Key key : keys.subList(i, Math.min(i + IN_CHUNK, keys.size()))) chunk.add(key.keyword);
+
+                    Query query = Query.query(Criteria.where(field).in(chunk)
+                                    .and("unit").is(first.unit)
+                                    .and("currency").is(first.currency))
+                            .collation(CASE_INSENSITIVE);
+                    queries++;
+
+                    for (SupplierProduct sp : mongoTemplate.find(query, SupplierProduct.class)) {
+                        String code = first.mode == Mode.SAP ? sp.getSapCode() : sp.getHanaSapCode();
+                        Key matched = code != null ? byKeyword.get(fold(code.trim())) : null;
+                        if (matched != null) byKey.get(matched).add(sp);
+                    }
+                }
+            } else {
+                DescriptionSearchIndex.Field indexField =
+                        first.mode == Mode.VN ? DescriptionSearchIndex.Field.VN : DescriptionSearchIndex.Field.EN;
+
+                // ⚡ id theo từng keyword từ index (không dấu); keyword index không trả lời được -> regex OR
+                Map<String, List<Key>> keysById = new HashMap<>();
+                List<Key> regexKeys = new ArrayList<>();
+                for (Key key : keys) {
+                    List<String> ids = descriptionSearchIndex.search(
+                            DescriptionSearchIndex.Source.SUPPLIER_PRODUCTS, indexField, key.keyword);
+                    if (ids == null) {
+                        regexKeys.add(key);
+                        continue;
+                    }
+                    for (String id : ids) keysById.computeIfAbsent(id, x -> new ArrayList<>()).add(key);
+                }
+
+                List<String> allIds = new ArrayList<>(keysById.keySet());
+                for (int i = 0; i < allIds.size(); i += IN_CHUNK) {
+                    List<String> chunk = allIds.subList(i, Math.min(i + IN_CHUNK, allIds.size()));
+
+                    Query query = Query.query(Criteria.where("_id").in(chunk)
+                                    .and("unit").is(first.unit)
+                                    .and("currency").is(first.currency))
+                            .collation(CASE_INSENSITIVE);
+                    queries++;
+
+                    for (SupplierProduct sp : mongoTemplate.find(query, SupplierProduct.class)) {
+                        for (Key key : keysById.getOrDefault(sp.getId(), Collections.emptyList())) {
+                            byKey.get(key).add(sp);
+                        }
+                    }
+                }
+
+                String keyField = first.mode == Mode.VN ? "itemDescriptionVNKey" : "itemDescriptionENKey";
+                for (int i = 0; i < regexKeys.size(); i += REGEX_CHUNK) {
+                    List<Key> chunk = regexKeys.subList(i, Math.min(i + REGEX_CHUNK, regexKeys.size()));
+
+                    // 1 regex OR cho cả chunk (contains trên key đã fold)
+                    StringJoiner alternation = new StringJoiner("|");
+                    for (Key key : chunk) alternation.add(Pattern.quote(key.foldedKeyword));
+
+                    Query query = Query.query(Criteria.where(keyField)
+                                    .regex(alternation.toString())
+                                    .and("unit").is(first.unit)
+                                    .and("currency").is(first.currency))
+                            .collation(CASE_INSENSITIVE);
+                    queries++;
+
+                    for (SupplierProduct sp : mongoTemplate.find(query, SupplierProduct.class)) {
+                        String stored = first.mode == Mode.VN ? sp.getItemDescriptionVNKey() : sp.getItemDescriptionENKey();
+                        String desc = first.mode == Mode.VN ? sp.getItemDescriptionVN() : sp.getItemDescriptionEN();
+                        String descKey = stored != null ? stored : CommonRequisitionUtils.descriptionKey(desc);
+                        if (descKey == null) continue;
+                        for (Key key : chunk) {
+                            if (descKey.contains(key.foldedKeyword)) byKey.get(key).add(sp);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void loadSapCodes(Collection<String> codes, String currency) {
+            String cur = currency != null ? currency : "";
+            String curFolded = fold(cur);
+
+            Map<String, String> pending = new LinkedHashMap<>();
+            for (String code : codes) {
+                String k = fold(code) + "|" + curFolded;
+                if (bySapCurrency.containsKey(k) || pending.containsKey(fold(code))) continue;
+                bySapCurrency.put(k, new ArrayList<>());
+                pending.put(fold(code), code);
+            }
+            if (pending.isEmpty()) return;
+
+            List<String> all = new ArrayList<>(pending.values());
+            for (int i = 0; i < all.size(); i += IN_CHUNK) {
+                List<String> chunk = all.subList(i, Math.min(i + IN_CHUNK, all.size()));
+                Query query = Query.query(Criteria.where("sapCode").in(chunk).and("currency").is(cur))
+                        .collation(CASE_INSENSITIVE);
+                queries++;
+
+                for (SupplierProduct sp : mongoTemplate.find(query, SupplierProduct.class)) {
+                    if (sp.getSapCode() == null) continue;
+                    List<SupplierProduct> list = bySapCurrency.get(fold(sp.getSapCode()) + "|" + curFolded);
+                    if (list != null) list.add(sp);
+                }
+            }
+        }
+    }
+
+    // =========================================================
+    // HELPERS
+    // =========================================================
+
+    private static String fold(String s) {
+        return s.toLowerCase(Locale.ROOT);
+    }
+
+    private static String trimToNull(String s) {
+        if (s == null) return null;
+        String t = s.trim();
+        return t.isEmpty() ? null : t;
+    }
+
+    private static String normCode(String s) {
+        String t = trimToNull(s);
+        if (t == null) return null;
+        return "new".equalsIgnoreCase(t) ? null : t;
+    }
+}
@@ -0,0 +1,44 @@
+package org.bsl.pricecomparison.service;
+
+import org.bson.Document;
+import org.bsl.pricecomparison.model.SupplierProduct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * ✅ SupplierProduct save/delete -> cập nhật DescriptionSearchIndex (itemDescriptionVN / EN).
+ * Delete theo điều kiện khác _id -> build lại index nền.
+ */
+@Component
+public class SupplierProductSearchIndexListener extends AbstractMongoEventListener<SupplierProduct> {
+
+    @Autowired
+    private DescriptionSearchIndex descriptionSearchIndex;
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<SupplierProduct> event) {
+        SupplierProduct sp = event.getSource();
+        if (sp != null) {
+            descriptionSearchIndex.put(DescriptionSearchIndex.Source.SUPPLIER_PRODUCTS,
+                    sp.getId(), sp.getItemDescriptionVN(), sp.getItemDescriptionEN());
+        }
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<SupplierProduct> event) {
+        Document filter = event.getSource();
+        Object id = filter != null ? filter.get("_id") : null;
+        List<String> ids = id != null ? RequisitionMonthlySnapshotListener.idsOf(id) : List.of();
+        if (!ids.isEmpty()) {
+            descriptionSearchIndex.remove(DescriptionSearchIndex.Source.SUPPLIER_PRODUCTS, ids);
+        } else {
+            // delete theo điều kiện khác -> không biết dòng nào
+            descriptionSearchIndex.rebuildAsync(DescriptionSearchIndex.Source.SUPPLIER_PRODUCTS);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.bsl.pricecomparison.service;
+
+import org.bsl.pricecomparison.model.SupplierProduct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * ✅ Backfill key tìm kiếm (companyKey, *Key, itemDescription*Key) cho SupplierProduct cũ.
+ *
+ * Chạy lúc startup (trước khi web server nhận request) nếu còn record có searchKeyVersion cũ / chưa có;
+ * filter code / mô tả chỉ đọc field *Key nên lỗi => dừng startup, không chạy với key thiếu.
+ * Record mới đã có key từ SupplierProductSearchKeyListener.
+ * Chỉ đọc các field nguồn, ghi bulk $set theo chunk.
+ */
+@Service
+public class SupplierProductSearchKeyBackfill {
+
+    private static final int BATCH_SIZE = 500;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @PostConstruct
+    public void backfillIfMissing() {
+        try {
+            if (!mongoTemplate.exists(outdatedQuery(), SupplierProduct.class)) return;
+
+            long start = System.currentTimeMillis();
+            int total = backfill();
+            System.out.println("Supplier product search keys backfilled: " + total + " products in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            throw new IllegalStateException("Supplier product search key backfill failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Đọc stream các record cần tính lại key và ghi theo batch.
+     */
+    public int backfill() {
+        Query query = outdatedQuery();
+        query.fields()
+                .include("_id")
+                .include("supplierName")
+                .include("sapCode")
+                .include("hanaSapCode")
+                .include("currency")
+                .include("unit")
+                .include("itemDescriptionVN")
+                .include("itemDescriptionEN");
+
+        int total = 0;
+        int pending = 0;
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, SupplierProduct.class);
+
+        try (Stream<SupplierProduct> stream = mongoTemplate.stream(query, SupplierProduct.class)) {
+            Iterator<SupplierProduct> it = stream.iterator();
+            while (it.hasNext()) {
+                SupplierProduct sp = it.next();
+                SupplierProductSearchKeyListener.applySearchKeys(sp);
+                bulk.updateOne(
+                        Query.query(Criteria.where("_id").is(sp.getId())),
+                        new Update()
+                                .set("companyKey", sp.getCompanyKey())
+                                .set("sapCodeKey", sp.getSapCodeKey())
+                                .set("hanaSapCodeKey", sp.getHanaSapCodeKey())
+                                .set("currencyKey", sp.getCurrencyKey())
+                                .set("unitKey", sp.getUnitKey())
+                                .set("itemDescriptionVNKey", sp.getItemDescriptionVNKey())
+                                .set("itemDescriptionENKey", sp.getItemDescriptionENKey())
+                                .set("searchKeyVersion", sp.getSearchKeyVersion()));
+                if (++pending >= BATCH_SIZE) {
+                    bulk.execute();
+                    total += pending;
+                    pending = 0;
+                    bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, SupplierProduct.class);
+                }
+            }
+        }
+        if (pending > 0) {
+            bulk.execute();
+            total += pending;
+        }
+        return total;
+    }
+
+    private static Query outdatedQuery() {
+        // $not $gte => cả record chưa có field
+        return Query.query(Criteria.where("searchKeyVersion").not()
+                .gte(SupplierProductSearchKeyListener.SEARCH_KEY_VERSION));
+    }
+}
@@ -0,0 +1,37 @@
+package org.bsl.pricecomparison.service;
+
+import org.bsl.pricecomparison.common.CommonRequisitionUtils;
+import org.bsl.pricecomparison.model.SupplierProduct;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * ⚡ Tính các key tìm kiếm 1 lần lúc ghi (create / update / import đều đi qua save / saveAll):
+ * - companyKey: dedupe theo công ty (in-memory + aggregation)
+ * - sapCodeKey / hanaSapCodeKey / currencyKey / unitKey: filter exact / prefix trên index
+ * - itemDescriptionVNKey / itemDescriptionENKey: match mô tả không dấu (supplier matching, filter fallback)
+ */
+@Component
+public class SupplierProductSearchKeyListener extends AbstractMongoEventListener<SupplierProduct> {
+
+    // tăng khi thêm / đổi cách tính key => SupplierProductSearchKeyBackfill tính lại record cũ
+    public static final int SEARCH_KEY_VERSION = 2;
+
+    @Override
+    public void onBeforeConvert(BeforeConvertEvent<SupplierProduct> event) {
+        applySearchKeys(event.getSource());
+    }
+
+    public static void applySearchKeys(SupplierProduct product) {
+        if (product == null) return;
+        product.setCompanyKey(CommonRequisitionUtils.companyKey(product.getSupplierName()));
+        product.setSapCodeKey(CommonRequisitionUtils.codeKey(product.getSapCode()));
+        product.setHanaSapCodeKey(CommonRequisitionUtils.codeKey(product.getHanaSapCode()));
+        product.setCurrencyKey(CommonRequisitionUtils.codeKey(product.getCurrency()));
+        product.setUnitKey(CommonRequisitionUtils.codeKey(product.getUnit()));
+        product.setItemDescriptionVNKey(CommonRequisitionUtils.descriptionKey(product.getItemDescriptionVN()));
+        product.setItemDescriptionENKey(CommonRequisitionUtils.descriptionKey(product.getItemDescriptionEN()));
+        product.setSearchKeyVersion(SEARCH_KEY_VERSION);
+    }
+}
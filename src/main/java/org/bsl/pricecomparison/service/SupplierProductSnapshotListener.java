@@ -0,0 +1,54 @@
+package org.bsl.pricecomparison.service;
+
+import org.bson.Document;
+import org.bsl.pricecomparison.model.SupplierProduct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeDeleteEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * ✅ SupplierProduct đổi -> các dòng snapshot match theo code/mô tả + unit + currency bị stale.
+ * Cả trạng thái cũ (trước update / delete) lẫn mới đều được báo, vì đổi code/unit làm dòng cũ mất supplier.
+ */
+@Component
+public class SupplierProductSnapshotListener extends AbstractMongoEventListener<SupplierProduct> {
+
+    @Autowired
+    private ComparisonSnapshotService comparisonSnapshotService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Override
+    public void onBeforeConvert(BeforeConvertEvent<SupplierProduct> event) {
+        // update (có id) -> báo bản đang nằm trong DB; insert mới (import) thì không tốn thêm query
+        SupplierProduct product = event.getSource();
+        if (product != null && product.getId() != null) {
+            comparisonSnapshotService.onSupplierProductChanged(
+                    mongoTemplate.findById(product.getId(), SupplierProduct.class));
+        }
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<SupplierProduct> event) {
+        comparisonSnapshotService.onSupplierProductChanged(event.getSource());
+    }
+
+    @Override
+    public void onBeforeDelete(BeforeDeleteEvent<SupplierProduct> event) {
+        Document filter = event.getSource();
+        Object id = filter != null ? filter.get("_id") : null;
+        if (id instanceof Document) {
+            // deleteAll theo nhiều id / điều kiện -> không đọc từng bản, build lại hết
+            comparisonSnapshotService.markAllDirty();
+        } else if (id != null) {
+            comparisonSnapshotService.onSupplierProductChanged(mongoTemplate.findById(id, SupplierProduct.class));
+        } else {
+            comparisonSnapshotService.markAllDirty();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package org.bsl.pricecomparison.service;
+
+import org.bsl.pricecomparison.model.UploadRef;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * ⚡ Lưu file upload theo nội dung (SHA-256), chia thư mục con, đếm tham chiếu.
+ *
+ * - file: uploads/{h[0..2]}/{h[2..4]}/{sha256}{ext}, url vẫn là "/uploads/..." (WebMvcConfig map file:uploads/)
+ * - upload trùng nội dung => cùng 1 file, refs +1
+ * - release(url) => refs -1, về 0 mới xóa file => xóa ảnh ở 1 record không làm mất ảnh của record khác
+ * - url cũ (timestamp_tên gốc) không có UploadRef => xóa như trước;
+ *   file img_{sha256} phẳng (import Excel cũ) có thể dùng chung nhưng không có refs => giữ lại
+ * - store/release cùng 1 hash chạy tuần tự (khóa theo hash trong JVM)
+ */
+@Service
+public class UploadStorageService {
+
+    private static final Path DEFAULT_ROOT = Paths.get("uploads");
+    private static final String URL_PREFIX = "/uploads/";
+
+    private static final Set<String> ALLOWED_MIME =
+            Set.of("image/jpeg", "image/jpg", "image/png", "image/gif", "image/bmp", "image/webp");
+
+    private static final Pattern MANAGED = Pattern.compile("^[0-9a-f]{2}/[0-9a-f]{2}/[0-9a-f]{64}\\.[a-z0-9]+$");
+    private static final Pattern LEGACY_HASHED = Pattern.compile("^img_[0-9a-f]{64}\\.[a-z0-9]+$");
+
+    private static final int LOCK_STRIPES = 64;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final Path root;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    public UploadStorageService() {
+        this(DEFAULT_ROOT);
+    }
+
+    // test: thư mục tạm thay cho uploads/
+    UploadStorageService(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Lưu file upload (caller đã validate content type / size). null nếu file rỗng.
+     */
+    public String store(MultipartFile file) throws IOException {
+        if (file == null || file.isEmpty()) {
+            return null;
+        }
+        try (InputStream in = file.getInputStream()) {
+            return store(in, file.getContentType());
+        }
+    }
+
+    /**
+     * Stream thẳng xuống disk (không giữ byte[]), trả url "/uploads/...". null nếu rỗng / định dạng không hỗ trợ.
+     */
+    public String store(InputStream in, String mimeType) throws IOException {
+        return store(in, mimeType, 1);
+    }
+
+    /**
+     * @param refs số record sẽ giữ url này (vd. 1 ảnh Excel phủ nhiều row => mỗi row 1 tham chiếu)
+     */
+    public String store(InputStream in, String mimeType, int refs) throws IOException {
+        if (in == null || refs <= 0) return null;
+
+        if (mimeType == null || !ALLOWED_MIME.contains(mimeType)) {
+            System.err.println("Skipped unsupported format: " + mimeType);
+            return null;
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not available", e);
+        }
+
+        Files.createDirectories(root);
+        Path temp = Files.createTempFile(root, "upload_", ".part");
+        try {
+            long size;
+            try (DigestInputStream din = new DigestInputStream(in, digest)) {
+                size = Files.copy(din, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (size == 0) return null;
+
+            String hash = HexFormat.of().formatHex(digest.digest());
+            String relative = hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash + extension(mimeType);
+            Path target = root.resolve(relative);
+
+            synchronized (lockFor(relative)) {
+                mongoTemplate.upsert(
+                        Query.query(Criteria.where("_id").is(relative)),
+                        new Update()
+                                .inc("refs", refs)
+                                .setOnInsert("size", size)
+                                .setOnInsert("contentType", mimeType)
+                                .setOnInsert("createdAt", LocalDateTime.now()),
+                        UploadRef.class);
+                try {
+                    if (!Files.exists(target)) {
+                        Files.createDirectories(target.getParent());
+                        moveIntoPlace(temp, target);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    mongoTemplate.updateFirst(
+                            Query.query(Criteria.where("_id").is(relative)),
+                            new Update().inc("refs", -refs),
+                            UploadRef.class);
+                    throw e;
+                }
+            }
+            return URL_PREFIX + relative;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Bỏ 1 tham chiếu tới url (thay cho Files.delete ở các đường xóa ảnh). Không ném lỗi.
+     *
+     * @return true nếu file đã bị xóa khỏi disk
+     */
+    public boolean release(String url) {
+        if (url == null || !url.startsWith(URL_PREFIX)) return false;
+
+        String relative = url.substring(URL_PREFIX.length());
+        Path path = root.resolve(relative).normalize();
+        if (relative.isEmpty() || !path.startsWith(root)) return false;
+
+        try {
+            if (MANAGED.matcher(relative).matches()) {
+                synchronized (lockFor(relative)) {
+                    UploadRef ref = decrement(relative);
+                    if (ref == null || ref.getRefs() > 0) return false;
+
+                    boolean deleted = Files.deleteIfExists(path);
+                    mongoTemplate.remove(
+                            Query.query(Criteria.where("_id").is(relative).and("refs").lte(0)),
+                            UploadRef.class);
+                    return deleted;
+                }
+            }
+
+            if (LEGACY_HASHED.matcher(relative).matches()) {
+                return false;
+            }
+            return Files.deleteIfExists(path);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to release upload: " + url + ", error: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // =========================================================
+    // HELPERS
+    // =========================================================
+
+    private UploadRef decrement(String relative) {
+        return mongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(relative).and("refs").gt(0)),
+                new Update().inc("refs", -1),
+                FindAndModifyOptions.options().returnNew(true),
+                UploadRef.class);
+    }
+
+    private static void moveIntoPlace(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private Object lockFor(String relative) {
+        return locks[Math.floorMod(relative.hashCode(), LOCK_STRIPES)];
+    }
+
+    private static String extension(String mimeType) {
+        return switch (mimeType) {
+            case "image/jpeg", "image/jpg" -> ".jpg";
+            case "image/png" -> ".png";
+            case "image/gif" -> ".gif";
+            case "image/bmp" -> ".bmp";
+            case "image/webp" -> ".webp";
+            default -> ".png";
+        };
+    }
+}
@@ -0,0 +1,50 @@
+package org.bsl.pricecomparison.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.text.Normalizer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommonRequisitionUtilsTest {
+
+    @Test
+    void foldTextTreatsNfcAndNfdAlike() {
+        String nfc = Normalizer.normalize("Găng tay y tế", Normalizer.Form.NFC);
+        String nfd = Normalizer.normalize("Găng tay y tế", Normalizer.Form.NFD);
+
+        assertNotEquals(nfc, nfd);
+        assertEquals("gang tay y te", CommonRequisitionUtils.foldText(nfc));
+        assertEquals(CommonRequisitionUtils.foldText(nfc), CommonRequisitionUtils.foldText(nfd));
+    }
+
+    @Test
+    void foldTextMapsDStroke() {
+        assertEquals("den do", CommonRequisitionUtils.foldText("Đèn đỏ"));
+        assertEquals("dd", CommonRequisitionUtils.foldText("ĐĐ"));
+    }
+
+    @Test
+    void foldTextCollapsesWhitespace() {
+        assertEquals("gang tay", CommonRequisitionUtils.foldText("  GANG \t  TAY\n"));
+        assertNull(CommonRequisitionUtils.foldText("  \t "));
+        assertNull(CommonRequisitionUtils.foldText(null));
+    }
+
+    @Test
+    void descriptionKeyMatchesFoldedText() {
+        assertEquals("but bi xanh", CommonRequisitionUtils.descriptionKey(" Bút  bi XANH "));
+        assertEquals(CommonRequisitionUtils.descriptionKey("Bút bi"),
+                CommonRequisitionUtils.descriptionKey(Normalizer.normalize("BÚT BI", Normalizer.Form.NFD)));
+        assertNull(CommonRequisitionUtils.descriptionKey("   "));
+        assertNull(CommonRequisitionUtils.descriptionKey(null));
+    }
+
+    @Test
+    void descriptionKeyFallsBackWhenOnlyDiacritics() {
+        String marks = "́̀";
+
+        assertNull(CommonRequisitionUtils.foldText(marks));
+        assertEquals(marks, CommonRequisitionUtils.descriptionKey(marks));
+    }
+}
@@ -0,0 +1,223 @@
+package org.bsl.pricecomparison.common;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingSheetReaderTest {
+
+    @TempDir
+    static Path tempDir;
+
+    private static Path xlsx;
+
+    @BeforeAll
+    static void createWorkbook() throws IOException {
+        try (XSSFWorkbook wb = new XSSFWorkbook()) {
+            Sheet sheet = wb.createSheet("Data");
+
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("Mô tả");
+            header.createCell(1).setCellValue("SL");
+            header.createCell(2).setCellValue("Ngày");
+
+            CellStyle thousands = wb.createCellStyle();
+            thousands.setDataFormat(wb.createDataFormat().getFormat("#,##0"));
+            CellStyle date = wb.createCellStyle();
+            date.setDataFormat(wb.createDataFormat().getFormat("dd/mm/yyyy"));
+
+            Row r1 = sheet.createRow(1);
+            r1.createCell(0).setCellValue("Găng tay");
+            r1.createCell(1).setCellValue(1234567);
+            r1.getCell(1).setCellStyle(thousands);
+            r1.createCell(2).setCellValue(45292); // 01/01/2024
+            r1.getCell(2).setCellStyle(date);
+            r1.createCell(4).setCellFormula("B2*2");
+
+            // row 2 bỏ trống (không có trong XML)
+
+            Row r3 = sheet.createRow(3);
+            r3.createCell(0).setCellValue("Nhóm A");
+            r3.createCell(1).setCellValue(true);
+            sheet.createRow(4).createCell(1).setCellValue(5);
+            sheet.addMergedRegion(new CellRangeAddress(3, 4, 0, 0));
+
+            wb.getCreationHelper().createFormulaEvaluator().evaluateAll();
+
+            xlsx = tempDir.resolve("sheet.xlsx");
+            try (OutputStream out = Files.newOutputStream(xlsx)) {
+                wb.write(out);
+            }
+        }
+    }
+
+    @Test
+    void rowsSkipsMissingRowsAndStartsFromRow() throws IOException {
+        try (StreamingSheetReader reader = StreamingSheetReader.open(xlsx, false)) {
+            List<Integer> rowNums = new ArrayList<>();
+            for (StreamingSheetReader.SheetRow row : reader.rows(1)) {
+                rowNums.add(row.getRowNum());
+            }
+            assertEquals(List.of(1, 3, 4), rowNums);
+        }
+    }
+
+    @Test
+    void readRowsStopsAtUpperBound() throws IOException {
+        try (StreamingSheetReader reader = StreamingSheetReader.open(xlsx, false)) {
+            Map<Integer, StreamingSheetReader.SheetRow> rows = reader.readRows(0, 2);
+
+            assertEquals(List.of(0, 1), new ArrayList<>(rows.keySet()));
+            assertEquals("Mô tả", rows.get(0).getFormatted(0));
+            assertEquals(3, rows.get(0).getLastCellNum());
+        }
+    }
+
+    @Test
+    void formatsCellsLikeDataFormatter() throws IOException {
+        try (StreamingSheetReader reader = StreamingSheetReader.open(xlsx, false)) {
+            StreamingSheetReader.SheetRow row = reader.readRows(1, 2).get(1);
+
+            assertEquals("Găng tay", row.getCell(0).getStringValue());
+            assertEquals(CellType.STRING, row.getCell(0).getCellType());
+
+            assertEquals(CellType.NUMERIC, row.getCell(1).getCellType());
+            assertEquals(1234567d, row.getCell(1).getNumericValue());
+            assertEquals("1,234,567", row.getFormatted(1));
+
+            assertTrue(row.getCell(2).isDateFormatted());
+            assertEquals("01/01/2024", row.getFormatted(2));
+
+            assertNull(row.getCell(3));
+            assertEquals("", row.getFormatted(3));
+
+            assertTrue(row.getCell(4).isFormula());
+            assertEquals(2469134d, row.getCell(4).getNumericValue());
+            assertEquals(5, row.getLastCellNum());
+        }
+    }
+
+    @Test
+    void resolvesMergedCellsToTopLeft() throws IOException {
+        try (StreamingSheetReader reader = StreamingSheetReader.open(xlsx, true)) {
+            assertEquals(1, reader.getMergedRegions().size());
+
+            StreamingSheetReader.SheetRow row4 = null;
+            StreamingSheetReader.SheetRow row3 = null;
+            for (StreamingSheetReader.SheetRow row : reader.rows(3)) {
+                if (row.getRowNum() == 3) row3 = row;
+                if (row.getRowNum() == 4) row4 = row;
+            }
+
+            assertNotNull(row3);
+            assertNotNull(row4);
+            assertTrue(row3.getCell(1).getBooleanValue());
+            assertEquals("TRUE", row3.getFormatted(1));
+            assertNull(row4.getCell(0));
+            assertEquals("Nhóm A", row4.getMergedCell(0).getStringValue());
+            assertEquals(5d, row4.getMergedCell(1).getNumericValue());
+        }
+    }
+
+    @Test
+    void mergedCellsIgnoredWhenNotRequested() throws IOException {
+        try (StreamingSheetReader reader = StreamingSheetReader.open(xlsx, false)) {
+            StreamingSheetReader.SheetRow row4 = reader.readRows(4, 5).get(4);
+
+            assertNull(row4.getMergedCell(0));
+        }
+    }
+
+    @Test
+    void breakingOutOfRowsThenClosingReleasesTempFile() throws IOException {
+        MockMultipartFile upload = new MockMultipartFile("file", "sheet.xlsx", null, Files.readAllBytes(xlsx));
+        long before = countUploadTempFiles();
+
+        StreamingSheetReader reader = StreamingSheetReader.open(upload);
+        for (StreamingSheetReader.SheetRow row : reader.rows(0)) {
+            if (row.getRowNum() == 1) break;
+        }
+        assertEquals(before + 1, countUploadTempFiles());
+
+        reader.close();
+        assertEquals(before, countUploadTempFiles());
+    }
+
+    @Test
+    void rejectsNonXlsxUpload() {
+        MockMultipartFile upload = new MockMultipartFile("file", "bad.xlsx", null, new ByteArrayOutputStream().toByteArray());
+        long before = countUploadTempFiles();
+
+        assertThrows(Exception.class, () -> StreamingSheetReader.open(upload));
+        assertEquals(before, countUploadTempFiles());
+    }
+
+    @Test
+    void xlsFallbackReadsLegacyWorkbook() throws IOException {
+        byte[] xls;
+        try (HSSFWorkbook wb = new HSSFWorkbook(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            Sheet sheet = wb.createSheet("Data");
+            sheet.createRow(0).createCell(0).setCellValue("Header");
+            Row row = sheet.createRow(2);
+            row.createCell(0).setCellValue("Bút bi");
+            row.createCell(1).setCellValue(12);
+            row.createCell(2).setCellFormula("B3*3");
+            wb.getCreationHelper().createFormulaEvaluator().evaluateAll();
+            wb.write(out);
+            xls = out.toByteArray();
+        }
+        MockMultipartFile upload = new MockMultipartFile("file", "legacy.xls", null, xls);
+
+        assertThrows(Exception.class, () -> StreamingSheetReader.open(upload));
+
+        try (StreamingSheetReader reader = StreamingSheetReader.openWithXlsFallback(upload)) {
+            List<Integer> rowNums = new ArrayList<>();
+            for (StreamingSheetReader.SheetRow r : reader.rows(1)) rowNums.add(r.getRowNum());
+            assertEquals(List.of(2), rowNums);
+
+            StreamingSheetReader.SheetRow r = reader.readRows(0, 3).get(2);
+            assertEquals("Bút bi", r.getFormatted(0));
+            assertEquals("12", r.getFormatted(1));
+            assertTrue(r.getCell(2).isFormula());
+            assertEquals(36d, r.getCell(2).getNumericValue());
+            assertTrue(reader.getPictures().isEmpty());
+        }
+    }
+
+    @Test
+    void xlsFallbackKeepsStreamingForXlsx() throws IOException {
+        MockMultipartFile upload = new MockMultipartFile("file", "sheet.xlsx", null, Files.readAllBytes(xlsx));
+
+        try (StreamingSheetReader reader = StreamingSheetReader.openWithXlsFallback(upload)) {
+            assertNotNull(reader.getPackage());
+            assertEquals("Găng tay", reader.readRows(1, 2).get(1).getFormatted(0));
+        }
+    }
+
+    private static long countUploadTempFiles() {
+        try (var files = Files.list(Path.of(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(p -> p.getFileName().toString().startsWith("upload-")).count();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
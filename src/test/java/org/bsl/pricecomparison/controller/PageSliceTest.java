@@ -0,0 +1,67 @@
+package org.bsl.pricecomparison.controller;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageSliceTest {
+
+    @Test
+    void noSizeMeansNoPaging() {
+        assertNull(RequisitionMonthlyController.PageSlice.of(3, null, 100));
+    }
+
+    @Test
+    void slicesMiddleAndLastPage() {
+        RequisitionMonthlyController.PageSlice first = RequisitionMonthlyController.PageSlice.of(null, 10, 25);
+        assertEquals(0, first.page);
+        assertEquals(0, first.from);
+        assertEquals(10, first.to);
+        assertEquals(3, first.totalPages);
+
+        RequisitionMonthlyController.PageSlice last = RequisitionMonthlyController.PageSlice.of(2, 10, 25);
+        assertEquals(20, last.from);
+        assertEquals(25, last.to);
+        assertTrue(last.contains(24));
+        assertFalse(last.contains(25));
+        assertFalse(last.contains(19));
+    }
+
+    @Test
+    void pageBeyondEndIsEmpty() {
+        RequisitionMonthlyController.PageSlice slice = RequisitionMonthlyController.PageSlice.of(5, 10, 25);
+
+        assertEquals(25, slice.from);
+        assertEquals(25, slice.to);
+        assertFalse(slice.contains(24));
+    }
+
+    @Test
+    void clampsPageAndSize() {
+        RequisitionMonthlyController.PageSlice negative = RequisitionMonthlyController.PageSlice.of(-1, 0, 5);
+        assertEquals(0, negative.page);
+        assertEquals(1, negative.size);
+        assertEquals(5, negative.totalPages);
+
+        RequisitionMonthlyController.PageSlice huge = RequisitionMonthlyController.PageSlice.of(0, 50_000, 3000);
+        assertEquals(1000, huge.size);
+        assertEquals(3, huge.totalPages);
+    }
+
+    @Test
+    void largePageDoesNotOverflow() {
+        RequisitionMonthlyController.PageSlice slice = RequisitionMonthlyController.PageSlice.of(Integer.MAX_VALUE, 1000, 10);
+
+        assertEquals(10, slice.from);
+        assertEquals(10, slice.to);
+    }
+
+    @Test
+    void emptyListHasNoPages() {
+        RequisitionMonthlyController.PageSlice slice = RequisitionMonthlyController.PageSlice.of(0, 10, 0);
+
+        assertEquals(0, slice.totalPages);
+        assertEquals(0, slice.from);
+        assertEquals(0, slice.to);
+    }
+}
@@ -0,0 +1,23 @@
+package org.bsl.pricecomparison.enums;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MatchModeTest {
+
+    @Test
+    void parsesIgnoringCaseAndWhitespace() {
+        assertEquals(MatchMode.EXACT, MatchMode.from("exact", MatchMode.CONTAINS));
+        assertEquals(MatchMode.PREFIX, MatchMode.from(" Prefix ", MatchMode.CONTAINS));
+        assertEquals(MatchMode.CONTAINS, MatchMode.from("CONTAINS", MatchMode.EXACT));
+    }
+
+    @Test
+    void fallsBackOnMissingOrUnknownValue() {
+        assertEquals(MatchMode.CONTAINS, MatchMode.from(null, MatchMode.CONTAINS));
+        assertEquals(MatchMode.CONTAINS, MatchMode.from("  ", MatchMode.CONTAINS));
+        assertEquals(MatchMode.EXACT, MatchMode.from("fuzzy", MatchMode.EXACT));
+        assertNull(MatchMode.from("fuzzy", null));
+    }
+}
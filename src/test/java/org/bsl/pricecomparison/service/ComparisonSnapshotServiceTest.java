@@ -0,0 +1,149 @@
+package org.bsl.pricecomparison.service;
+
+import org.bson.Document;
+import org.bsl.pricecomparison.model.ComparisonSnapshot;
+import org.bsl.pricecomparison.model.SupplierProduct;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ComparisonSnapshotServiceTest {
+
+    private MongoTemplate mongo;
+    private ComparisonSnapshotService service;
+    private final List<ComparisonSnapshot> snapshots = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        mongo = mock(MongoTemplate.class);
+        when(mongo.find(any(Query.class), eq(ComparisonSnapshot.class))).thenReturn(snapshots);
+        service = new ComparisonSnapshotService();
+        ReflectionTestUtils.setField(service, "mongoTemplate", mongo);
+    }
+
+    @Test
+    void codeMatchIgnoresCaseAndWhitespaceButNeedsSameUnit() {
+        snapshots.add(snapshot("s1", "VND",
+                row("r1", "SAP", "abc-1", "cái"),
+                row("r2", "SAP", "abc-1", "hộp"),
+                row("r3", "HANA", "h-9", "cái"),
+                row("r4", "SAP", "abc-2", "cái")));
+
+        service.onSupplierProductChanged(supplier(" ABC-1 ", "H-9", null, null, "Cái ", "vnd"));
+        service.flushPending();
+
+        assertEquals(Map.of("s1", List.of("r1", "r3")), staleUpdates());
+    }
+
+    @Test
+    void descriptionMatchIsContains() {
+        snapshots.add(snapshot("s1", "VND",
+                row("r1", "VN", "gang tay y te", "doi"),
+                row("r2", "EN", "medical glove", "doi"),
+                row("r3", "VN", "khau trang", "doi")));
+
+        service.onSupplierProductChanged(supplier(null, null, "Gang tay y te size M", "Latex medical glove", "doi", "VND"));
+        service.flushPending();
+
+        assertEquals(Map.of("s1", List.of("r1", "r2")), staleUpdates());
+    }
+
+    @Test
+    void finalizedRowsAndOtherCurrenciesAreNotTouched() {
+        ComparisonSnapshot.Row finalized = row("r1", "SAP", "abc-1", "cai");
+        finalized.setFinalized(true);
+        snapshots.add(snapshot("s1", "VND", finalized, row("r2", "SAP", "abc-1", "cai")));
+        snapshots.add(snapshot("s2", "USD", row("r3", "SAP", "abc-1", "cai")));
+
+        service.onSupplierProductChanged(supplier("abc-1", null, null, null, "cai", "VND"));
+        service.flushPending();
+
+        assertEquals(Map.of("s1", List.of("r2")), staleUpdates());
+    }
+
+    @Test
+    void rowsWithoutMatchKeyOrSupplierWithoutCurrencyAreSkipped() {
+        snapshots.add(snapshot("s1", "VND", row("r1", null, null, "cai")));
+
+        service.onSupplierProductChanged(supplier("abc-1", null, null, null, "cai", null));
+        service.flushPending();
+        verify(mongo, never()).find(any(Query.class), eq(ComparisonSnapshot.class));
+
+        service.onSupplierProductChanged(supplier("abc-1", null, null, null, "cai", "VND"));
+        service.flushPending();
+        assertEquals(Map.of(), staleUpdates());
+    }
+
+    @Test
+    void tooManyPendingChangesMarkEverySnapshotDirty() {
+        snapshots.add(snapshot("s1", "VND", row("r1", "SAP", "abc-1", "cai")));
+
+        for (int i = 0; i <= 5000; i++) {
+            service.onSupplierProductChanged(supplier("code-" + i, null, null, null, "cai", "VND"));
+        }
+        service.flushPending();
+
+        ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongo).updateMulti(any(Query.class), update.capture(), eq(ComparisonSnapshot.class));
+        assertEquals(true, update.getValue().getUpdateObject().get("$set", Document.class).get("dirty"));
+        verify(mongo, never()).find(any(Query.class), eq(ComparisonSnapshot.class));
+    }
+
+    // snapshot id -> requisition id bị đánh dấu stale
+    private Map<String, List<Object>> staleUpdates() {
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongo, atLeast(0)).updateFirst(query.capture(), update.capture(), eq(ComparisonSnapshot.class));
+
+        Map<String, List<Object>> out = new HashMap<>();
+        for (int i = 0; i < query.getAllValues().size(); i++) {
+            Object each = update.getAllValues().get(i).getUpdateObject()
+                    .get("$addToSet", Document.class).get("staleRequisitionIds");
+            out.put(query.getAllValues().get(i).getQueryObject().getString("_id"),
+                    Arrays.asList((Object[]) ((Update.Modifier) each).getValue()));
+        }
+        return out;
+    }
+
+    private static ComparisonSnapshot snapshot(String id, String currency, ComparisonSnapshot.Row... rows) {
+        ComparisonSnapshot snapshot = new ComparisonSnapshot();
+        snapshot.setId(id);
+        snapshot.setCurrency(currency);
+        snapshot.setRows(new ArrayList<>(List.of(rows)));
+        return snapshot;
+    }
+
+    // giá trị đã chuẩn hoá như lúc build snapshot (code / mô tả / unit lowercase)
+    private static ComparisonSnapshot.Row row(String requisitionId, String mode, String value, String unit) {
+        ComparisonSnapshot.Row row = new ComparisonSnapshot.Row();
+        row.setRequisitionId(requisitionId);
+        row.setSupplierMatchMode(mode);
+        row.setSupplierMatchValue(value);
+        row.setSupplierUnit(unit);
+        return row;
+    }
+
+    private static SupplierProduct supplier(String sapCode, String hanaSapCode, String vn, String en,
+                                            String unit, String currency) {
+        SupplierProduct sp = new SupplierProduct();
+        sp.setSapCode(sapCode);
+        sp.setHanaSapCode(hanaSapCode);
+        sp.setItemDescriptionVN(vn);
+        sp.setItemDescriptionEN(en);
+        sp.setUnit(unit);
+        sp.setCurrency(currency);
+        return sp;
+    }
+}
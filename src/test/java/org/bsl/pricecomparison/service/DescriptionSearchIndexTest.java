@@ -0,0 +1,145 @@
+package org.bsl.pricecomparison.service;
+
+import org.bsl.pricecomparison.common.CommonRequisitionUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DescriptionSearchIndexTest {
+
+    private static DescriptionSearchIndex.TrigramIndex indexOf(String... idAndText) {
+        DescriptionSearchIndex.TrigramIndex index = new DescriptionSearchIndex.TrigramIndex();
+        for (int i = 0; i < idAndText.length; i += 2) {
+            index.put(idAndText[i], CommonRequisitionUtils.foldText(idAndText[i + 1]));
+        }
+        return index;
+    }
+
+    private static List<String> search(DescriptionSearchIndex.TrigramIndex index, String query) {
+        return index.search(CommonRequisitionUtils.foldText(query), DescriptionSearchIndex.MAX_HITS);
+    }
+
+    @Test
+    void matchesExactPrefixWordStartAndInfix() {
+        DescriptionSearchIndex.TrigramIndex index = indexOf(
+                "exact", "Găng tay",
+                "prefix", "Găng tay y tế",
+                "word", "Hộp găng tay",
+                "infix", "Bộ xgăng tay",
+                "other", "Khẩu trang");
+
+        List<String> ids = search(index, "gang tay");
+
+        assertEquals(List.of("exact", "prefix", "word", "infix"), ids);
+    }
+
+    @Test
+    void foldsQueryLikeIndexedText() {
+        DescriptionSearchIndex.TrigramIndex index = indexOf("1", "ĐÈN  PIN sạc");
+
+        assertEquals(List.of("1"), search(index, "den pin sac"));
+        assertEquals(List.of("1"), search(index, "Đèn Pin"));
+    }
+
+    @Test
+    void shortQueryScansAllTexts() {
+        DescriptionSearchIndex.TrigramIndex index = indexOf("1", "Bút bi", "2", "Giấy A4", "3", "Bút chì");
+
+        assertEquals(List.of("1", "3"), search(index, "bu"));
+        assertEquals(List.of("2"), search(index, "a4"));
+    }
+
+    @Test
+    void unknownTrigramReturnsEmptyList() {
+        DescriptionSearchIndex.TrigramIndex index = indexOf("1", "Bút bi");
+
+        assertEquals(List.of(), search(index, "xyz"));
+    }
+
+    @Test
+    void putReplacesPreviousText() {
+        DescriptionSearchIndex.TrigramIndex index = indexOf("1", "Bút bi");
+        index.put("1", CommonRequisitionUtils.foldText("Giấy in"));
+
+        assertEquals(List.of(), search(index, "but bi"));
+        assertEquals(List.of("1"), search(index, "giay in"));
+        assertEquals(1, index.live());
+    }
+
+    @Test
+    void removeTombstonesDocument() {
+        DescriptionSearchIndex.TrigramIndex index = indexOf("1", "Bút bi xanh", "2", "Bút bi đỏ");
+        index.remove("1");
+
+        assertEquals(List.of("2"), search(index, "but bi"));
+        assertEquals(1, index.live());
+        assertEquals(2, index.slots());
+    }
+
+    @Test
+    void compactsWhenTombstonesOutnumberLiveDocuments() {
+        DescriptionSearchIndex.TrigramIndex index = new DescriptionSearchIndex.TrigramIndex();
+        int total = 25_000;
+        for (int i = 0; i < total; i++) {
+            index.put("id" + i, "vat tu " + i);
+        }
+        for (int i = 0; i < 15_000; i++) {
+            index.remove("id" + i);
+        }
+
+        assertEquals(10_000, index.live());
+        assertTrue(index.slots() < total, "tombstones should have been compacted");
+        assertEquals(List.of(), index.search("vat tu 42", DescriptionSearchIndex.MAX_HITS));
+        assertEquals(List.of("id24999"), index.search("vat tu 24999", DescriptionSearchIndex.MAX_HITS));
+
+        // ordinal mới sau compact vẫn tìm được
+        index.put("new", "vat tu moi");
+        assertEquals(List.of("new"), index.search("tu moi", DescriptionSearchIndex.MAX_HITS));
+    }
+
+    @Test
+    void returnsNullWhenMoreThanMaxHits() {
+        DescriptionSearchIndex.TrigramIndex index = indexOf(
+                "1", "Bút bi", "2", "Bút bi xanh", "3", "Bút bi đỏ", "4", "Bút bi đen");
+
+        assertNull(index.search("but bi", 3));
+        assertEquals(4, index.search("but bi", 4).size());
+        assertNull(index.search("bu", 3));
+    }
+
+    @Test
+    void selectiveSearchOn100kDocumentsStaysUnder10ms() {
+        String[] words = {"găng", "tay", "khẩu", "trang", "bút", "bi", "giấy", "in", "đèn", "pin",
+                "ống", "tiêm", "băng", "gạc", "cồn", "y", "tế", "hộp", "chai", "túi"};
+        Random random = new Random(42);
+        DescriptionSearchIndex.TrigramIndex index = new DescriptionSearchIndex.TrigramIndex();
+        for (int i = 0; i < 100_000; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int w = 0; w < 4; w++) sb.append(words[random.nextInt(words.length)]).append(' ');
+            sb.append("ma").append(i);
+            index.put("id" + i, CommonRequisitionUtils.foldText(sb.toString()));
+        }
+
+        List<String> queries = List.of("ma12345", "gang tay khau", "ong tiem bang", "den pin ma9", "tui hop chai");
+        for (String q : queries) index.search(q, DescriptionSearchIndex.MAX_HITS);  // warm-up
+
+        List<Long> nanos = new ArrayList<>();
+        for (int round = 0; round < 20; round++) {
+            for (String q : queries) {
+                long start = System.nanoTime();
+                index.search(q, DescriptionSearchIndex.MAX_HITS);
+                nanos.add(System.nanoTime() - start);
+            }
+        }
+        long[] sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        long medianMs = sorted[sorted.length / 2] / 1_000_000;
+
+        assertEquals(List.of("id12345"), index.search("ma12345", DescriptionSearchIndex.MAX_HITS));
+        assertTrue(medianMs < 10, "median search took " + medianMs + " ms, timings " + Arrays.toString(sorted));
+    }
+}
@@ -0,0 +1,125 @@
+package org.bsl.pricecomparison.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImportJobServiceTest {
+
+    private final ImportJobService service = new ImportJobService();
+    private final MockMultipartFile file = new MockMultipartFile("file", "a.xlsx", null, new byte[]{1, 2, 3});
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void jobsOfSameGroupRunInSubmitOrder() throws Exception {
+        List<String> events = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+
+        String first = submit("g1", f -> {
+            events.add("start-1");
+            assertTrue(release.await(5, TimeUnit.SECONDS));
+            events.add("end-1");
+            return ResponseEntity.ok(Map.of("message", "1"));
+        });
+        String second = submit("g1", f -> {
+            events.add("start-2");
+            return ResponseEntity.ok(Map.of("message", "2"));
+        });
+
+        // group khác không phải đợi group g1
+        String other = submit("g2", f -> ResponseEntity.ok(Map.of("message", "other")));
+        awaitFinished(other);
+
+        assertEquals(ImportJobService.Status.RUNNING, service.getJob(first).getStatus());
+        assertEquals(ImportJobService.Status.QUEUED, service.getJob(second).getStatus());
+
+        release.countDown();
+        awaitFinished(second);
+
+        assertEquals(List.of("start-1", "end-1", "start-2"), events);
+        assertEquals(ImportJobService.Status.SUCCEEDED, service.getJob(first).getStatus());
+        assertEquals(ImportJobService.Status.SUCCEEDED, service.getJob(second).getStatus());
+    }
+
+    @Test
+    void failedJobDoesNotBlockNextJobOfGroup() throws Exception {
+        String failing = submit("g1", f -> {
+            throw new IllegalStateException("boom");
+        });
+        String rejected = submit("g1", f -> ResponseEntity.badRequest().body(Map.of("message", "bad file")));
+        String next = submit("g1", f -> ResponseEntity.ok(Map.of("message", "ok")));
+        awaitFinished(next);
+
+        ImportJobService.ImportJob failed = service.getJob(failing);
+        assertEquals(ImportJobService.Status.FAILED, failed.getStatus());
+        assertEquals(500, failed.getHttpStatus());
+        assertEquals("Import failed: boom", failed.getError());
+
+        assertEquals(ImportJobService.Status.FAILED, service.getJob(rejected).getStatus());
+        assertEquals("bad file", service.getJob(rejected).getError());
+        assertEquals(ImportJobService.Status.SUCCEEDED, service.getJob(next).getStatus());
+    }
+
+    @Test
+    void progressIsReportedToCurrentJobOnly() throws Exception {
+        String jobId = submit("g1", f -> {
+            ImportJobService.phase("WRITE");
+            ImportJobService.rowsRead(10);
+            ImportJobService.rowRead();
+            ImportJobService.rowsMerged(7);
+            ImportJobService.rowsWritten(5);
+            return ResponseEntity.ok(Map.of("message", "ok"));
+        });
+        awaitFinished(jobId);
+
+        ImportJobService.ImportJob job = service.getJob(jobId);
+        assertEquals(11, job.getRowsRead());
+        assertEquals(7, job.getRowsMerged());
+        assertEquals(5, job.getRowsWritten());
+        assertEquals("DONE", job.getPhase());
+
+        // ngoài job: no-op
+        ImportJobService.rowsRead(99);
+        assertEquals(11, service.getJob(jobId).getRowsRead());
+    }
+
+    @Test
+    void synchronousRunReturnsTaskResponseWithJobId() {
+        ResponseEntity<?> response = service.run("test", "g1", file, false,
+                f -> ResponseEntity.status(HttpStatus.CREATED).body(Map.of("message", "done")));
+
+        assertEquals(HttpStatus.CREATED, response.getStatusCode());
+        assertEquals(Map.of("message", "done"), response.getBody());
+        String jobId = response.getHeaders().getFirst("X-Import-Job-Id");
+        assertNotNull(jobId);
+        assertEquals(ImportJobService.Status.SUCCEEDED, service.getJob(jobId).getStatus());
+    }
+
+    private String submit(String group, ImportJobService.ImportTask task) {
+        ResponseEntity<?> response = service.run("test", group, file, true, task);
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        return (String) ((Map<?, ?>) response.getBody()).get("jobId");
+    }
+
+    private void awaitFinished(String jobId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (service.getJob(jobId).getFinishedAt() == null) {
+            assertTrue(System.currentTimeMillis() < deadline, "job " + jobId + " did not finish");
+            Thread.sleep(10);
+        }
+    }
+}
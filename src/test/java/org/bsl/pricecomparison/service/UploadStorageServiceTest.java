@@ -0,0 +1,182 @@
+package org.bsl.pricecomparison.service;
+
+import org.bson.Document;
+import org.bsl.pricecomparison.model.UploadRef;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class UploadStorageServiceTest {
+
+    @TempDir
+    Path root;
+
+    // upload_refs giả lập trong bộ nhớ: _id -> refs
+    private final Map<String, Long> refs = new HashMap<>();
+
+    private UploadStorageService storage;
+
+    @BeforeEach
+    void setUp() {
+        MongoTemplate mongo = mock(MongoTemplate.class);
+        when(mongo.upsert(any(Query.class), any(UpdateDefinition.class), eq(UploadRef.class))).thenAnswer(inv -> {
+            refs.merge(idOf(inv.getArgument(0)), inc(inv.getArgument(1)), Long::sum);
+            return null;
+        });
+        when(mongo.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(UploadRef.class))).thenAnswer(inv -> {
+            refs.computeIfPresent(idOf(inv.getArgument(0)), (k, v) -> v + inc(inv.getArgument(1)));
+            return null;
+        });
+        when(mongo.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+                eq(UploadRef.class))).thenAnswer(inv -> {
+            String id = idOf(inv.getArgument(0));
+            Long current = refs.get(id);
+            if (current == null || current <= 0) return null;
+            refs.put(id, current + inc(inv.getArgument(1)));
+            UploadRef ref = new UploadRef();
+            ref.setId(id);
+            ref.setRefs(refs.get(id));
+            return ref;
+        });
+        when(mongo.remove(any(Query.class), eq(UploadRef.class))).thenAnswer(inv -> {
+            refs.computeIfPresent(idOf(inv.getArgument(0)), (k, v) -> v <= 0 ? null : v);
+            return null;
+        });
+
+        storage = new UploadStorageService(root);
+        ReflectionTestUtils.setField(storage, "mongoTemplate", mongo);
+    }
+
+    @Test
+    void sameContentSharesOneFileAndCountsReferences() throws IOException {
+        String first = store("ảnh A", "image/png");
+        String second = store("ảnh A", "image/png");
+
+        assertEquals(first, second);
+        assertTrue(first.matches("/uploads/[0-9a-f]{2}/[0-9a-f]{2}/[0-9a-f]{64}\\.png"));
+        assertTrue(Files.exists(pathOf(first)));
+        assertEquals(2L, refs.get(relative(first)));
+        assertNoPartialFiles();
+    }
+
+    @Test
+    void fileIsDeletedOnlyWhenLastReferenceIsReleased() throws IOException {
+        String url = store("ảnh B", "image/jpeg");
+        store("ảnh B", "image/jpeg");
+
+        assertFalse(storage.release(url));
+        assertTrue(Files.exists(pathOf(url)));
+
+        assertTrue(storage.release(url));
+        assertFalse(Files.exists(pathOf(url)));
+        assertFalse(refs.containsKey(relative(url)));
+
+        // release thừa không làm gì
+        assertFalse(storage.release(url));
+    }
+
+    @Test
+    void storeWithMultipleRefsNeedsAsManyReleases() throws IOException {
+        String url = storage.store(stream("ảnh Excel"), "image/png", 3);
+
+        assertEquals(3L, refs.get(relative(url)));
+        assertFalse(storage.release(url));
+        assertFalse(storage.release(url));
+        assertTrue(storage.release(url));
+        assertFalse(Files.exists(pathOf(url)));
+    }
+
+    @Test
+    void differentContentGetsDifferentFiles() throws IOException {
+        String a = store("ảnh C", "image/png");
+        String b = store("ảnh D", "image/png");
+
+        assertNotEquals(a, b);
+        storage.release(a);
+        assertTrue(Files.exists(pathOf(b)));
+    }
+
+    @Test
+    void rejectsUnsupportedOrEmptyUploads() throws IOException {
+        assertNull(store("text", "text/plain"));
+        assertNull(storage.store(new ByteArrayInputStream(new byte[0]), "image/png"));
+        assertNull(storage.store(stream("x"), "image/png", 0));
+
+        assertTrue(refs.isEmpty());
+        assertNoPartialFiles();
+    }
+
+    @Test
+    void legacyUrlsAreHandledWithoutReferences() throws IOException {
+        Path timestamped = Files.writeString(root.resolve("1700000000000_photo.png"), "old");
+        Path sharedHashed = Files.writeString(root.resolve("img_" + "a".repeat(64) + ".png"), "old");
+
+        assertTrue(storage.release("/uploads/" + timestamped.getFileName()));
+        assertFalse(Files.exists(timestamped));
+
+        assertFalse(storage.release("/uploads/" + sharedHashed.getFileName()));
+        assertTrue(Files.exists(sharedHashed));
+    }
+
+    @Test
+    void ignoresUrlsOutsideUploads() throws IOException {
+        Path outside = Files.writeString(root.getParent().resolve(root.getFileName() + "-outside.png"), "x");
+        try {
+            assertFalse(storage.release("/uploads/../" + outside.getFileName()));
+            assertFalse(storage.release("/images/a.png"));
+            assertFalse(storage.release(null));
+            assertTrue(Files.exists(outside));
+        } finally {
+            Files.deleteIfExists(outside);
+        }
+    }
+
+    private String store(String content, String mimeType) throws IOException {
+        return storage.store(stream(content), mimeType);
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Path pathOf(String url) {
+        return root.resolve(relative(url));
+    }
+
+    private static String relative(String url) {
+        return url.substring("/uploads/".length());
+    }
+
+    private void assertNoPartialFiles() throws IOException {
+        try (var files = Files.list(root)) {
+            assertTrue(files.noneMatch(p -> p.getFileName().toString().endsWith(".part")));
+        }
+    }
+
+    private static String idOf(Query query) {
+        return query.getQueryObject().getString("_id");
+    }
+
+    private static long inc(UpdateDefinition update) {
+        return ((Number) update.getUpdateObject().get("$inc", Document.class).get("refs")).longValue();
+    }
+}